@@ -0,0 +1,72 @@
+//   AddBenchmark.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.infomatiq.jsi.Rectangle;
+
+/**
+ * Benchmark of add(). Each invocation adds a batch of entries to the tree,
+ * which are deleted again after the invocation, so that the size of the
+ * tree stays constant. The batch makes each invocation long compared with
+ * the overhead of the per invocation teardown, and the reported time is
+ * per entry.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddBenchmark extends TreeState {
+
+  private static final int BATCH = 1000;
+
+  private Rectangle[] extra;
+
+  @Override
+  protected void prepare() {
+    extra = extraRectangles(BATCH);
+  }
+
+  @TearDown(Level.Invocation)
+  public void deleteExtra() {
+    for (int i = 0; i < BATCH; i++) {
+      rtree.delete(extra[i], size + i);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public void add() {
+    for (int i = 0; i < BATCH; i++) {
+      rtree.add(extra[i], size + i);
+    }
+  }
+}
@@ -0,0 +1,96 @@
+//   DeleteBenchmark.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.infomatiq.jsi.Rectangle;
+
+/**
+ * Benchmark of delete() and deleteAll(). A batch of entries is added to
+ * the tree before each invocation, and the invocation deletes them again,
+ * so that the size of the tree stays constant. The batch makes each
+ * invocation long compared with the overhead of the per invocation setup,
+ * and the reported time is per entry.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeleteBenchmark extends TreeState {
+
+  private static final int BATCH = 1000;
+
+  private Rectangle[] extra;
+
+  // the same entries, as passed to deleteAll()
+  private float[] minX = new float[BATCH];
+  private float[] minY = new float[BATCH];
+  private float[] maxX = new float[BATCH];
+  private float[] maxY = new float[BATCH];
+  private int[] ids = new int[BATCH];
+
+  @Override
+  protected void prepare() {
+    extra = extraRectangles(BATCH);
+    for (int i = 0; i < BATCH; i++) {
+      minX[i] = extra[i].minX;
+      minY[i] = extra[i].minY;
+      maxX[i] = extra[i].maxX;
+      maxY[i] = extra[i].maxY;
+      ids[i] = size + i;
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void addExtra() {
+    for (int i = 0; i < BATCH; i++) {
+      rtree.add(extra[i], size + i);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public int delete() {
+    int deleted = 0;
+    for (int i = 0; i < BATCH; i++) {
+      if (rtree.delete(extra[i], size + i)) {
+        deleted++;
+      }
+    }
+    return deleted;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public int deleteAll() {
+    return rtree.deleteAll(minX, minY, maxX, maxY, ids);
+  }
+}
@@ -0,0 +1,206 @@
+//   Distribution.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.StringTokenizer;
+import java.util.function.Supplier;
+
+import com.infomatiq.jsi.Rectangle;
+
+/**
+ * The distributions of the rectangles that the benchmarks index. All of
+ * them cover a canvas of roughly CANVAS_SIZE by CANVAS_SIZE.
+ */
+public enum Distribution {
+
+  /**
+   * Small squares, uniformly distributed over the canvas.
+   */
+  UNIFORM {
+    @Override
+    Rectangle[] generate(int count, Random r) {
+      return generateEach(count, () -> {
+        float x = r.nextFloat() * CANVAS_SIZE;
+        float y = r.nextFloat() * CANVAS_SIZE;
+        float size = r.nextFloat() * 100;
+        return new Rectangle(x, y, x + size, y + size);
+      });
+    }
+  },
+
+  /**
+   * Small squares in a few dense clusters, as found in data of towns and
+   * cities.
+   */
+  CLUSTERED {
+    @Override
+    Rectangle[] generate(int count, Random r) {
+      float[] centers = new float[2 * CLUSTERS];
+      for (int i = 0; i < centers.length; i++) {
+        centers[i] = r.nextFloat() * CANVAS_SIZE;
+      }
+      Rectangle[] rects = new Rectangle[count];
+      for (int i = 0; i < count; i++) {
+        int cluster = r.nextInt(CLUSTERS);
+        float x = centers[2 * cluster] + (float) r.nextGaussian() * 1000;
+        float y = centers[2 * cluster + 1] + (float) r.nextGaussian() * 1000;
+        float size = r.nextFloat() * 100;
+        rects[i] = new Rectangle(x, y, x + size, y + size);
+      }
+      return rects;
+    }
+  },
+
+  /**
+   * Squares that become denser towards one corner of the canvas, and
+   * larger away from it.
+   */
+  SKEWED {
+    @Override
+    Rectangle[] generate(int count, Random r) {
+      return generateEach(count, () -> {
+        double u = r.nextDouble();
+        double v = r.nextDouble();
+        float x = (float) (u * u * u * u * CANVAS_SIZE);
+        float y = (float) (v * v * v * v * CANVAS_SIZE);
+        float size = (float) (r.nextDouble() * 10 * (1 + (u + v) * 50));
+        return new Rectangle(x, y, x + size, y + size);
+      });
+    }
+  },
+
+  /**
+   * Long thin boxes, either horizontal or vertical, like the bounding
+   * boxes of the road segments in OpenStreetMap data.
+   */
+  THIN {
+    @Override
+    Rectangle[] generate(int count, Random r) {
+      return generateEach(count, () -> {
+        float x = r.nextFloat() * CANVAS_SIZE;
+        float y = r.nextFloat() * CANVAS_SIZE;
+        float length = r.nextFloat() * 2000;
+        float width = r.nextFloat() * 10;
+        if (r.nextBoolean()) {
+          return new Rectangle(x, y, x + length, y + width);
+        }
+        return new Rectangle(x, y, x + width, y + length);
+      });
+    }
+  },
+
+  /**
+   * The first SIZE rectangles added by the test-allfunctions-SIZE-in test
+   * script, where SIZE is the number of rectangles. Scripts exist for 100,
+   * 1000, 10000 and 100000 rectangles.
+   */
+  SCRIPT {
+    @Override
+    Rectangle[] generate(int count, Random r) {
+      String name = "/test-inputs/test-allfunctions-" + count + "-in";
+      InputStream in = Distribution.class.getResourceAsStream(name);
+      if (in == null) {
+        throw new IllegalArgumentException("No test script for " + count
+            + " rectangles: " + name);
+      }
+      try {
+        return Arrays.copyOf(readScript(in), count);
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to read " + name, e);
+      }
+    }
+  };
+
+  static final float CANVAS_SIZE = 100000;
+
+  private static final int CLUSTERS = 20;
+
+  /**
+   * Generate count rectangles.
+   */
+  abstract Rectangle[] generate(int count, Random r);
+
+  /**
+   * Generate count rectangles, each independently of the others.
+   */
+  private static Rectangle[] generateEach(int count,
+      Supplier<Rectangle> next) {
+    Rectangle[] rects = new Rectangle[count];
+    for (int i = 0; i < count; i++) {
+      rects[i] = next.get();
+    }
+    return rects;
+  }
+
+  /**
+   * Read the rectangles that the addRandom operations of a test script
+   * add, in the same way as the Script class of the tests.
+   */
+  private static Rectangle[] readScript(InputStream in) throws IOException {
+    List<Rectangle> rects = new ArrayList<>();
+    Random random = new Random();
+    int quantizer = -1;
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(in))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        StringTokenizer st = new StringTokenizer(line);
+        if (line.startsWith("#") || !st.hasMoreTokens()) {
+          continue;
+        }
+        String operation = st.nextToken().toUpperCase();
+        if (operation.equals("DISTANCEQUANTIZER")) {
+          quantizer = Integer.parseInt(st.nextToken());
+        } else if (operation.equals("RANDOMIZE")) {
+          random.setSeed(Integer.parseInt(st.nextToken()));
+        } else if (operation.equals("ADDRANDOM")) {
+          int count = Integer.parseInt(st.nextToken());
+          st.nextToken(); // start id
+          float rectangleSize = Float.parseFloat(st.nextToken());
+          for (int i = 0; i < count; i++) {
+            float x1 = quantize(random.nextGaussian() * CANVAS_SIZE,
+                quantizer);
+            float y1 = quantize(random.nextGaussian() * CANVAS_SIZE,
+                quantizer);
+            float x2 = x1 + quantize(random.nextGaussian() * rectangleSize,
+                quantizer);
+            float y2 = y1 + quantize(random.nextGaussian() * rectangleSize,
+                quantizer);
+            rects.add(new Rectangle(x1, y1, x2, y2));
+          }
+        }
+      }
+    }
+    return rects.toArray(new Rectangle[rects.size()]);
+  }
+
+  private static float quantize(double d, int quantizer) {
+    if (quantizer <= 0) {
+      return (float) d;
+    }
+    return (float) (Math.round(d / quantizer) * quantizer);
+  }
+}
@@ -0,0 +1,225 @@
+//   QueryBenchmark.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.infomatiq.jsi.Point;
+import com.infomatiq.jsi.Rectangle;
+import com.infomatiq.jsi.rtree.NearestIterator;
+import com.infomatiq.jsi.rtree.QueryContext;
+import com.slimjars.dist.gnu.trove.list.array.TIntArrayList;
+import com.slimjars.dist.gnu.trove.procedure.TIntProcedure;
+
+/**
+ * Benchmarks of the queries of RTree. Each invocation runs one query, with
+ * the query windows and points taken in turn from a fixed set. The
+ * *Context benchmarks pass coordinates and a QueryContext, and should not
+ * allocate at all, which can be checked with the gc profiler:
+ * -Pjmh.prof=gc
+ * The *Cell benchmarks query cells of a grid over the whole tree, which
+ * contain many entries, as when drawing a heatmap or exporting a region.
+ * countCell is much faster with aggregate trees.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark extends TreeState {
+
+  private static final int QUERIES = 1024;
+  private static final int GRID = 16;
+
+  @Param({ "10" })
+  public int n;
+
+  private Rectangle[] windows;
+  private Point[] points;
+  private Rectangle[] cells;
+  private int next = 0;
+
+  private final Counter counter = new Counter();
+  private final QueryContext context = new QueryContext();
+  private int[] ids = new int[1024];
+  private final TIntArrayList idList = new TIntArrayList();
+
+  private static class Counter implements TIntProcedure {
+
+    int count;
+
+    @Override
+    public boolean execute(int id) {
+      count++;
+      return true;
+    }
+  }
+
+  @Override
+  protected void prepare() {
+    windows = new Rectangle[QUERIES];
+    points = new Point[QUERIES];
+    for (int i = 0; i < QUERIES; i++) {
+      windows[i] = randomWindow();
+      Rectangle window = randomWindow();
+      points[i] = new Point(window.minX, window.minY);
+    }
+
+    Rectangle bounds = rtree.getBounds();
+    float cellWidth = (bounds.maxX - bounds.minX) / GRID;
+    float cellHeight = (bounds.maxY - bounds.minY) / GRID;
+    cells = new Rectangle[GRID * GRID];
+    for (int i = 0; i < cells.length; i++) {
+      float minX = bounds.minX + (i % GRID) * cellWidth;
+      float minY = bounds.minY + (i / GRID) * cellHeight;
+      cells[i] = new Rectangle(minX, minY, minX + cellWidth,
+          minY + cellHeight);
+    }
+  }
+
+  private int nextQuery() {
+    next = (next + 1) & (QUERIES - 1);
+    return next;
+  }
+
+  @Benchmark
+  public int intersects() {
+    counter.count = 0;
+    rtree.intersects(windows[nextQuery()], counter);
+    return counter.count;
+  }
+
+  /**
+   * Collects the ids in an array, growing it if it was too small.
+   */
+  @Benchmark
+  public int intersectsArray() {
+    Rectangle r = windows[nextQuery()];
+    int count = rtree.intersects(r, ids, 0);
+    if (count > ids.length) {
+      ids = new int[2 * count];
+      count = rtree.intersects(r, ids, 0);
+    }
+    return count;
+  }
+
+  @Benchmark
+  public int intersectsList() {
+    idList.reset();
+    return rtree.intersects(windows[nextQuery()], idList);
+  }
+
+  @Benchmark
+  public long intersectsStream() {
+    return rtree.intersectsStream(windows[nextQuery()]).count();
+  }
+
+  @Benchmark
+  public int count() {
+    return rtree.count(windows[nextQuery()]);
+  }
+
+  @Benchmark
+  public int intersectsCell() {
+    counter.count = 0;
+    rtree.intersects(cells[nextQuery() & (GRID * GRID - 1)], counter);
+    return counter.count;
+  }
+
+  @Benchmark
+  public int countCell() {
+    return rtree.count(cells[nextQuery() & (GRID * GRID - 1)]);
+  }
+
+  @Benchmark
+  public int contains() {
+    counter.count = 0;
+    rtree.contains(windows[nextQuery()], counter);
+    return counter.count;
+  }
+
+  @Benchmark
+  public int nearest() {
+    counter.count = 0;
+    rtree.nearest(points[nextQuery()], counter, Float.POSITIVE_INFINITY);
+    return counter.count;
+  }
+
+  @Benchmark
+  public int nearestN() {
+    counter.count = 0;
+    rtree.nearestN(points[nextQuery()], counter, n, Float.POSITIVE_INFINITY);
+    return counter.count;
+  }
+
+  @Benchmark
+  public int nearestNUnsorted() {
+    counter.count = 0;
+    rtree.nearestNUnsorted(points[nextQuery()], counter, n,
+        Float.POSITIVE_INFINITY);
+    return counter.count;
+  }
+
+  @Benchmark
+  public int intersectsContext() {
+    counter.count = 0;
+    Rectangle r = windows[nextQuery()];
+    rtree.intersects(r.minX, r.minY, r.maxX, r.maxY, counter, context);
+    return counter.count;
+  }
+
+  @Benchmark
+  public int containsContext() {
+    counter.count = 0;
+    Rectangle r = windows[nextQuery()];
+    rtree.contains(r.minX, r.minY, r.maxX, r.maxY, counter, context);
+    return counter.count;
+  }
+
+  @Benchmark
+  public int nearestNContext() {
+    counter.count = 0;
+    Point p = points[nextQuery()];
+    rtree.nearestN(p.x, p.y, counter, n, Float.POSITIVE_INFINITY, context);
+    return counter.count;
+  }
+
+  /**
+   * Takes the first n entries from nearestIterator(), for comparison with
+   * nearestN().
+   */
+  @Benchmark
+  public int nearestIterator() {
+    NearestIterator it = rtree.nearestIterator(points[nextQuery()]);
+    int count = 0;
+    while (count < n && it.hasNext()) {
+      it.nextInt();
+      count++;
+    }
+    return count;
+  }
+}
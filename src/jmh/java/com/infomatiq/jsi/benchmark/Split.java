@@ -0,0 +1,68 @@
+//   Split.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.benchmark;
+
+import com.infomatiq.jsi.rtree.AngTanSplit;
+import com.infomatiq.jsi.rtree.GreeneSplit;
+import com.infomatiq.jsi.rtree.LinearSplit;
+import com.infomatiq.jsi.rtree.QuadraticSplit;
+import com.infomatiq.jsi.rtree.RStarSplit;
+import com.infomatiq.jsi.rtree.SplitStrategy;
+
+/**
+ * The split strategies that the benchmarks can build trees with.
+ */
+public enum Split {
+
+  LINEAR {
+    @Override
+    SplitStrategy create() {
+      return new LinearSplit();
+    }
+  },
+
+  QUADRATIC {
+    @Override
+    SplitStrategy create() {
+      return new QuadraticSplit();
+    }
+  },
+
+  ANG_TAN {
+    @Override
+    SplitStrategy create() {
+      return new AngTanSplit();
+    }
+  },
+
+  GREENE {
+    @Override
+    SplitStrategy create() {
+      return new GreeneSplit();
+    }
+  },
+
+  RSTAR {
+    @Override
+    SplitStrategy create() {
+      return new RStarSplit();
+    }
+  };
+
+  abstract SplitStrategy create();
+}
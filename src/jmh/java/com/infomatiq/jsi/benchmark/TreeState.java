@@ -0,0 +1,123 @@
+//   TreeState.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.benchmark;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.infomatiq.jsi.Rectangle;
+import com.infomatiq.jsi.rtree.RTree;
+
+/**
+ * The parameters shared by all benchmarks: the number of entries in the
+ * tree, the minimum and maximum number of entries per node, the
+ * distribution of the rectangles, the split strategy, and whether the tree
+ * is an aggregate tree. Only the default linear split is run unless others
+ * are selected, for example with
+ * -Pjmh.params=split=LINEAR,QUADRATIC,ANG_TAN,GREENE,RSTAR
+ * and aggregate trees with -Pjmh.params=aggregate=false,true
+ */
+@State(Scope.Benchmark)
+public abstract class TreeState {
+
+  @Param({ "1000", "100000" })
+  public int size;
+
+  @Param({ "5:10", "20:50" })
+  public String nodeEntries;
+
+  @Param({ "UNIFORM", "CLUSTERED", "SKEWED", "THIN", "SCRIPT" })
+  public Distribution distribution;
+
+  @Param({ "LINEAR" })
+  public Split split;
+
+  @Param({ "false" })
+  public boolean aggregate;
+
+  /**
+   * The rectangles of the entries of the tree; the id of each entry is
+   * its index.
+   */
+  protected Rectangle[] rects;
+
+  protected RTree rtree;
+
+  protected final Random random = new Random(0);
+
+  @Setup
+  public void setUpTree() {
+    rects = distribution.generate(size, random);
+    rtree = newTree();
+    for (int i = 0; i < rects.length; i++) {
+      rtree.add(rects[i], i);
+    }
+    prepare();
+  }
+
+  /**
+   * Called after the tree has been created, to prepare the data used by
+   * the benchmarks.
+   */
+  protected void prepare() {
+  }
+
+  protected RTree newTree() {
+    int separator = nodeEntries.indexOf(':');
+    int minNodeEntries = Integer.parseInt(nodeEntries.substring(0,
+        separator));
+    int maxNodeEntries = Integer.parseInt(nodeEntries.substring(
+        separator + 1));
+    return new RTree(minNodeEntries, maxNodeEntries, split.create(),
+        aggregate);
+  }
+
+  /**
+   * Returns a query window of about the same size as the entries, centered
+   * on a random entry, so that most queries have a few results.
+   */
+  protected Rectangle randomWindow() {
+    Rectangle rect = rects[random.nextInt(rects.length)];
+    float centerX = (rect.minX + rect.maxX) / 2;
+    float centerY = (rect.minY + rect.maxY) / 2;
+    float halfSize = Math.max(rect.maxX - rect.minX, rect.maxY - rect.minY)
+        + random.nextFloat() * 200;
+    return new Rectangle(centerX - halfSize, centerY - halfSize,
+        centerX + halfSize, centerY + halfSize);
+  }
+
+  /**
+   * Returns rectangles with the shapes of random entries, shifted so that
+   * they are not duplicates, to be added with ids starting at size.
+   */
+  protected Rectangle[] extraRectangles(int count) {
+    Rectangle[] extra = new Rectangle[count];
+    for (int i = 0; i < count; i++) {
+      Rectangle rect = rects[random.nextInt(rects.length)];
+      float dx = random.nextFloat() * 100;
+      float dy = random.nextFloat() * 100;
+      extra[i] = new Rectangle(rect.minX + dx, rect.minY + dy,
+          rect.maxX + dx, rect.maxY + dy);
+    }
+    return extra;
+  }
+}
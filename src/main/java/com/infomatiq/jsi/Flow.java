@@ -0,0 +1,91 @@
+//   Flow.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi;
+
+/**
+ * <p>The interfaces of java.util.concurrent.Flow, and of Reactive Streams,
+ * with the same methods and rules, for the queries that publish their
+ * results as subscribers request them, such as
+ * RTree.intersectsPublisher(). The library is built for Java 8, which
+ * does not have java.util.concurrent.Flow.</p>
+ *
+ * <p>When the library is built with a JDK 17, the jar also contains
+ * FlowAdapters, which converts these interfaces to those of
+ * java.util.concurrent.Flow and back, for use on Java 17 or later.</p>
+ */
+public final class Flow {
+
+  private Flow() {
+  }
+
+  /**
+   * Produces items for the subscribers that subscribe to it.
+   */
+  public interface Publisher<T> {
+
+    /**
+     * Add a subscriber, which is passed a new Subscription through
+     * onSubscribe().
+     */
+    public void subscribe(Subscriber<? super T> subscriber);
+  }
+
+  /**
+   * Receives the items of a Publisher, as many as it has requested.
+   */
+  public interface Subscriber<T> {
+
+    /**
+     * Called first, before any other method of the subscriber.
+     */
+    public void onSubscribe(Subscription subscription);
+
+    /**
+     * Called for each item, never more often than requested.
+     */
+    public void onNext(T item);
+
+    /**
+     * Called if the publisher fails. No more methods are called after it.
+     */
+    public void onError(Throwable throwable);
+
+    /**
+     * Called once all items have been passed to onNext(). No more methods
+     * are called after it.
+     */
+    public void onComplete();
+  }
+
+  /**
+   * Links a Publisher and one of its subscribers.
+   */
+  public interface Subscription {
+
+    /**
+     * Ask for up to n more items. n must be positive.
+     */
+    public void request(long n);
+
+    /**
+     * Stop receiving items. Some may still be passed to the subscriber if
+     * they are already being sent.
+     */
+    public void cancel();
+  }
+}
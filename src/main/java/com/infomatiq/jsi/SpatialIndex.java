@@ -129,6 +129,51 @@ public interface SpatialIndex {
    */
   public void contains(Rectangle r, TIntProcedure ip);
 
+  /**
+   * Runs intersects() for each of several rectangles. The i-th query
+   * rectangle is (minX[i], minY[i], maxX[i], maxY[i]).
+   *
+   * Implementations may run the queries together, for example by
+   * traversing the index once for all of them, so the results of
+   * different queries may be interleaved.
+   *
+   * @param v The procedure whose execute() method is called with the
+   *          index of the query and the id of each intersecting
+   *          rectangle. If it returns false, no further results of any
+   *          query are reported.
+   *
+   * @throws IllegalArgumentException if the arrays have different lengths
+   */
+  public default void intersectsBatch(float[] minX, float[] minY,
+      float[] maxX, float[] maxY, final BatchIntProcedure v) {
+    int count = minX.length;
+    if (minY.length != count || maxX.length != count
+        || maxY.length != count) {
+      throw new IllegalArgumentException(
+          "Query coordinate arrays must have the same length");
+    }
+
+    final boolean[] stopped = new boolean[1];
+    Rectangle r = new Rectangle();
+    for (int i = 0; i < count && !stopped[0]; i++) {
+      final int queryIndex = i;
+      r.minX = minX[i];
+      r.minY = minY[i];
+      r.maxX = maxX[i];
+      r.maxY = maxY[i];
+      intersects(r, new TIntProcedure() {
+        @Override
+        public boolean execute(int id) {
+          if (!v.execute(queryIndex, id)) {
+            stopped[0] = true;
+            return false;
+          }
+          return true;
+        }
+      });
+    }
+  }
+
   /**
    * Returns the number of entries in the spatial index
    */
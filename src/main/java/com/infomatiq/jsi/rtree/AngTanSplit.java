@@ -0,0 +1,130 @@
+//   AngTanSplit.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.rtree;
+
+import java.util.Arrays;
+
+/**
+ * <p>The linear split of Ang and Tan, "New linear node splitting algorithm
+ * for R-trees" (1997). Along each axis, every entry is put in the group of
+ * the side of the node that it is nearer to. The axis along which the two
+ * groups are most even in size is chosen, or, for equally even axes, the
+ * one along which the groups overlap least, then cover the least area.</p>
+ *
+ * <p>If a group has fewer than the minimum number of entries, the entries
+ * of the other group nearest to its side are moved to it.</p>
+ *
+ * <p>Like the default linear split this takes time linear in the number of
+ * entries, apart from sorting them, and tends to give nodes that overlap
+ * less, though of more elongated shapes.</p>
+ */
+public class AngTanSplit implements SplitStrategy {
+
+  // working storage, grown as needed
+  private long[] keysX = new long[0];
+  private long[] keysY = new long[0];
+
+  @Override
+  public SplitStrategy copy() {
+    return new AngTanSplit();
+  }
+
+  @Override
+  public void split(float[] minX, float[] minY, float[] maxX, float[] maxY,
+      int count, int minEntries, boolean[] second) {
+    if (keysX.length < count) {
+      keysX = new long[count];
+      keysY = new long[count];
+    }
+
+    int lowCountX = distribute(minX, maxX, count, minEntries, keysX);
+    int lowCountY = distribute(minY, maxY, count, minEntries, keysY);
+
+    int maxCountX = Math.max(lowCountX, count - lowCountX);
+    int maxCountY = Math.max(lowCountY, count - lowCountY);
+    boolean useX;
+    if (maxCountX != maxCountY) {
+      useX = maxCountX < maxCountY;
+    } else {
+      float[] costX = cost(minX, minY, maxX, maxY, count, keysX, lowCountX);
+      float[] costY = cost(minX, minY, maxX, maxY, count, keysY, lowCountY);
+      if (costX[0] != costY[0]) {
+        useX = costX[0] < costY[0];
+      } else {
+        useX = costX[1] <= costY[1];
+      }
+    }
+
+    long[] keys = useX ? keysX : keysY;
+    int lowCount = useX ? lowCountX : lowCountY;
+    for (int k = 0; k < count; k++) {
+      second[(int) keys[k]] = k >= lowCount;
+    }
+  }
+
+  /**
+   * Sort the entries by how much nearer they are to the low side of the
+   * node than to the high side along one axis, into keys, and return the
+   * number of entries in the low group: those nearer to the low side, but
+   * at least minEntries and at most count - minEntries.
+   */
+  private static int distribute(float[] lower, float[] upper, int count,
+      int minEntries, long[] keys) {
+    float low = Float.MAX_VALUE;
+    float high = -Float.MAX_VALUE;
+    for (int i = 0; i < count; i++) {
+      low = Math.min(low, lower[i]);
+      high = Math.max(high, upper[i]);
+    }
+    int lowCount = 0;
+    for (int i = 0; i < count; i++) {
+      float preference = (lower[i] - low) - (high - upper[i]);
+      if (preference < 0) {
+        lowCount++;
+      }
+      keys[i] = RTree.sortKey(preference, i);
+    }
+    Arrays.sort(keys, 0, count);
+    return Math.max(minEntries, Math.min(count - minEntries, lowCount));
+  }
+
+  /**
+   * Returns the area of the overlap of the two groups, and the sum of
+   * their areas.
+   */
+  private static float[] cost(float[] minX, float[] minY, float[] maxX,
+      float[] maxY, int count, long[] keys, int lowCount) {
+    float[] mbr = new float[] { Float.MAX_VALUE, Float.MAX_VALUE,
+        -Float.MAX_VALUE, -Float.MAX_VALUE, Float.MAX_VALUE,
+        Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+    for (int k = 0; k < count; k++) {
+      int i = (int) keys[k];
+      int m = k < lowCount ? 0 : 4;
+      mbr[m] = Math.min(mbr[m], minX[i]);
+      mbr[m + 1] = Math.min(mbr[m + 1], minY[i]);
+      mbr[m + 2] = Math.max(mbr[m + 2], maxX[i]);
+      mbr[m + 3] = Math.max(mbr[m + 3], maxY[i]);
+    }
+    float width = Math.min(mbr[2], mbr[6]) - Math.max(mbr[0], mbr[4]);
+    float height = Math.min(mbr[3], mbr[7]) - Math.max(mbr[1], mbr[5]);
+    float overlap = width > 0 && height > 0 ? width * height : 0;
+    float area = (mbr[2] - mbr[0]) * (mbr[3] - mbr[1])
+        + (mbr[6] - mbr[4]) * (mbr[7] - mbr[5]);
+    return new float[] { overlap, area };
+  }
+}
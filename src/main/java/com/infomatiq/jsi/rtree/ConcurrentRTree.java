@@ -0,0 +1,311 @@
+//   ConcurrentRTree.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.rtree;
+
+import java.util.concurrent.locks.StampedLock;
+
+import com.infomatiq.jsi.Point;
+import com.infomatiq.jsi.Rectangle;
+import com.infomatiq.jsi.SpatialIndex;
+import com.slimjars.dist.gnu.trove.list.array.TIntArrayList;
+import com.slimjars.dist.gnu.trove.procedure.TIntProcedure;
+
+/**
+ * <p>A thread safe SpatialIndex, backed by an RTree. Any number of threads
+ * may query the index while other threads add and delete entries.</p>
+ *
+ * <p>Writes are serialized by a StampedLock. Queries first run as an
+ * optimistic read, without taking any lock; only if a write happens during
+ * the query is it repeated while holding the read lock. Each thread keeps
+ * its own query working state, so readers never block each other.</p>
+ *
+ * <p>The results of a query are collected before any of them are passed to
+ * the TIntProcedure, and the procedure is called without holding any lock.
+ * Therefore each query sees a consistent state of the tree, and the
+ * procedure may itself add or delete entries. Note that returning false
+ * from the procedure stops the delivery of results, but not the query
+ * itself.</p>
+ */
+public class ConcurrentRTree implements SpatialIndex {
+
+  // query types
+  private static final int INTERSECTS = 0;
+  private static final int CONTAINS = 1;
+  private static final int NEAREST = 2;
+  private static final int NEAREST_N = 3;
+  private static final int NEAREST_N_UNSORTED = 4;
+
+  private final RTree rtree;
+  private final StampedLock lock = new StampedLock();
+
+  private final ThreadLocal<QueryContext> contexts =
+      new ThreadLocal<QueryContext>() {
+        @Override
+        protected QueryContext initialValue() {
+          return new QueryContext();
+        }
+      };
+
+  /**
+   * Constructor with default min and max nodes per entry.
+   */
+  public ConcurrentRTree() {
+    this(new RTree());
+  }
+
+  /**
+   * Constructor with min and max nodes per entry.
+   */
+  public ConcurrentRTree(int minNodeEntries, int maxNodeEntries) {
+    this(new RTree(minNodeEntries, maxNodeEntries));
+  }
+
+  /**
+   * Create a thread safe index containing the entries of an existing tree,
+   * for example one created by RTree.bulkLoad(). The tree must not be
+   * accessed other than through the new ConcurrentRTree afterwards.
+   */
+  public ConcurrentRTree(RTree rtree) {
+    this.rtree = rtree;
+  }
+
+  /**
+   * @see com.infomatiq.jsi.SpatialIndex#add(Rectangle, int)
+   */
+  @Override
+  public void add(Rectangle r, int id) {
+    long stamp = lock.writeLock();
+    try {
+      rtree.add(r, id);
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * @see com.infomatiq.jsi.SpatialIndex#delete(Rectangle, int)
+   */
+  @Override
+  public boolean delete(Rectangle r, int id) {
+    long stamp = lock.writeLock();
+    try {
+      return rtree.delete(r, id);
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * @see RTree#deleteAll(float[], float[], float[], float[], int[])
+   */
+  public int deleteAll(float[] minX, float[] minY, float[] maxX,
+      float[] maxY, int[] ids) {
+    long stamp = lock.writeLock();
+    try {
+      return rtree.deleteAll(minX, minY, maxX, maxY, ids);
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * @see RTree#updateAll(float[], float[], float[], float[], int[], float[], float[], float[], float[])
+   */
+  public int updateAll(float[] minX, float[] minY, float[] maxX,
+      float[] maxY, int[] ids, float[] newMinX, float[] newMinY,
+      float[] newMaxX, float[] newMaxY) {
+    long stamp = lock.writeLock();
+    try {
+      return rtree.updateAll(minX, minY, maxX, maxY, ids, newMinX, newMinY,
+          newMaxX, newMaxY);
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * @see RTree#compact()
+   */
+  public void compact() {
+    long stamp = lock.writeLock();
+    try {
+      rtree.compact();
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * @see com.infomatiq.jsi.SpatialIndex#nearest(Point, TIntProcedure, float)
+   */
+  @Override
+  public void nearest(Point p, TIntProcedure v, float furthestDistance) {
+    query(NEAREST, null, p, 0, furthestDistance, v);
+  }
+
+  /**
+   * @see com.infomatiq.jsi.SpatialIndex#nearestN(Point, TIntProcedure, int, float)
+   */
+  @Override
+  public void nearestN(Point p, TIntProcedure v, int n, float distance) {
+    query(NEAREST_N, null, p, n, distance, v);
+  }
+
+  /**
+   * @see com.infomatiq.jsi.SpatialIndex#nearestNUnsorted(Point, TIntProcedure, int, float)
+   */
+  @Override
+  public void nearestNUnsorted(Point p, TIntProcedure v, int n,
+      float distance) {
+    query(NEAREST_N_UNSORTED, null, p, n, distance, v);
+  }
+
+  /**
+   * @see com.infomatiq.jsi.SpatialIndex#intersects(Rectangle, TIntProcedure)
+   */
+  @Override
+  public void intersects(Rectangle r, TIntProcedure ip) {
+    query(INTERSECTS, r, null, 0, 0, ip);
+  }
+
+  /**
+   * @see com.infomatiq.jsi.SpatialIndex#contains(Rectangle, TIntProcedure)
+   */
+  @Override
+  public void contains(Rectangle r, TIntProcedure ip) {
+    query(CONTAINS, r, null, 0, 0, ip);
+  }
+
+  /**
+   * @see com.infomatiq.jsi.SpatialIndex#size()
+   */
+  @Override
+  public int size() {
+    long stamp = lock.tryOptimisticRead();
+    int size = rtree.size();
+    if (!lock.validate(stamp)) {
+      stamp = lock.readLock();
+      try {
+        size = rtree.size();
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+    return size;
+  }
+
+  /**
+   * @see com.infomatiq.jsi.SpatialIndex#getBounds()
+   */
+  @Override
+  public Rectangle getBounds() {
+    long stamp = lock.readLock();
+    try {
+      return rtree.getBounds();
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Run a query, first as an optimistic read and then, if that was
+   * invalidated by a write, while holding the read lock. The results
+   * are buffered, and passed to the procedure once the query is complete.
+   * A query made by the procedure gets a new context, as the results of
+   * this one are still in the context of the thread.
+   */
+  private void query(int type, Rectangle r, Point p, int count,
+      float distance, TIntProcedure v) {
+    QueryContext context = contexts.get();
+    if (context.inUse) {
+      context = new QueryContext();
+    }
+    context.inUse = true;
+    try {
+      query(type, r, p, count, distance, v, context);
+    } finally {
+      context.inUse = false;
+    }
+  }
+
+  private void query(int type, Rectangle r, Point p, int count,
+      float distance, TIntProcedure v, QueryContext context) {
+    TIntArrayList results = context.results;
+    results.reset();
+
+    boolean done = false;
+    long stamp = lock.tryOptimisticRead();
+    if (stamp != 0) {
+      context.startOptimisticRead(lock, stamp);
+      try {
+        run(type, r, p, count, distance, context);
+      } catch (RuntimeException e) {
+        // a concurrent write may leave nodes in an inconsistent
+        // state while they are being read, in which case the
+        // read is simply repeated. Otherwise it is a real error.
+        if (lock.validate(stamp)) {
+          throw e;
+        }
+      } finally {
+        context.endOptimisticRead();
+      }
+      done = lock.validate(stamp);
+    }
+
+    if (!done) {
+      results.reset();
+      stamp = lock.readLock();
+      try {
+        run(type, r, p, count, distance, context);
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+
+    for (int i = 0; i < results.size(); i++) {
+      if (!v.execute(results.get(i))) {
+        break;
+      }
+    }
+    results.reset();
+  }
+
+  private void run(int type, Rectangle r, Point p, int count,
+      float distance, QueryContext context) {
+    switch (type) {
+    case INTERSECTS:
+      rtree.intersects(r.minX, r.minY, r.maxX, r.maxY, context.collector,
+          context);
+      break;
+    case CONTAINS:
+      rtree.contains(r.minX, r.minY, r.maxX, r.maxY, context.collector,
+          context);
+      break;
+    case NEAREST:
+      rtree.nearest(p.x, p.y, context.collector, distance, context);
+      break;
+    case NEAREST_N:
+      rtree.nearestN(p.x, p.y, context.collector, count, distance, context);
+      break;
+    case NEAREST_N_UNSORTED:
+      rtree.nearestNUnsorted(p.x, p.y, context.collector, count, distance,
+          context);
+      break;
+    }
+  }
+}
@@ -0,0 +1,106 @@
+//   DistanceHeap.java
+//   Java Spatial Index Library
+//   Copyright (C) 2002-2005 Infomatiq Limited
+//   Copyright (C) 2008-2010 aled@sourceforge.net
+//  
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//  
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//  
+//  You should have received a copy of the GNU Lesser General Public
+
+package com.infomatiq.jsi.rtree;
+
+import java.util.Arrays;
+
+/**
+ * A heap of int values by double priority, with the greatest priority at
+ * the top, used by the nearestN() of the RTrees generated from the
+ * templates in src/template/java, whose distances are doubles. Like
+ * com.infomatiq.jsi.PriorityQueue, but holds the priorities as doubles,
+ * so that distances are compared without rounding.
+ */
+class DistanceHeap {
+
+  private int[] values = new int[10];
+  private double[] priorities = new double[10];
+  private int size = 0;
+
+  void reset() {
+    size = 0;
+  }
+
+  int size() {
+    return size;
+  }
+
+  void insert(int value, double priority) {
+    if (size == values.length) {
+      values = Arrays.copyOf(values, size * 2);
+      priorities = Arrays.copyOf(priorities, size * 2);
+    }
+    // move parents with lower priorities down until there is a place
+    int i = size++;
+    while (i > 0) {
+      int parent = (i - 1) / 2;
+      if (priorities[parent] >= priority) {
+        break;
+      }
+      values[i] = values[parent];
+      priorities[i] = priorities[parent];
+      i = parent;
+    }
+    values[i] = value;
+    priorities[i] = priority;
+  }
+
+  /**
+   * Returns the value with the greatest priority.
+   */
+  int getValue() {
+    return values[0];
+  }
+
+  /**
+   * Returns the greatest priority.
+   */
+  double getPriority() {
+    return priorities[0];
+  }
+
+  /**
+   * Removes the value with the greatest priority, and returns it.
+   */
+  int pop() {
+    int top = values[0];
+    size--;
+    int value = values[size];
+    double priority = priorities[size];
+    // move children with higher priorities up until there is a place
+    int i = 0;
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && priorities[child + 1] > priorities[child]) {
+        child++;
+      }
+      if (priorities[child] <= priority) {
+        break;
+      }
+      values[i] = values[child];
+      priorities[i] = priorities[child];
+      i = child;
+    }
+    values[i] = value;
+    priorities[i] = priority;
+    return top;
+  }
+}
@@ -0,0 +1,413 @@
+//   FlatRTree.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.rtree;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.infomatiq.jsi.Point;
+import com.infomatiq.jsi.Rectangle;
+import com.infomatiq.jsi.SpatialIndex;
+import com.slimjars.dist.gnu.trove.list.array.TIntArrayList;
+import com.slimjars.dist.gnu.trove.procedure.TIntProcedure;
+
+/**
+ * <p>A read-only copy of an RTree, packed into a single ByteBuffer.</p>
+ *
+ * <p>The nodes of the tree are numbered in breadth first order, so that
+ * the entries of all nodes can be stored one after the other, and the
+ * leaves are the nodes from firstLeafNode onwards. The buffer contains a
+ * header followed by these arrays:</p>
+ * <ul>
+ * <li>int nodeEntryStart[nodeCount + 1]: the index of the first entry of
+ * each node; the entries of node n are nodeEntryStart[n] (inclusive) to
+ * nodeEntryStart[n + 1] (exclusive)</li>
+ * <li>float entryMinX[entryCount], entryMinY, entryMaxX and entryMaxY:
+ * the rectangle of each entry</li>
+ * <li>int entryRef[entryCount]: for entries of leaf nodes, the id of the
+ * entry; otherwise the number of the child node</li>
+ * </ul>
+ *
+ * <p>This needs around 20 bytes per entry, no objects per node, and no
+ * hash lookups to find a child node. By default the buffer is allocated
+ * outside the Java heap.</p>
+ *
+ * <p>All queries may be called concurrently from any number of threads.
+ * add() and delete() are not supported.</p>
+ */
+public class FlatRTree implements SpatialIndex {
+
+  // header fields, as byte offsets from the start of the buffer
+  static final int HEADER_NODE_COUNT = 0;
+  static final int HEADER_ENTRY_COUNT = 4;
+  static final int HEADER_FIRST_LEAF_NODE = 8;
+  static final int HEADER_SIZE = 12;
+  static final int HEADER_LENGTH = 16;
+
+  private final ByteBuffer buffer;
+
+  private final int nodeCount;
+  private final int entryCount;
+  private final int firstLeafNode;
+  private final int size;
+
+  // byte offsets of the arrays
+  private final int nodeEntryStartOffset;
+  private final int entryMinXOffset;
+  private final int entryMinYOffset;
+  private final int entryMaxXOffset;
+  private final int entryMaxYOffset;
+  private final int entryRefOffset;
+
+  /**
+   * Create a copy of the passed tree, stored outside the Java heap. The
+   * new FlatRTree does not reference the RTree, which may be modified or
+   * discarded afterwards.
+   */
+  public FlatRTree(RTree rtree) {
+    this(rtree, true);
+  }
+
+  /**
+   * Create a copy of the passed tree.
+   *
+   * @param direct if true, the copy is stored in a direct ByteBuffer,
+   *        outside the Java heap; otherwise in a heap ByteBuffer.
+   */
+  public FlatRTree(RTree rtree, boolean direct) {
+    this(pack(rtree, direct));
+  }
+
+  /**
+   * Use the packed tree in the passed buffer, starting at position 0,
+   * which must have been created by pack().
+   */
+  FlatRTree(ByteBuffer buffer) {
+    this.buffer = buffer;
+    nodeCount = buffer.getInt(HEADER_NODE_COUNT);
+    entryCount = buffer.getInt(HEADER_ENTRY_COUNT);
+    firstLeafNode = buffer.getInt(HEADER_FIRST_LEAF_NODE);
+    size = buffer.getInt(HEADER_SIZE);
+
+    nodeEntryStartOffset = HEADER_LENGTH;
+    entryMinXOffset = nodeEntryStartOffset + 4 * (nodeCount + 1);
+    entryMinYOffset = entryMinXOffset + 4 * entryCount;
+    entryMaxXOffset = entryMinYOffset + 4 * entryCount;
+    entryMaxYOffset = entryMaxXOffset + 4 * entryCount;
+    entryRefOffset = entryMaxYOffset + 4 * entryCount;
+  }
+
+  /**
+   * @return the number of bytes needed to store a tree with the passed
+   *         number of nodes and entries.
+   */
+  static long byteLength(int nodeCount, int entryCount) {
+    return HEADER_LENGTH + 4L * (nodeCount + 1) + 20L * entryCount;
+  }
+
+  /**
+   * Write the passed tree into a new buffer, in the layout described
+   * above.
+   */
+  static ByteBuffer pack(RTree rtree, boolean direct) {
+    // count the nodes and entries
+    int nodeCount = 0;
+    int entryCount = 0;
+    TIntArrayList queue = new TIntArrayList();
+    queue.add(rtree.getRootNodeId());
+    for (int i = 0; i < queue.size(); i++) {
+      Node n = rtree.getNode(queue.get(i));
+      nodeCount++;
+      entryCount += n.entryCount;
+      if (!n.isLeaf()) {
+        for (int j = 0; j < n.entryCount; j++) {
+          queue.add(n.ids[j]);
+        }
+      }
+    }
+
+    long length = byteLength(nodeCount, entryCount);
+    if (length > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Tree too large for a FlatRTree: "
+          + length + " bytes");
+    }
+    ByteBuffer buffer = direct ? ByteBuffer.allocateDirect((int) length)
+        : ByteBuffer.allocate((int) length);
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+    int nodeEntryStartOffset = HEADER_LENGTH;
+    int entryMinXOffset = nodeEntryStartOffset + 4 * (nodeCount + 1);
+    int entryMinYOffset = entryMinXOffset + 4 * entryCount;
+    int entryMaxXOffset = entryMinYOffset + 4 * entryCount;
+    int entryMaxYOffset = entryMaxXOffset + 4 * entryCount;
+    int entryRefOffset = entryMaxYOffset + 4 * entryCount;
+
+    // Nodes are numbered in the order they are queued, which is the same
+    // order in which they are written, so the number of each child node
+    // is known when its parent is written.
+    int firstLeafNode = -1;
+    int entry = 0;
+    int nextChild = 1;
+    for (int node = 0; node < nodeCount; node++) {
+      Node n = rtree.getNode(queue.get(node));
+      if (n.isLeaf() && firstLeafNode == -1) {
+        firstLeafNode = node;
+      }
+      buffer.putInt(nodeEntryStartOffset + 4 * node, entry);
+      for (int j = 0; j < n.entryCount; j++, entry++) {
+        buffer.putFloat(entryMinXOffset + 4 * entry, n.entriesMinX[j]);
+        buffer.putFloat(entryMinYOffset + 4 * entry, n.entriesMinY[j]);
+        buffer.putFloat(entryMaxXOffset + 4 * entry, n.entriesMaxX[j]);
+        buffer.putFloat(entryMaxYOffset + 4 * entry, n.entriesMaxY[j]);
+        buffer.putInt(entryRefOffset + 4 * entry,
+            n.isLeaf() ? n.ids[j] : nextChild++);
+      }
+    }
+    buffer.putInt(nodeEntryStartOffset + 4 * nodeCount, entry);
+
+    buffer.putInt(HEADER_NODE_COUNT, nodeCount);
+    buffer.putInt(HEADER_ENTRY_COUNT, entryCount);
+    buffer.putInt(HEADER_FIRST_LEAF_NODE, firstLeafNode);
+    buffer.putInt(HEADER_SIZE, rtree.size());
+    return buffer;
+  }
+
+  /**
+   * @return the buffer containing the tree
+   */
+  ByteBuffer buffer() {
+    return buffer;
+  }
+
+  /**
+   * @return the number of bytes used to store the tree
+   */
+  public int getByteLength() {
+    return (int) byteLength(nodeCount, entryCount);
+  }
+
+  /**
+   * Not supported, as a FlatRTree cannot be modified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public void add(Rectangle r, int id) {
+    throw new UnsupportedOperationException("FlatRTree is read-only");
+  }
+
+  /**
+   * Not supported, as a FlatRTree cannot be modified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public boolean delete(Rectangle r, int id) {
+    throw new UnsupportedOperationException("FlatRTree is read-only");
+  }
+
+  /**
+   * @see com.infomatiq.jsi.SpatialIndex#nearest(Point, TIntProcedure, float)
+   */
+  @Override
+  public void nearest(Point p, TIntProcedure v, float furthestDistance) {
+    TIntArrayList nearestIds = new TIntArrayList();
+    nearest(p, 0, furthestDistance * furthestDistance, nearestIds);
+    nearestIds.forEach(v);
+  }
+
+  /**
+   * @see com.infomatiq.jsi.SpatialIndex#nearestNUnsorted(Point, TIntProcedure, int, float)
+   */
+  @Override
+  public void nearestNUnsorted(Point p, TIntProcedure v, int count,
+      float furthestDistance) {
+    createNearestNSearch(p, count, furthestDistance).deliver(v, false);
+  }
+
+  /**
+   * @see com.infomatiq.jsi.SpatialIndex#nearestN(Point, TIntProcedure, int, float)
+   */
+  @Override
+  public void nearestN(Point p, TIntProcedure v, int count,
+      float furthestDistance) {
+    createNearestNSearch(p, count, furthestDistance).deliver(v, true);
+  }
+
+  /**
+   * @see com.infomatiq.jsi.SpatialIndex#intersects(Rectangle, TIntProcedure)
+   */
+  @Override
+  public void intersects(Rectangle r, TIntProcedure v) {
+    intersects(r, v, 0);
+  }
+
+  /**
+   * @see com.infomatiq.jsi.SpatialIndex#contains(Rectangle, TIntProcedure)
+   */
+  @Override
+  public void contains(Rectangle r, TIntProcedure v) {
+    contains(r, v, 0);
+  }
+
+  /**
+   * @see com.infomatiq.jsi.SpatialIndex#size()
+   */
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @see com.infomatiq.jsi.SpatialIndex#getBounds()
+   */
+  @Override
+  public Rectangle getBounds() {
+    int end = entryStart(1);
+    if (end == 0) {
+      return null;
+    }
+    Rectangle bounds = new Rectangle(minX(0), minY(0), maxX(0), maxY(0));
+    for (int i = 1; i < end; i++) {
+      bounds.add(new Rectangle(minX(i), minY(i), maxX(i), maxY(i)));
+    }
+    return bounds;
+  }
+
+  private int entryStart(int node) {
+    return buffer.getInt(nodeEntryStartOffset + (node << 2));
+  }
+
+  private float minX(int entry) {
+    return buffer.getFloat(entryMinXOffset + (entry << 2));
+  }
+
+  private float minY(int entry) {
+    return buffer.getFloat(entryMinYOffset + (entry << 2));
+  }
+
+  private float maxX(int entry) {
+    return buffer.getFloat(entryMaxXOffset + (entry << 2));
+  }
+
+  private float maxY(int entry) {
+    return buffer.getFloat(entryMaxYOffset + (entry << 2));
+  }
+
+  private int ref(int entry) {
+    return buffer.getInt(entryRefOffset + (entry << 2));
+  }
+
+  private float distanceSq(int entry, Point p) {
+    return Rectangle.distanceSq(minX(entry), minY(entry), maxX(entry),
+        maxY(entry), p.x, p.y);
+  }
+
+  /**
+   * Recursively searches the tree for the nearest entry, storing the ids
+   * of the nearest entries found so far in nearestIds.
+   */
+  private float nearest(Point p, int node, float furthestDistanceSq,
+      TIntArrayList nearestIds) {
+    boolean leaf = node >= firstLeafNode;
+    int end = entryStart(node + 1);
+    for (int i = entryStart(node); i < end; i++) {
+      float tempDistanceSq = distanceSq(i, p);
+      if (leaf) {
+        if (tempDistanceSq < furthestDistanceSq) {
+          furthestDistanceSq = tempDistanceSq;
+          nearestIds.reset();
+        }
+        if (tempDistanceSq <= furthestDistanceSq) {
+          nearestIds.add(ref(i));
+        }
+      } else if (tempDistanceSq <= furthestDistanceSq) {
+        furthestDistanceSq = nearest(p, ref(i), furthestDistanceSq,
+            nearestIds);
+      }
+    }
+    return furthestDistanceSq;
+  }
+
+  private NearestNSearch createNearestNSearch(Point p, int count,
+      float furthestDistance) {
+    NearestNSearch search = new NearestNSearch(count, furthestDistance);
+    if (count > 0) {
+      nearestN(p, 0, search);
+    }
+    return search;
+  }
+
+  private void nearestN(Point p, int node, NearestNSearch search) {
+    boolean leaf = node >= firstLeafNode;
+    int end = entryStart(node + 1);
+    for (int i = entryStart(node); i < end; i++) {
+      float distanceSq = distanceSq(i, p);
+      if (leaf) {
+        search.offer(ref(i), distanceSq);
+      } else if (distanceSq <= search.furthestDistanceSq) {
+        nearestN(p, ref(i), search);
+      }
+    }
+  }
+
+  /**
+   * Recursively searches the tree for all intersecting entries.
+   */
+  private boolean intersects(Rectangle r, TIntProcedure v, int node) {
+    boolean leaf = node >= firstLeafNode;
+    int end = entryStart(node + 1);
+    for (int i = entryStart(node); i < end; i++) {
+      if (Rectangle.intersects(r.minX, r.minY, r.maxX, r.maxY,
+          minX(i), minY(i), maxX(i), maxY(i))) {
+        if (leaf) {
+          if (!v.execute(ref(i))) {
+            return false;
+          }
+        } else if (!intersects(r, v, ref(i))) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Recursively searches the tree for all contained entries.
+   */
+  private boolean contains(Rectangle r, TIntProcedure v, int node) {
+    boolean leaf = node >= firstLeafNode;
+    int end = entryStart(node + 1);
+    for (int i = entryStart(node); i < end; i++) {
+      if (leaf) {
+        if (Rectangle.contains(r.minX, r.minY, r.maxX, r.maxY,
+            minX(i), minY(i), maxX(i), maxY(i))) {
+          if (!v.execute(ref(i))) {
+            return false;
+          }
+        }
+      } else if (Rectangle.intersects(r.minX, r.minY, r.maxX, r.maxY,
+          minX(i), minY(i), maxX(i), maxY(i))) {
+        if (!contains(r, v, ref(i))) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,150 @@
+//   FlatRTreeFile.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.rtree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>Reads and writes FlatRTrees as files. A file is opened by mapping it
+ * into memory, and queries read the tree directly from the mapped pages,
+ * so opening a file takes constant time regardless of the size of the
+ * tree, and several processes that open the same file share one copy of
+ * it in the operating system's page cache.</p>
+ *
+ * <p>The file consists of a header, followed by the tree in the layout
+ * described by FlatRTree. All values are little endian. The header
+ * is:</p>
+ * <ul>
+ * <li>int magic number, 0x5249534A ("JSIR" as little endian bytes)</li>
+ * <li>int format version, currently 1</li>
+ * <li>int length of the header in bytes, currently 32</li>
+ * <li>int reserved, 0</li>
+ * <li>long length of the tree in bytes</li>
+ * <li>long reserved, 0</li>
+ * </ul>
+ *
+ * <p>Readers reject files with a higher format version than they support.
+ * The header length allows later versions to add fields to the header
+ * without breaking older readers.</p>
+ */
+public class FlatRTreeFile {
+
+  public static final int MAGIC = 0x5249534A;
+  public static final int VERSION = 1;
+
+  private static final int HEADER_LENGTH = 32;
+
+  private FlatRTreeFile() {
+  }
+
+  /**
+   * Write a tree to a file, replacing the file if it exists.
+   */
+  public static void write(RTree rtree, Path file) throws IOException {
+    write(new FlatRTree(rtree, false), file);
+  }
+
+  /**
+   * Write a tree to a file, replacing the file if it exists.
+   */
+  public static void write(FlatRTree tree, Path file) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+    header.order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(MAGIC);
+    header.putInt(VERSION);
+    header.putInt(HEADER_LENGTH);
+    header.putInt(0);
+    header.putLong(tree.getByteLength());
+    header.putLong(0);
+    header.flip();
+
+    ByteBuffer data = tree.buffer().duplicate();
+    data.clear();
+    data.limit(tree.getByteLength());
+
+    try (FileChannel channel = FileChannel.open(file,
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      while (header.hasRemaining()) {
+        channel.write(header);
+      }
+      while (data.hasRemaining()) {
+        channel.write(data);
+      }
+    }
+  }
+
+  /**
+   * Open a tree that was written by write(), by mapping the file into
+   * memory. The file must not be modified while the tree is in use.
+   *
+   * @throws IOException if the file cannot be read, or is not a valid
+   *         tree file of a supported version.
+   */
+  public static FlatRTree open(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file,
+        StandardOpenOption.READ)) {
+      long fileLength = channel.size();
+      if (fileLength < HEADER_LENGTH) {
+        throw new IOException("Not an RTree file: " + file);
+      }
+      if (fileLength > Integer.MAX_VALUE) {
+        throw new IOException("RTree file too large to map: " + file);
+      }
+
+      // the mapping remains valid after the channel is closed
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+          0, fileLength);
+      mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+      if (mapped.getInt(0) != MAGIC) {
+        throw new IOException("Not an RTree file: " + file);
+      }
+      int version = mapped.getInt(4);
+      if (version < 1 || version > VERSION) {
+        throw new IOException("Unsupported RTree file version " + version
+            + ": " + file);
+      }
+      int headerLength = mapped.getInt(8);
+      long dataLength = mapped.getLong(16);
+      if (headerLength < HEADER_LENGTH || dataLength < FlatRTree.HEADER_LENGTH
+          || headerLength + dataLength > fileLength) {
+        throw new IOException("Truncated or corrupt RTree file: " + file);
+      }
+
+      mapped.position(headerLength);
+      mapped.limit((int) (headerLength + dataLength));
+      ByteBuffer data = mapped.slice();
+      data.order(ByteOrder.LITTLE_ENDIAN);
+
+      int nodeCount = data.getInt(FlatRTree.HEADER_NODE_COUNT);
+      int entryCount = data.getInt(FlatRTree.HEADER_ENTRY_COUNT);
+      if (nodeCount < 1 || entryCount < 0
+          || FlatRTree.byteLength(nodeCount, entryCount) != dataLength) {
+        throw new IOException("Truncated or corrupt RTree file: " + file);
+      }
+      return new FlatRTree(data);
+    }
+  }
+}
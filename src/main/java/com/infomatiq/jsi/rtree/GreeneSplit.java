@@ -0,0 +1,127 @@
+//   GreeneSplit.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.rtree;
+
+import java.util.Arrays;
+
+import com.infomatiq.jsi.Rectangle;
+
+/**
+ * <p>The split of Greene, "An implementation and performance analysis of
+ * spatial data access methods" (1989). The seeds are picked as by the
+ * quadratic split, and the axis along which they are furthest apart,
+ * relative to the extent of all the entries, is chosen. The entries are
+ * sorted by their low side along that axis, and the first half go in one
+ * group and the second half in the other; if the number of entries is
+ * odd, the middle entry goes in the group that it enlarges least.</p>
+ *
+ * <p>Always gives groups of equal size, so the nodes are fuller than with
+ * the Guttman splits.</p>
+ */
+public class GreeneSplit implements SplitStrategy {
+
+  // working storage, grown as needed
+  private long[] keys = new long[0];
+  private final int[] seeds = new int[2];
+
+  @Override
+  public SplitStrategy copy() {
+    return new GreeneSplit();
+  }
+
+  @Override
+  public void split(float[] minX, float[] minY, float[] maxX, float[] maxY,
+      int count, int minEntries, boolean[] second) {
+    if (keys.length < count) {
+      keys = new long[count];
+    }
+
+    // ChooseAxis
+    QuadraticSplit.pickQuadraticSeeds(minX, minY, maxX, maxY, count, seeds);
+    boolean useX = separation(minX, maxX, count, seeds)
+        >= separation(minY, maxY, count, seeds);
+    float[] lower = useX ? minX : minY;
+
+    // Distribute
+    for (int i = 0; i < count; i++) {
+      keys[i] = RTree.sortKey(lower[i], i);
+    }
+    Arrays.sort(keys, 0, count);
+    int half = count / 2;
+    for (int k = 0; k < half; k++) {
+      second[(int) keys[k]] = false;
+      second[(int) keys[count - 1 - k]] = true;
+    }
+    if (count % 2 == 1) {
+      second[(int) keys[half]] = secondIsBetter(minX, minY, maxX, maxY,
+          count, half);
+    }
+  }
+
+  /**
+   * The separation of the seeds along an axis, divided by the extent of
+   * all the entries along that axis.
+   */
+  private static float separation(float[] lower, float[] upper, int count,
+      int[] seeds) {
+    float low = Float.MAX_VALUE;
+    float high = -Float.MAX_VALUE;
+    for (int i = 0; i < count; i++) {
+      low = Math.min(low, lower[i]);
+      high = Math.max(high, upper[i]);
+    }
+    if (high == low) {
+      return 0;
+    }
+    float separation = Math.max(lower[seeds[0]], lower[seeds[1]])
+        - Math.min(upper[seeds[0]], upper[seeds[1]]);
+    return separation / (high - low);
+  }
+
+  /**
+   * Whether the middle entry enlarges the second group less than the
+   * first, or, for equal enlargements, the second group is smaller.
+   */
+  private boolean secondIsBetter(float[] minX, float[] minY, float[] maxX,
+      float[] maxY, int count, int middle) {
+    float[] mbr = new float[] { Float.MAX_VALUE, Float.MAX_VALUE,
+        -Float.MAX_VALUE, -Float.MAX_VALUE, Float.MAX_VALUE,
+        Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+    for (int k = 0; k < count; k++) {
+      if (k == middle) {
+        continue;
+      }
+      int i = (int) keys[k];
+      int m = k < middle ? 0 : 4;
+      mbr[m] = Math.min(mbr[m], minX[i]);
+      mbr[m + 1] = Math.min(mbr[m + 1], minY[i]);
+      mbr[m + 2] = Math.max(mbr[m + 2], maxX[i]);
+      mbr[m + 3] = Math.max(mbr[m + 3], maxY[i]);
+    }
+    int e = (int) keys[middle];
+    float increase0 = Rectangle.enlargement(mbr[0], mbr[1], mbr[2], mbr[3],
+        minX[e], minY[e], maxX[e], maxY[e]);
+    float increase1 = Rectangle.enlargement(mbr[4], mbr[5], mbr[6], mbr[7],
+        minX[e], minY[e], maxX[e], maxY[e]);
+    if (increase0 != increase1) {
+      return increase1 < increase0;
+    }
+    return Rectangle.area(mbr[4], mbr[5], mbr[6], mbr[7])
+        < Rectangle.area(mbr[0], mbr[1], mbr[2], mbr[3]);
+  }
+}
@@ -0,0 +1,125 @@
+//   GuttmanSplit.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.rtree;
+
+import java.util.Arrays;
+
+import com.infomatiq.jsi.Rectangle;
+
+/**
+ * The splits of Guttman's paper, "R-trees: a dynamic index structure for
+ * spatial searching" (1984), which differ only in how the first entry of
+ * each group, the seed, is picked. The remaining entries are then assigned
+ * one at a time, each time choosing the entry with the greatest preference
+ * for one group over the other.
+ */
+abstract class GuttmanSplit implements SplitStrategy {
+
+  // working storage, grown as needed
+  private boolean[] assigned = new boolean[0];
+  private final int[] seeds = new int[2];
+  private final int[] counts = new int[2];
+  private final float[] mbr = new float[8];
+
+  /**
+   * Store the index of the seed of the existing node in seeds[0], and of
+   * the new node in seeds[1].
+   */
+  abstract void pickSeeds(float[] minX, float[] minY, float[] maxX,
+      float[] maxY, int count, int[] seeds);
+
+  @Override
+  public void split(float[] minX, float[] minY, float[] maxX, float[] maxY,
+      int count, int minEntries, boolean[] second) {
+    if (assigned.length < count) {
+      assigned = new boolean[count];
+    }
+    Arrays.fill(assigned, 0, count, false);
+
+    // [Pick first entry for each group]
+    pickSeeds(minX, minY, maxX, maxY, count, seeds);
+    for (int group = 0; group < 2; group++) {
+      int seed = seeds[group];
+      assigned[seed] = true;
+      second[seed] = group == 1;
+      counts[group] = 1;
+      mbr[4 * group] = minX[seed];
+      mbr[4 * group + 1] = minY[seed];
+      mbr[4 * group + 2] = maxX[seed];
+      mbr[4 * group + 3] = maxY[seed];
+    }
+
+    while (counts[0] + counts[1] < count) {
+      // [Check if done] If one group has so few entries that all the rest
+      // must be assigned to it in order for it to have the minimum number
+      // m, assign them and stop.
+      for (int group = 0; group < 2; group++) {
+        if (count - counts[1 - group] == minEntries) {
+          for (int i = 0; i < count; i++) {
+            if (!assigned[i]) {
+              assigned[i] = true;
+              second[i] = group == 1;
+            }
+          }
+          return;
+        }
+      }
+
+      // [Select entry to assign] Choose the entry whose enlargement of the
+      // two groups differs most. Add it to the group whose covering
+      // rectangle will have to be enlarged least to accommodate it. Resolve
+      // ties by adding the entry to the group with smaller area, then to
+      // the one with fewer entries, then to either.
+      float maxDifference = Float.NEGATIVE_INFINITY;
+      int next = -1;
+      int nextGroup = 0;
+      for (int i = 0; i < count; i++) {
+        if (assigned[i]) {
+          continue;
+        }
+        float increase0 = Rectangle.enlargement(mbr[0], mbr[1], mbr[2],
+            mbr[3], minX[i], minY[i], maxX[i], maxY[i]);
+        float increase1 = Rectangle.enlargement(mbr[4], mbr[5], mbr[6],
+            mbr[7], minX[i], minY[i], maxX[i], maxY[i]);
+        float difference = Math.abs(increase0 - increase1);
+        if (next == -1 || difference > maxDifference) {
+          maxDifference = difference;
+          next = i;
+          float area0 = Rectangle.area(mbr[0], mbr[1], mbr[2], mbr[3]);
+          float area1 = Rectangle.area(mbr[4], mbr[5], mbr[6], mbr[7]);
+          if (increase0 != increase1) {
+            nextGroup = increase0 < increase1 ? 0 : 1;
+          } else if (area0 != area1) {
+            nextGroup = area0 < area1 ? 0 : 1;
+          } else {
+            nextGroup = counts[0] <= counts[1] ? 0 : 1;
+          }
+        }
+      }
+
+      assigned[next] = true;
+      second[next] = nextGroup == 1;
+      counts[nextGroup]++;
+      int m = 4 * nextGroup;
+      mbr[m] = Math.min(mbr[m], minX[next]);
+      mbr[m + 1] = Math.min(mbr[m + 1], minY[next]);
+      mbr[m + 2] = Math.max(mbr[m + 2], maxX[next]);
+      mbr[m + 3] = Math.max(mbr[m + 3], maxY[next]);
+    }
+  }
+}
@@ -0,0 +1,129 @@
+//   LinearSplit.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.rtree;
+
+/**
+ * <p>Guttman's linear split, the default of an RTree. The seeds are the
+ * pair of entries that are furthest apart along either axis, relative to
+ * the extent of all the entries along that axis, which takes time linear
+ * in the number of entries.</p>
+ *
+ * <p>The cheapest split, and so the best suited to trees that are written
+ * more often than they are read.</p>
+ */
+public class LinearSplit extends GuttmanSplit {
+
+  // the most extreme pair found so far by separate()
+  private float maxNormalizedSeparation;
+  private int highestLowIndex;
+  private int lowestHighIndex;
+
+  @Override
+  public SplitStrategy copy() {
+    return new LinearSplit();
+  }
+
+  @Override
+  void pickSeeds(float[] minX, float[] minY, float[] maxX, float[] maxY,
+      int count, int[] seeds) {
+    // the new entry is the last one, and is checked first
+    int last = count - 1;
+
+    float mbrMinX = Float.MAX_VALUE;
+    float mbrMinY = Float.MAX_VALUE;
+    float mbrMaxX = -Float.MAX_VALUE;
+    float mbrMaxY = -Float.MAX_VALUE;
+    for (int i = 0; i < count; i++) {
+      mbrMinX = Math.min(mbrMinX, minX[i]);
+      mbrMinY = Math.min(mbrMinY, minY[i]);
+      mbrMaxX = Math.max(mbrMaxX, maxX[i]);
+      mbrMaxY = Math.max(mbrMaxY, maxY[i]);
+    }
+
+    // initialize to -1 so that even overlapping rectangles will be
+    // considered for the seeds
+    maxNormalizedSeparation = -1;
+    highestLowIndex = -1;
+    lowestHighIndex = -1;
+    separate(minX, maxX, last, mbrMaxX - mbrMinX);
+    separate(minY, maxY, last, mbrMaxY - mbrMinY);
+
+    // At this point it is possible that the new rectangle is both
+    // highestLow and lowestHigh. This can happen if all rectangles in the
+    // node overlap the new rectangle. Resolve this by declaring that the
+    // highestLowIndex is the lowest Y and, the lowestHighIndex is the
+    // largest X (but always a different rectangle)
+    if (highestLowIndex == lowestHighIndex) {
+      highestLowIndex = last;
+      float tempMinY = minY[last];
+      lowestHighIndex = 0;
+      float tempMaxX = maxX[0];
+      for (int i = 1; i < last; i++) {
+        if (minY[i] < tempMinY) {
+          tempMinY = minY[i];
+          highestLowIndex = i;
+        } else if (maxX[i] > tempMaxX) {
+          tempMaxX = maxX[i];
+          lowestHighIndex = i;
+        }
+      }
+    }
+
+    seeds[0] = lowestHighIndex;
+    seeds[1] = highestLowIndex;
+  }
+
+  /**
+   * Along one axis, find the entry whose rectangle has the highest low
+   * side, and the one with the lowest high side, and record them if their
+   * separation, normalized by the extent of all the entries, is the
+   * greatest so far.
+   */
+  private void separate(float[] lower, float[] upper, int last,
+      float length) {
+    float tempHighestLow = lower[last];
+    int tempHighestLowIndex = last;
+    float tempLowestHigh = upper[last];
+    int tempLowestHighIndex = last;
+
+    for (int i = 0; i < last; i++) {
+      float tempLow = lower[i];
+      if (tempLow >= tempHighestLow) {
+        tempHighestLow = tempLow;
+        tempHighestLowIndex = i;
+      } else { // ensure that the same index cannot be both lowestHigh and highestLow
+        float tempHigh = upper[i];
+        if (tempHigh <= tempLowestHigh) {
+          tempLowestHigh = tempHigh;
+          tempLowestHighIndex = i;
+        }
+      }
+
+      // Note that if negative it means the rectangles overlapped. However
+      // still include overlapping rectangles if that is the only choice
+      // available.
+      float normalizedSeparation = length == 0 ? 1
+          : (tempHighestLow - tempLowestHigh) / length;
+      if (normalizedSeparation >= maxNormalizedSeparation) {
+        highestLowIndex = tempHighestLowIndex;
+        lowestHighIndex = tempLowestHighIndex;
+        maxNormalizedSeparation = normalizedSeparation;
+      }
+    }
+  }
+}
@@ -0,0 +1,100 @@
+//   NearestIterator.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.rtree;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+import com.infomatiq.jsi.Point;
+import com.infomatiq.jsi.PriorityQueue;
+import com.infomatiq.jsi.Rectangle;
+
+/**
+ * <p>Iterates over the ids of the entries of an RTree in ascending order of
+ * their distance from a point, finding each one only when it is
+ * requested. Unlike nearestN(), the number of entries wanted and the
+ * maximum distance need not be known in advance; the caller simply stops
+ * iterating once it has found what it is looking for.</p>
+ *
+ * <p>This is the best first search of Hjaltason and Samet, "Distance
+ * browsing in spatial databases" (1999). Nodes and entries wait in two
+ * priority queues ordered by their distance from the point. A node is
+ * expanded only while it is nearer than the nearest waiting entry, so
+ * each call to next() reads only the nodes that could contain an entry
+ * nearer than the one it returns.</p>
+ *
+ * <p>Entries at the same distance are returned in no particular order. The
+ * tree must not be modified while it is being iterated over.</p>
+ */
+public class NearestIterator implements PrimitiveIterator.OfInt {
+
+  private final RTree rtree;
+  private final float x;
+  private final float y;
+
+  // node ids and entry ids, by squared distance from the point
+  private final PriorityQueue nodes = new PriorityQueue(
+      PriorityQueue.SORT_ORDER_ASCENDING);
+  private final PriorityQueue entries = new PriorityQueue(
+      PriorityQueue.SORT_ORDER_ASCENDING);
+
+  private float distanceSq = Float.NaN;
+
+  NearestIterator(RTree rtree, Point p) {
+    this.rtree = rtree;
+    this.x = p.x;
+    this.y = p.y;
+    nodes.insert(rtree.getRootNodeId(), 0);
+  }
+
+  @Override
+  public boolean hasNext() {
+    // expand nodes until the nearest entry is no further away than the
+    // nearest node, so that no unexpanded node can contain a nearer entry
+    while (nodes.size() > 0 && (entries.size() == 0
+        || nodes.getPriority() < entries.getPriority())) {
+      Node n = rtree.getNode(nodes.pop());
+      PriorityQueue queue = n.isLeaf() ? entries : nodes;
+      for (int i = 0; i < n.entryCount; i++) {
+        queue.insert(n.ids[i], Rectangle.distanceSq(n.entriesMinX[i],
+            n.entriesMinY[i], n.entriesMaxX[i], n.entriesMaxY[i], x, y));
+      }
+    }
+    return entries.size() > 0;
+  }
+
+  /**
+   * Returns the id of the next nearest entry.
+   */
+  @Override
+  public int nextInt() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    distanceSq = entries.getPriority();
+    return entries.pop();
+  }
+
+  /**
+   * Returns the distance from the point of the entry last returned by
+   * nextInt(), or NaN if nextInt() has not been called yet.
+   */
+  public float distance() {
+    return (float) Math.sqrt(distanceSq);
+  }
+}
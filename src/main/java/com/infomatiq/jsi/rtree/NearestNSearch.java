@@ -0,0 +1,99 @@
+//   NearestNSearch.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.rtree;
+
+import com.infomatiq.jsi.PriorityQueue;
+import com.slimjars.dist.gnu.trove.list.array.TIntArrayList;
+import com.slimjars.dist.gnu.trove.procedure.TIntProcedure;
+
+/**
+ * <p>Working state of a nearestN query on one of the read-only trees.
+ * Entries found by the search are offered to it, and it keeps the nearest
+ * N in the same way as RTree.nearestN(): more than N entries are kept if
+ * several are at the same distance as the furthest.</p>
+ */
+class NearestNSearch {
+  private final PriorityQueue distanceQueue =
+      new PriorityQueue(PriorityQueue.SORT_ORDER_DESCENDING);
+  private final TIntArrayList savedValues = new TIntArrayList();
+  private float savedPriority = 0;
+  private final int count;
+
+  // Only subtrees within this distance of the point need to be searched
+  float furthestDistanceSq;
+
+  NearestNSearch(int count, float furthestDistance) {
+    this.count = count;
+    this.furthestDistanceSq = furthestDistance * furthestDistance;
+  }
+
+  /**
+   * Offer an entry found at the passed squared distance from the point.
+   */
+  void offer(int id, float entryDistanceSq) {
+    if (entryDistanceSq > furthestDistanceSq) {
+      return;
+    }
+    distanceQueue.insert(id, entryDistanceSq);
+
+    while (distanceQueue.size() > count) {
+      // normal case - we can simply remove the lowest priority (highest distance) entry
+      int value = distanceQueue.getValue();
+      float distanceSq = distanceQueue.getPriority();
+      distanceQueue.pop();
+
+      // rare case - multiple items of the same priority (distance)
+      if (distanceSq == distanceQueue.getPriority()) {
+        savedValues.add(value);
+        savedPriority = distanceSq;
+      } else {
+        savedValues.reset();
+      }
+    }
+
+    // if the saved values have the same distance as the
+    // next one in the tree, add them back in.
+    if (savedValues.size() > 0
+        && savedPriority == distanceQueue.getPriority()) {
+      for (int svi = 0; svi < savedValues.size(); svi++) {
+        distanceQueue.insert(savedValues.get(svi), savedPriority);
+      }
+      savedValues.reset();
+    }
+
+    // narrow the search, if we have already found N items
+    if (distanceQueue.getPriority() < furthestDistanceSq
+        && distanceQueue.size() >= count) {
+      furthestDistanceSq = distanceQueue.getPriority();
+    }
+  }
+
+  /**
+   * Pass the entries found to the procedure, nearest first if sorted is
+   * true, otherwise furthest first.
+   */
+  void deliver(TIntProcedure v, boolean sorted) {
+    if (sorted) {
+      distanceQueue.setSortOrder(PriorityQueue.SORT_ORDER_ASCENDING);
+    }
+    while (distanceQueue.size() > 0) {
+      v.execute(distanceQueue.getValue());
+      distanceQueue.pop();
+    }
+  }
+}
@@ -40,7 +40,18 @@ public class Node {
   int level;
   int entryCount;
 
+  // only used by aggregate trees: the weights of the entries of a leaf,
+  // and the number and total weight of the entries in the subtree of
+  // this node, which are recalculated by the tree whenever they change.
+  float[] weights = null;
+  int subtreeCount;
+  double subtreeWeight;
+
   Node(int nodeId, int level, int maxNodeEntries) {
+    this(nodeId, level, maxNodeEntries, false);
+  }
+
+  Node(int nodeId, int level, int maxNodeEntries, boolean aggregate) {
     this.nodeId = nodeId;
     this.level = level;
     entriesMinX = new float[maxNodeEntries];
@@ -48,9 +59,20 @@ public class Node {
     entriesMaxX = new float[maxNodeEntries];
     entriesMaxY = new float[maxNodeEntries];
     ids = new int[maxNodeEntries];
+    if (aggregate && level == 1) {
+      weights = new float[maxNodeEntries];
+    }
   }
 
   void addEntry(float minX, float minY, float maxX, float maxY, int id) {
+    addEntry(minX, minY, maxX, maxY, id, 1);
+  }
+
+  void addEntry(float minX, float minY, float maxX, float maxY, int id,
+      float weight) {
+    if (weights != null) {
+      weights[entryCount] = weight;
+    }
     ids[entryCount] = id;
     entriesMinX[entryCount] = minX;
     entriesMinY[entryCount] = minY;
@@ -91,6 +113,9 @@ public class Node {
       entriesMaxX[i] = entriesMaxX[lastIndex];
       entriesMaxY[i] = entriesMaxY[lastIndex];
       ids[i] = ids[lastIndex];
+      if (weights != null) {
+        weights[i] = weights[lastIndex];
+      }
     }
     entryCount--;
 
@@ -110,6 +135,15 @@ public class Node {
   }
 
   void recalculateMBR() {
+    if (entryCount == 0) {
+      // an empty node does not cover anything, so that entries added to it
+      // later determine its MBR
+      mbrMinX = Float.MAX_VALUE;
+      mbrMinY = Float.MAX_VALUE;
+      mbrMaxX = -Float.MAX_VALUE;
+      mbrMaxY = -Float.MAX_VALUE;
+      return;
+    }
     mbrMinX = entriesMinX[0];
     mbrMinY = entriesMinY[0];
     mbrMaxX = entriesMaxX[0];
@@ -123,26 +157,6 @@ public class Node {
     }
   }
 
-  /**
-   * eliminate null entries, move all entries to the start of the source node
-   */
-  void reorganize(RTree rtree) {
-    int countdownIndex = rtree.maxNodeEntries - 1;
-    for (int index = 0; index < entryCount; index++) {
-      if (ids[index] == -1) {
-        while (ids[countdownIndex] == -1 && countdownIndex > index) {
-          countdownIndex--;
-        }
-        entriesMinX[index] = entriesMinX[countdownIndex];
-        entriesMinY[index] = entriesMinY[countdownIndex];
-        entriesMaxX[index] = entriesMaxX[countdownIndex];
-        entriesMaxY[index] = entriesMaxY[countdownIndex];
-        ids[index] = ids[countdownIndex];
-        ids[countdownIndex] = -1;
-      }
-    }
-  }
-
   public int getEntryCount() {
     return entryCount;
   }
@@ -0,0 +1,134 @@
+//   NodeScan.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.rtree;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Tests the entries of a node against a query rectangle, up to 64 at a
+ * time, and returns the result as a bit mask: bit j is set if entry
+ * from + j matches. The queries then only visit the entries that match,
+ * in order, and the tests themselves have no branches.</p>
+ *
+ * <p>This implementation tests one entry at a time. If the jar was built
+ * with a JDK that has the incubating Vector API (see build.gradle), and
+ * the jdk.incubator.vector module is added at runtime, VectorNodeScan is
+ * used instead, which tests as many entries at a time as the CPU allows.
+ * It can be disabled by setting the system property jsi.vectorize to
+ * false.</p>
+ */
+class NodeScan {
+  private static final Logger log = LoggerFactory.getLogger(NodeScan.class);
+
+  static final NodeScan INSTANCE = create();
+
+  private static NodeScan create() {
+    NodeScan scalar = new NodeScan();
+    if (!Boolean.parseBoolean(System.getProperty("jsi.vectorize", "true"))) {
+      return scalar;
+    }
+    try {
+      NodeScan vector = (NodeScan) Class.forName(
+          "com.infomatiq.jsi.rtree.VectorNodeScan").getDeclaredConstructor()
+          .newInstance();
+      // the incubating API can change between JDK releases, so only use
+      // the vector scan if it agrees with this one
+      if (vector.sameResults(scalar)) {
+        log.debug("Using the vectorized node scan");
+        return vector;
+      }
+      log.warn("The vectorized node scan gives wrong results, not using it");
+    } catch (ReflectiveOperationException | LinkageError e) {
+      log.debug("Vectorized node scan not available: " + e);
+    }
+    return scalar;
+  }
+
+  /**
+   * Whether this scan uses the Vector API.
+   */
+  boolean isVectorized() {
+    return false;
+  }
+
+  /**
+   * Returns a mask of the entries from index from, up to 64 of them, that
+   * intersect the passed rectangle.
+   */
+  long intersects(Node n, int from, float minX, float minY, float maxX,
+      float maxY) {
+    int end = Math.min(n.entryCount, from + 64);
+    long hits = 0;
+    for (int i = from; i < end; i++) {
+      // non short circuit operators, so that there are no branches
+      boolean hit = n.entriesMaxX[i] >= minX & n.entriesMinX[i] <= maxX
+          & n.entriesMaxY[i] >= minY & n.entriesMinY[i] <= maxY;
+      hits |= (hit ? 1L : 0L) << (i - from);
+    }
+    return hits;
+  }
+
+  /**
+   * Returns a mask of the entries from index from, up to 64 of them, that
+   * are contained by the passed rectangle.
+   */
+  long contained(Node n, int from, float minX, float minY, float maxX,
+      float maxY) {
+    int end = Math.min(n.entryCount, from + 64);
+    long hits = 0;
+    for (int i = from; i < end; i++) {
+      boolean hit = n.entriesMinX[i] >= minX & n.entriesMaxX[i] <= maxX
+          & n.entriesMinY[i] >= minY & n.entriesMaxY[i] <= maxY;
+      hits |= (hit ? 1L : 0L) << (i - from);
+    }
+    return hits;
+  }
+
+  /**
+   * A mask of the lowest count bits, for count from 0 to 64.
+   */
+  static long firstBits(int count) {
+    return count == 64 ? -1L : (1L << count) - 1;
+  }
+
+  /**
+   * Compare the results of this scan with another one, for nodes of
+   * several sizes with entries on both sides of the edges of a query
+   * rectangle, and room for more entries.
+   */
+  private boolean sameResults(NodeScan other) {
+    for (int size : new int[] { 1, 7, 50, 130 }) {
+      Node n = new Node(0, 1, size + 9);
+      for (int i = 0; i < size; i++) {
+        float x = i % 5;
+        float y = i % 7;
+        n.addEntry(x, y, x + i % 3, y + i % 2, i);
+      }
+      for (int from = 0; from < size; from += 64) {
+        if (intersects(n, from, 1, 2, 3, 4)
+            != other.intersects(n, from, 1, 2, 3, 4)
+            || contained(n, from, 1, 2, 3, 4)
+            != other.contained(n, from, 1, 2, 3, 4)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+}
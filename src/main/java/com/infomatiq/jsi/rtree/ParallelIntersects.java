@@ -0,0 +1,160 @@
+//   ParallelIntersects.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.rtree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+import com.infomatiq.jsi.Rectangle;
+import com.slimjars.dist.gnu.trove.list.array.TIntArrayList;
+
+/**
+ * The fork/join tasks used by RTree.parallelIntersects(). A task for a
+ * node above the fork level creates one subtask for each child that
+ * intersects the query rectangle; a task for a node at or below the fork
+ * level searches its subtree in the current thread, with the same
+ * iterative search as RTree.intersects().
+ */
+class ParallelIntersects {
+
+  private ParallelIntersects() {
+  }
+
+  /**
+   * Passes each result to a consumer, which is called concurrently from
+   * the threads running the tasks.
+   */
+  static class ConsumerTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final RTree rtree;
+    private final Rectangle r;
+    private final Node n;
+    private final IntConsumer v;
+    private final int forkLevel;
+
+    ConsumerTask(RTree rtree, Rectangle r, Node n, IntConsumer v,
+        int forkLevel) {
+      this.rtree = rtree;
+      this.r = r;
+      this.n = n;
+      this.v = v;
+      this.forkLevel = forkLevel;
+    }
+
+    @Override
+    protected void compute() {
+      if (n.level <= forkLevel) {
+        rtree.intersects(n, r, id -> {
+          v.accept(id);
+          return true;
+        });
+        return;
+      }
+      List<ConsumerTask> tasks = new ArrayList<>();
+      for (int i = 0; i < n.entryCount; i++) {
+        if (intersects(r, n, i)) {
+          tasks.add(new ConsumerTask(rtree, r, rtree.getNode(n.ids[i]), v,
+              forkLevel));
+        }
+      }
+      invokeAll(tasks);
+    }
+  }
+
+  /**
+   * Collects the results of each task that searches a subtree in its own
+   * buffer. Once all tasks have completed, toArray() concatenates the
+   * buffers in the order of the entries of the nodes, so the results are
+   * copied only once, and are in the same order as those of a sequential
+   * search.
+   */
+  static class BufferTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final RTree rtree;
+    private final Rectangle r;
+    private final Node n;
+    private final int forkLevel;
+
+    private TIntArrayList results = null;
+    private List<BufferTask> tasks = null;
+
+    BufferTask(RTree rtree, Rectangle r, Node n, int forkLevel) {
+      this.rtree = rtree;
+      this.r = r;
+      this.n = n;
+      this.forkLevel = forkLevel;
+    }
+
+    @Override
+    protected void compute() {
+      if (n.level <= forkLevel) {
+        results = new TIntArrayList();
+        rtree.intersects(n, r, results::add);
+        return;
+      }
+      tasks = new ArrayList<>();
+      for (int i = 0; i < n.entryCount; i++) {
+        if (intersects(r, n, i)) {
+          tasks.add(new BufferTask(rtree, r, rtree.getNode(n.ids[i]),
+              forkLevel));
+        }
+      }
+      invokeAll(tasks);
+    }
+
+    int[] toArray() {
+      int[] ids = new int[size()];
+      copyTo(ids, 0);
+      return ids;
+    }
+
+    private int size() {
+      if (results != null) {
+        return results.size();
+      }
+      int size = 0;
+      for (BufferTask task : tasks) {
+        size += task.size();
+      }
+      return size;
+    }
+
+    private int copyTo(int[] ids, int offset) {
+      if (results != null) {
+        results.toArray(ids, 0, offset, results.size());
+        return offset + results.size();
+      }
+      for (BufferTask task : tasks) {
+        offset = task.copyTo(ids, offset);
+      }
+      return offset;
+    }
+  }
+
+  private static boolean intersects(Rectangle r, Node n, int i) {
+    return Rectangle.intersects(r.minX, r.minY, r.maxX, r.maxY,
+        n.entriesMinX[i], n.entriesMinY[i], n.entriesMaxX[i],
+        n.entriesMaxY[i]);
+  }
+}
@@ -0,0 +1,173 @@
+//   PersistentNode.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.rtree;
+
+/**
+ * <p>Used by PersistentRTree. Unlike Node, a PersistentNode refers to its
+ * children directly rather than by node id, so that a node can be shared
+ * by several versions of the tree.</p>
+ *
+ * <p>A node may only be modified by the write operation that created it,
+ * identified by the version number. Once the write has completed, the node
+ * is never modified again.</p>
+ */
+final class PersistentNode {
+  final long version;
+  final int level;
+  int entryCount;
+
+  float mbrMinX = Float.MAX_VALUE;
+  float mbrMinY = Float.MAX_VALUE;
+  float mbrMaxX = -Float.MAX_VALUE;
+  float mbrMaxY = -Float.MAX_VALUE;
+
+  final float[] entriesMinX;
+  final float[] entriesMinY;
+  final float[] entriesMaxX;
+  final float[] entriesMaxY;
+
+  // entry ids, for leaf nodes
+  final int[] ids;
+
+  // child nodes, for non-leaf nodes
+  final PersistentNode[] children;
+
+  PersistentNode(long version, int level, int maxNodeEntries) {
+    this.version = version;
+    this.level = level;
+    entriesMinX = new float[maxNodeEntries];
+    entriesMinY = new float[maxNodeEntries];
+    entriesMaxX = new float[maxNodeEntries];
+    entriesMaxY = new float[maxNodeEntries];
+    if (level == 1) {
+      ids = new int[maxNodeEntries];
+      children = null;
+    } else {
+      ids = null;
+      children = new PersistentNode[maxNodeEntries];
+    }
+  }
+
+  /**
+   * Create a modifiable copy of a node, for the write operation with the
+   * passed version number.
+   */
+  PersistentNode(long version, PersistentNode n) {
+    this.version = version;
+    this.level = n.level;
+    this.entryCount = n.entryCount;
+    this.mbrMinX = n.mbrMinX;
+    this.mbrMinY = n.mbrMinY;
+    this.mbrMaxX = n.mbrMaxX;
+    this.mbrMaxY = n.mbrMaxY;
+    entriesMinX = n.entriesMinX.clone();
+    entriesMinY = n.entriesMinY.clone();
+    entriesMaxX = n.entriesMaxX.clone();
+    entriesMaxY = n.entriesMaxY.clone();
+    ids = n.ids == null ? null : n.ids.clone();
+    children = n.children == null ? null : n.children.clone();
+  }
+
+  boolean isLeaf() {
+    return level == 1;
+  }
+
+  void addEntry(float minX, float minY, float maxX, float maxY, int id,
+      PersistentNode child) {
+    entriesMinX[entryCount] = minX;
+    entriesMinY[entryCount] = minY;
+    entriesMaxX[entryCount] = maxX;
+    entriesMaxY[entryCount] = maxY;
+    if (ids != null) {
+      ids[entryCount] = id;
+    } else {
+      children[entryCount] = child;
+    }
+
+    if (minX < mbrMinX) mbrMinX = minX;
+    if (minY < mbrMinY) mbrMinY = minY;
+    if (maxX > mbrMaxX) mbrMaxX = maxX;
+    if (maxY > mbrMaxY) mbrMaxY = maxY;
+
+    entryCount++;
+  }
+
+  void addChild(PersistentNode child) {
+    addEntry(child.mbrMinX, child.mbrMinY, child.mbrMaxX, child.mbrMaxY, 0,
+        child);
+  }
+
+  /**
+   * Replace the child at the passed index, and set the entry to the MBR of
+   * the new child. Does not recalculate the MBR of this node.
+   */
+  void setChild(int i, PersistentNode child) {
+    children[i] = child;
+    entriesMinX[i] = child.mbrMinX;
+    entriesMinY[i] = child.mbrMinY;
+    entriesMaxX[i] = child.mbrMaxX;
+    entriesMaxY[i] = child.mbrMaxY;
+  }
+
+  // Return the index of the found entry, or -1 if not found
+  int findEntry(float minX, float minY, float maxX, float maxY, int id) {
+    for (int i = 0; i < entryCount; i++) {
+      if (id == ids[i] &&
+          entriesMinX[i] == minX && entriesMinY[i] == minY &&
+          entriesMaxX[i] == maxX && entriesMaxY[i] == maxY) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  // delete entry. This is done by copying the last entry into its space.
+  // Does not recalculate the MBR of this node.
+  void deleteEntry(int i) {
+    int lastIndex = entryCount - 1;
+    if (i != lastIndex) {
+      entriesMinX[i] = entriesMinX[lastIndex];
+      entriesMinY[i] = entriesMinY[lastIndex];
+      entriesMaxX[i] = entriesMaxX[lastIndex];
+      entriesMaxY[i] = entriesMaxY[lastIndex];
+      if (ids != null) {
+        ids[i] = ids[lastIndex];
+      } else {
+        children[i] = children[lastIndex];
+      }
+    }
+    if (children != null) {
+      children[lastIndex] = null;
+    }
+    entryCount--;
+  }
+
+  void recalculateMBR() {
+    mbrMinX = Float.MAX_VALUE;
+    mbrMinY = Float.MAX_VALUE;
+    mbrMaxX = -Float.MAX_VALUE;
+    mbrMaxY = -Float.MAX_VALUE;
+
+    for (int i = 0; i < entryCount; i++) {
+      if (entriesMinX[i] < mbrMinX) mbrMinX = entriesMinX[i];
+      if (entriesMinY[i] < mbrMinY) mbrMinY = entriesMinY[i];
+      if (entriesMaxX[i] > mbrMaxX) mbrMaxX = entriesMaxX[i];
+      if (entriesMaxY[i] > mbrMaxY) mbrMaxY = entriesMaxY[i];
+    }
+  }
+}
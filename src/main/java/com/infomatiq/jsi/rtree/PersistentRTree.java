@@ -0,0 +1,372 @@
+//   PersistentRTree.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.rtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.infomatiq.jsi.Rectangle;
+
+/**
+ * <p>An RTree that keeps every version of itself. Each call to add() or
+ * delete() creates a new version of the tree, by copying only the nodes
+ * on the path from the root to the modified leaf (plus any nodes created by
+ * splits and reinsertions); all other nodes are shared with the previous
+ * version.</p>
+ *
+ * <p>snapshot() returns the current version in constant time, as an
+ * immutable RTreeSnapshot that can be queried by any number of threads
+ * without locking, while further writes take place. A version is garbage
+ * collected once no snapshot refers to it.</p>
+ *
+ * <p>The insertion and deletion algorithms are the same as those of
+ * RTree, and nodes are split by a SplitStrategy in the same way. The
+ * insertion policies of the strategy are not applied: entries always go
+ * to the child that needs the least enlargement, and full nodes are
+ * always split rather than reinserted. Writes are serialized, so the tree
+ * is intended for a single writer thread and many reader threads.</p>
+ */
+public class PersistentRTree {
+  private static final Logger log = LoggerFactory
+      .getLogger(PersistentRTree.class);
+
+  private final static int DEFAULT_MAX_NODE_ENTRIES = 50;
+  private final static int DEFAULT_MIN_NODE_ENTRIES = 20;
+
+  private final int maxNodeEntries;
+  private final int minNodeEntries;
+
+  private final SplitStrategy splitStrategy;
+
+  // the latest version of the tree
+  private final AtomicReference<RTreeSnapshot> current =
+      new AtomicReference<>();
+
+  // Version number of the write in progress. Only nodes created with this
+  // version may be modified.
+  private long version = 0;
+
+  // scratch arrays used by splitNode(), with room for one more entry
+  // than a node can hold.
+  private final float[] splitMinX;
+  private final float[] splitMinY;
+  private final float[] splitMaxX;
+  private final float[] splitMaxY;
+  private final int[] splitIds;
+  private final PersistentNode[] splitChildren;
+  private final boolean[] splitSecond;
+
+  /**
+   * Constructor with default min and max nodes per entry.
+   */
+  public PersistentRTree() {
+    this(DEFAULT_MIN_NODE_ENTRIES, DEFAULT_MAX_NODE_ENTRIES);
+  }
+
+  /**
+   * Constructor with min and max nodes per entry. Invalid values are
+   * replaced in the same way as by RTree.
+   */
+  public PersistentRTree(int minNodeEntries, int maxNodeEntries) {
+    this(minNodeEntries, maxNodeEntries, null);
+  }
+
+  /**
+   * Constructor with min and max nodes per entry, and the algorithm used
+   * to split nodes. If null, a new LinearSplit is used. The tree uses its
+   * own copy of the strategy, made by SplitStrategy.copy().
+   */
+  public PersistentRTree(int minNodeEntries, int maxNodeEntries,
+      SplitStrategy splitStrategy) {
+    if (maxNodeEntries < 2) {
+      log.warn("Invalid MaxNodeEntries = " + maxNodeEntries
+          + " Resetting to default value of " + DEFAULT_MAX_NODE_ENTRIES);
+      maxNodeEntries = DEFAULT_MAX_NODE_ENTRIES;
+    }
+    if (minNodeEntries < 1 || minNodeEntries > maxNodeEntries / 2) {
+      log.warn("MinNodeEntries must be between 1 and MaxNodeEntries / 2");
+      minNodeEntries = maxNodeEntries / 2;
+    }
+    this.minNodeEntries = minNodeEntries;
+    this.maxNodeEntries = maxNodeEntries;
+    this.splitStrategy = splitStrategy != null ? splitStrategy.copy()
+        : new LinearSplit();
+
+    splitMinX = new float[maxNodeEntries + 1];
+    splitMinY = new float[maxNodeEntries + 1];
+    splitMaxX = new float[maxNodeEntries + 1];
+    splitMaxY = new float[maxNodeEntries + 1];
+    splitIds = new int[maxNodeEntries + 1];
+    splitChildren = new PersistentNode[maxNodeEntries + 1];
+    splitSecond = new boolean[maxNodeEntries + 1];
+
+    current.set(new RTreeSnapshot(new PersistentNode(0, 1, maxNodeEntries),
+        0));
+  }
+
+  /**
+   * Get the current version of the tree. This is a constant time
+   * operation, and the returned snapshot is not affected by subsequent
+   * writes.
+   */
+  public RTreeSnapshot snapshot() {
+    return current.get();
+  }
+
+  /**
+   * @return the number of entries in the current version of the tree.
+   */
+  public int size() {
+    return current.get().size();
+  }
+
+  /**
+   * Add a new entry, creating a new version of the tree.
+   *
+   * @see com.infomatiq.jsi.SpatialIndex#add(Rectangle, int)
+   */
+  public synchronized void add(Rectangle r, int id) {
+    RTreeSnapshot s = current.get();
+    version++;
+
+    PersistentNode root = writable(s.root);
+    root = add(root, r.minX, r.minY, r.maxX, r.maxY, id, null, 1);
+
+    current.set(new RTreeSnapshot(root, s.size() + 1));
+  }
+
+  /**
+   * Delete an entry, creating a new version of the tree if the entry was
+   * found.
+   *
+   * @see com.infomatiq.jsi.SpatialIndex#delete(Rectangle, int)
+   * @return true if the entry was found and deleted.
+   */
+  public synchronized boolean delete(Rectangle r, int id) {
+    RTreeSnapshot s = current.get();
+    version++;
+
+    List<PersistentNode> eliminated = new ArrayList<>();
+    PersistentNode root = delete(s.root, r, id, eliminated);
+    if (root == null) {
+      return false;
+    }
+
+    // Reinsert all entries of the eliminated nodes, highest level first,
+    // at the level they were originally at.
+    for (int i = eliminated.size() - 1; i >= 0; i--) {
+      PersistentNode e = eliminated.get(i);
+      for (int j = 0; j < e.entryCount; j++) {
+        root = add(root, e.entriesMinX[j], e.entriesMinY[j],
+            e.entriesMaxX[j], e.entriesMaxY[j],
+            e.isLeaf() ? e.ids[j] : 0,
+            e.isLeaf() ? null : e.children[j], e.level);
+      }
+    }
+
+    // shrink the tree if possible (i.e. if root node has exactly one
+    // entry, and that entry is not a leaf node, the entry becomes the
+    // new root)
+    while (root.entryCount == 1 && !root.isLeaf()) {
+      root = root.children[0];
+    }
+
+    current.set(new RTreeSnapshot(root, s.size() - 1));
+    return true;
+  }
+
+  /**
+   * Get a copy of the node that may be modified by the current write.
+   */
+  private PersistentNode writable(PersistentNode n) {
+    if (n.version == version) {
+      return n;
+    }
+    return new PersistentNode(version, n);
+  }
+
+  /**
+   * Add an entry at the passed level below the passed (writable) root,
+   * growing the tree if the root is split.
+   *
+   * @return the new root
+   */
+  private PersistentNode add(PersistentNode root, float minX, float minY,
+      float maxX, float maxY, int id, PersistentNode child, int level) {
+    PersistentNode split = insert(root, minX, minY, maxX, maxY, id, child,
+        level);
+    if (split == null) {
+      return root;
+    }
+    PersistentNode newRoot = new PersistentNode(version, root.level + 1,
+        maxNodeEntries);
+    newRoot.addChild(split);
+    newRoot.addChild(root);
+    return newRoot;
+  }
+
+  /**
+   * Recursively insert an entry into the subtree of the passed node, which
+   * must be writable. Nodes on the path from n down to the node where the
+   * entry is placed are copied before being modified.
+   *
+   * @return the node created if n had to be split, otherwise null.
+   */
+  private PersistentNode insert(PersistentNode n, float minX, float minY,
+      float maxX, float maxY, int id, PersistentNode child, int level) {
+    if (n.level == level) {
+      if (n.entryCount < maxNodeEntries) {
+        n.addEntry(minX, minY, maxX, maxY, id, child);
+        return null;
+      }
+      return splitNode(n, minX, minY, maxX, maxY, id, child);
+    }
+
+    int index = RTree.chooseLeastEnlargement(n.entriesMinX, n.entriesMinY,
+        n.entriesMaxX, n.entriesMaxY, n.entryCount, minX, minY, maxX, maxY);
+    PersistentNode c = writable(n.children[index]);
+    PersistentNode split = insert(c, minX, minY, maxX, maxY, id, child,
+        level);
+    n.setChild(index, c);
+    n.recalculateMBR();
+
+    if (split == null) {
+      return null;
+    }
+    if (n.entryCount < maxNodeEntries) {
+      n.addChild(split);
+      return null;
+    }
+    return splitNode(n, split.mbrMinX, split.mbrMinY, split.mbrMaxX,
+        split.mbrMaxY, 0, split);
+  }
+
+  /**
+   * Recursively delete an entry from the subtree of the passed node. Only
+   * entries whose rectangle contains the deleted rectangle are searched.
+   * Nodes left with too few entries are removed from their parent and
+   * added to the eliminated list, so that their entries can be reinserted.
+   *
+   * @return a modified copy of n, or null if the entry was not found.
+   */
+  private PersistentNode delete(PersistentNode n, Rectangle r, int id,
+      List<PersistentNode> eliminated) {
+    if (n.isLeaf()) {
+      int i = n.findEntry(r.minX, r.minY, r.maxX, r.maxY, id);
+      if (i == -1) {
+        return null;
+      }
+      PersistentNode copy = writable(n);
+      copy.deleteEntry(i);
+      copy.recalculateMBR();
+      return copy;
+    }
+
+    for (int i = 0; i < n.entryCount; i++) {
+      if (!Rectangle.contains(n.entriesMinX[i], n.entriesMinY[i],
+          n.entriesMaxX[i], n.entriesMaxY[i],
+          r.minX, r.minY, r.maxX, r.maxY)) {
+        continue;
+      }
+      PersistentNode c = delete(n.children[i], r, id, eliminated);
+      if (c == null) {
+        continue;
+      }
+      PersistentNode copy = writable(n);
+      if (c.entryCount < minNodeEntries) {
+        copy.deleteEntry(i);
+        eliminated.add(c);
+      } else {
+        copy.setChild(i, c);
+      }
+      copy.recalculateMBR();
+      return copy;
+    }
+    return null;
+  }
+
+  /**
+   * Split a node. The entries of the node and the new entry are copied
+   * out, divided by the split strategy, and copied back into the node and
+   * a new node, as by RTree.
+   *
+   * @return new node, containing some of the entries of n
+   */
+  private PersistentNode splitNode(PersistentNode n, float newMinX,
+      float newMinY, float newMaxX, float newMaxY, int newId,
+      PersistentNode newChild) {
+    int count = maxNodeEntries + 1;
+    for (int i = 0; i < maxNodeEntries; i++) {
+      splitMinX[i] = n.entriesMinX[i];
+      splitMinY[i] = n.entriesMinY[i];
+      splitMaxX[i] = n.entriesMaxX[i];
+      splitMaxY[i] = n.entriesMaxY[i];
+      if (n.isLeaf()) {
+        splitIds[i] = n.ids[i];
+      } else {
+        splitChildren[i] = n.children[i];
+      }
+      splitSecond[i] = false;
+    }
+    splitMinX[maxNodeEntries] = newMinX;
+    splitMinY[maxNodeEntries] = newMinY;
+    splitMaxX[maxNodeEntries] = newMaxX;
+    splitMaxY[maxNodeEntries] = newMaxY;
+    splitIds[maxNodeEntries] = newId;
+    splitChildren[maxNodeEntries] = newChild;
+    splitSecond[maxNodeEntries] = false;
+
+    splitStrategy.split(splitMinX, splitMinY, splitMaxX, splitMaxY, count,
+        minNodeEntries, splitSecond);
+
+    int secondCount = 0;
+    for (int i = 0; i < count; i++) {
+      if (splitSecond[i]) {
+        secondCount++;
+      }
+    }
+    if (secondCount < minNodeEntries || count - secondCount < minNodeEntries) {
+      throw new IllegalStateException("Split strategy " + splitStrategy
+          + " assigned " + (count - secondCount) + " and " + secondCount
+          + " entries, but each node needs at least " + minNodeEntries);
+    }
+
+    n.entryCount = 0;
+    n.mbrMinX = Float.MAX_VALUE;
+    n.mbrMinY = Float.MAX_VALUE;
+    n.mbrMaxX = -Float.MAX_VALUE;
+    n.mbrMaxY = -Float.MAX_VALUE;
+    if (!n.isLeaf()) {
+      Arrays.fill(n.children, null);
+    }
+    PersistentNode newNode = new PersistentNode(version, n.level,
+        maxNodeEntries);
+    for (int i = 0; i < count; i++) {
+      PersistentNode target = splitSecond[i] ? newNode : n;
+      target.addEntry(splitMinX[i], splitMinY[i], splitMaxX[i],
+          splitMaxY[i], splitIds[i], splitChildren[i]);
+      splitChildren[i] = null;
+    }
+    return newNode;
+  }
+}
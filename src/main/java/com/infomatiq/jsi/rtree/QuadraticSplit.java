@@ -0,0 +1,68 @@
+//   QuadraticSplit.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.rtree;
+
+import com.infomatiq.jsi.Rectangle;
+
+/**
+ * <p>Guttman's quadratic split. The seeds are the pair of entries that
+ * would waste the most area if they were in the same group, that is, for
+ * which the area of the rectangle covering both, less the areas of the two
+ * entries, is greatest. This compares every entry with every other one.</p>
+ *
+ * <p>Slower to split than the linear split, but usually gives nodes that
+ * overlap less.</p>
+ */
+public class QuadraticSplit extends GuttmanSplit {
+
+  @Override
+  public SplitStrategy copy() {
+    return new QuadraticSplit();
+  }
+
+  @Override
+  void pickSeeds(float[] minX, float[] minY, float[] maxX, float[] maxY,
+      int count, int[] seeds) {
+    pickQuadraticSeeds(minX, minY, maxX, maxY, count, seeds);
+  }
+
+  /**
+   * Store the indexes of the pair of entries that waste the most area in
+   * seeds[0] and seeds[1].
+   */
+  static void pickQuadraticSeeds(float[] minX, float[] minY, float[] maxX,
+      float[] maxY, int count, int[] seeds) {
+    float maxWaste = Float.NEGATIVE_INFINITY;
+    seeds[0] = 0;
+    seeds[1] = 1;
+    for (int i = 0; i < count; i++) {
+      float area = Rectangle.area(minX[i], minY[i], maxX[i], maxY[i]);
+      for (int j = i + 1; j < count; j++) {
+        float waste = Rectangle.area(Math.min(minX[i], minX[j]),
+            Math.min(minY[i], minY[j]), Math.max(maxX[i], maxX[j]),
+            Math.max(maxY[i], maxY[j])) - area
+            - Rectangle.area(minX[j], minY[j], maxX[j], maxY[j]);
+        if (waste > maxWaste) {
+          maxWaste = waste;
+          seeds[0] = i;
+          seeds[1] = j;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,180 @@
+//   QueryContext.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.rtree;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+import com.infomatiq.jsi.PriorityQueue;
+import com.slimjars.dist.gnu.trove.list.array.TIntArrayList;
+import com.slimjars.dist.gnu.trove.procedure.TIntProcedure;
+
+/**
+ * <p>The working state of a query on an RTree. Queries only modify
+ * the context that is passed to them, and not the tree itself, so that
+ * several threads may query the same tree at once as long as each
+ * thread uses its own context.</p>
+ *
+ * <p>The objects are retained between queries, so that repeated
+ * queries do not need to allocate anything. Together with the query
+ * methods of RTree that take coordinates rather than a Rectangle or
+ * Point, this lets a query loop run without allocating. The methods
+ * without a context use one that the tree keeps for the calling
+ * thread, or a new one for a query made by the procedure of another
+ * query.</p>
+ *
+ * <p>A context may be used for any number of queries, on any trees, but
+ * only for one query at a time.</p>
+ */
+public class QueryContext {
+  // the path from the root down to the current node of a search: the id
+  // of each node, the index of the next entry to visit, or of the first
+  // of the up to 64 entries last scanned, and the scanned entries still
+  // to be visited, as a bit mask. Grown to the height of the tree when a
+  // query starts, so that no query needs recursion or a growing stack.
+  int[] pathNodes = new int[8];
+  int[] pathFrom = new int[8];
+  long[] pathHits = new long[8];
+
+  // the totals calculated by RTree.count() and RTree.sum()
+  int totalCount = 0;
+  double totalWeight = 0;
+
+  // List of nearest rectangles, used by nearest()
+  final TIntArrayList nearestIds = new TIntArrayList();
+
+  // List of nearestN rectangles, used by nearestN() and nearestNUnsorted()
+  final PriorityQueue distanceQueue =
+      new PriorityQueue(PriorityQueue.SORT_ORDER_ASCENDING);
+  final TIntArrayList savedValues = new TIntArrayList();
+  float savedPriority = 0;
+
+  // Results of a query, if they are buffered rather than passed
+  // straight to the caller.
+  final TIntArrayList results = new TIntArrayList();
+  final TIntProcedure collector = new TIntProcedure() {
+    @Override
+    public boolean execute(int id) {
+      results.add(id);
+      return true;
+    }
+  };
+
+  // Stores the results of the RTree queries that collect ids into an
+  // array or list.
+  final IdCollector ids = new IdCollector();
+
+  static final class IdCollector implements TIntProcedure {
+    int[] out;
+    int offset;
+    TIntArrayList results;
+    int count;
+
+    void start(int[] out, int offset, TIntArrayList results) {
+      this.out = out;
+      this.offset = offset;
+      this.results = results;
+      count = 0;
+    }
+
+    /**
+     * Forget the array and list, and return the number of ids found.
+     */
+    int finish() {
+      out = null;
+      results = null;
+      return count;
+    }
+
+    /**
+     * Add count ids at once, starting at index from of the passed array.
+     */
+    void addAll(int[] ids, int from, int count) {
+      if (results != null) {
+        results.add(ids, from, count);
+      } else if (out != null) {
+        int room = out.length - offset - this.count;
+        if (room > 0) {
+          System.arraycopy(ids, from, out, offset + this.count,
+              Math.min(room, count));
+        }
+      }
+      this.count += count;
+    }
+
+    @Override
+    public boolean execute(int id) {
+      if (results != null) {
+        results.add(id);
+      } else if (out != null && offset + count < out.length) {
+        out[offset + count] = id;
+      }
+      count++;
+      return true;
+    }
+  }
+
+  // Set while a query made without a context uses this one, which the
+  // tree or ConcurrentRTree keeps for the thread. Only read and written
+  // by that thread.
+  boolean inUse = false;
+
+  // If set, the query is an optimistic read of a tree that may be
+  // written to concurrently.
+  private StampedLock lock = null;
+  private long stamp = 0;
+
+  /**
+   * Create a context, for use by one thread at a time.
+   */
+  public QueryContext() {
+  }
+
+  /**
+   * Make room in the path arrays for a search of a tree of the passed
+   * height.
+   */
+  void ensurePathLength(int height) {
+    if (pathNodes.length < height) {
+      int length = Math.max(height, 2 * pathNodes.length);
+      pathNodes = Arrays.copyOf(pathNodes, length);
+      pathFrom = Arrays.copyOf(pathFrom, length);
+      pathHits = Arrays.copyOf(pathHits, length);
+    }
+  }
+
+  void startOptimisticRead(StampedLock lock, long stamp) {
+    this.lock = lock;
+    this.stamp = stamp;
+  }
+
+  void endOptimisticRead() {
+    lock = null;
+  }
+
+  /**
+   * Checked by the query algorithms each time a node is visited. Once the
+   * tree has been written to, an optimistic read must stop as soon as
+   * possible, because the nodes it visits next may be inconsistent.
+   *
+   * @return true if the query should be abandoned.
+   */
+  boolean invalidated() {
+    return lock != null && !lock.validate(stamp);
+  }
+}
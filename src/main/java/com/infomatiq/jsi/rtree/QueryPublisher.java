@@ -0,0 +1,148 @@
+//   QueryPublisher.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.rtree;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+import com.infomatiq.jsi.Flow;
+import com.infomatiq.jsi.Rectangle;
+
+/**
+ * <p>Publishes the results of an intersects or contains query on an
+ * RTree, for RTree.intersectsPublisher() and containsPublisher(). Each
+ * subscriber gets its own QuerySpliterator, which searches the tree only
+ * as far as needed for the items requested so far, so a slow subscriber
+ * holds the state of one search rather than its results.</p>
+ *
+ * <p>The items are passed to the subscriber by the thread that calls
+ * request(), before it returns. If request() is called again from
+ * onNext(), the demand is added, and the items are passed on by the loop
+ * already running, so that the stack does not grow.</p>
+ *
+ * <p>The tree must not be modified while a subscription is active.</p>
+ */
+class QueryPublisher<T> implements Flow.Publisher<T> {
+
+  private final RTree rtree;
+  private final int kind;
+  private final Rectangle r;
+  private final IntFunction<? extends T> mapper;
+
+  QueryPublisher(RTree rtree, int kind, Rectangle r,
+      IntFunction<? extends T> mapper) {
+    this.rtree = rtree;
+    this.kind = kind;
+    this.r = r.copy();
+    this.mapper = mapper;
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super T> subscriber) {
+    QuerySubscription<T> subscription = new QuerySubscription<>(
+        subscriber, mapper, new QuerySpliterator(rtree, kind, r));
+    subscriber.onSubscribe(subscription);
+  }
+
+  private static class QuerySubscription<T> implements Flow.Subscription,
+      IntConsumer {
+
+    private final Flow.Subscriber<? super T> subscriber;
+    private final IntFunction<? extends T> mapper;
+    private QuerySpliterator results;
+
+    private final AtomicLong requested = new AtomicLong();
+    // the number of calls to drain() that have not been handled yet; only
+    // the call that raises it from 0 signals the subscriber, so that its
+    // methods are never called concurrently
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile boolean cancelled = false;
+    private volatile Throwable error = null;
+
+    QuerySubscription(Flow.Subscriber<? super T> subscriber,
+        IntFunction<? extends T> mapper, QuerySpliterator results) {
+      this.subscriber = subscriber;
+      this.mapper = mapper;
+      this.results = results;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        error = new IllegalArgumentException(
+            "The number of items requested must be positive, not " + n);
+      } else {
+        long current;
+        long next;
+        do {
+          current = requested.get();
+          next = current + n < 0 ? Long.MAX_VALUE : current + n;
+        } while (!requested.compareAndSet(current, next));
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      drain();
+    }
+
+    @Override
+    public void accept(int id) {
+      subscriber.onNext(mapper.apply(id));
+    }
+
+    private void drain() {
+      if (pending.getAndIncrement() != 0) {
+        return;
+      }
+      do {
+        if (results == null) {
+          continue;
+        }
+        if (cancelled) {
+          // let the search be garbage collected
+          results = null;
+        } else if (error != null) {
+          results = null;
+          subscriber.onError(error);
+        } else {
+          try {
+            while (!cancelled && error == null && requested.get() > 0
+                && results.hasRemaining()) {
+              requested.decrementAndGet();
+              results.tryAdvance(this);
+            }
+            // completed as soon as the last result has been passed on,
+            // without waiting for more demand
+            if (!cancelled && error == null && !results.hasRemaining()) {
+              results = null;
+              subscriber.onComplete();
+            }
+          } catch (RuntimeException e) {
+            results = null;
+            subscriber.onError(e);
+          }
+        }
+      } while (pending.decrementAndGet() != 0);
+    }
+  }
+}
@@ -0,0 +1,255 @@
+//   QuerySpliterator.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.rtree;
+
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+
+import com.infomatiq.jsi.Rectangle;
+
+/**
+ * <p>The results of an intersects or contains query on an RTree, found
+ * one leaf at a time as they are requested, for RTree.intersectsStream()
+ * and the other pull-based queries. The traversal is the same as that of
+ * RTree.search(), but its state is kept in this object between calls, so
+ * that a consumer can stop at any point without the rest of the tree
+ * being searched.</p>
+ *
+ * <p>trySplit() hands half of the children still to be visited of the
+ * uppermost node that has at least two of them to a new spliterator, so
+ * a parallel stream searches separate subtrees in separate threads.</p>
+ *
+ * <p>The tree must not be modified while the results are consumed.</p>
+ */
+class QuerySpliterator implements Spliterator.OfInt {
+
+  private final RTree rtree;
+  private final int kind;
+  private final float minX;
+  private final float minY;
+  private final float maxX;
+  private final float maxY;
+
+  // the path of internal nodes from the root of the search down to the
+  // parent of the current leaf, as in QueryContext
+  private final int[] pathNodes;
+  private final int[] pathFrom;
+  private final long[] pathHits;
+  private int depth = -1;
+
+  // the depth of the root of the subtree whose entries are all results,
+  // if the search is in one
+  private int allDepth = Integer.MAX_VALUE;
+
+  // the entries of the root of the search are only scanned up to this
+  // index, so that a split off spliterator leaves the rest to the one it
+  // was split from
+  private int rootEnd = Integer.MAX_VALUE;
+
+  // the leaf whose entries are being returned, and those still to return
+  private Node leaf = null;
+  private boolean leafAll = false;
+  private int leafFrom = 0;
+  private long leafHits = 0;
+
+  private long estimatedSize;
+
+  QuerySpliterator(RTree rtree, int kind, Rectangle r) {
+    this.rtree = rtree;
+    this.kind = kind;
+    this.minX = r.minX;
+    this.minY = r.minY;
+    this.maxX = r.maxX;
+    this.maxY = r.maxY;
+    pathNodes = new int[rtree.treeHeight];
+    pathFrom = new int[rtree.treeHeight];
+    pathHits = new long[rtree.treeHeight];
+    estimatedSize = rtree.size();
+
+    Node root = rtree.getNode(rtree.getRootNodeId());
+    if (root.isLeaf()) {
+      startLeaf(root, false);
+    } else {
+      depth = 0;
+      pathNodes[0] = root.nodeId;
+      pathFrom[0] = 0;
+      pathHits[0] = scan(root, 0, false);
+    }
+  }
+
+  private QuerySpliterator(QuerySpliterator parent, int nodeId, int from,
+      long hits, boolean all) {
+    rtree = parent.rtree;
+    kind = parent.kind;
+    minX = parent.minX;
+    minY = parent.minY;
+    maxX = parent.maxX;
+    maxY = parent.maxY;
+    pathNodes = new int[parent.pathNodes.length];
+    pathFrom = new int[parent.pathNodes.length];
+    pathHits = new long[parent.pathNodes.length];
+    estimatedSize = parent.estimatedSize;
+
+    depth = 0;
+    pathNodes[0] = nodeId;
+    pathFrom[0] = from;
+    pathHits[0] = hits;
+    rootEnd = from + 64;
+    if (all) {
+      allDepth = 0;
+    }
+  }
+
+  @Override
+  public boolean tryAdvance(IntConsumer action) {
+    if (!nextHit()) {
+      return false;
+    }
+    int i = leafFrom + Long.numberOfTrailingZeros(leafHits);
+    leafHits &= leafHits - 1;
+    action.accept(leaf.ids[i]);
+    return true;
+  }
+
+  @Override
+  public void forEachRemaining(IntConsumer action) {
+    while (nextHit()) {
+      long hits = leafHits;
+      leafHits = 0;
+      while (hits != 0) {
+        action.accept(leaf.ids[leafFrom + Long.numberOfTrailingZeros(hits)]);
+        hits &= hits - 1;
+      }
+    }
+  }
+
+  @Override
+  public Spliterator.OfInt trySplit() {
+    for (int d = 0; d <= depth; d++) {
+      long hits = pathHits[d];
+      int count = Long.bitCount(hits);
+      if (count < 2) {
+        continue;
+      }
+      // the upper half of the children goes to the new spliterator
+      long upper = hits;
+      for (int k = count - count / 2; k > 0; k--) {
+        upper &= upper - 1;
+      }
+      pathHits[d] = hits & ~upper;
+      estimatedSize >>>= 1;
+      return new QuerySpliterator(this, pathNodes[d], pathFrom[d], upper,
+          d >= allDepth);
+    }
+    return null;
+  }
+
+  @Override
+  public long estimateSize() {
+    return estimatedSize;
+  }
+
+  @Override
+  public int characteristics() {
+    return NONNULL;
+  }
+
+  /**
+   * Whether there are more results, searching the tree for the next one
+   * if needed. Used by QueryPublisher to complete a subscription as soon
+   * as its last result has been passed on.
+   */
+  boolean hasRemaining() {
+    return nextHit();
+  }
+
+  /**
+   * Move on to the next result, searching the tree for the next leaf
+   * with results if those of the current leaf have all been returned.
+   *
+   * @return false if there are no more results.
+   */
+  private boolean nextHit() {
+    while (leafHits == 0) {
+      if (leaf != null) {
+        leafFrom += 64;
+        if (leafFrom < leaf.entryCount) {
+          leafHits = scan(leaf, leafFrom, leafAll);
+          continue;
+        }
+        leaf = null;
+      }
+      if (!nextLeaf()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean nextLeaf() {
+    while (depth >= 0) {
+      Node n = rtree.getNode(pathNodes[depth]);
+      long hits = pathHits[depth];
+      int from = pathFrom[depth];
+
+      if (hits == 0) {
+        from += 64;
+        if (from < n.entryCount && (depth > 0 || from < rootEnd)) {
+          pathFrom[depth] = from;
+          pathHits[depth] = scan(n, from, depth >= allDepth);
+        } else {
+          depth--;
+          if (depth < allDepth) {
+            allDepth = Integer.MAX_VALUE;
+          }
+        }
+        continue;
+      }
+
+      int i = from + Long.numberOfTrailingZeros(hits);
+      pathHits[depth] = hits & (hits - 1);
+      Node child = rtree.getNode(n.ids[i]);
+      boolean all = depth >= allDepth || Rectangle.contains(minX, minY,
+          maxX, maxY, n.entriesMinX[i], n.entriesMinY[i], n.entriesMaxX[i],
+          n.entriesMaxY[i]);
+      if (child.isLeaf()) {
+        startLeaf(child, all);
+        return true;
+      }
+      depth++;
+      if (all && allDepth == Integer.MAX_VALUE) {
+        allDepth = depth;
+      }
+      pathNodes[depth] = child.nodeId;
+      pathFrom[depth] = 0;
+      pathHits[depth] = scan(child, 0, all);
+    }
+    return false;
+  }
+
+  private void startLeaf(Node n, boolean all) {
+    leaf = n;
+    leafAll = all;
+    leafFrom = 0;
+    leafHits = scan(n, 0, all);
+  }
+
+  private long scan(Node n, int from, boolean all) {
+    return RTree.scan(kind, n, from, all, minX, minY, maxX, maxY);
+  }
+}
@@ -0,0 +1,252 @@
+//   RStarSplit.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.rtree;
+
+import java.util.Arrays;
+
+/**
+ * <p>The split of the R*-tree, by Beckmann, Kriegel, Schneider and Seeger,
+ * "The R*-tree: an efficient and robust access method for points and
+ * rectangles" (1990), together with its ChooseSubtree and forced
+ * reinsertion.</p>
+ *
+ * <p>The entries are sorted along each axis, once by their lower and once
+ * by their upper coordinate, and every division of a sorted list into two
+ * groups is considered in which each group has at least minEntries entries,
+ * and at least 40% of the maximum number of entries per node, as the
+ * authors recommend. The axis for which
+ * the sum of the margins (perimeters) of the groups over all divisions is
+ * least is chosen, and then the division along that axis with the least
+ * overlap between the two groups, or, for equal overlaps, the least total
+ * area.</p>
+ *
+ * <p>With a maximum of two entries per node, every split leaves an entry
+ * on its own, and an entry that lies apart from the others is split off
+ * again at every level up to the root. Such trees grow very tall, and
+ * should use the default split instead.</p>
+ *
+ * <p>An RStarSplit keeps working storage, so each tree uses its own copy
+ * of the instance passed to it.</p>
+ */
+public class RStarSplit implements SplitStrategy {
+
+  /**
+   * The fraction of entries reinserted by default, found to perform best
+   * by the authors of the R*-tree.
+   */
+  public static final float DEFAULT_REINSERT_FRACTION = 0.3f;
+
+  // the fraction of the maximum number of entries per node that each group
+  // of a split is given at least, whatever the minimum of the tree
+  private static final float MIN_FILL = 0.4f;
+
+  private final float reinsertFraction;
+
+  // working storage, grown as needed
+  private long[] keys = new long[0];
+  private int[] lowerOrder = new int[0];
+  private int[] upperOrder = new int[0];
+  private float[] prefix = new float[0];
+  private float[] suffix = new float[0];
+
+  /**
+   * Create the split of the R*-tree, with forced reinsertion of 30% of the
+   * entries of overflowing nodes.
+   */
+  public RStarSplit() {
+    this(DEFAULT_REINSERT_FRACTION);
+  }
+
+  /**
+   * Create the split of the R*-tree, reinserting the passed fraction of
+   * the entries of overflowing nodes; zero disables forced reinsertion.
+   */
+  public RStarSplit(float reinsertFraction) {
+    if (reinsertFraction < 0 || reinsertFraction >= 1) {
+      throw new IllegalArgumentException(
+          "reinsertFraction must be at least 0 and less than 1");
+    }
+    this.reinsertFraction = reinsertFraction;
+  }
+
+  @Override
+  public boolean minimizeOverlap() {
+    return true;
+  }
+
+  @Override
+  public float reinsertFraction() {
+    return reinsertFraction;
+  }
+
+  @Override
+  public SplitStrategy copy() {
+    return new RStarSplit(reinsertFraction);
+  }
+
+  @Override
+  public void split(float[] minX, float[] minY, float[] maxX, float[] maxY,
+      int count, int minEntries, boolean[] second) {
+    if (keys.length < count) {
+      keys = new long[count];
+      lowerOrder = new int[count];
+      upperOrder = new int[count];
+      prefix = new float[4 * count];
+      suffix = new float[4 * count];
+    }
+
+    minEntries = Math.max(minEntries,
+        (int) Math.ceil(MIN_FILL * (count - 1)));
+
+    // ChooseSplitAxis
+    float marginX = marginSum(minX, maxX, minY, maxY, count, minEntries);
+    float marginY = marginSum(minY, maxY, minX, maxX, count, minEntries);
+
+    // ChooseSplitIndex; the arrays are swapped for the y axis, which does
+    // not affect areas and overlaps
+    if (marginX <= marginY) {
+      chooseSplitIndex(minX, maxX, minY, maxY, count, minEntries, second);
+    } else {
+      chooseSplitIndex(minY, maxY, minX, maxX, count, minEntries, second);
+    }
+  }
+
+  /**
+   * Sort the entries along the axis given by lower and upper, into
+   * lowerOrder and upperOrder, and return the sum of the margins of the
+   * groups of all the divisions of both orders.
+   */
+  private float marginSum(float[] lower, float[] upper, float[] otherLower,
+      float[] otherUpper, int count, int minEntries) {
+    sort(lower, count, lowerOrder);
+    sort(upper, count, upperOrder);
+    float sum = 0;
+    for (int[] order : new int[][] { lowerOrder, upperOrder }) {
+      bounds(order, lower, upper, otherLower, otherUpper, count);
+      for (int k = minEntries; k <= count - minEntries; k++) {
+        sum += margin(prefix, k - 1) + margin(suffix, k);
+      }
+    }
+    return sum;
+  }
+
+  private void chooseSplitIndex(float[] lower, float[] upper,
+      float[] otherLower, float[] otherUpper, int count, int minEntries,
+      boolean[] second) {
+    sort(lower, count, lowerOrder);
+    sort(upper, count, upperOrder);
+
+    float bestOverlap = Float.POSITIVE_INFINITY;
+    float bestArea = Float.POSITIVE_INFINITY;
+    int[] bestOrder = lowerOrder;
+    int bestK = minEntries;
+    for (int[] order : new int[][] { lowerOrder, upperOrder }) {
+      bounds(order, lower, upper, otherLower, otherUpper, count);
+      for (int k = minEntries; k <= count - minEntries; k++) {
+        float overlap = overlap(k);
+        float area = area(prefix, k - 1) + area(suffix, k);
+        if (overlap < bestOverlap
+            || (overlap == bestOverlap && area < bestArea)) {
+          bestOverlap = overlap;
+          bestArea = area;
+          bestOrder = order;
+          bestK = k;
+        }
+      }
+    }
+
+    for (int i = 0; i < count; i++) {
+      second[bestOrder[i]] = i >= bestK;
+    }
+  }
+
+  private void sort(float[] values, int count, int[] order) {
+    for (int i = 0; i < count; i++) {
+      keys[i] = RTree.sortKey(values[i], i);
+    }
+    Arrays.sort(keys, 0, count);
+    for (int i = 0; i < count; i++) {
+      order[i] = (int) keys[i];
+    }
+  }
+
+  /**
+   * Calculate the bounds of the first i + 1 entries in order into prefix,
+   * and of the entries from i onwards into suffix, as (lower, upper,
+   * otherLower, otherUpper) at index 4 * i.
+   */
+  private void bounds(int[] order, float[] lower, float[] upper,
+      float[] otherLower, float[] otherUpper, int count) {
+    float l = Float.MAX_VALUE;
+    float u = -Float.MAX_VALUE;
+    float ol = Float.MAX_VALUE;
+    float ou = -Float.MAX_VALUE;
+    for (int i = 0; i < count; i++) {
+      int e = order[i];
+      l = Math.min(l, lower[e]);
+      u = Math.max(u, upper[e]);
+      ol = Math.min(ol, otherLower[e]);
+      ou = Math.max(ou, otherUpper[e]);
+      prefix[4 * i] = l;
+      prefix[4 * i + 1] = u;
+      prefix[4 * i + 2] = ol;
+      prefix[4 * i + 3] = ou;
+    }
+    l = Float.MAX_VALUE;
+    u = -Float.MAX_VALUE;
+    ol = Float.MAX_VALUE;
+    ou = -Float.MAX_VALUE;
+    for (int i = count - 1; i >= 0; i--) {
+      int e = order[i];
+      l = Math.min(l, lower[e]);
+      u = Math.max(u, upper[e]);
+      ol = Math.min(ol, otherLower[e]);
+      ou = Math.max(ou, otherUpper[e]);
+      suffix[4 * i] = l;
+      suffix[4 * i + 1] = u;
+      suffix[4 * i + 2] = ol;
+      suffix[4 * i + 3] = ou;
+    }
+  }
+
+  private static float margin(float[] bounds, int i) {
+    return (bounds[4 * i + 1] - bounds[4 * i])
+        + (bounds[4 * i + 3] - bounds[4 * i + 2]);
+  }
+
+  private static float area(float[] bounds, int i) {
+    return (bounds[4 * i + 1] - bounds[4 * i])
+        * (bounds[4 * i + 3] - bounds[4 * i + 2]);
+  }
+
+  /**
+   * The area of the intersection of the first k entries with the rest.
+   */
+  private float overlap(int k) {
+    int p = 4 * (k - 1);
+    int s = 4 * k;
+    float width = Math.min(prefix[p + 1], suffix[s + 1])
+        - Math.max(prefix[p], suffix[s]);
+    float height = Math.min(prefix[p + 3], suffix[s + 3])
+        - Math.max(prefix[p + 2], suffix[s + 2]);
+    if (width <= 0 || height <= 0) {
+      return 0;
+    }
+    return width * height;
+  }
+}
@@ -19,15 +19,32 @@
 
 package com.infomatiq.jsi.rtree;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.infomatiq.jsi.BatchIntProcedure;
+import com.infomatiq.jsi.Flow;
 import com.infomatiq.jsi.Point;
 import com.infomatiq.jsi.PriorityQueue;
 import com.infomatiq.jsi.Rectangle;
 import com.infomatiq.jsi.SpatialIndex;
+import com.slimjars.dist.gnu.trove.list.array.TFloatArrayList;
 import com.slimjars.dist.gnu.trove.list.array.TIntArrayList;
-import com.slimjars.dist.gnu.trove.map.hash.TIntObjectHashMap;
 import com.slimjars.dist.gnu.trove.procedure.TIntProcedure;
 import com.slimjars.dist.gnu.trove.stack.TIntStack;
 import com.slimjars.dist.gnu.trove.stack.array.TIntArrayStack;
@@ -55,26 +72,72 @@ public class RTree implements SpatialIndex {
   // parameters of the tree
   private final static int DEFAULT_MAX_NODE_ENTRIES = 50;
   private final static int DEFAULT_MIN_NODE_ENTRIES = 20;
+
+  // nodes above this level have their children searched by separate tasks
+  // in parallelIntersects()
+  private final static int DEFAULT_PARALLEL_FORK_LEVEL = 2;
+
+  // the number of entries considered by chooseLeastOverlapEnlargement().
+  // Calculating the overlap enlargement takes time quadratic in the number
+  // of entries, so as suggested by the authors of the R*-tree, only the
+  // entries needing the least area enlargement are considered.
+  private final static int OVERLAP_CANDIDATES = 32;
+
+  // the kinds of search(): the entries that intersect the rectangle, or
+  // are contained by it, or the totals of those that intersect it
+  final static int INTERSECTS = 0;
+  final static int CONTAINS = 1;
+  final static int TOTALS = 2;
+
+  // format of write() and read()
+  private final static int SERIALIZATION_MAGIC = 0x45525452; // "RTRE"
+  private final static int SERIALIZATION_VERSION = 1;
+  // written by aggregate trees, whose leaves also have entry weights
+  private final static int AGGREGATE_SERIALIZATION_VERSION = 2;
+  private final static int NODE_HEADER_BYTES = 28;
+
   int maxNodeEntries;
   int minNodeEntries;
 
-  // map of nodeId -> node object
-  // TODO eliminate this map - it should not be needed. Nodes
-  // can be found by traversing the tree.
-  private TIntObjectHashMap<Node> nodeMap = new TIntObjectHashMap<>();
+  // whether each node keeps the number and total weight of the entries
+  // in its subtree, so that count() and sum() can skip whole subtrees
+  private final boolean aggregate;
+
+  // the nodes, indexed by node id. The slots of deleted nodes are null
+  // until their ids are reused; compact() removes them.
+  private Node[] nodes = new Node[16];
 
   // internal consistency checking - set to true if debugging tree corruption
   private final static boolean INTERNAL_CONSISTENCY_CHECKING = false;
 
-  // used to mark the status of entries during a node split
-  private final static int ENTRY_STATUS_ASSIGNED = 0;
-  private final static int ENTRY_STATUS_UNASSIGNED = 1;
-  private byte[] entryStatus = null;
-  private byte[] initialEntryStatus = null;
+  // the split algorithm and its insertion policies
+  private SplitStrategy splitStrategy = null;
+
+  // the entries of an overflowing node and the new entry, passed to the
+  // split strategy, or sorted for forced reinsertion
+  private float[] overflowMinX = null;
+  private float[] overflowMinY = null;
+  private float[] overflowMaxX = null;
+  private float[] overflowMaxY = null;
+  private int[] overflowIds = null;
+  private float[] overflowWeights = null;
+  private boolean[] overflowSecond = null;
+  private long[] overflowKeys = null;
+
+  // entries removed by forced reinsertion, waiting to be inserted again,
+  // and the levels at which a forced reinsertion has happened while adding
+  // the current entry, as a bit mask
+  private TFloatArrayList reinsertRects = new TFloatArrayList();
+  private TIntArrayList reinsertIds = new TIntArrayList();
+  private TFloatArrayList reinsertWeights = new TFloatArrayList();
+  private TIntArrayList reinsertLevels = new TIntArrayList();
+  private long reinsertedLevels = 0;
+  private boolean reinserting = false;
 
   // stacks used to store nodeId and entry index of each node
   // from the root down to the leaf. Enables fast lookup
   // of nodes when a split is propagated up the tree.
+  // Queries keep their path in their QueryContext.
   private TIntStack parents = new TIntArrayStack();
   private TIntStack parentsEntry = new TIntArrayStack();
 
@@ -86,24 +149,25 @@ public class RTree implements SpatialIndex {
   // Enables creation of new nodes
   private int highestUsedNodeId = rootNodeId;
 
-  // Deleted node objects are retained in the nodeMap,
-  // so that they can be reused. Store the IDs of nodes
-  // which can be reused.
+  // Store the IDs of deleted nodes, so that they can be reused.
   private TIntStack deletedNodeIds = new TIntArrayStack();
 
-  // List of nearest rectangles. Use a member variable to
-  // avoid recreating the object each time nearest() is called.
-  private TIntArrayList nearestIds = new TIntArrayList();
-  private TIntArrayList savedValues = new TIntArrayList();
-  private float savedPriority = 0;
+  // Working state of the queries made without a context, one for each
+  // thread, so that several threads may query the tree at once. The
+  // contexts are kept to avoid recreating the objects for each query. A
+  // query made by the procedure of another one gets a new context, see
+  // startQuery().
+  private final ThreadLocal<QueryContext> contexts =
+      new ThreadLocal<QueryContext>() {
+        @Override
+        protected QueryContext initialValue() {
+          return new QueryContext();
+        }
+      };
 
-  // List of nearestN rectangles
+  // List of nearestN rectangles, used by the deprecated nearestN_orig()
   private SortedList nearestNIds = new SortedList();
 
-  // List of nearestN rectanges, used in the alternative nearestN implementation.
-  private PriorityQueue distanceQueue =
-      new PriorityQueue(PriorityQueue.SORT_ORDER_ASCENDING);
-
   /**
    * Constructor with default min and max nodes per entry.
    */
@@ -115,7 +179,113 @@ public class RTree implements SpatialIndex {
    * Constructor with min and max nodes per entry.
    */
   public RTree(int minNodeEntries, int maxNodeEntries) {
+    this(minNodeEntries, maxNodeEntries, null);
+  }
+
+  /**
+   * Constructor with min and max nodes per entry, and the algorithm used
+   * to split nodes: a LinearSplit, QuadraticSplit, AngTanSplit or
+   * GreeneSplit, or an RStarSplit to create an R*-tree. If null, a new
+   * LinearSplit is used. As most strategies keep working storage, the
+   * tree uses its own copy of the strategy, made by SplitStrategy.copy().
+   */
+  public RTree(int minNodeEntries, int maxNodeEntries,
+      SplitStrategy splitStrategy) {
+    this(minNodeEntries, maxNodeEntries, splitStrategy, false);
+  }
+
+  /**
+   * <p>Constructor with min and max nodes per entry, the algorithm used to
+   * split nodes, and whether the tree is an aggregate tree.</p>
+   *
+   * <p>Each node of an aggregate tree also stores the number and the total
+   * weight of the entries below it, kept up to date as entries are added
+   * and deleted. count() and sum() then use the stored totals of the nodes
+   * that the query rectangle contains, rather than visiting their leaves,
+   * so they take time roughly proportional to the number of nodes crossed
+   * by the edge of the rectangle. Entries can be given a weight with
+   * add(Rectangle, int, float). Adding and deleting entries is a little
+   * slower than in a normal tree.</p>
+   */
+  public RTree(int minNodeEntries, int maxNodeEntries,
+      SplitStrategy splitStrategy, boolean aggregate) {
+    this.aggregate = aggregate;
     init(minNodeEntries, maxNodeEntries);
+    this.splitStrategy = splitStrategy != null ? splitStrategy.copy()
+        : new LinearSplit();
+    int count = this.maxNodeEntries + 1;
+    overflowMinX = new float[count];
+    overflowMinY = new float[count];
+    overflowMaxX = new float[count];
+    overflowMaxY = new float[count];
+    overflowIds = new int[count];
+    overflowWeights = new float[count];
+    overflowSecond = new boolean[count];
+    overflowKeys = new long[count];
+  }
+
+  /**
+   * Returns the algorithm used to split nodes, the copy of the one passed
+   * to the constructor that belongs to this tree.
+   */
+  public SplitStrategy getSplitStrategy() {
+    return splitStrategy;
+  }
+
+  /**
+   * Returns whether this is an aggregate tree, in which each node stores
+   * the number and total weight of the entries below it.
+   *
+   * @see #RTree(int, int, SplitStrategy, boolean)
+   */
+  public boolean isAggregate() {
+    return aggregate;
+  }
+
+  /**
+   * Create an RTree containing the passed entries, using default min and
+   * max nodes per entry.
+   *
+   * @see #bulkLoad(float[], float[], float[], float[], int[], int, int)
+   */
+  public static RTree bulkLoad(float[] minX, float[] minY, float[] maxX,
+      float[] maxY, int[] ids) {
+    return bulkLoad(minX, minY, maxX, maxY, ids, DEFAULT_MIN_NODE_ENTRIES,
+        DEFAULT_MAX_NODE_ENTRIES);
+  }
+
+  /**
+   * <p>Create an RTree containing the passed entries. The i-th entry is
+   * the rectangle (minX[i], minY[i], maxX[i], maxY[i]) with id ids[i].</p>
+   *
+   * <p>Instead of adding the entries one at a time, the tree is built
+   * bottom-up using the Sort-Tile-Recursive (STR) packing algorithm
+   * described by Leutenegger, Lopez and Edgington. This is much faster
+   * than repeated calls to add(), and produces nodes with very little
+   * overlap. The returned tree is a normal RTree, and entries can be
+   * added and deleted afterwards as usual.</p>
+   *
+   * <p>The passed arrays are not modified, and are not referenced by the
+   * returned tree.</p>
+   */
+  public static RTree bulkLoad(float[] minX, float[] minY, float[] maxX,
+      float[] maxY, int[] ids, int minNodeEntries, int maxNodeEntries) {
+    int count = ids.length;
+    if (minX.length != count || minY.length != count
+        || maxX.length != count || maxY.length != count) {
+      throw new IllegalArgumentException(
+          "Coordinate and id arrays must have the same length");
+    }
+
+    RTree rtree = new RTree(minNodeEntries, maxNodeEntries);
+    if (count > 0) {
+      rtree.pack(minX, minY, maxX, maxY, ids);
+    }
+
+    if (INTERNAL_CONSISTENCY_CHECKING) {
+      rtree.checkConsistency();
+    }
+    return rtree;
   }
 
   //-------------------------------------------------------------------------
@@ -158,18 +328,138 @@ public class RTree implements SpatialIndex {
       minNodeEntries = maxNodeEntries / 2;
     }
 
-    entryStatus = new byte[maxNodeEntries];
-    initialEntryStatus = new byte[maxNodeEntries];
+    Node root = newNode(rootNodeId, 1);
+    putNode(root);
+
+    log.debug("init() " + " MaxNodeEntries = " + maxNodeEntries
+        + ", MinNodeEntries = " + minNodeEntries);
+  }
 
-    for (int i = 0; i < maxNodeEntries; i++) {
-      initialEntryStatus[i] = ENTRY_STATUS_UNASSIGNED;
+  /**
+   * Used by bulkLoad(). Replaces the (empty) contents of the tree with
+   * nodes packed level by level, starting with the leaves.
+   */
+  private void pack(float[] minX, float[] minY, float[] maxX, float[] maxY,
+      int[] ids) {
+    int count = ids.length;
+
+    // copy the entries, so that the passed arrays are left untouched, and
+    // so that each rectangle is normalized (min <= max).
+    float[] levelMinX = new float[count];
+    float[] levelMinY = new float[count];
+    float[] levelMaxX = new float[count];
+    float[] levelMaxY = new float[count];
+    int[] levelIds = new int[count];
+    for (int i = 0; i < count; i++) {
+      levelMinX[i] = Math.min(minX[i], maxX[i]);
+      levelMinY[i] = Math.min(minY[i], maxY[i]);
+      levelMaxX[i] = Math.max(minX[i], maxX[i]);
+      levelMaxY[i] = Math.max(minY[i], maxY[i]);
+      levelIds[i] = ids[i];
     }
 
-    Node root = new Node(rootNodeId, 1, maxNodeEntries);
-    nodeMap.put(rootNodeId, root);
+    // discard the empty root node created by init(); node IDs are
+    // allocated from 0 again as the packed nodes are created.
+    Arrays.fill(nodes, null);
+    deletedNodeIds.clear();
+    highestUsedNodeId = -1;
+
+    long[] keys = new long[count];
+    int level = 1;
+
+    while (count > maxNodeEntries) {
+      // STR: sort the entries by x, cut them into sliceCount vertical
+      // slices, sort each slice by y and cut it into nodes. Entries are
+      // spread evenly over slices and nodes, rather than filling every
+      // node completely, so that no node has fewer than minNodeEntries.
+      int nodeCount = (count + maxNodeEntries - 1) / maxNodeEntries;
+      int sliceCount = (int) Math.ceil(Math.sqrt(nodeCount));
+
+      for (int i = 0; i < count; i++) {
+        keys[i] = sortKey(levelMinX[i] / 2 + levelMaxX[i] / 2, i);
+      }
+      Arrays.sort(keys, 0, count);
+
+      // each slice may need one more node than an even share of nodeCount
+      int capacity = nodeCount + sliceCount;
+      float[] nextMinX = new float[capacity];
+      float[] nextMinY = new float[capacity];
+      float[] nextMaxX = new float[capacity];
+      float[] nextMaxY = new float[capacity];
+      int[] nextIds = new int[capacity];
+      int nextCount = 0;
+
+      for (int slice = 0; slice < sliceCount; slice++) {
+        int sliceStart = (int) ((long) count * slice / sliceCount);
+        int sliceEnd = (int) ((long) count * (slice + 1) / sliceCount);
+
+        for (int i = sliceStart; i < sliceEnd; i++) {
+          int index = (int) keys[i];
+          keys[i] = sortKey(levelMinY[index] / 2 + levelMaxY[index] / 2,
+              index);
+        }
+        Arrays.sort(keys, sliceStart, sliceEnd);
+
+        int sliceSize = sliceEnd - sliceStart;
+        int sliceNodeCount = (sliceSize + maxNodeEntries - 1) / maxNodeEntries;
+        for (int j = 0; j < sliceNodeCount; j++) {
+          int nodeStart = sliceStart
+              + (int) ((long) sliceSize * j / sliceNodeCount);
+          int nodeEnd = sliceStart
+              + (int) ((long) sliceSize * (j + 1) / sliceNodeCount);
+
+          Node n = newNode(getNextNodeId(), level);
+          for (int i = nodeStart; i < nodeEnd; i++) {
+            int index = (int) keys[i];
+            n.addEntry(levelMinX[index], levelMinY[index], levelMaxX[index],
+                levelMaxY[index], levelIds[index]);
+          }
+          putNode(n);
+          recalculateAggregates(n);
+
+          nextMinX[nextCount] = n.mbrMinX;
+          nextMinY[nextCount] = n.mbrMinY;
+          nextMaxX[nextCount] = n.mbrMaxX;
+          nextMaxY[nextCount] = n.mbrMaxY;
+          nextIds[nextCount] = n.nodeId;
+          nextCount++;
+        }
+      }
+
+      levelMinX = nextMinX;
+      levelMinY = nextMinY;
+      levelMaxX = nextMaxX;
+      levelMaxY = nextMaxY;
+      levelIds = nextIds;
+      count = nextCount;
+      level++;
+    }
 
-    log.debug("init() " + " MaxNodeEntries = " + maxNodeEntries
-        + ", MinNodeEntries = " + minNodeEntries);
+    // the remaining entries fit into a single node, which becomes the root
+    Node root = newNode(getNextNodeId(), level);
+    for (int i = 0; i < count; i++) {
+      root.addEntry(levelMinX[i], levelMinY[i], levelMaxX[i], levelMaxY[i],
+          levelIds[i]);
+    }
+    putNode(root);
+    recalculateAggregates(root);
+
+    rootNodeId = root.nodeId;
+    treeHeight = level;
+    size = ids.length;
+  }
+
+  /**
+   * Used by pack(). Combines a float sort value and an int index into a
+   * single long, such that sorting the longs sorts by value, and the index
+   * can be recovered by casting the long to an int.
+   */
+  static long sortKey(float value, int index) {
+    int bits = Float.floatToIntBits(value);
+    // flip all bits except the sign bit of negative values, so that
+    // the bits sort in the same order as the float values.
+    bits ^= (bits >> 31) & 0x7fffffff;
+    return ((long) bits << 32) | (index & 0xffffffffL);
   }
 
   /**
@@ -181,7 +471,34 @@ public class RTree implements SpatialIndex {
       log.debug("Adding rectangle " + r + ", id " + id);
     }
 
-    add(r.minX, r.minY, r.maxX, r.maxY, id, 1);
+    add(r.minX, r.minY, r.maxX, r.maxY, id, 1, 1);
+
+    size++;
+
+    if (INTERNAL_CONSISTENCY_CHECKING) {
+      checkConsistency();
+    }
+  }
+
+  /**
+   * Adds a new rectangle to an aggregate tree, with a weight that is
+   * included in the results of sum(). Entries added by add(Rectangle, int)
+   * have a weight of 1.
+   *
+   * @throws IllegalStateException if this is not an aggregate tree, as
+   *         the weight would be lost.
+   */
+  public void add(Rectangle r, int id, float weight) {
+    if (!aggregate) {
+      throw new IllegalStateException(
+          "Weights can only be stored by an aggregate tree");
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Adding rectangle " + r + ", id " + id + ", weight "
+          + weight);
+    }
+
+    add(r.minX, r.minY, r.maxX, r.maxY, id, 1, weight);
 
     size++;
 
@@ -191,10 +508,38 @@ public class RTree implements SpatialIndex {
   }
 
   /**
-   * Adds a new entry at a specified level in the tree
+   * Adds a new entry at a specified level in the tree. The weight is only
+   * used for entries of the leaves of an aggregate tree.
    */
   private void add(float minX, float minY, float maxX, float maxY, int id,
-      int level) {
+      int level, float weight) {
+    insert(minX, minY, maxX, maxY, id, level, weight);
+
+    // insert the entries removed by forced reinsertion, which may cause
+    // further reinsertions at other levels
+    if (!reinserting && reinsertIds.size() > 0) {
+      reinserting = true;
+      while (reinsertIds.size() > 0) {
+        int last = reinsertIds.size() - 1;
+        int rect = 4 * last;
+        insert(reinsertRects.get(rect), reinsertRects.get(rect + 1),
+            reinsertRects.get(rect + 2), reinsertRects.get(rect + 3),
+            reinsertIds.get(last), reinsertLevels.get(last),
+            reinsertWeights.get(last));
+        reinsertRects.remove(rect, 4);
+        reinsertIds.removeAt(last);
+        reinsertWeights.removeAt(last);
+        reinsertLevels.removeAt(last);
+      }
+      reinserting = false;
+    }
+    if (!reinserting) {
+      reinsertedLevels = 0;
+    }
+  }
+
+  private void insert(float minX, float minY, float maxX, float maxY, int id,
+      int level, float weight) {
     // I1 [Find position for new record] Invoke ChooseLeaf to select a
     // leaf node L in which to place r
     Node n = chooseNode(minX, minY, maxX, maxY, level);
@@ -202,12 +547,17 @@ public class RTree implements SpatialIndex {
 
     // I2 [Add record to leaf node] If L has room for another entry,
     // install E. Otherwise invoke SplitNode to obtain L and LL containing
-    // E and all the old entries of L
+    // E and all the old entries of L, unless the split strategy calls for
+    // some of the entries to be reinserted instead
     if (n.entryCount < maxNodeEntries) {
-      n.addEntry(minX, minY, maxX, maxY, id);
+      n.addEntry(minX, minY, maxX, maxY, id, weight);
+    } else if (shouldReinsert(n)) {
+      reinsert(n, minX, minY, maxX, maxY, id, weight);
     } else {
-      newLeaf = splitNode(n, minX, minY, maxX, maxY, id);
+      newLeaf = splitNode(n, minX, minY, maxX, maxY, id, weight);
     }
+    recalculateAggregates(n);
+    recalculateAggregates(newLeaf);
 
     // I3 [Propagate changes upwards] Invoke AdjustTree on L, also passing LL
     // if a split was performed
@@ -217,16 +567,17 @@ public class RTree implements SpatialIndex {
     // split, create a new root whose children are the two resulting nodes.
     if (newNode != null) {
       int oldRootNodeId = rootNodeId;
-      Node oldRoot = getNode(oldRootNodeId);
+      Node oldRoot = nodes[oldRootNodeId];
 
       rootNodeId = getNextNodeId();
       treeHeight++;
-      Node root = new Node(rootNodeId, treeHeight, maxNodeEntries);
+      Node root = newNode(rootNodeId, treeHeight);
       root.addEntry(newNode.mbrMinX, newNode.mbrMinY, newNode.mbrMaxX,
           newNode.mbrMaxY, newNode.nodeId);
       root.addEntry(oldRoot.mbrMinX, oldRoot.mbrMinY, oldRoot.mbrMaxX,
           oldRoot.mbrMaxY, oldRoot.nodeId);
-      nodeMap.put(rootNodeId, root);
+      putNode(root);
+      recalculateAggregates(root);
     }
   }
 
@@ -255,7 +606,7 @@ public class RTree implements SpatialIndex {
     int foundIndex = -1; // index of entry to be deleted in leaf
 
     while (foundIndex == -1 && parents.size() > 0) {
-      n = getNode(parents.peek());
+      n = nodes[parents.peek()];
       int startIndex = parentsEntry.peek() + 1;
 
       if (!n.isLeaf()) {
@@ -291,16 +642,30 @@ public class RTree implements SpatialIndex {
       size--;
     }
 
+    shrinkTree();
+
+    if (INTERNAL_CONSISTENCY_CHECKING) {
+      checkConsistency();
+    }
+
+    return (foundIndex != -1);
+  }
+
+  /**
+   * Used after entries have been deleted.
+   */
+  private void shrinkTree() {
     // shrink the tree if possible (i.e. if root node has exactly one entry,and that
     // entry is not a leaf node, delete the root (it's entry becomes the new root)
-    Node root = getNode(rootNodeId);
+    Node root = nodes[rootNodeId];
     while (root.entryCount == 1 && treeHeight > 1)
     {
       deletedNodeIds.push(rootNodeId);
+      nodes[rootNodeId] = null;
       root.entryCount = 0;
       rootNodeId = root.ids[0];
       treeHeight--;
-      root = getNode(rootNodeId);
+      root = nodes[rootNodeId];
     }
 
     // if the tree is now empty, then set the MBR of the root node back to it's original state
@@ -312,122 +677,490 @@ public class RTree implements SpatialIndex {
       root.mbrMaxX = -Float.MAX_VALUE;
       root.mbrMaxY = -Float.MAX_VALUE;
     }
+  }
+
+  /**
+   * Deletes many entries at once: entry i has the id ids[i] and the
+   * rectangle (minX[i], minY[i], maxX[i], maxY[i]). This is much faster
+   * than calling delete() for each of them, as the tree is descended once
+   * for all of them, so each node is visited at most once, with the
+   * entries to be deleted from its subtree. Each node that has lost
+   * entries is condensed once, after its children. A node left with too
+   * few entries is merged into a sibling that has room for them if there
+   * is one, or else eliminated; the entries of the eliminated nodes are
+   * all reinserted at the end, rather than after each deletion.
+   *
+   * Entries that are not in the tree are ignored.
+   *
+   * @return the number of entries deleted.
+   */
+  public int deleteAll(float[] minX, float[] minY, float[] maxX,
+      float[] maxY, int[] ids) {
+    int deleted = bulkUpdate(new BulkUpdate(minX, minY, maxX, maxY, ids,
+        null, null, null, null, nodes[rootNodeId]));
+    size -= deleted;
+    shrinkTree();
 
     if (INTERNAL_CONSISTENCY_CHECKING) {
       checkConsistency();
     }
+    return deleted;
+  }
 
-    return (foundIndex != -1);
+  /**
+   * Moves many entries at once: the entry with the id ids[i] and the
+   * rectangle (minX[i], minY[i], maxX[i], maxY[i]) is given the rectangle
+   * (newMinX[i], newMinY[i], newMaxX[i], newMaxY[i]), keeping its weight.
+   * The entries are found in the same way as by deleteAll(). An entry
+   * whose new rectangle lies within the bounds of its leaf is updated in
+   * place; the others are deleted, and added again at the end, after the
+   * entries of any eliminated nodes.
+   *
+   * Entries that are not in the tree are ignored, and not added.
+   *
+   * @return the number of entries moved.
+   */
+  public int updateAll(float[] minX, float[] minY, float[] maxX,
+      float[] maxY, int[] ids, float[] newMinX, float[] newMinY,
+      float[] newMaxX, float[] newMaxY) {
+    BulkUpdate u = new BulkUpdate(minX, minY, maxX, maxY, ids, newMinX,
+        newMinY, newMaxX, newMaxY, nodes[rootNodeId]);
+    int moved = bulkUpdate(u);
+
+    // in Z-order of the new rectangles, so that entries added one after
+    // the other are often added to the same leaf
+    long[] keys = new long[u.moved.size()];
+    for (int i = 0; i < keys.length; i++) {
+      int q = u.moved.get(i);
+      keys[i] = zOrderKey(newMinX[q] + newMaxX[q], newMinY[q] + newMaxY[q],
+          nodes[rootNodeId], i);
+    }
+    Arrays.sort(keys);
+    for (long key : keys) {
+      int i = (int) key;
+      int q = u.moved.get(i);
+      add(newMinX[q], newMinY[q], newMaxX[q], newMaxY[q], ids[q], 1,
+          u.movedWeights.get(i));
+    }
+    shrinkTree();
+
+    if (INTERNAL_CONSISTENCY_CHECKING) {
+      checkConsistency();
+    }
+    return moved;
   }
 
   /**
-   * @see com.infomatiq.jsi.SpatialIndex#nearest(Point, TIntProcedure, float)
+   * The entries passed to deleteAll() or updateAll(), and the state of
+   * the descent of the tree that finds them.
    */
-  @Override
-  public void nearest(Point p, TIntProcedure v, float furthestDistance) {
-    Node rootNode = getNode(rootNodeId);
+  private static class BulkUpdate {
+    // the rectangles and ids of the entries in the order of the centers of
+    // the rectangles along a Z-order curve, so that the entries searched
+    // for in a subtree are mostly next to each other in the arrays, and
+    // the index of each in the arrays passed in
+    final float[] minX;
+    final float[] minY;
+    final float[] maxX;
+    final float[] maxY;
+    final int[] ids;
+    final int[] index;
+
+    // the new rectangles, in the order passed in, or null to delete the
+    // entries
+    final float[] newMinX;
+    final float[] newMinY;
+    final float[] newMaxX;
+    final float[] newMaxY;
+
+    final boolean[] found;
+    int foundCount = 0;
+
+    // active[level] holds the positions of the entries whose rectangles
+    // are within the bounds of a node at that level, and have not been
+    // found yet; grown as needed below the root level
+    int[][] active;
+
+    // the nodes eliminated because they have too few entries
+    final TIntArrayList eliminated = new TIntArrayList();
+
+    // the indexes passed in and weights of the entries to add again, with
+    // their new rectangles
+    final TIntArrayList moved = new TIntArrayList();
+    final TFloatArrayList movedWeights = new TFloatArrayList();
+
+    BulkUpdate(float[] minX, float[] minY, float[] maxX, float[] maxY,
+        int[] ids, float[] newMinX, float[] newMinY, float[] newMaxX,
+        float[] newMaxY, Node root) {
+      int count = ids.length;
+      if (minX.length != count || minY.length != count
+          || maxX.length != count || maxY.length != count) {
+        throw new IllegalArgumentException(
+            "Coordinate and id arrays must have the same length");
+      }
+      if (newMinX != null && (newMinX.length != count
+          || newMinY.length != count || newMaxX.length != count
+          || newMaxY.length != count)) {
+        throw new IllegalArgumentException(
+            "Coordinate and id arrays must have the same length");
+      }
+      this.newMinX = newMinX;
+      this.newMinY = newMinY;
+      this.newMaxX = newMaxX;
+      this.newMaxY = newMaxY;
+      found = new boolean[count];
+
+      long[] keys = new long[count];
+      for (int i = 0; i < count; i++) {
+        keys[i] = zOrderKey(minX[i] + maxX[i], minY[i] + maxY[i], root, i);
+      }
+      Arrays.sort(keys);
+      this.minX = new float[count];
+      this.minY = new float[count];
+      this.maxX = new float[count];
+      this.maxY = new float[count];
+      this.ids = new int[count];
+      index = new int[count];
+      for (int j = 0; j < count; j++) {
+        int i = (int) keys[j];
+        this.minX[j] = minX[i];
+        this.minY[j] = minY[i];
+        this.maxX[j] = maxX[i];
+        this.maxY[j] = maxY[i];
+        this.ids[j] = ids[i];
+        index[j] = i;
+      }
+    }
+  }
 
-    float furthestDistanceSq = furthestDistance * furthestDistance;
-    nearest(p, rootNode, furthestDistanceSq);
+  /**
+   * Used by BulkUpdate. Combines the position along a Z-order curve of
+   * the point (x / 2, y / 2), within the bounds of a node, and an int
+   * index into a single long, such that sorting the longs sorts by the
+   * position, and the index can be recovered by casting the long to an
+   * int.
+   */
+  private static long zOrderKey(float x, float y, Node bounds, int index) {
+    long z = interleave(scale(x / 2, bounds.mbrMinX, bounds.mbrMaxX))
+        | interleave(scale(y / 2, bounds.mbrMinY, bounds.mbrMaxY)) << 1;
+    return (z << 32) | (index & 0xffffffffL);
+  }
 
-    nearestIds.forEach(v);
-    nearestIds.reset();
+  /**
+   * A value from min to max as an int from 0 to 65535.
+   */
+  private static int scale(float value, float min, float max) {
+    float scaled = (value - min) / (max - min) * 65535;
+    // also handles NaN, for empty or zero width bounds
+    return scaled > 0 ? (int) Math.min(scaled, 65535) : 0;
   }
 
-  private void createNearestNDistanceQueue(Point p, int count,
-      float furthestDistance) {
-    distanceQueue.reset();
-    distanceQueue.setSortOrder(PriorityQueue.SORT_ORDER_DESCENDING);
+  /**
+   * Spreads the lowest 16 bits of value to the even bits of the result.
+   */
+  private static long interleave(int value) {
+    long v = value & 0xffff;
+    v = (v | (v << 8)) & 0x00ff00ffL;
+    v = (v | (v << 4)) & 0x0f0f0f0fL;
+    v = (v | (v << 2)) & 0x33333333L;
+    v = (v | (v << 1)) & 0x55555555L;
+    return v;
+  }
 
-    //  return immediately if given an invalid "count" parameter
-    if (count <= 0) {
-      return;
+  /**
+   * Used by deleteAll() and updateAll(). Finds and removes the entries,
+   * or moves them in place, condenses the nodes that have lost entries,
+   * and reinserts the entries of the eliminated nodes. Leaves the entries
+   * to add again in u.moved.
+   *
+   * @return the number of entries found.
+   */
+  private int bulkUpdate(BulkUpdate u) {
+    int count = u.ids.length;
+    if (count == 0 || size == 0) {
+      return 0;
+    }
+    u.active = new int[treeHeight + 1][];
+    u.active[treeHeight] = new int[count];
+    for (int i = 0; i < count; i++) {
+      u.active[treeHeight][i] = i;
+    }
+    bulkUpdate(u, nodes[rootNodeId], count);
+    if (u.foundCount == 0) {
+      return 0;
     }
 
-    parents.clear();
-    parents.push(rootNodeId);
-
-    parentsEntry.clear();
-    parentsEntry.push(-1);
+    // the root may be left with no entries, or with a single child that
+    // has none, if all of its children were eliminated; a tree so small
+    // is rebuilt from a single leaf
+    shrinkTree();
+    Node root = nodes[rootNodeId];
+    if (root.entryCount == 0 && treeHeight > 1) {
+      root = newNode(rootNodeId, 1);
+      putNode(root);
+      treeHeight = 1;
+    }
 
-    // TODO: possible shortcut here - could test for intersection with the
-    //       MBR of the root node. If no intersection, return immediately.
+    // CT6 of condenseTree(), for all of the eliminated nodes, those of the
+    // lowest level first, so that the tree has grown as tall as possible
+    // when the entries of the higher ones are inserted. The entries of a
+    // node above the height of the tree are its children, which are
+    // eliminated instead.
+    TIntArrayList[] eliminated =
+        new TIntArrayList[maxLevel(u.eliminated) + 1];
+    for (int i = 0; i < eliminated.length; i++) {
+      eliminated[i] = new TIntArrayList();
+    }
+    for (int i = 0; i < u.eliminated.size(); i++) {
+      int nodeId = u.eliminated.get(i);
+      eliminated[nodes[nodeId].level].add(nodeId);
+    }
+    int level = 1;
+    while (level < eliminated.length) {
+      TIntArrayList levelIds = eliminated[level];
+      if (levelIds.isEmpty()) {
+        level++;
+        continue;
+      }
+      Node e = nodes[levelIds.removeAt(levelIds.size() - 1)];
+      if (e.level > treeHeight) {
+        for (int j = 0; j < e.entryCount; j++) {
+          eliminated[level - 1].add(e.ids[j]);
+        }
+        level--;
+      } else {
+        for (int j = 0; j < e.entryCount; j++) {
+          add(e.entriesMinX[j], e.entriesMinY[j], e.entriesMaxX[j],
+              e.entriesMaxY[j], e.ids[j], e.level,
+              e.weights != null ? e.weights[j] : 1);
+        }
+      }
+      for (int j = 0; j < e.entryCount; j++) {
+        e.ids[j] = -1;
+      }
+      e.entryCount = 0;
+      deletedNodeIds.push(e.nodeId);
+      nodes[e.nodeId] = null;
+    }
+    return u.foundCount;
+  }
 
-    float furthestDistanceSq = furthestDistance * furthestDistance;
+  /**
+   * Used by bulkUpdate(). Chooses the sibling of the child at index i of
+   * a node that has room for all of the entries of the child, and needs
+   * the least enlargement to include it.
+   *
+   * @return the index of the sibling, or -1 if none has room.
+   */
+  private int chooseSibling(Node n, int i) {
+    Node child = nodes[n.ids[i]];
+    int best = -1;
+    float leastEnlargement = Float.POSITIVE_INFINITY;
+    for (int j = 0; j < n.entryCount; j++) {
+      if (j == i || nodes[n.ids[j]].entryCount + child.entryCount
+          > maxNodeEntries) {
+        continue;
+      }
+      float enlargement = Rectangle.enlargement(n.entriesMinX[j],
+          n.entriesMinY[j], n.entriesMaxX[j], n.entriesMaxY[j],
+          child.mbrMinX, child.mbrMinY, child.mbrMaxX, child.mbrMaxY);
+      if (enlargement < leastEnlargement) {
+        leastEnlargement = enlargement;
+        best = j;
+      }
+    }
+    return best;
+  }
 
-    while (parents.size() > 0) {
-      Node n = getNode(parents.peek());
-      int startIndex = parentsEntry.peek() + 1;
+  private int maxLevel(TIntArrayList nodeIds) {
+    int max = 0;
+    for (int i = 0; i < nodeIds.size(); i++) {
+      max = Math.max(max, nodes[nodeIds.get(i)].level);
+    }
+    return max;
+  }
 
-      if (!n.isLeaf()) {
-        // go through every entry in the index node to check
-        // if it could contain an entry closer than the farthest entry
-        // currently stored.
-        boolean near = false;
-        for (int i = startIndex; i < n.entryCount; i++) {
-          if (Rectangle.distanceSq(n.entriesMinX[i], n.entriesMinY[i],
-              n.entriesMaxX[i], n.entriesMaxY[i],
-              p.x, p.y) <= furthestDistanceSq) {
-            parents.push(n.ids[i]);
-            parentsEntry.pop();
-            parentsEntry.push(i); // this becomes the start index when the child has been searched
-            parentsEntry.push(-1);
-            near = true;
-            break; // ie go to next iteration of while()
-          }
+  /**
+   * Searches the subtree of a node for the entries whose indexes are the
+   * first activeCount of u.active[n.level], and condenses the node after
+   * its children, as in condenseTree().
+   *
+   * @return true if any entries of the subtree were found.
+   */
+  private boolean bulkUpdate(BulkUpdate u, Node n, int activeCount) {
+    int[] queries = u.active[n.level];
+    boolean changed = false;
+
+    if (n.isLeaf()) {
+      // the bounds of the leaf, which entries can be moved within without
+      // making it any larger
+      float leafMinX = n.mbrMinX;
+      float leafMinY = n.mbrMinY;
+      float leafMaxX = n.mbrMaxX;
+      float leafMaxY = n.mbrMaxY;
+      for (int j = 0; j < activeCount; j++) {
+        int q = queries[j];
+        if (u.found[q]) {
+          continue;
         }
-        if (near) {
+        int i = n.findEntry(u.minX[q], u.minY[q], u.maxX[q], u.maxY[q],
+            u.ids[q]);
+        if (i == -1) {
           continue;
         }
-      } else {
-        // go through every entry in the leaf to check if
-        // it is currently one of the nearest N entries.
-        for (int i = 0; i < n.entryCount; i++) {
-          float entryDistanceSq = Rectangle.distanceSq(n.entriesMinX[i],
-              n.entriesMinY[i],
-              n.entriesMaxX[i], n.entriesMaxY[i],
-              p.x, p.y);
-          int entryId = n.ids[i];
-
-          if (entryDistanceSq <= furthestDistanceSq) {
-            distanceQueue.insert(entryId, entryDistanceSq);
-
-            while (distanceQueue.size() > count) {
-              // normal case - we can simply remove the lowest priority (highest distance) entry
-              int value = distanceQueue.getValue();
-              float distanceSq = distanceQueue.getPriority();
-              distanceQueue.pop();
-
-              // rare case - multiple items of the same priority (distance)
-              if (distanceSq == distanceQueue.getPriority()) {
-                savedValues.add(value);
-                savedPriority = distanceSq;
-              } else {
-                savedValues.reset();
-              }
-            }
+        u.found[q] = true;
+        u.foundCount++;
+        changed = true;
+        if (u.newMinX == null) {
+          n.deleteEntry(i);
+          continue;
+        }
+        int k = u.index[q];
+        if (Rectangle.contains(leafMinX, leafMinY, leafMaxX, leafMaxY,
+            u.newMinX[k], u.newMinY[k], u.newMaxX[k], u.newMaxY[k])) {
+          n.entriesMinX[i] = u.newMinX[k];
+          n.entriesMinY[i] = u.newMinY[k];
+          n.entriesMaxX[i] = u.newMaxX[k];
+          n.entriesMaxY[i] = u.newMaxY[k];
+        } else {
+          u.moved.add(k);
+          u.movedWeights.add(n.weights != null ? n.weights[i] : 1);
+          n.deleteEntry(i);
+        }
+      }
+      if (changed) {
+        n.recalculateMBR();
+        recalculateAggregates(n);
+      }
+      return changed;
+    }
 
-            // if the saved values have the same distance as the
-            // next one in the tree, add them back in.
-            if (savedValues.size() > 0
-                && savedPriority == distanceQueue.getPriority()) {
-              for (int svi = 0; svi < savedValues.size(); svi++) {
-                distanceQueue.insert(savedValues.get(svi), savedPriority);
-              }
-              savedValues.reset();
-            }
+    if (u.active[n.level - 1] == null
+        || u.active[n.level - 1].length < activeCount) {
+      u.active[n.level - 1] = new int[activeCount];
+    }
+    int[] childQueries = u.active[n.level - 1];
+    // backwards, as deleting an entry moves the last one into its place
+    for (int i = n.entryCount - 1; i >= 0; i--) {
+      int childCount = 0;
+      for (int j = 0; j < activeCount; j++) {
+        int q = queries[j];
+        if (!u.found[q] && Rectangle.contains(n.entriesMinX[i],
+            n.entriesMinY[i], n.entriesMaxX[i], n.entriesMaxY[i],
+            u.minX[q], u.minY[q], u.maxX[q], u.maxY[q])) {
+          childQueries[childCount++] = q;
+        }
+      }
+      if (childCount == 0) {
+        continue;
+      }
+      Node child = nodes[n.ids[i]];
+      if (bulkUpdate(u, child, childCount)) {
+        // CT4 [Adjust covering rectangle]
+        n.entriesMinX[i] = child.mbrMinX;
+        n.entriesMinY[i] = child.mbrMinY;
+        n.entriesMaxX[i] = child.mbrMaxX;
+        n.entriesMaxY[i] = child.mbrMaxY;
+        changed = true;
+      }
+    }
+    if (!changed) {
+      return false;
+    }
 
-            // narrow the search, if we have already found N items
-            if (distanceQueue.getPriority() < furthestDistanceSq
-                && distanceQueue.size() >= count) {
-              furthestDistanceSq = distanceQueue.getPriority();
-            }
-          }
+    // CT3 [Eliminate under-full node], except for the last child of the
+    // root. Most under-full children are merged into a sibling instead, so
+    // that their entries need not be reinserted from the root.
+    for (int i = n.entryCount - 1; i >= 0; i--) {
+      Node child = nodes[n.ids[i]];
+      if (child.entryCount >= minNodeEntries
+          || (n.nodeId == rootNodeId && n.entryCount == 1)) {
+        continue;
+      }
+      int sibling = chooseSibling(n, i);
+      if (sibling == -1) {
+        u.eliminated.add(child.nodeId);
+      } else {
+        Node s = nodes[n.ids[sibling]];
+        for (int j = 0; j < child.entryCount; j++) {
+          s.addEntry(child.entriesMinX[j], child.entriesMinY[j],
+              child.entriesMaxX[j], child.entriesMaxY[j], child.ids[j],
+              child.weights != null ? child.weights[j] : 1);
+          child.ids[j] = -1;
         }
+        child.entryCount = 0;
+        deletedNodeIds.push(child.nodeId);
+        nodes[child.nodeId] = null;
+        recalculateAggregates(s);
+        n.entriesMinX[sibling] = s.mbrMinX;
+        n.entriesMinY[sibling] = s.mbrMinY;
+        n.entriesMaxX[sibling] = s.mbrMaxX;
+        n.entriesMaxY[sibling] = s.mbrMaxY;
       }
-      parents.pop();
-      parentsEntry.pop();
+      n.deleteEntry(i);
+    }
+    n.recalculateMBR();
+    recalculateAggregates(n);
+    return true;
+  }
+
+  /**
+   * @see com.infomatiq.jsi.SpatialIndex#nearest(Point, TIntProcedure, float)
+   */
+  @Override
+  public void nearest(Point p, TIntProcedure v, float furthestDistance) {
+    QueryContext c = startQuery();
+    try {
+      nearest(p.x, p.y, v, furthestDistance, c);
+    } finally {
+      endQuery(c);
+    }
+  }
+
+  /**
+   * Like nearest(Point, TIntProcedure, float), for the point (x, y).
+   */
+  public void nearest(float x, float y, TIntProcedure v,
+      float furthestDistance) {
+    QueryContext c = startQuery();
+    try {
+      nearest(x, y, v, furthestDistance, c);
+    } finally {
+      endQuery(c);
+    }
+  }
+
+  /**
+   * Like nearest(Point, TIntProcedure, float), for the point (x, y), using
+   * the working state in the passed context.
+   */
+  public void nearest(float x, float y, TIntProcedure v,
+      float furthestDistance, QueryContext context) {
+    TIntArrayList nearestIds = context.nearestIds;
+    nearestIds.reset();
+
+    float furthestDistanceSq = furthestDistance * furthestDistance;
+    nearestSearch(x, y, 0, furthestDistanceSq, context);
+
+    nearestIds.forEach(v);
+    nearestIds.reset();
+  }
+
+  private void createNearestNDistanceQueue(float x, float y, int count,
+      float furthestDistance, QueryContext context) {
+    PriorityQueue distanceQueue = context.distanceQueue;
+    TIntArrayList savedValues = context.savedValues;
+    distanceQueue.reset();
+    distanceQueue.setSortOrder(PriorityQueue.SORT_ORDER_DESCENDING);
+    savedValues.reset();
+
+    //  return immediately if given an invalid "count" parameter
+    if (count <= 0) {
+      return;
     }
+
+    nearestSearch(x, y, count, furthestDistance * furthestDistance,
+        context);
   }
 
   /**
@@ -436,6 +1169,34 @@ public class RTree implements SpatialIndex {
   @Override
   public void nearestNUnsorted(Point p, TIntProcedure v, int count,
       float furthestDistance) {
+    QueryContext c = startQuery();
+    try {
+      nearestNUnsorted(p.x, p.y, v, count, furthestDistance, c);
+    } finally {
+      endQuery(c);
+    }
+  }
+
+  /**
+   * Like nearestNUnsorted(Point, TIntProcedure, int, float), for the point
+   * (x, y).
+   */
+  public void nearestNUnsorted(float x, float y, TIntProcedure v, int count,
+      float furthestDistance) {
+    QueryContext c = startQuery();
+    try {
+      nearestNUnsorted(x, y, v, count, furthestDistance, c);
+    } finally {
+      endQuery(c);
+    }
+  }
+
+  /**
+   * Like nearestNUnsorted(Point, TIntProcedure, int, float), for the point
+   * (x, y), using the working state in the passed context.
+   */
+  public void nearestNUnsorted(float x, float y, TIntProcedure v, int count,
+      float furthestDistance, QueryContext context) {
     // This implementation is designed to give good performance
     // where
     //   o N is high (100+)
@@ -447,8 +1208,9 @@ public class RTree implements SpatialIndex {
     // return exactly the same items as the the original version (nearestN_orig), in particular,
     // more than N items will be returned if items N and N+x have the
     // same priority.
-    createNearestNDistanceQueue(p, count, furthestDistance);
+    createNearestNDistanceQueue(x, y, count, furthestDistance, context);
 
+    PriorityQueue distanceQueue = context.distanceQueue;
     while (distanceQueue.size() > 0) {
       v.execute(distanceQueue.getValue());
       distanceQueue.pop();
@@ -461,8 +1223,36 @@ public class RTree implements SpatialIndex {
   @Override
   public void nearestN(Point p, TIntProcedure v, int count,
       float furthestDistance) {
-    createNearestNDistanceQueue(p, count, furthestDistance);
+    QueryContext c = startQuery();
+    try {
+      nearestN(p.x, p.y, v, count, furthestDistance, c);
+    } finally {
+      endQuery(c);
+    }
+  }
+
+  /**
+   * Like nearestN(Point, TIntProcedure, int, float), for the point (x, y).
+   */
+  public void nearestN(float x, float y, TIntProcedure v, int count,
+      float furthestDistance) {
+    QueryContext c = startQuery();
+    try {
+      nearestN(x, y, v, count, furthestDistance, c);
+    } finally {
+      endQuery(c);
+    }
+  }
 
+  /**
+   * Like nearestN(Point, TIntProcedure, int, float), for the point (x, y),
+   * using the working state in the passed context.
+   */
+  public void nearestN(float x, float y, TIntProcedure v, int count,
+      float furthestDistance, QueryContext context) {
+    createNearestNDistanceQueue(x, y, count, furthestDistance, context);
+
+    PriorityQueue distanceQueue = context.distanceQueue;
     distanceQueue.setSortOrder(PriorityQueue.SORT_ORDER_ASCENDING);
 
     while (distanceQueue.size() > 0) {
@@ -499,7 +1289,7 @@ public class RTree implements SpatialIndex {
     float furthestDistanceSq = furthestDistance * furthestDistance;
 
     while (parents.size() > 0) {
-      Node n = getNode(parents.peek());
+      Node n = nodes[parents.peek()];
       int startIndex = parentsEntry.peek() + 1;
 
       if (!n.isLeaf()) {
@@ -550,13 +1340,54 @@ public class RTree implements SpatialIndex {
     nearestNIds.forEachId(v);
   }
 
+  /**
+   * Returns an iterator over the ids of all entries, in ascending order of
+   * their distance from the passed point. The entries are found lazily as
+   * the iterator advances, so a caller that only needs the first few pays
+   * only for those. The tree must not be modified while the iterator is in
+   * use.
+   *
+   * @see NearestIterator
+   */
+  public NearestIterator nearestIterator(Point p) {
+    return new NearestIterator(this, p);
+  }
+
   /**
    * @see com.infomatiq.jsi.SpatialIndex#intersects(Rectangle, TIntProcedure)
    */
   @Override
   public void intersects(Rectangle r, TIntProcedure v) {
-    Node rootNode = getNode(rootNodeId);
-    intersects(r, v, rootNode);
+    QueryContext c = startQuery();
+    try {
+      intersects(r.minX, r.minY, r.maxX, r.maxY, v, c);
+    } finally {
+      endQuery(c);
+    }
+  }
+
+  /**
+   * Like intersects(Rectangle, TIntProcedure), for the rectangle
+   * (minX, minY, maxX, maxY).
+   */
+  public void intersects(float minX, float minY, float maxX, float maxY,
+      TIntProcedure v) {
+    QueryContext c = startQuery();
+    try {
+      intersects(minX, minY, maxX, maxY, v, c);
+    } finally {
+      endQuery(c);
+    }
+  }
+
+  /**
+   * Like intersects(Rectangle, TIntProcedure), for the rectangle
+   * (minX, minY, maxX, maxY), using the working state in the passed
+   * context.
+   */
+  public void intersects(float minX, float minY, float maxX, float maxY,
+      TIntProcedure v, QueryContext context) {
+    search(INTERSECTS, minX, minY, maxX, maxY, v, context);
   }
 
   /**
@@ -564,57 +1395,392 @@ public class RTree implements SpatialIndex {
    */
   @Override
   public void contains(Rectangle r, TIntProcedure v) {
-    // find all rectangles in the tree that are contained by the passed rectangle
-    // written to be non-recursive (should model other searches on this?)
+    QueryContext c = startQuery();
+    try {
+      contains(r.minX, r.minY, r.maxX, r.maxY, v, c);
+    } finally {
+      endQuery(c);
+    }
+  }
 
-    parents.clear();
-    parents.push(rootNodeId);
+  /**
+   * Like contains(Rectangle, TIntProcedure), for the rectangle
+   * (minX, minY, maxX, maxY).
+   */
+  public void contains(float minX, float minY, float maxX, float maxY,
+      TIntProcedure v) {
+    QueryContext c = startQuery();
+    try {
+      contains(minX, minY, maxX, maxY, v, c);
+    } finally {
+      endQuery(c);
+    }
+  }
 
-    parentsEntry.clear();
-    parentsEntry.push(-1);
+  /**
+   * Like contains(Rectangle, TIntProcedure), for the rectangle
+   * (minX, minY, maxX, maxY), using the working state in the passed
+   * context.
+   */
+  public void contains(float minX, float minY, float maxX, float maxY,
+      TIntProcedure v, QueryContext context) {
+    search(CONTAINS, minX, minY, maxX, maxY, v, context);
+  }
 
-    // TODO: possible shortcut here - could test for intersection with the
-    // MBR of the root node. If no intersection, return immediately.
+  /**
+   * Store the ids of the entries that intersect the passed rectangle in
+   * out, starting at offset, without calling a procedure for each one.
+   *
+   * @return the number of intersecting entries. If this is more than
+   *         out.length - offset, only that many ids were stored, and the
+   *         query can be repeated with a larger array.
+   */
+  public int intersects(Rectangle r, int[] out, int offset) {
+    return collect(INTERSECTS, r, out, offset, null);
+  }
 
-    while (parents.size() > 0) {
-      Node n = getNode(parents.peek());
-      int startIndex = parentsEntry.peek() + 1;
+  /**
+   * Add the ids of the entries that intersect the passed rectangle to
+   * results, without calling a procedure for each one.
+   *
+   * @return the number of ids added.
+   */
+  public int intersects(Rectangle r, TIntArrayList results) {
+    return collect(INTERSECTS, r, null, 0, results);
+  }
+
+  /**
+   * Store the ids of the entries contained by the passed rectangle in out,
+   * starting at offset, without calling a procedure for each one.
+   *
+   * @return the number of contained entries. If this is more than
+   *         out.length - offset, only that many ids were stored, and the
+   *         query can be repeated with a larger array.
+   */
+  public int contains(Rectangle r, int[] out, int offset) {
+    return collect(CONTAINS, r, out, offset, null);
+  }
+
+  /**
+   * Add the ids of the entries contained by the passed rectangle to
+   * results, without calling a procedure for each one.
+   *
+   * @return the number of ids added.
+   */
+  public int contains(Rectangle r, TIntArrayList results) {
+    return collect(CONTAINS, r, null, 0, results);
+  }
+
+  private int collect(int kind, Rectangle r, int[] out, int offset,
+      TIntArrayList results) {
+    QueryContext c = startQuery();
+    try {
+      c.ids.start(out, offset, results);
+      search(kind, r.minX, r.minY, r.maxX, r.maxY, c.ids, c);
+      return c.ids.finish();
+    } finally {
+      endQuery(c);
+    }
+  }
+
+  /**
+   * Count the entries that intersect the passed rectangle, without
+   * collecting their ids. In an aggregate tree, the subtrees that the
+   * rectangle contains are counted without being searched.
+   */
+  public int count(Rectangle r) {
+    QueryContext c = startQuery();
+    try {
+      search(TOTALS, r.minX, r.minY, r.maxX, r.maxY, null, c);
+      return c.totalCount;
+    } finally {
+      endQuery(c);
+    }
+  }
+
+  /**
+   * Sum the weights of the entries that intersect the passed rectangle.
+   * In a tree that is not an aggregate tree every entry has a weight of 1,
+   * so this is the same as count().
+   *
+   * @see #RTree(int, int, SplitStrategy, boolean)
+   */
+  public double sum(Rectangle r) {
+    QueryContext c = startQuery();
+    try {
+      search(TOTALS, r.minX, r.minY, r.maxX, r.maxY, null, c);
+      return c.totalWeight;
+    } finally {
+      endQuery(c);
+    }
+  }
+
+  /**
+   * Returns the ids of the entries that intersect the passed rectangle as
+   * a stream. The tree is searched as the stream is consumed, so an
+   * operation such as limit() or anyMatch() stops the search once it has
+   * its result, and the ids are never all held at once. A parallel stream
+   * searches separate subtrees in separate threads. The ids are in the
+   * same order as intersects() would find them for a sequential stream,
+   * and in no particular order for a parallel one.
+   *
+   * The tree must not be modified while the stream is consumed.
+   */
+  public IntStream intersectsStream(Rectangle r) {
+    return StreamSupport.intStream(new QuerySpliterator(this, INTERSECTS, r),
+        false);
+  }
+
+  /**
+   * Returns the ids of the entries contained by the passed rectangle as a
+   * stream, in the same way as intersectsStream().
+   *
+   * @see #intersectsStream(Rectangle)
+   */
+  public IntStream containsStream(Rectangle r) {
+    return StreamSupport.intStream(new QuerySpliterator(this, CONTAINS, r),
+        false);
+  }
+
+  /**
+   * Returns an iterator over the ids of the entries that intersect the
+   * passed rectangle, which searches the tree as it advances. The tree
+   * must not be modified while the iterator is in use.
+   *
+   * @see #intersectsStream(Rectangle)
+   */
+  public PrimitiveIterator.OfInt intersectsIterator(Rectangle r) {
+    return Spliterators.iterator(new QuerySpliterator(this, INTERSECTS, r));
+  }
+
+  /**
+   * Returns an iterator over the ids of the entries contained by the
+   * passed rectangle, which searches the tree as it advances. The tree
+   * must not be modified while the iterator is in use.
+   *
+   * @see #intersectsStream(Rectangle)
+   */
+  public PrimitiveIterator.OfInt containsIterator(Rectangle r) {
+    return Spliterators.iterator(new QuerySpliterator(this, CONTAINS, r));
+  }
+
+  /**
+   * Returns a publisher of the ids of the entries that intersect the
+   * passed rectangle. Each subscriber gets its own search of the tree,
+   * which only goes as far as the items it has requested, so results are
+   * never buffered. The items are passed to the subscriber by the thread
+   * that calls request(). The tree must not be modified while a
+   * subscription is active.
+   *
+   * @see #intersectsPublisher(Rectangle, IntFunction)
+   */
+  public Flow.Publisher<Integer> intersectsPublisher(Rectangle r) {
+    return new QueryPublisher<>(this, INTERSECTS, r, Integer::valueOf);
+  }
+
+  /**
+   * Like intersectsPublisher(Rectangle), publishing the values that mapper
+   * returns for the ids, rather than the ids.
+   */
+  public <T> Flow.Publisher<T> intersectsPublisher(Rectangle r,
+      IntFunction<? extends T> mapper) {
+    return new QueryPublisher<>(this, INTERSECTS, r, mapper);
+  }
+
+  /**
+   * Returns a publisher of the ids of the entries contained by the passed
+   * rectangle, in the same way as intersectsPublisher().
+   *
+   * @see #intersectsPublisher(Rectangle)
+   */
+  public Flow.Publisher<Integer> containsPublisher(Rectangle r) {
+    return new QueryPublisher<>(this, CONTAINS, r, Integer::valueOf);
+  }
+
+  /**
+   * Like containsPublisher(Rectangle), publishing the values that mapper
+   * returns for the ids, rather than the ids.
+   */
+  public <T> Flow.Publisher<T> containsPublisher(Rectangle r,
+      IntFunction<? extends T> mapper) {
+    return new QueryPublisher<>(this, CONTAINS, r, mapper);
+  }
+
+  /**
+   * Traverses the tree once for all of the query rectangles. Each node
+   * is visited at most once, with the subset of queries whose rectangles
+   * intersect it, so queries that are close to each other share the cost
+   * of descending through the upper levels of the tree.
+   *
+   * @see com.infomatiq.jsi.SpatialIndex#intersectsBatch(float[], float[], float[], float[], BatchIntProcedure)
+   */
+  @Override
+  public void intersectsBatch(float[] minX, float[] minY, float[] maxX,
+      float[] maxY, BatchIntProcedure v) {
+    int count = minX.length;
+    if (minY.length != count || maxX.length != count
+        || maxY.length != count) {
+      throw new IllegalArgumentException(
+          "Query coordinate arrays must have the same length");
+    }
+    if (count == 0 || size == 0) {
+      return;
+    }
+
+    QueryContext c = startQuery();
+    try {
+      intersectsBatch(minX, minY, maxX, maxY, v, c);
+    } finally {
+      endQuery(c);
+    }
+  }
+
+  /**
+   * Descends the tree depth first without recursion, like search(), with
+   * the path from the root in the arrays of the context.
+   */
+  private void intersectsBatch(float[] minX, float[] minY, float[] maxX,
+      float[] maxY, BatchIntProcedure v, QueryContext context) {
+    context.ensurePathLength(treeHeight);
+    int[] pathNodes = context.pathNodes;
+    int[] pathFrom = context.pathFrom;
+
+    // active[depth] holds the indexes of the queries that are passed down
+    // to the node at that depth of the path, and activeCount[depth] their
+    // number; the root gets all of them
+    int count = minX.length;
+    int[][] active = new int[treeHeight][count];
+    int[] activeCount = new int[treeHeight];
+    for (int i = 0; i < count; i++) {
+      active[0][i] = i;
+    }
+    activeCount[0] = count;
+    int depth = 0;
+    pathNodes[0] = rootNodeId;
+    pathFrom[0] = 0;
+
+    while (depth >= 0) {
+      Node n = nodes[pathNodes[depth]];
+      int[] queries = active[depth];
+      int queryCount = activeCount[depth];
+
+      if (n.isLeaf()) {
+        for (int i = 0; i < n.entryCount; i++) {
+          for (int j = 0; j < queryCount; j++) {
+            int q = queries[j];
+            if (Rectangle.intersects(minX[q], minY[q], maxX[q], maxY[q],
+                n.entriesMinX[i], n.entriesMinY[i], n.entriesMaxX[i],
+                n.entriesMaxY[i])) {
+              if (!v.execute(q, n.ids[i])) {
+                return;
+              }
+            }
+          }
+        }
+        depth--;
+        continue;
+      }
+
+      // pass the queries that intersect the next entry down to its child,
+      // or go back up once all entries have been visited
+      int i = pathFrom[depth];
+      if (i == n.entryCount) {
+        depth--;
+        continue;
+      }
+      pathFrom[depth] = i + 1;
+      int[] childQueries = active[depth + 1];
+      int childCount = 0;
+      for (int j = 0; j < queryCount; j++) {
+        int q = queries[j];
+        if (Rectangle.intersects(minX[q], minY[q], maxX[q], maxY[q],
+            n.entriesMinX[i], n.entriesMinY[i], n.entriesMaxX[i],
+            n.entriesMaxY[i])) {
+          childQueries[childCount++] = q;
+        }
+      }
+      if (childCount > 0) {
+        depth++;
+        activeCount[depth] = childCount;
+        pathNodes[depth] = n.ids[i];
+        pathFrom[depth] = 0;
+      }
+    }
+  }
+
+  /**
+   * Finds all rectangles that intersect the passed rectangle, using the
+   * threads of the passed pool. Subtrees of nodes above level 2 are
+   * searched by separate tasks.
+   *
+   * @see #parallelIntersects(Rectangle, IntConsumer, ForkJoinPool, int)
+   */
+  public void parallelIntersects(Rectangle r, IntConsumer v,
+      ForkJoinPool pool) {
+    parallelIntersects(r, v, pool, DEFAULT_PARALLEL_FORK_LEVEL);
+  }
+
+  /**
+   * Finds all rectangles that intersect the passed rectangle, using the
+   * threads of the passed pool. Each node above forkLevel that intersects
+   * the rectangle has its intersecting children searched by separate
+   * tasks; the subtree of a node at or below forkLevel is searched by a
+   * single task. Leaves are at level 1, so a forkLevel of 1 creates a task
+   * for every intersecting leaf, and a forkLevel equal to the height of
+   * the tree searches sequentially.
+   *
+   * The tree must not be modified during the query.
+   *
+   * @param v The consumer to pass the id of each intersecting rectangle
+   *          to. It is called concurrently from the threads of the pool,
+   *          and must be thread safe. The ids are passed in no particular
+   *          order.
+   */
+  public void parallelIntersects(Rectangle r, IntConsumer v,
+      ForkJoinPool pool, int forkLevel) {
+    pool.invoke(new ParallelIntersects.ConsumerTask(this, r,
+        nodes[rootNodeId], v, forkLevel));
+  }
+
+  /**
+   * Returns the ids of all rectangles that intersect the passed rectangle,
+   * in the same order as intersects() would find them, using the threads
+   * of the passed pool. Each task collects its results in its own buffer,
+   * and the buffers are merged once all tasks have completed.
+   *
+   * The tree must not be modified during the query.
+   *
+   * @see #parallelIntersects(Rectangle, IntConsumer, ForkJoinPool, int)
+   */
+  public int[] parallelIntersects(Rectangle r, ForkJoinPool pool,
+      int forkLevel) {
+    ParallelIntersects.BufferTask task = new ParallelIntersects.BufferTask(
+        this, r, nodes[rootNodeId], forkLevel);
+    pool.invoke(task);
+    return task.toArray();
+  }
+
+  /**
+   * Returns the ids of all rectangles that intersect the passed rectangle,
+   * using the threads of the passed pool.
+   *
+   * @see #parallelIntersects(Rectangle, ForkJoinPool, int)
+   */
+  public int[] parallelIntersects(Rectangle r, ForkJoinPool pool) {
+    return parallelIntersects(r, pool, DEFAULT_PARALLEL_FORK_LEVEL);
+  }
 
-      if (!n.isLeaf()) {
-        // go through every entry in the index node to check
-        // if it intersects the passed rectangle. If so, it
-        // could contain entries that are contained.
-        boolean intersects = false;
-        for (int i = startIndex; i < n.entryCount; i++) {
-          if (Rectangle.intersects(r.minX, r.minY, r.maxX, r.maxY,
-              n.entriesMinX[i], n.entriesMinY[i], n.entriesMaxX[i],
-              n.entriesMaxY[i])) {
-            parents.push(n.ids[i]);
-            parentsEntry.pop();
-            parentsEntry.push(i); // this becomes the start index when the child has been searched
-            parentsEntry.push(-1);
-            intersects = true;
-            break; // ie go to next iteration of while()
-          }
-        }
-        if (intersects) {
-          continue;
-        }
-      } else {
-        // go through every entry in the leaf to check if
-        // it is contained by the passed rectangle
-        for (int i = 0; i < n.entryCount; i++) {
-          if (Rectangle.contains(r.minX, r.minY, r.maxX, r.maxY,
-              n.entriesMinX[i], n.entriesMinY[i], n.entriesMaxX[i],
-              n.entriesMaxY[i])) {
-            if (!v.execute(n.ids[i])) {
-              return;
-            }
-          }
-        }
-      }
-      parents.pop();
-      parentsEntry.pop();
+  /**
+   * Finds the entries of the subtree of the passed node that intersect the
+   * rectangle, with the search of intersects(). Used by the tasks of
+   * parallelIntersects() for the subtrees at the fork level.
+   */
+  void intersects(Node n, Rectangle r, TIntProcedure v) {
+    QueryContext c = startQuery();
+    try {
+      search(INTERSECTS, n, r.minX, r.minY, r.maxX, r.maxY, v, c);
+    } finally {
+      endQuery(c);
     }
   }
 
@@ -633,7 +1799,7 @@ public class RTree implements SpatialIndex {
   public Rectangle getBounds() {
     Rectangle bounds = null;
 
-    Node n = getNode(getRootNodeId());
+    Node n = nodes[rootNodeId];
     if (n != null && n.entryCount > 0) {
       bounds = new Rectangle();
       bounds.minX = n.mbrMinX;
@@ -663,10 +1829,101 @@ public class RTree implements SpatialIndex {
   }
 
   /**
-   * Get a node object, given the ID of the node.
+   * Get a node object, given the ID of the node, or null if there is no
+   * node with that ID.
    */
   public Node getNode(int id) {
-    return nodeMap.get(id);
+    return id >= 0 && id < nodes.length ? nodes[id] : null;
+  }
+
+  /**
+   * Create a node, with entry weights if it is a leaf of an aggregate tree.
+   */
+  private Node newNode(int nodeId, int level) {
+    return new Node(nodeId, level, maxNodeEntries, aggregate);
+  }
+
+  /**
+   * In an aggregate tree, recalculate the number and total weight of the
+   * entries below a node whose entries have changed, from its entries if
+   * it is a leaf, or else from the totals of its children. Does nothing
+   * if the node is null.
+   */
+  private void recalculateAggregates(Node n) {
+    if (!aggregate || n == null) {
+      return;
+    }
+    if (n.isLeaf()) {
+      double weight = 0;
+      for (int i = 0; i < n.entryCount; i++) {
+        weight += n.weights[i];
+      }
+      n.subtreeCount = n.entryCount;
+      n.subtreeWeight = weight;
+    } else {
+      int count = 0;
+      double weight = 0;
+      for (int i = 0; i < n.entryCount; i++) {
+        Node child = nodes[n.ids[i]];
+        count += child.subtreeCount;
+        weight += child.subtreeWeight;
+      }
+      n.subtreeCount = count;
+      n.subtreeWeight = weight;
+    }
+  }
+
+  /**
+   * Recalculate the totals of all the nodes of the subtree of a node,
+   * children first.
+   */
+  private void recalculateAllAggregates(Node n) {
+    if (!n.isLeaf()) {
+      for (int i = 0; i < n.entryCount; i++) {
+        recalculateAllAggregates(nodes[n.ids[i]]);
+      }
+    }
+    recalculateAggregates(n);
+  }
+
+  /**
+   * Store a node in the slot for its ID, growing the array if needed.
+   */
+  private void putNode(Node n) {
+    if (n.nodeId >= nodes.length) {
+      nodes = Arrays.copyOf(nodes, Math.max(2 * nodes.length, n.nodeId + 1));
+    }
+    nodes[n.nodeId] = n;
+  }
+
+  /**
+   * <p>Renumber the nodes so that their IDs are 0 to n - 1, with no slots
+   * left by deleted nodes, in breadth first order from the root. This
+   * frees the memory of the slots, and puts nodes that are searched
+   * together next to each other.</p>
+   *
+   * <p>Worthwhile after many deletions, or before a tree is only queried.
+   * Node IDs held by the caller are not valid afterwards.</p>
+   */
+  public void compact() {
+    int nodeCount = highestUsedNodeId + 1 - deletedNodeIds.size();
+    Node[] compacted = new Node[Math.max(nodeCount, 1)];
+    compacted[0] = nodes[rootNodeId];
+    int next = 1;
+    for (int i = 0; i < next; i++) {
+      Node n = compacted[i];
+      n.nodeId = i;
+      if (!n.isLeaf()) {
+        for (int j = 0; j < n.entryCount; j++) {
+          compacted[next] = nodes[n.ids[j]];
+          n.ids[j] = next++;
+        }
+      }
+    }
+    nodes = compacted;
+    rootNodeId = 0;
+    highestUsedNodeId = next - 1;
+    deletedNodeIds.clear();
   }
 
   /**
@@ -684,429 +1941,673 @@ public class RTree implements SpatialIndex {
   }
 
   /**
-   * Split a node. Algorithm is taken pretty much verbatim from
-   * Guttman's original paper.
+   * <p>Write the complete structure of the tree to a channel, so that it
+   * can be restored by read() without inserting any entries. Every node is
+   * written, together with the node id allocation state, so the restored
+   * tree behaves exactly like this one under further adds and deletes.</p>
    *
-   * @return new node object.
+   * <p>The format is a header of int fields, followed by the deleted node
+   * ids and then each node as an int/float header plus its entry arrays
+   * written as blocks. The leaves of an aggregate tree also have a block of
+   * entry weights, and the header has a different version. All values are
+   * little endian.</p>
    */
-  private Node splitNode(Node n, float newRectMinX, float newRectMinY,
-      float newRectMaxX, float newRectMaxY, int newId) {
-    // [Pick first entry for each group] Apply algorithm pickSeeds to
-    // choose two entries to be the first elements of the groups. Assign
-    // each to a group.
-
-    // debug code
-    float initialArea = 0;
-    if (log.isDebugEnabled()) {
-      float unionMinX = Math.min(n.mbrMinX, newRectMinX);
-      float unionMinY = Math.min(n.mbrMinY, newRectMinY);
-      float unionMaxX = Math.max(n.mbrMaxX, newRectMaxX);
-      float unionMaxY = Math.max(n.mbrMaxY, newRectMaxY);
-
-      initialArea = (unionMaxX - unionMinX) * (unionMaxY - unionMinY);
+  public void write(WritableByteChannel channel) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(serializationBufferSize());
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+    buffer.putInt(SERIALIZATION_MAGIC);
+    buffer.putInt(aggregate ? AGGREGATE_SERIALIZATION_VERSION
+        : SERIALIZATION_VERSION);
+    buffer.putInt(minNodeEntries);
+    buffer.putInt(maxNodeEntries);
+    buffer.putInt(treeHeight);
+    buffer.putInt(rootNodeId);
+    buffer.putInt(highestUsedNodeId);
+    buffer.putInt(size);
+    buffer.putInt(highestUsedNodeId + 1 - deletedNodeIds.size());
+
+    // the stack is written bottom first, so that it can be restored by
+    // pushing the ids in the order they are read.
+    int[] deleted = deletedNodeIds.toArray();
+    buffer.putInt(deleted.length);
+    for (int i = deleted.length - 1; i >= 0; i--) {
+      if (buffer.remaining() < 4) {
+        flush(buffer, channel);
+      }
+      buffer.putInt(deleted[i]);
     }
 
-    System.arraycopy(initialEntryStatus, 0, entryStatus, 0, maxNodeEntries);
-
-    Node newNode = null;
-    newNode = new Node(getNextNodeId(), n.level, maxNodeEntries);
-    nodeMap.put(newNode.nodeId, newNode);
-
-    pickSeeds(n, newRectMinX, newRectMinY, newRectMaxX, newRectMaxY, newId,
-        newNode); // this also sets the entryCount to 1
-
-    // [Check if done] If all entries have been assigned, stop. If one
-    // group has so few entries that all the rest must be assigned to it in
-    // order for it to have the minimum number m, assign them and stop.
-    while (n.entryCount + newNode.entryCount < maxNodeEntries + 1) {
-      if (maxNodeEntries + 1 - newNode.entryCount == minNodeEntries) {
-        // assign all remaining entries to original node
-        for (int i = 0; i < maxNodeEntries; i++) {
-          if (entryStatus[i] == ENTRY_STATUS_UNASSIGNED) {
-            entryStatus[i] = ENTRY_STATUS_ASSIGNED;
+    // write the nodes in order of id, so that equal trees are always
+    // written identically
+    for (int nodeId = 0; nodeId <= highestUsedNodeId; nodeId++) {
+      Node n = nodes[nodeId];
+      if (n == null) {
+        continue;
+      }
+      if (buffer.remaining() < NODE_HEADER_BYTES) {
+        flush(buffer, channel);
+      }
+      buffer.putInt(n.nodeId);
+      buffer.putInt(n.level);
+      buffer.putInt(n.entryCount);
+      buffer.putFloat(n.mbrMinX);
+      buffer.putFloat(n.mbrMinY);
+      buffer.putFloat(n.mbrMaxX);
+      buffer.putFloat(n.mbrMaxY);
+
+      if (buffer.remaining() < 20 * n.entryCount) {
+        flush(buffer, channel);
+      }
+      putFloats(buffer, n.entriesMinX, n.entryCount);
+      putFloats(buffer, n.entriesMinY, n.entryCount);
+      putFloats(buffer, n.entriesMaxX, n.entryCount);
+      putFloats(buffer, n.entriesMaxY, n.entryCount);
+      buffer.asIntBuffer().put(n.ids, 0, n.entryCount);
+      buffer.position(buffer.position() + 4 * n.entryCount);
+      if (n.weights != null) {
+        if (buffer.remaining() < 4 * n.entryCount) {
+          flush(buffer, channel);
+        }
+        putFloats(buffer, n.weights, n.entryCount);
+      }
+    }
+    flush(buffer, channel);
+  }
 
-            if (n.entriesMinX[i] < n.mbrMinX) n.mbrMinX = n.entriesMinX[i];
-            if (n.entriesMinY[i] < n.mbrMinY) n.mbrMinY = n.entriesMinY[i];
-            if (n.entriesMaxX[i] > n.mbrMaxX) n.mbrMaxX = n.entriesMaxX[i];
-            if (n.entriesMaxY[i] > n.mbrMaxY) n.mbrMaxY = n.entriesMaxY[i];
+  /**
+   * Read a tree written by write(). Exactly the bytes written by write()
+   * are consumed from the channel.
+   *
+   * @throws IOException if the channel cannot be read, or does not
+   *         contain a tree in a supported format.
+   */
+  public static RTree read(ReadableByteChannel channel) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(40);
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
 
-            n.entryCount++;
-          }
-        }
-        break;
-      }
-      if (maxNodeEntries + 1 - n.entryCount == minNodeEntries) {
-        // assign all remaining entries to new node
-        for (int i = 0; i < maxNodeEntries; i++) {
-          if (entryStatus[i] == ENTRY_STATUS_UNASSIGNED) {
-            entryStatus[i] = ENTRY_STATUS_ASSIGNED;
-            newNode.addEntry(n.entriesMinX[i], n.entriesMinY[i],
-                n.entriesMaxX[i], n.entriesMaxY[i], n.ids[i]);
-            n.ids[i] = -1; // an id of -1 indicates the entry is not in use
-          }
+    fill(buffer, channel, 40);
+    if (buffer.getInt() != SERIALIZATION_MAGIC) {
+      throw new IOException("Not a serialized RTree");
+    }
+    int version = buffer.getInt();
+    if (version != SERIALIZATION_VERSION
+        && version != AGGREGATE_SERIALIZATION_VERSION) {
+      throw new IOException("Unsupported RTree serialization version "
+          + version);
+    }
+    RTree rtree = new RTree(buffer.getInt(), buffer.getInt(), null,
+        version == AGGREGATE_SERIALIZATION_VERSION);
+    rtree.treeHeight = buffer.getInt();
+    rtree.rootNodeId = buffer.getInt();
+    rtree.highestUsedNodeId = buffer.getInt();
+    rtree.size = buffer.getInt();
+    int nodeCount = buffer.getInt();
+    int deletedCount = buffer.getInt();
+
+    buffer = ByteBuffer.allocate(rtree.serializationBufferSize());
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+    rtree.deletedNodeIds.clear();
+    while (deletedCount > 0) {
+      int count = Math.min(deletedCount, buffer.capacity() / 4);
+      fill(buffer, channel, 4 * count);
+      for (int i = 0; i < count; i++) {
+        int nodeId = buffer.getInt();
+        if (nodeId < 0 || nodeId > rtree.highestUsedNodeId) {
+          throw new IOException("Invalid deleted node id " + nodeId);
         }
-        break;
+        rtree.deletedNodeIds.push(nodeId);
       }
-
-      // [Select entry to assign] Invoke algorithm pickNext to choose the
-      // next entry to assign. Add it to the group whose covering rectangle
-      // will have to be enlarged least to accommodate it. Resolve ties
-      // by adding the entry to the group with smaller area, then to the
-      // the one with fewer entries, then to either. Repeat from S2
-      pickNext(n, newNode);
+      deletedCount -= count;
     }
 
-    n.reorganize(this);
-
-    // check that the MBR stored for each node is correct.
-    if (INTERNAL_CONSISTENCY_CHECKING) {
-      Rectangle nMBR = new Rectangle(n.mbrMinX, n.mbrMinY, n.mbrMaxX, n.mbrMaxY);
-      if (!nMBR.equals(calculateMBR(n))) {
-        log.error("Error: splitNode old node MBR wrong");
+    rtree.nodes = new Node[Math.max(rtree.highestUsedNodeId + 1, 1)];
+    for (int i = 0; i < nodeCount; i++) {
+      fill(buffer, channel, NODE_HEADER_BYTES);
+      Node n = rtree.newNode(buffer.getInt(), buffer.getInt());
+      n.entryCount = buffer.getInt();
+      n.mbrMinX = buffer.getFloat();
+      n.mbrMinY = buffer.getFloat();
+      n.mbrMaxX = buffer.getFloat();
+      n.mbrMaxY = buffer.getFloat();
+      if (n.nodeId < 0 || n.nodeId > rtree.highestUsedNodeId) {
+        throw new IOException("Invalid node id " + n.nodeId);
+      }
+      if (n.entryCount < 0 || n.entryCount > rtree.maxNodeEntries) {
+        throw new IOException("Invalid entry count " + n.entryCount
+            + " in node " + n.nodeId);
       }
-      Rectangle newNodeMBR = new Rectangle(newNode.mbrMinX, newNode.mbrMinY,
-          newNode.mbrMaxX, newNode.mbrMaxY);
-      if (!newNodeMBR.equals(calculateMBR(newNode))) {
-        log.error("Error: splitNode new node MBR wrong");
+
+      fill(buffer, channel, 20 * n.entryCount);
+      getFloats(buffer, n.entriesMinX, n.entryCount);
+      getFloats(buffer, n.entriesMinY, n.entryCount);
+      getFloats(buffer, n.entriesMaxX, n.entryCount);
+      getFloats(buffer, n.entriesMaxY, n.entryCount);
+      buffer.asIntBuffer().get(n.ids, 0, n.entryCount);
+      if (n.weights != null) {
+        fill(buffer, channel, 4 * n.entryCount);
+        getFloats(buffer, n.weights, n.entryCount);
       }
+      rtree.nodes[n.nodeId] = n;
     }
 
-    // debug code
-    if (log.isDebugEnabled()) {
-      float newArea = Rectangle
-          .area(n.mbrMinX, n.mbrMinY, n.mbrMaxX, n.mbrMaxY)
-          +
-          Rectangle.area(newNode.mbrMinX, newNode.mbrMinY, newNode.mbrMaxX,
-              newNode.mbrMaxY);
-      float percentageIncrease = (100 * (newArea - initialArea)) / initialArea;
-      log.debug("Node " + n.nodeId + " split. New area increased by "
-          + percentageIncrease + "%");
+    // earlier versions of write() also wrote the deleted nodes
+    for (int nodeId : rtree.deletedNodeIds.toArray()) {
+      rtree.nodes[nodeId] = null;
     }
 
-    return newNode;
+    if (rtree.getNode(rtree.rootNodeId) == null) {
+      throw new IOException("Root node " + rtree.rootNodeId + " missing");
+    }
+    if (rtree.aggregate) {
+      rtree.recalculateAllAggregates(rtree.nodes[rtree.rootNodeId]);
+    }
+    return rtree;
   }
 
-  /**
-   * Pick the seeds used to split a node.
-   * Select two entries to be the first elements of the groups
-   */
-  private void pickSeeds(Node n, float newRectMinX, float newRectMinY,
-      float newRectMaxX, float newRectMaxY, int newId, Node newNode) {
-    // Find extreme rectangles along all dimension. Along each dimension,
-    // find the entry whose rectangle has the highest low side, and the one
-    // with the lowest high side. Record the separation.
-    float maxNormalizedSeparation = -1; // initialize to -1 so that even overlapping rectangles will be considered for the seeds
-    int highestLowIndex = -1;
-    int lowestHighIndex = -1;
+  private int serializationBufferSize() {
+    return Math.max(1 << 16, NODE_HEADER_BYTES + 20 * maxNodeEntries);
+  }
 
-    // for the purposes of picking seeds, take the MBR of the node to include
-    // the new rectangle aswell.
-    if (newRectMinX < n.mbrMinX) n.mbrMinX = newRectMinX;
-    if (newRectMinY < n.mbrMinY) n.mbrMinY = newRectMinY;
-    if (newRectMaxX > n.mbrMaxX) n.mbrMaxX = newRectMaxX;
-    if (newRectMaxY > n.mbrMaxY) n.mbrMaxY = newRectMaxY;
+  private static void putFloats(ByteBuffer buffer, float[] values,
+      int count) {
+    buffer.asFloatBuffer().put(values, 0, count);
+    buffer.position(buffer.position() + 4 * count);
+  }
 
-    float mbrLenX = n.mbrMaxX - n.mbrMinX;
-    float mbrLenY = n.mbrMaxY - n.mbrMinY;
+  private static void getFloats(ByteBuffer buffer, float[] values,
+      int count) {
+    buffer.asFloatBuffer().get(values, 0, count);
+    buffer.position(buffer.position() + 4 * count);
+  }
 
-    if (log.isDebugEnabled()) {
-      log.debug("pickSeeds(): NodeId = " + n.nodeId);
+  /**
+   * Write the contents of the buffer to the channel, and clear it.
+   */
+  private static void flush(ByteBuffer buffer, WritableByteChannel channel)
+      throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
     }
+    buffer.clear();
+  }
 
-    float tempHighestLow = newRectMinX;
-    int tempHighestLowIndex = -1; // -1 indicates the new rectangle is the seed
-
-    float tempLowestHigh = newRectMaxX;
-    int tempLowestHighIndex = -1; // -1 indicates the new rectangle is the seed
-
-    for (int i = 0; i < n.entryCount; i++) {
-      float tempLow = n.entriesMinX[i];
-      if (tempLow >= tempHighestLow) {
-        tempHighestLow = tempLow;
-        tempHighestLowIndex = i;
-      } else { // ensure that the same index cannot be both lowestHigh and highestLow
-        float tempHigh = n.entriesMaxX[i];
-        if (tempHigh <= tempLowestHigh) {
-          tempLowestHigh = tempHigh;
-          tempLowestHighIndex = i;
-        }
-      }
-
-      // PS2 [Adjust for shape of the rectangle cluster] Normalize the separations
-      // by dividing by the widths of the entire set along the corresponding
-      // dimension
-      float normalizedSeparation = mbrLenX == 0 ? 1
-          : (tempHighestLow - tempLowestHigh) / mbrLenX;
-      if (normalizedSeparation > 1 || normalizedSeparation < -1) {
-        log.error("Invalid normalized separation X");
-      }
-
-      if (log.isDebugEnabled()) {
-        log.debug("Entry " + i + ", dimension X: HighestLow = "
-            + tempHighestLow +
-            " (index " + tempHighestLowIndex + ")" + ", LowestHigh = " +
-            tempLowestHigh + " (index " + tempLowestHighIndex
-            + ", NormalizedSeparation = " + normalizedSeparation);
+  /**
+   * Read exactly the passed number of bytes from the channel into the
+   * buffer, and flip it ready to get them.
+   */
+  private static void fill(ByteBuffer buffer, ReadableByteChannel channel,
+      int bytes) throws IOException {
+    buffer.clear();
+    buffer.limit(bytes);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new EOFException("Unexpected end of serialized RTree");
       }
+    }
+    buffer.flip();
+  }
 
-      // PS3 [Select the most extreme pair] Choose the pair with the greatest
-      // normalized separation along any dimension.
-      // Note that if negative it means the rectangles overlapped. However still include
-      // overlapping rectangles if that is the only choice available.
-      if (normalizedSeparation >= maxNormalizedSeparation) {
-        highestLowIndex = tempHighestLowIndex;
-        lowestHighIndex = tempLowestHighIndex;
-        maxNormalizedSeparation = normalizedSeparation;
+  /**
+   * Split a node. The entries of the node and the new entry are copied
+   * out, divided by the split strategy, and copied back into the node and
+   * a new node.
+   *
+   * @return new node object.
+   */
+  private Node splitNode(Node n, float newRectMinX,
+      float newRectMinY, float newRectMaxX, float newRectMaxY, int newId,
+      float newWeight) {
+    int count = copyOverflowEntries(n, newRectMinX, newRectMinY,
+        newRectMaxX, newRectMaxY, newId, newWeight);
+    Arrays.fill(overflowSecond, false);
+    splitStrategy.split(overflowMinX, overflowMinY, overflowMaxX,
+        overflowMaxY, count, minNodeEntries, overflowSecond);
+
+    int secondCount = 0;
+    for (int i = 0; i < count; i++) {
+      if (overflowSecond[i]) {
+        secondCount++;
       }
     }
+    if (secondCount < minNodeEntries || count - secondCount < minNodeEntries) {
+      throw new IllegalStateException("Split strategy " + splitStrategy
+          + " assigned " + (count - secondCount) + " and " + secondCount
+          + " entries, but each node needs at least " + minNodeEntries);
+    }
 
-    // Repeat for the Y dimension
-    tempHighestLow = newRectMinY;
-    tempHighestLowIndex = -1; // -1 indicates the new rectangle is the seed
+    Node newNode = newNode(getNextNodeId(), n.level);
+    putNode(newNode);
+    clearEntries(n);
+    for (int i = 0; i < count; i++) {
+      Node target = overflowSecond[i] ? newNode : n;
+      target.addEntry(overflowMinX[i], overflowMinY[i], overflowMaxX[i],
+          overflowMaxY[i], overflowIds[i], overflowWeights[i]);
+    }
+    return newNode;
+  }
 
-    tempLowestHigh = newRectMaxY;
-    tempLowestHighIndex = -1; // -1 indicates the new rectangle is the seed
+  /**
+   * Copy the entries of a full node and a new entry into the overflow
+   * arrays, and return their number.
+   */
+  private int copyOverflowEntries(Node n, float newRectMinX,
+      float newRectMinY, float newRectMaxX, float newRectMaxY, int newId,
+      float newWeight) {
+    int count = n.entryCount;
+    System.arraycopy(n.entriesMinX, 0, overflowMinX, 0, count);
+    System.arraycopy(n.entriesMinY, 0, overflowMinY, 0, count);
+    System.arraycopy(n.entriesMaxX, 0, overflowMaxX, 0, count);
+    System.arraycopy(n.entriesMaxY, 0, overflowMaxY, 0, count);
+    System.arraycopy(n.ids, 0, overflowIds, 0, count);
+    if (n.weights != null) {
+      System.arraycopy(n.weights, 0, overflowWeights, 0, count);
+    }
+    overflowMinX[count] = newRectMinX;
+    overflowMinY[count] = newRectMinY;
+    overflowMaxX[count] = newRectMaxX;
+    overflowMaxY[count] = newRectMaxY;
+    overflowIds[count] = newId;
+    overflowWeights[count] = newWeight;
+    return count + 1;
+  }
 
+  private static void clearEntries(Node n) {
     for (int i = 0; i < n.entryCount; i++) {
-      float tempLow = n.entriesMinY[i];
-      if (tempLow >= tempHighestLow) {
-        tempHighestLow = tempLow;
-        tempHighestLowIndex = i;
-      } else { // ensure that the same index cannot be both lowestHigh and highestLow
-        float tempHigh = n.entriesMaxY[i];
-        if (tempHigh <= tempLowestHigh) {
-          tempLowestHigh = tempHigh;
-          tempLowestHighIndex = i;
-        }
-      }
-
-      // PS2 [Adjust for shape of the rectangle cluster] Normalize the separations
-      // by dividing by the widths of the entire set along the corresponding
-      // dimension
-      float normalizedSeparation = mbrLenY == 0 ? 1
-          : (tempHighestLow - tempLowestHigh) / mbrLenY;
-      if (normalizedSeparation > 1 || normalizedSeparation < -1) {
-        log.error("Invalid normalized separation Y");
-      }
-
-      if (log.isDebugEnabled()) {
-        log.debug("Entry " + i + ", dimension Y: HighestLow = "
-            + tempHighestLow +
-            " (index " + tempHighestLowIndex + ")" + ", LowestHigh = " +
-            tempLowestHigh + " (index " + tempLowestHighIndex
-            + ", NormalizedSeparation = " + normalizedSeparation);
-      }
-
-      // PS3 [Select the most extreme pair] Choose the pair with the greatest
-      // normalized separation along any dimension.
-      // Note that if negative it means the rectangles overlapped. However still include
-      // overlapping rectangles if that is the only choice available.
-      if (normalizedSeparation >= maxNormalizedSeparation) {
-        highestLowIndex = tempHighestLowIndex;
-        lowestHighIndex = tempLowestHighIndex;
-        maxNormalizedSeparation = normalizedSeparation;
-      }
-    }
-
-    // At this point it is possible that the new rectangle is both highestLow and lowestHigh.
-    // This can happen if all rectangles in the node overlap the new rectangle.
-    // Resolve this by declaring that the highestLowIndex is the lowest Y and,
-    // the lowestHighIndex is the largest X (but always a different rectangle)
-    if (highestLowIndex == lowestHighIndex) {
-      highestLowIndex = -1;
-      float tempMinY = newRectMinY;
-      lowestHighIndex = 0;
-      float tempMaxX = n.entriesMaxX[0];
-
-      for (int i = 1; i < n.entryCount; i++) {
-        if (n.entriesMinY[i] < tempMinY) {
-          tempMinY = n.entriesMinY[i];
-          highestLowIndex = i;
-        }
-        else if (n.entriesMaxX[i] > tempMaxX) {
-          tempMaxX = n.entriesMaxX[i];
-          lowestHighIndex = i;
-        }
-      }
+      n.ids[i] = -1;
     }
+    n.entryCount = 0;
+    n.mbrMinX = Float.MAX_VALUE;
+    n.mbrMinY = Float.MAX_VALUE;
+    n.mbrMaxX = -Float.MAX_VALUE;
+    n.mbrMaxY = -Float.MAX_VALUE;
+  }
 
-    // highestLowIndex is the seed for the new node.
-    if (highestLowIndex == -1) {
-      newNode.addEntry(newRectMinX, newRectMinY, newRectMaxX, newRectMaxY,
-          newId);
-    } else {
-      newNode.addEntry(n.entriesMinX[highestLowIndex],
-          n.entriesMinY[highestLowIndex],
-          n.entriesMaxX[highestLowIndex], n.entriesMaxY[highestLowIndex],
-          n.ids[highestLowIndex]);
-      n.ids[highestLowIndex] = -1;
-
-      // move the new rectangle into the space vacated by the seed for the new node
-      n.entriesMinX[highestLowIndex] = newRectMinX;
-      n.entriesMinY[highestLowIndex] = newRectMinY;
-      n.entriesMaxX[highestLowIndex] = newRectMaxX;
-      n.entriesMaxY[highestLowIndex] = newRectMaxY;
+  /**
+   * Whether the entries of an overflowing node should be partly reinserted
+   * rather than the node split: only if the split strategy asks for it, the
+   * node is not the root, and no reinsertion has yet happened at the level
+   * of the node while adding the current entry.
+   */
+  private boolean shouldReinsert(Node n) {
+    if (n.level == treeHeight || splitStrategy.reinsertFraction() <= 0
+        || (reinsertedLevels & (1L << n.level)) != 0) {
+      return false;
+    }
+    reinsertedLevels |= 1L << n.level;
+    return true;
+  }
 
-      n.ids[highestLowIndex] = newId;
+  /**
+   * Forced reinsertion of the R*-tree. Of the entries of a full node and a
+   * new entry, remove those whose centers are furthest from the center of
+   * the node, and queue them to be inserted again once the current
+   * insertion is complete, nearest first. The MBRs of the parents of the
+   * node are adjusted by the caller.
+   */
+  private void reinsert(Node n, float newRectMinX, float newRectMinY,
+      float newRectMaxX, float newRectMaxY, int newId, float newWeight) {
+    int count = copyOverflowEntries(n, newRectMinX, newRectMinY,
+        newRectMaxX, newRectMaxY, newId, newWeight);
+    float centerX = (Math.min(n.mbrMinX, newRectMinX)
+        + Math.max(n.mbrMaxX, newRectMaxX)) / 2;
+    float centerY = (Math.min(n.mbrMinY, newRectMinY)
+        + Math.max(n.mbrMaxY, newRectMaxY)) / 2;
+    for (int i = 0; i < count; i++) {
+      float dx = (overflowMinX[i] + overflowMaxX[i]) / 2 - centerX;
+      float dy = (overflowMinY[i] + overflowMaxY[i]) / 2 - centerY;
+      overflowKeys[i] = sortKey(dx * dx + dy * dy, i);
+    }
+    Arrays.sort(overflowKeys, 0, count);
+
+    int removeCount = Math.max(1, Math.min(count - minNodeEntries,
+        (int) (count * splitStrategy.reinsertFraction())));
+    int keepCount = count - removeCount;
+    clearEntries(n);
+    for (int k = 0; k < keepCount; k++) {
+      int i = (int) overflowKeys[k];
+      n.addEntry(overflowMinX[i], overflowMinY[i], overflowMaxX[i],
+          overflowMaxY[i], overflowIds[i], overflowWeights[i]);
     }
+    // the queue is a stack, so push the furthest entry first
+    for (int k = count - 1; k >= keepCount; k--) {
+      int i = (int) overflowKeys[k];
+      reinsertRects.add(overflowMinX[i]);
+      reinsertRects.add(overflowMinY[i]);
+      reinsertRects.add(overflowMaxX[i]);
+      reinsertRects.add(overflowMaxY[i]);
+      reinsertIds.add(overflowIds[i]);
+      reinsertWeights.add(overflowWeights[i]);
+      reinsertLevels.add(n.level);
+    }
+  }
 
-    // lowestHighIndex is the seed for the original node.
-    if (lowestHighIndex == -1) {
-      lowestHighIndex = highestLowIndex;
+  /**
+   * The context for a query made without one. That which the tree keeps
+   * for the calling thread, unless it is already in use, by a query whose
+   * procedure makes this one, in which case a new context, so that the
+   * path of the outer query is kept.
+   */
+  private QueryContext startQuery() {
+    QueryContext context = contexts.get();
+    if (context.inUse) {
+      return new QueryContext();
     }
+    context.inUse = true;
+    return context;
+  }
 
-    entryStatus[lowestHighIndex] = ENTRY_STATUS_ASSIGNED;
-    n.entryCount = 1;
-    n.mbrMinX = n.entriesMinX[lowestHighIndex];
-    n.mbrMinY = n.entriesMinY[lowestHighIndex];
-    n.mbrMaxX = n.entriesMaxX[lowestHighIndex];
-    n.mbrMaxY = n.entriesMaxY[lowestHighIndex];
+  private void endQuery(QueryContext c) {
+    c.inUse = false;
   }
 
   /**
-   * Pick the next entry to be assigned to a group during a node split.
+   * The search used by all the rectangle queries. Descends the tree depth
+   * first without recursion, keeping the path from the root in the arrays
+   * of the context. The entries of each node are tested by NodeScan, up to
+   * 64 at a time. Below an internal entry that the rectangle contains,
+   * every entry is a result, so these subtrees are walked without tests;
+   * for TOTALS in an aggregate tree they are not walked at all, as the
+   * stored totals of the child are used.
+   *
+   * Calls execute() on the procedure for each result, except for TOTALS,
+   * which sets the totals of the context instead.
    *
-   * [Determine cost of putting each entry in each group] For each
-   * entry not yet in a group, calculate the area increase required
-   * in the covering rectangles of each group
+   * The tasks of parallelIntersects() use it for their subtrees, and
+   * intersectsBatch() has a loop of the same form that carries sets of
+   * queries down the path. The other traversals are separate: the nearest
+   * queries have their own loop, NearestIterator is best-first with a
+   * priority queue rather than depth first, SpatialJoin recurses over
+   * pairs of nodes of two trees, keeping the plane sweep of each pair,
+   * and FlatRTree and RTreeSnapshot recurse over their own node layouts.
+   * The depth of these recursions is bounded by the tree height.
+   *
+   * @return false if the procedure stopped the search, or the search was
+   *         invalidated.
    */
-  private int pickNext(Node n, Node newNode) {
-    float maxDifference = Float.NEGATIVE_INFINITY;
-    int next = 0;
-    int nextGroup = 0;
-
-    maxDifference = Float.NEGATIVE_INFINITY;
+  private boolean search(int kind, float minX, float minY, float maxX,
+      float maxY, TIntProcedure v, QueryContext context) {
+    return search(kind, nodes[rootNodeId], minX, minY, maxX, maxY, v,
+        context);
+  }
 
-    if (log.isDebugEnabled()) {
-      log.debug("pickNext()");
+  /**
+   * search() of the subtree of the passed node.
+   */
+  private boolean search(int kind, Node n, float minX, float minY,
+      float maxX, float maxY, TIntProcedure v, QueryContext context) {
+    context.ensurePathLength(treeHeight);
+    int[] pathNodes = context.pathNodes;
+    int[] pathFrom = context.pathFrom;
+    long[] pathHits = context.pathHits;
+    context.totalCount = 0;
+    context.totalWeight = 0;
+
+    if (n.isLeaf()) {
+      return searchLeaf(kind, n, false, minX, minY, maxX, maxY, v, context);
     }
 
-    for (int i = 0; i < maxNodeEntries; i++) {
-      if (entryStatus[i] == ENTRY_STATUS_UNASSIGNED) {
+    // the depth of the root of the subtree whose entries are all results,
+    // if the search is in one. Leaves are searched as soon as they are
+    // reached, so the path only holds internal nodes.
+    int allDepth = Integer.MAX_VALUE;
+    int depth = 0;
+    pathNodes[0] = n.nodeId;
+    pathFrom[0] = 0;
+    pathHits[0] = scan(kind, n, 0, false, minX, minY, maxX, maxY);
+
+    while (depth >= 0) {
+      n = nodes[pathNodes[depth]];
+      long hits = pathHits[depth];
+      int from = pathFrom[depth];
+
+      if (hits == 0) {
+        // scan the next entries of the node, or go back up to its parent
+        from += 64;
+        if (from < n.entryCount) {
+          pathFrom[depth] = from;
+          pathHits[depth] = scan(kind, n, from, depth >= allDepth, minX,
+              minY, maxX, maxY);
+        } else {
+          depth--;
+          if (depth < allDepth) {
+            allDepth = Integer.MAX_VALUE;
+          }
+        }
+        continue;
+      }
 
-        if (n.ids[i] == -1) {
-          log.error("Error: Node " + n.nodeId + ", entry " + i + " is null");
+      // go to the next matching child
+      int i = from + Long.numberOfTrailingZeros(hits);
+      pathHits[depth] = hits & (hits - 1);
+      Node child = nodes[n.ids[i]];
+      boolean all = depth >= allDepth;
+      if (!all && Rectangle.contains(minX, minY, maxX, maxY,
+          n.entriesMinX[i], n.entriesMinY[i], n.entriesMaxX[i],
+          n.entriesMaxY[i])) {
+        if (kind == TOTALS && aggregate) {
+          context.totalCount += child.subtreeCount;
+          context.totalWeight += child.subtreeWeight;
+          continue;
+        }
+        all = true;
+      }
+      if (context.invalidated()) {
+        return false;
+      }
+      if (child.isLeaf()) {
+        if (!searchLeaf(kind, child, all, minX, minY, maxX, maxY, v,
+            context)) {
+          return false;
         }
+        continue;
+      }
+      depth++;
+      if (all && allDepth == Integer.MAX_VALUE) {
+        allDepth = depth;
+      }
+      pathNodes[depth] = child.nodeId;
+      pathFrom[depth] = 0;
+      pathHits[depth] = scan(kind, child, 0, all, minX, minY, maxX, maxY);
+    }
+    return true;
+  }
 
-        float nIncrease = Rectangle.enlargement(n.mbrMinX, n.mbrMinY,
-            n.mbrMaxX, n.mbrMaxY,
-            n.entriesMinX[i], n.entriesMinY[i], n.entriesMaxX[i],
-            n.entriesMaxY[i]);
-        float newNodeIncrease = Rectangle.enlargement(newNode.mbrMinX,
-            newNode.mbrMinY, newNode.mbrMaxX, newNode.mbrMaxY,
-            n.entriesMinX[i], n.entriesMinY[i], n.entriesMaxX[i],
-            n.entriesMaxY[i]);
-
-        float difference = Math.abs(nIncrease - newNodeIncrease);
-
-        if (difference > maxDifference) {
-          next = i;
-
-          if (nIncrease < newNodeIncrease) {
-            nextGroup = 0;
-          } else if (newNodeIncrease < nIncrease) {
-            nextGroup = 1;
-          } else if (Rectangle.area(n.mbrMinX, n.mbrMinY, n.mbrMaxX, n.mbrMaxY) < Rectangle
-              .area(newNode.mbrMinX, newNode.mbrMinY, newNode.mbrMaxX,
-                  newNode.mbrMaxY)) {
-            nextGroup = 0;
-          } else if (Rectangle.area(newNode.mbrMinX, newNode.mbrMinY,
-              newNode.mbrMaxX, newNode.mbrMaxY) < Rectangle.area(n.mbrMinX,
-              n.mbrMinY, n.mbrMaxX, n.mbrMaxY)) {
-            nextGroup = 1;
-          } else if (newNode.entryCount < maxNodeEntries / 2) {
-            nextGroup = 0;
-          } else {
-            nextGroup = 1;
+  /**
+   * Used by search() for each leaf it reaches. If all is set, every entry
+   * of the leaf is a result.
+   */
+  private static boolean searchLeaf(int kind, Node n, boolean all,
+      float minX, float minY, float maxX, float maxY, TIntProcedure v,
+      QueryContext context) {
+    if (all) {
+      // the results are added all at once where possible
+      if (kind == TOTALS) {
+        context.totalCount += n.entryCount;
+        if (n.weights == null) {
+          context.totalWeight += n.entryCount;
+        } else {
+          for (int i = 0; i < n.entryCount; i++) {
+            context.totalWeight += n.weights[i];
           }
-          maxDifference = difference;
         }
-        if (log.isDebugEnabled()) {
-          log.debug("Entry " + i + " group0 increase = " + nIncrease
-              + ", group1 increase = " + newNodeIncrease +
-              ", diff = " + difference + ", MaxDiff = " + maxDifference
-              + " (entry " + next + ")");
+      } else if (v == context.ids) {
+        context.ids.addAll(n.ids, 0, n.entryCount);
+      } else {
+        for (int i = 0; i < n.entryCount; i++) {
+          if (!v.execute(n.ids[i])) {
+            return false;
+          }
         }
       }
+      return true;
     }
 
-    entryStatus[next] = ENTRY_STATUS_ASSIGNED;
-
-    if (nextGroup == 0) {
-      if (n.entriesMinX[next] < n.mbrMinX) n.mbrMinX = n.entriesMinX[next];
-      if (n.entriesMinY[next] < n.mbrMinY) n.mbrMinY = n.entriesMinY[next];
-      if (n.entriesMaxX[next] > n.mbrMaxX) n.mbrMaxX = n.entriesMaxX[next];
-      if (n.entriesMaxY[next] > n.mbrMaxY) n.mbrMaxY = n.entriesMaxY[next];
-      n.entryCount++;
-    } else {
-      // move to new node.
-      newNode.addEntry(n.entriesMinX[next], n.entriesMinY[next],
-          n.entriesMaxX[next], n.entriesMaxY[next], n.ids[next]);
-      n.ids[next] = -1;
+    for (int from = 0; from < n.entryCount; from += 64) {
+      long hits = scan(kind, n, from, false, minX, minY, maxX, maxY);
+      if (kind == TOTALS && n.weights == null) {
+        context.totalCount += Long.bitCount(hits);
+        context.totalWeight += Long.bitCount(hits);
+        continue;
+      }
+      while (hits != 0) {
+        int i = from + Long.numberOfTrailingZeros(hits);
+        hits &= hits - 1;
+        if (kind == TOTALS) {
+          context.totalCount++;
+          context.totalWeight += n.weights[i];
+        } else if (!v.execute(n.ids[i])) {
+          return false;
+        }
+      }
     }
+    return true;
+  }
 
-    return next;
+  /**
+   * Used by search() and QuerySpliterator. Returns the mask of the entries of a node from index
+   * from, up to 64 of them, that the search must visit: all of them if
+   * the node is in a subtree whose entries are all results.
+   */
+  static long scan(int kind, Node n, int from, boolean all,
+      float minX, float minY, float maxX, float maxY) {
+    if (all) {
+      return NodeScan.firstBits(Math.min(64, n.entryCount - from));
+    }
+    if (kind == CONTAINS && n.isLeaf()) {
+      return NodeScan.INSTANCE.contained(n, from, minX, minY, maxX, maxY);
+    }
+    return NodeScan.INSTANCE.intersects(n, from, minX, minY, maxX, maxY);
   }
 
   /**
-   * Recursively searches the tree for the nearest entry. Other queries
-   * call execute() on an IntProcedure when a matching entry is found;
-   * however nearest() must store the entry Ids as it searches the tree,
-   * in case a nearer entry is found.
-   * Uses the member variable nearestIds to store the nearest
-   * entry IDs.
+   * The search used by the nearest queries, in the same way as search(),
+   * but keeping the index of the next entry to visit of each node on the
+   * path, as the entries of an internal node are only visited if they
+   * are no further than the nearest entries found so far. If count is 0,
+   * stores the nearest entries in the nearestIds list of the context, or
+   * else up to count entries in the distance queue of the context, as
+   * for nearestN().
    *
-   * TODO rewrite this to be non-recursive?
+   * @return the squared distance of the furthest entry found.
+   */
+  private float nearestSearch(float x, float y, int count,
+      float furthestDistanceSq, QueryContext context) {
+    context.ensurePathLength(treeHeight);
+    int[] pathNodes = context.pathNodes;
+    int[] pathFrom = context.pathFrom;
+
+    int depth = 0;
+    pathNodes[0] = rootNodeId;
+    pathFrom[0] = 0;
+
+    while (depth >= 0) {
+      Node n = nodes[pathNodes[depth]];
+
+      if (n.isLeaf()) {
+        furthestDistanceSq = count == 0
+            ? nearestEntries(x, y, n, furthestDistanceSq, context)
+            : nearestNEntries(x, y, n, count, furthestDistanceSq, context);
+        depth--;
+        continue;
+      }
+
+      // descend into the next child that could have an entry no further
+      // than the nearest found so far, or go back up to the parent
+      int i = pathFrom[depth];
+      while (i < n.entryCount && Rectangle.distanceSq(n.entriesMinX[i],
+          n.entriesMinY[i], n.entriesMaxX[i], n.entriesMaxY[i], x, y)
+          > furthestDistanceSq) {
+        i++;
+      }
+      if (i == n.entryCount) {
+        depth--;
+        continue;
+      }
+      if (context.invalidated()) {
+        return furthestDistanceSq;
+      }
+      pathFrom[depth] = i + 1;
+      depth++;
+      pathNodes[depth] = n.ids[i];
+      pathFrom[depth] = 0;
+    }
+    return furthestDistanceSq;
+  }
+
+  /**
+   * Used by nearestSearch() for nearest(). Keeps the entries of the leaf
+   * that are nearer than, or as near as, the nearest found so far.
    */
-  private float nearest(Point p, Node n, float furthestDistanceSq) {
+  private static float nearestEntries(float x, float y, Node n,
+      float furthestDistanceSq, QueryContext context) {
+    TIntArrayList nearestIds = context.nearestIds;
     for (int i = 0; i < n.entryCount; i++) {
-      float tempDistanceSq = Rectangle.distanceSq(n.entriesMinX[i],
-          n.entriesMinY[i], n.entriesMaxX[i], n.entriesMaxY[i], p.x, p.y);
-      if (n.isLeaf()) { // for leaves, the distance is an actual nearest distance
-        if (tempDistanceSq < furthestDistanceSq) {
-          furthestDistanceSq = tempDistanceSq;
-          nearestIds.reset();
-        }
-        if (tempDistanceSq <= furthestDistanceSq) {
-          nearestIds.add(n.ids[i]);
-        }
-      } else { // for index nodes, only go into them if they potentially could have
-               // a rectangle nearer than actualNearest
-        if (tempDistanceSq <= furthestDistanceSq) {
-          // search the child node
-          furthestDistanceSq = nearest(p, getNode(n.ids[i]), furthestDistanceSq);
-        }
+      float entryDistanceSq = Rectangle.distanceSq(n.entriesMinX[i],
+          n.entriesMinY[i], n.entriesMaxX[i], n.entriesMaxY[i], x, y);
+      if (entryDistanceSq < furthestDistanceSq) {
+        furthestDistanceSq = entryDistanceSq;
+        nearestIds.reset();
+      }
+      if (entryDistanceSq <= furthestDistanceSq) {
+        nearestIds.add(n.ids[i]);
       }
     }
     return furthestDistanceSq;
   }
 
   /**
-   * Recursively searches the tree for all intersecting entries.
-   * Immediately calls execute() on the passed IntProcedure when
-   * a matching entry is found.
-   *
-   * TODO rewrite this to be non-recursive? Make sure it
-   * doesn't slow it down.
+   * Used by nearestSearch() for nearestN(). Checks whether each entry of
+   * the leaf is currently one of the nearest count entries.
    */
-  private boolean intersects(Rectangle r, TIntProcedure v, Node n) {
+  private static float nearestNEntries(float x, float y, Node n, int count,
+      float furthestDistanceSq, QueryContext context) {
+    PriorityQueue distanceQueue = context.distanceQueue;
+    TIntArrayList savedValues = context.savedValues;
     for (int i = 0; i < n.entryCount; i++) {
-      if (Rectangle.intersects(r.minX, r.minY, r.maxX, r.maxY,
-          n.entriesMinX[i], n.entriesMinY[i], n.entriesMaxX[i],
-          n.entriesMaxY[i])) {
-        if (n.isLeaf()) {
-          if (!v.execute(n.ids[i])) {
-            return false;
+      float entryDistanceSq = Rectangle.distanceSq(n.entriesMinX[i],
+          n.entriesMinY[i], n.entriesMaxX[i], n.entriesMaxY[i], x, y);
+      int entryId = n.ids[i];
+
+      if (entryDistanceSq <= furthestDistanceSq) {
+        distanceQueue.insert(entryId, entryDistanceSq);
+
+        while (distanceQueue.size() > count) {
+          // normal case - we can simply remove the lowest priority (highest distance) entry
+          int value = distanceQueue.getValue();
+          float distanceSq = distanceQueue.getPriority();
+          distanceQueue.pop();
+
+          // rare case - multiple items of the same priority (distance)
+          if (distanceSq == distanceQueue.getPriority()) {
+            savedValues.add(value);
+            context.savedPriority = distanceSq;
+          } else {
+            savedValues.reset();
           }
-        } else {
-          Node childNode = getNode(n.ids[i]);
-          if (!intersects(r, v, childNode)) {
-            return false;
+        }
+
+        // if the saved values have the same distance as the
+        // next one in the tree, add them back in.
+        float savedPriority = context.savedPriority;
+        if (savedValues.size() > 0
+            && savedPriority == distanceQueue.getPriority()) {
+          for (int svi = 0; svi < savedValues.size(); svi++) {
+            distanceQueue.insert(savedValues.get(svi), savedPriority);
           }
+          savedValues.reset();
+        }
+
+        // narrow the search, if we have already found N items
+        if (distanceQueue.getPriority() < furthestDistanceSq
+            && distanceQueue.size() >= count) {
+          furthestDistanceSq = distanceQueue.getPriority();
         }
       }
     }
-    return true;
+    return furthestDistanceSq;
   }
 
   /**
@@ -1124,11 +2625,12 @@ public class RTree implements SpatialIndex {
     int parentEntry = 0;
 
     TIntStack eliminatedNodeIds = new TIntArrayStack();
+    recalculateAggregates(n);
 
     // CT2 [Find parent entry] If N is the root, go to CT6. Otherwise
     // let P be the parent of N, and let En be N's entry in P
     while (n.level != treeHeight) {
-      parent = getNode(parents.pop());
+      parent = nodes[parents.pop()];
       parentEntry = parentsEntry.pop();
 
       // CT3 [Eliminiate under-full node] If N has too few entries,
@@ -1155,6 +2657,7 @@ public class RTree implements SpatialIndex {
               deletedMaxX, deletedMaxY);
         }
       }
+      recalculateAggregates(parent);
       // CT5 [Move up one level in tree] Set N=P and repeat from CT2
       n = parent;
     }
@@ -1165,14 +2668,16 @@ public class RTree implements SpatialIndex {
     // the tree, so that leaves of their dependent subtrees will be on the same
     // level as leaves of the main tree
     while (eliminatedNodeIds.size() > 0) {
-      Node e = getNode(eliminatedNodeIds.pop());
+      Node e = nodes[eliminatedNodeIds.pop()];
       for (int j = 0; j < e.entryCount; j++) {
         add(e.entriesMinX[j], e.entriesMinY[j], e.entriesMaxX[j],
-            e.entriesMaxY[j], e.ids[j], e.level);
+            e.entriesMaxY[j], e.ids[j], e.level,
+            e.weights != null ? e.weights[j] : 1);
         e.ids[j] = -1;
       }
       e.entryCount = 0;
       deletedNodeIds.push(e.nodeId);
+      nodes[e.nodeId] = null;
     }
   }
 
@@ -1182,7 +2687,7 @@ public class RTree implements SpatialIndex {
   private Node chooseNode(float minX, float minY, float maxX, float maxY,
       int level) {
     // CL1 [Initialize] Set N to be the root node
-    Node n = getNode(rootNodeId);
+    Node n = nodes[rootNodeId];
     parents.clear();
     parentsEntry.clear();
 
@@ -1196,39 +2701,150 @@ public class RTree implements SpatialIndex {
         return n;
       }
 
+      // R*-tree: if the children of N are at the desired level, choose the
+      // entry whose overlap with the other entries is enlarged least
+      if (n.level == level + 1 && splitStrategy.minimizeOverlap()) {
+        int index = chooseLeastOverlapEnlargement(n, minX, minY, maxX, maxY);
+        parents.push(n.nodeId);
+        parentsEntry.push(index);
+        n = nodes[n.ids[index]];
+        continue;
+      }
+
       // CL3 [Choose subtree] If N is not at the desired level, let F be the entry in N
       // whose rectangle FI needs least enlargement to include EI. Resolve
       // ties by choosing the entry with the rectangle of smaller area.
-      float leastEnlargement = Rectangle.enlargement(n.entriesMinX[0],
-          n.entriesMinY[0], n.entriesMaxX[0], n.entriesMaxY[0],
-          minX, minY, maxX, maxY);
-      int index = 0; // index of rectangle in subtree
-      for (int i = 1; i < n.entryCount; i++) {
-        float tempMinX = n.entriesMinX[i];
-        float tempMinY = n.entriesMinY[i];
-        float tempMaxX = n.entriesMaxX[i];
-        float tempMaxY = n.entriesMaxY[i];
-        float tempEnlargement = Rectangle.enlargement(tempMinX, tempMinY,
-            tempMaxX, tempMaxY,
-            minX, minY, maxX, maxY);
-        if ((tempEnlargement < leastEnlargement)
-            ||
-            ((tempEnlargement == leastEnlargement) &&
-            (Rectangle.area(tempMinX, tempMinY, tempMaxX, tempMaxY) <
-            Rectangle.area(n.entriesMinX[index], n.entriesMinY[index],
-                n.entriesMaxX[index], n.entriesMaxY[index])))) {
-          index = i;
-          leastEnlargement = tempEnlargement;
-        }
-      }
+      int index = chooseLeastEnlargement(n.entriesMinX, n.entriesMinY,
+          n.entriesMaxX, n.entriesMaxY, n.entryCount, minX, minY, maxX, maxY);
 
       parents.push(n.nodeId);
       parentsEntry.push(index);
 
       // CL4 [Descend until a leaf is reached] Set N to be the child node
       // pointed to by Fp and repeat from CL2
-      n = getNode(n.ids[index]);
+      n = nodes[n.ids[index]];
+    }
+  }
+
+  /**
+   * Returns the index of the entry whose rectangle needs least enlargement
+   * to include the passed rectangle, resolving ties by choosing the entry
+   * with the rectangle of smaller area. Also used by PersistentRTree.
+   */
+  static int chooseLeastEnlargement(float[] entriesMinX,
+      float[] entriesMinY, float[] entriesMaxX, float[] entriesMaxY,
+      int entryCount, float minX, float minY, float maxX, float maxY) {
+    float leastEnlargement = Rectangle.enlargement(entriesMinX[0],
+        entriesMinY[0], entriesMaxX[0], entriesMaxY[0],
+        minX, minY, maxX, maxY);
+    int index = 0; // index of rectangle in subtree
+    for (int i = 1; i < entryCount; i++) {
+      float tempMinX = entriesMinX[i];
+      float tempMinY = entriesMinY[i];
+      float tempMaxX = entriesMaxX[i];
+      float tempMaxY = entriesMaxY[i];
+      float tempEnlargement = Rectangle.enlargement(tempMinX, tempMinY,
+          tempMaxX, tempMaxY,
+          minX, minY, maxX, maxY);
+      if ((tempEnlargement < leastEnlargement)
+          ||
+          ((tempEnlargement == leastEnlargement) &&
+          (Rectangle.area(tempMinX, tempMinY, tempMaxX, tempMaxY) <
+          Rectangle.area(entriesMinX[index], entriesMinY[index],
+              entriesMaxX[index], entriesMaxY[index])))) {
+        index = i;
+        leastEnlargement = tempEnlargement;
+      }
+    }
+    return index;
+  }
+
+  /**
+   * ChooseSubtree of the R*-tree, for a node whose children are at the
+   * level at which the entry is inserted. Returns the index of the entry
+   * of n whose overlap with the other entries of n is enlarged least by
+   * including the new rectangle, resolving ties by the least area
+   * enlargement, then the smallest area.
+   */
+  private int chooseLeastOverlapEnlargement(Node n, float minX, float minY,
+      float maxX, float maxY) {
+    int count = n.entryCount;
+    int contains = -1;
+    for (int i = 0; i < count; i++) {
+      float enlargement = Rectangle.enlargement(n.entriesMinX[i],
+          n.entriesMinY[i], n.entriesMaxX[i], n.entriesMaxY[i], minX, minY,
+          maxX, maxY);
+      overflowKeys[i] = sortKey(enlargement, i);
+      // an entry that already contains the rectangle enlarges no overlap,
+      // so the smallest of these is chosen without further calculation
+      if (enlargement == 0 && (contains == -1
+          || Rectangle.area(n.entriesMinX[i], n.entriesMinY[i],
+              n.entriesMaxX[i], n.entriesMaxY[i])
+          < Rectangle.area(n.entriesMinX[contains], n.entriesMinY[contains],
+              n.entriesMaxX[contains], n.entriesMaxY[contains]))) {
+        contains = i;
+      }
+    }
+    if (contains != -1) {
+      return contains;
+    }
+    int candidates = count;
+    if (count > OVERLAP_CANDIDATES) {
+      Arrays.sort(overflowKeys, 0, count);
+      candidates = OVERLAP_CANDIDATES;
+    }
+
+    int best = -1;
+    float bestOverlap = 0;
+    float bestEnlargement = 0;
+    float bestArea = 0;
+    for (int c = 0; c < candidates; c++) {
+      int i = (int) overflowKeys[c];
+      float eMinX = n.entriesMinX[i];
+      float eMinY = n.entriesMinY[i];
+      float eMaxX = n.entriesMaxX[i];
+      float eMaxY = n.entriesMaxY[i];
+      float uMinX = Math.min(eMinX, minX);
+      float uMinY = Math.min(eMinY, minY);
+      float uMaxX = Math.max(eMaxX, maxX);
+      float uMaxY = Math.max(eMaxY, maxY);
+
+      // each term is at least zero, so stop once the best is exceeded
+      float overlap = 0;
+      for (int j = 0; j < count; j++) {
+        if (j != i && n.entriesMinX[j] < uMaxX && n.entriesMaxX[j] > uMinX
+            && n.entriesMinY[j] < uMaxY && n.entriesMaxY[j] > uMinY) {
+          overlap += overlapArea(uMinX, uMinY, uMaxX, uMaxY, n, j)
+              - overlapArea(eMinX, eMinY, eMaxX, eMaxY, n, j);
+          if (best != -1 && overlap > bestOverlap) {
+            break;
+          }
+        }
+      }
+      float area = Rectangle.area(eMinX, eMinY, eMaxX, eMaxY);
+      float enlargement = Rectangle.area(uMinX, uMinY, uMaxX, uMaxY) - area;
+      if (best == -1 || overlap < bestOverlap
+          || (overlap == bestOverlap && (enlargement < bestEnlargement
+          || (enlargement == bestEnlargement && area < bestArea)))) {
+        best = i;
+        bestOverlap = overlap;
+        bestEnlargement = enlargement;
+        bestArea = area;
+      }
+    }
+    return best;
+  }
+
+  private static float overlapArea(float minX, float minY, float maxX,
+      float maxY, Node n, int j) {
+    float width = Math.min(maxX, n.entriesMaxX[j])
+        - Math.max(minX, n.entriesMinX[j]);
+    float height = Math.min(maxY, n.entriesMaxY[j])
+        - Math.max(minY, n.entriesMinY[j]);
+    if (width <= 0 || height <= 0) {
+      return 0;
     }
+    return width * height;
   }
 
   /**
@@ -1245,7 +2861,7 @@ public class RTree implements SpatialIndex {
       // AT3 [Adjust covering rectangle in parent entry] Let P be the parent
       // node of N, and let En be N's entry in P. Adjust EnI so that it tightly
       // encloses all entry rectangles in N.
-      Node parent = getNode(parents.pop());
+      Node parent = nodes[parents.pop()];
       int entry = parentsEntry.pop();
 
       if (parent.ids[entry] != n.nodeId) {
@@ -1277,11 +2893,16 @@ public class RTree implements SpatialIndex {
         if (parent.entryCount < maxNodeEntries) {
           parent.addEntry(nn.mbrMinX, nn.mbrMinY, nn.mbrMaxX, nn.mbrMaxY,
               nn.nodeId);
+        } else if (shouldReinsert(parent)) {
+          reinsert(parent, nn.mbrMinX, nn.mbrMinY, nn.mbrMaxX, nn.mbrMaxY,
+              nn.nodeId, 1);
         } else {
           newNode = splitNode(parent, nn.mbrMinX, nn.mbrMinY, nn.mbrMaxX,
-              nn.mbrMaxY, nn.nodeId);
+              nn.mbrMaxY, nn.nodeId, 1);
         }
       }
+      recalculateAggregates(parent);
+      recalculateAggregates(newNode);
 
       // AT5 [Move up to next level] Set N = P and set NN = PP if a split
       // occurred. Repeat from AT2
@@ -1377,6 +2998,21 @@ public class RTree implements SpatialIndex {
         }
       }
     }
+
+    // the children have been checked, so their totals can be trusted
+    if (aggregate) {
+      int storedCount = n.subtreeCount;
+      double storedWeight = n.subtreeWeight;
+      recalculateAggregates(n);
+      if (n.subtreeCount != storedCount || n.subtreeWeight != storedWeight) {
+        log.error("Error: Node " + nodeId + ", stored count " + storedCount
+            + " and weight " + storedWeight + ", calculated count "
+            + n.subtreeCount + " and weight " + n.subtreeWeight);
+        n.subtreeCount = storedCount;
+        n.subtreeWeight = storedWeight;
+        return false;
+      }
+    }
     return true;
   }
 
@@ -0,0 +1,305 @@
+//   RTreeSnapshot.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.rtree;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.infomatiq.jsi.Point;
+import com.infomatiq.jsi.Rectangle;
+import com.infomatiq.jsi.SpatialIndex;
+import com.slimjars.dist.gnu.trove.list.array.TIntArrayList;
+import com.slimjars.dist.gnu.trove.procedure.TIntProcedure;
+
+/**
+ * <p>An immutable version of a PersistentRTree, as returned by
+ * PersistentRTree.snapshot(). All queries may be called concurrently from
+ * any number of threads without locking; each query allocates its own
+ * working state.</p>
+ *
+ * <p>The query results are the same as those of an RTree containing the
+ * same entries. add() and delete() are not supported; use the
+ * PersistentRTree to create a new version instead.</p>
+ */
+public class RTreeSnapshot implements SpatialIndex {
+  private static final Logger log = LoggerFactory
+      .getLogger(RTreeSnapshot.class);
+
+  final PersistentNode root;
+  private final int size;
+
+  RTreeSnapshot(PersistentNode root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  /**
+   * Not supported, as a snapshot cannot be modified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public void add(Rectangle r, int id) {
+    throw new UnsupportedOperationException("RTreeSnapshot is immutable");
+  }
+
+  /**
+   * Not supported, as a snapshot cannot be modified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public boolean delete(Rectangle r, int id) {
+    throw new UnsupportedOperationException("RTreeSnapshot is immutable");
+  }
+
+  /**
+   * @see com.infomatiq.jsi.SpatialIndex#nearest(Point, TIntProcedure, float)
+   */
+  @Override
+  public void nearest(Point p, TIntProcedure v, float furthestDistance) {
+    TIntArrayList nearestIds = new TIntArrayList();
+    nearest(p, root, furthestDistance * furthestDistance, nearestIds);
+    nearestIds.forEach(v);
+  }
+
+  /**
+   * @see com.infomatiq.jsi.SpatialIndex#nearestNUnsorted(Point, TIntProcedure, int, float)
+   */
+  @Override
+  public void nearestNUnsorted(Point p, TIntProcedure v, int count,
+      float furthestDistance) {
+    createNearestNSearch(p, count, furthestDistance).deliver(v, false);
+  }
+
+  /**
+   * @see com.infomatiq.jsi.SpatialIndex#nearestN(Point, TIntProcedure, int, float)
+   */
+  @Override
+  public void nearestN(Point p, TIntProcedure v, int count,
+      float furthestDistance) {
+    createNearestNSearch(p, count, furthestDistance).deliver(v, true);
+  }
+
+  /**
+   * @see com.infomatiq.jsi.SpatialIndex#intersects(Rectangle, TIntProcedure)
+   */
+  @Override
+  public void intersects(Rectangle r, TIntProcedure v) {
+    intersects(r, v, root);
+  }
+
+  /**
+   * @see com.infomatiq.jsi.SpatialIndex#contains(Rectangle, TIntProcedure)
+   */
+  @Override
+  public void contains(Rectangle r, TIntProcedure v) {
+    contains(r, v, root);
+  }
+
+  /**
+   * @see com.infomatiq.jsi.SpatialIndex#size()
+   */
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @see com.infomatiq.jsi.SpatialIndex#getBounds()
+   */
+  @Override
+  public Rectangle getBounds() {
+    if (root.entryCount == 0) {
+      return null;
+    }
+    return new Rectangle(root.mbrMinX, root.mbrMinY, root.mbrMaxX,
+        root.mbrMaxY);
+  }
+
+  /**
+   * Check the consistency of the tree.
+   *
+   * @return false if an inconsistency is detected, true otherwise.
+   */
+  public boolean checkConsistency() {
+    if (!checkConsistency(root, root.level, null)) {
+      return false;
+    }
+    return countEntries(root) == size;
+  }
+
+  private boolean checkConsistency(PersistentNode n, int expectedLevel,
+      Rectangle expectedMBR) {
+    if (n.level != expectedLevel) {
+      log.error("Error: Node level is " + n.level + ", expected "
+          + expectedLevel);
+      return false;
+    }
+    if (n != root && n.entryCount == 0) {
+      log.error("Error: non-root node has no entries");
+      return false;
+    }
+
+    Rectangle calculatedMBR = calculateMBR(n);
+    Rectangle actualMBR = new Rectangle(n.mbrMinX, n.mbrMinY, n.mbrMaxX,
+        n.mbrMaxY);
+    if (n.entryCount > 0 && !actualMBR.equals(calculatedMBR)) {
+      log.error("Error: Node MBR is not equal to the calculated MBR");
+      return false;
+    }
+    if (expectedMBR != null && !actualMBR.equals(expectedMBR)) {
+      log.error("Error: Node MBR is not equal to its parent entry");
+      return false;
+    }
+
+    if (!n.isLeaf()) {
+      for (int i = 0; i < n.entryCount; i++) {
+        if (!checkConsistency(n.children[i], n.level - 1,
+            new Rectangle(n.entriesMinX[i], n.entriesMinY[i],
+                n.entriesMaxX[i], n.entriesMaxY[i]))) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private Rectangle calculateMBR(PersistentNode n) {
+    Rectangle mbr = new Rectangle();
+    mbr.minX = Float.MAX_VALUE;
+    mbr.minY = Float.MAX_VALUE;
+    mbr.maxX = -Float.MAX_VALUE;
+    mbr.maxY = -Float.MAX_VALUE;
+    for (int i = 0; i < n.entryCount; i++) {
+      if (n.entriesMinX[i] < mbr.minX) mbr.minX = n.entriesMinX[i];
+      if (n.entriesMinY[i] < mbr.minY) mbr.minY = n.entriesMinY[i];
+      if (n.entriesMaxX[i] > mbr.maxX) mbr.maxX = n.entriesMaxX[i];
+      if (n.entriesMaxY[i] > mbr.maxY) mbr.maxY = n.entriesMaxY[i];
+    }
+    return mbr;
+  }
+
+  private int countEntries(PersistentNode n) {
+    if (n.isLeaf()) {
+      return n.entryCount;
+    }
+    int count = 0;
+    for (int i = 0; i < n.entryCount; i++) {
+      count += countEntries(n.children[i]);
+    }
+    return count;
+  }
+
+  /**
+   * Recursively searches the tree for the nearest entry, storing the ids
+   * of the nearest entries found so far in nearestIds.
+   */
+  private float nearest(Point p, PersistentNode n, float furthestDistanceSq,
+      TIntArrayList nearestIds) {
+    for (int i = 0; i < n.entryCount; i++) {
+      float tempDistanceSq = Rectangle.distanceSq(n.entriesMinX[i],
+          n.entriesMinY[i], n.entriesMaxX[i], n.entriesMaxY[i], p.x, p.y);
+      if (n.isLeaf()) { // for leaves, the distance is an actual nearest distance
+        if (tempDistanceSq < furthestDistanceSq) {
+          furthestDistanceSq = tempDistanceSq;
+          nearestIds.reset();
+        }
+        if (tempDistanceSq <= furthestDistanceSq) {
+          nearestIds.add(n.ids[i]);
+        }
+      } else { // for index nodes, only go into them if they potentially could have
+               // a rectangle nearer than actualNearest
+        if (tempDistanceSq <= furthestDistanceSq) {
+          furthestDistanceSq = nearest(p, n.children[i], furthestDistanceSq,
+              nearestIds);
+        }
+      }
+    }
+    return furthestDistanceSq;
+  }
+
+  /**
+   * Recursively searches the tree for all intersecting entries.
+   */
+  private boolean intersects(Rectangle r, TIntProcedure v, PersistentNode n) {
+    for (int i = 0; i < n.entryCount; i++) {
+      if (Rectangle.intersects(r.minX, r.minY, r.maxX, r.maxY,
+          n.entriesMinX[i], n.entriesMinY[i], n.entriesMaxX[i],
+          n.entriesMaxY[i])) {
+        if (n.isLeaf()) {
+          if (!v.execute(n.ids[i])) {
+            return false;
+          }
+        } else if (!intersects(r, v, n.children[i])) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Recursively searches the tree for all contained entries.
+   */
+  private boolean contains(Rectangle r, TIntProcedure v, PersistentNode n) {
+    for (int i = 0; i < n.entryCount; i++) {
+      if (n.isLeaf()) {
+        if (Rectangle.contains(r.minX, r.minY, r.maxX, r.maxY,
+            n.entriesMinX[i], n.entriesMinY[i], n.entriesMaxX[i],
+            n.entriesMaxY[i])) {
+          if (!v.execute(n.ids[i])) {
+            return false;
+          }
+        }
+      } else if (Rectangle.intersects(r.minX, r.minY, r.maxX, r.maxY,
+          n.entriesMinX[i], n.entriesMinY[i], n.entriesMaxX[i],
+          n.entriesMaxY[i])) {
+        if (!contains(r, v, n.children[i])) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Find the nearest entries in the same way as RTree, including more than
+   * count entries if several are at the same distance as the furthest.
+   */
+  private NearestNSearch createNearestNSearch(Point p, int count,
+      float furthestDistance) {
+    NearestNSearch search = new NearestNSearch(count, furthestDistance);
+    if (count > 0) {
+      nearestN(p, root, search);
+    }
+    return search;
+  }
+
+  private void nearestN(Point p, PersistentNode n, NearestNSearch search) {
+    for (int i = 0; i < n.entryCount; i++) {
+      float distanceSq = Rectangle.distanceSq(n.entriesMinX[i],
+          n.entriesMinY[i], n.entriesMaxX[i], n.entriesMaxY[i], p.x, p.y);
+      if (n.isLeaf()) {
+        search.offer(n.ids[i], distanceSq);
+      } else if (distanceSq <= search.furthestDistanceSq) {
+        nearestN(p, n.children[i], search);
+      }
+    }
+  }
+}
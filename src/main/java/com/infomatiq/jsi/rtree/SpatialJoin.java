@@ -0,0 +1,282 @@
+//   SpatialJoin.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.rtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.infomatiq.jsi.IntPairProcedure;
+
+/**
+ * <p>Finds all pairs of intersecting entries of two RTrees.</p>
+ *
+ * <p>Both trees are traversed together, depth first. Only pairs of nodes
+ * whose MBRs intersect are descended into. Within each such pair, only the
+ * entries that intersect the overlap of the two node MBRs are considered,
+ * and these are matched with a plane sweep along the x axis instead of
+ * comparing every entry with every other one. If the trees have different
+ * heights, the taller one is descended alone until the levels match.</p>
+ *
+ * <p>The trees must not be modified during a join.</p>
+ */
+public class SpatialJoin {
+
+  /**
+   * The number of levels of node pairs below the roots that
+   * parallelIntersects() splits into separate tasks.
+   */
+  private static final int FORK_DEPTH = 2;
+
+  private final IntPairProcedure v;
+  private final AtomicBoolean stopped;
+
+  // sorted entry indexes for each depth of the recursion
+  private int[][] sortedA = new int[4][];
+  private int[][] sortedB = new int[4][];
+
+  // if not null, pairs of internal nodes are collected here instead of
+  // being descended into
+  private List<JoinTask> tasks = null;
+  private int taskForkDepth;
+
+  private SpatialJoin(IntPairProcedure v, AtomicBoolean stopped) {
+    this.v = v;
+    this.stopped = stopped;
+  }
+
+  /**
+   * Calls v.execute(idA, idB) for each pair of an entry of a and an entry
+   * of b whose rectangles intersect. The pairs are reported in no
+   * particular order.
+   *
+   * @param v The procedure to call with each pair. If it returns false,
+   *          the join stops.
+   */
+  public static void intersects(RTree a, RTree b, IntPairProcedure v) {
+    SpatialJoin join = new SpatialJoin(v, new AtomicBoolean());
+    join.join(a, b, a.getNode(a.getRootNodeId()),
+        b.getNode(b.getRootNodeId()), 0);
+  }
+
+  /**
+   * Like intersects(), but splits the work into tasks for the pairs of
+   * intersecting nodes near the roots of the trees, and runs these tasks
+   * in the passed pool. The procedure is called concurrently from the
+   * threads of the pool, and must be thread safe. If it returns false, the
+   * join stops as soon as each running task notices.
+   */
+  public static void parallelIntersects(RTree a, RTree b,
+      IntPairProcedure v, ForkJoinPool pool) {
+    pool.invoke(new JoinTask(a, b, a.getNode(a.getRootNodeId()),
+        b.getNode(b.getRootNodeId()), v, new AtomicBoolean(), FORK_DEPTH));
+  }
+
+  /**
+   * Like parallelIntersects(), using the common ForkJoinPool.
+   */
+  public static void parallelIntersects(RTree a, RTree b,
+      IntPairProcedure v) {
+    parallelIntersects(a, b, v, ForkJoinPool.commonPool());
+  }
+
+  private static class JoinTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final RTree a;
+    private final RTree b;
+    private final Node nodeA;
+    private final Node nodeB;
+    private final IntPairProcedure v;
+    private final AtomicBoolean stopped;
+    private final int forkDepth;
+
+    JoinTask(RTree a, RTree b, Node nodeA, Node nodeB, IntPairProcedure v,
+        AtomicBoolean stopped, int forkDepth) {
+      this.a = a;
+      this.b = b;
+      this.nodeA = nodeA;
+      this.nodeB = nodeB;
+      this.v = v;
+      this.stopped = stopped;
+      this.forkDepth = forkDepth;
+    }
+
+    @Override
+    protected void compute() {
+      SpatialJoin join = new SpatialJoin(v, stopped);
+      if (forkDepth > 0) {
+        join.tasks = new ArrayList<>();
+        join.taskForkDepth = forkDepth - 1;
+      }
+      join.join(a, b, nodeA, nodeB, 0);
+      if (join.tasks != null && !join.tasks.isEmpty()) {
+        invokeAll(join.tasks);
+      }
+    }
+  }
+
+  /**
+   * Joins two nodes whose MBRs are known to intersect.
+   *
+   * @return false if the join has been stopped
+   */
+  private boolean join(RTree a, RTree b, Node nodeA, Node nodeB, int depth) {
+    if (stopped.get()) {
+      return false;
+    }
+
+    // restrict the search to the overlap of the two nodes
+    float minX = Math.max(nodeA.mbrMinX, nodeB.mbrMinX);
+    float minY = Math.max(nodeA.mbrMinY, nodeB.mbrMinY);
+    float maxX = Math.min(nodeA.mbrMaxX, nodeB.mbrMaxX);
+    float maxY = Math.min(nodeA.mbrMaxY, nodeB.mbrMaxY);
+
+    if (nodeA.level > nodeB.level) {
+      for (int i = 0; i < nodeA.entryCount; i++) {
+        if (intersects(nodeA, i, minX, minY, maxX, maxY)
+            && !descend(a, b, a.getNode(nodeA.ids[i]), nodeB, depth)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (nodeB.level > nodeA.level) {
+      for (int i = 0; i < nodeB.entryCount; i++) {
+        if (intersects(nodeB, i, minX, minY, maxX, maxY)
+            && !descend(a, b, nodeA, b.getNode(nodeB.ids[i]), depth)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    if (depth == sortedA.length) {
+      sortedA = Arrays.copyOf(sortedA, depth * 2);
+      sortedB = Arrays.copyOf(sortedB, depth * 2);
+    }
+    int[] entriesA = sortedA[depth];
+    if (entriesA == null || entriesA.length < nodeA.entryCount) {
+      entriesA = sortedA[depth] = new int[nodeA.ids.length];
+    }
+    int[] entriesB = sortedB[depth];
+    if (entriesB == null || entriesB.length < nodeB.entryCount) {
+      entriesB = sortedB[depth] = new int[nodeB.ids.length];
+    }
+    int countA = sortEntries(nodeA, entriesA, minX, minY, maxX, maxY);
+    int countB = sortEntries(nodeB, entriesB, minX, minY, maxX, maxY);
+
+    // plane sweep: take the entry with the lowest minX from either list,
+    // and pair it with the entries of the other list that start before it
+    // ends
+    boolean leaf = nodeA.isLeaf();
+    int i = 0;
+    int j = 0;
+    while (i < countA && j < countB) {
+      int ea = entriesA[i];
+      int eb = entriesB[j];
+      if (nodeA.entriesMinX[ea] <= nodeB.entriesMinX[eb]) {
+        float endX = nodeA.entriesMaxX[ea];
+        for (int k = j; k < countB; k++) {
+          int e = entriesB[k];
+          if (nodeB.entriesMinX[e] > endX) {
+            break;
+          }
+          if (nodeA.entriesMinY[ea] <= nodeB.entriesMaxY[e]
+              && nodeA.entriesMaxY[ea] >= nodeB.entriesMinY[e]
+              && !pair(a, b, nodeA, ea, nodeB, e, leaf, depth)) {
+            return false;
+          }
+        }
+        i++;
+      } else {
+        float endX = nodeB.entriesMaxX[eb];
+        for (int k = i; k < countA; k++) {
+          int e = entriesA[k];
+          if (nodeA.entriesMinX[e] > endX) {
+            break;
+          }
+          if (nodeA.entriesMinY[e] <= nodeB.entriesMaxY[eb]
+              && nodeA.entriesMaxY[e] >= nodeB.entriesMinY[eb]
+              && !pair(a, b, nodeA, e, nodeB, eb, leaf, depth)) {
+            return false;
+          }
+        }
+        j++;
+      }
+    }
+    return true;
+  }
+
+  private boolean pair(RTree a, RTree b, Node nodeA, int entryA, Node nodeB,
+      int entryB, boolean leaf, int depth) {
+    if (leaf) {
+      if (!v.execute(nodeA.ids[entryA], nodeB.ids[entryB])) {
+        stopped.set(true);
+        return false;
+      }
+      return true;
+    }
+    return descend(a, b, a.getNode(nodeA.ids[entryA]),
+        b.getNode(nodeB.ids[entryB]), depth + 1);
+  }
+
+  private boolean descend(RTree a, RTree b, Node nodeA, Node nodeB,
+      int depth) {
+    if (tasks != null) {
+      tasks.add(new JoinTask(a, b, nodeA, nodeB, v, stopped, taskForkDepth));
+      return true;
+    }
+    return join(a, b, nodeA, nodeB, depth);
+  }
+
+  private static boolean intersects(Node n, int i, float minX, float minY,
+      float maxX, float maxY) {
+    return n.entriesMinX[i] <= maxX && n.entriesMaxX[i] >= minX
+        && n.entriesMinY[i] <= maxY && n.entriesMaxY[i] >= minY;
+  }
+
+  /**
+   * Stores the indexes of the entries of n that intersect the passed
+   * rectangle in entries, sorted by the minX of the entries.
+   *
+   * @return the number of entries stored
+   */
+  private static int sortEntries(Node n, int[] entries, float minX,
+      float minY, float maxX, float maxY) {
+    int count = 0;
+    for (int i = 0; i < n.entryCount; i++) {
+      if (!intersects(n, i, minX, minY, maxX, maxY)) {
+        continue;
+      }
+      // insertion sort, as nodes are small
+      float key = n.entriesMinX[i];
+      int k = count++;
+      while (k > 0 && n.entriesMinX[entries[k - 1]] > key) {
+        entries[k] = entries[k - 1];
+        k--;
+      }
+      entries[k] = i;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,76 @@
+//   SplitStrategy.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.rtree;
+
+/**
+ * <p>Decides how an RTree divides the entries of a node that has
+ * overflowed between the node and a new sibling. An RTree created without
+ * a SplitStrategy uses a LinearSplit.</p>
+ *
+ * <p>As split algorithms are designed together with the way entries are
+ * inserted, a strategy also selects the insertion policies that go with
+ * it, through the default methods.</p>
+ *
+ * <p>A strategy may keep working storage between calls to split(), so an
+ * instance must not be used by two trees at once. Each RTree uses its own
+ * copy of the strategy passed to it, made by copy(), so the same instance
+ * can be passed to any number of trees.</p>
+ */
+public interface SplitStrategy {
+
+  /**
+   * Divide entries into two groups. Entry i is the rectangle (minX[i],
+   * minY[i], maxX[i], maxY[i]); the arrays may be longer than count.
+   *
+   * @param count the number of entries, which is the maximum number of
+   *        entries per node plus one
+   * @param minEntries the minimum number of entries in each group
+   * @param second set second[i] to true to move entry i to the new node,
+   *        and to false to keep it in the existing node. Both groups must
+   *        have at least minEntries entries.
+   */
+  public void split(float[] minX, float[] minY, float[] maxX, float[] maxY,
+      int count, int minEntries, boolean[] second);
+
+  /**
+   * A strategy that splits nodes in the same way as this one, with its
+   * own working storage. A strategy that keeps no state between calls to
+   * split() may return itself.
+   */
+  public SplitStrategy copy();
+
+  /**
+   * Whether an entry is inserted into the child that needs the least
+   * enlargement of its overlap with its siblings, rather than the least
+   * enlargement of its area, when the children are at the level the entry
+   * is inserted at. This is the ChooseSubtree of the R*-tree.
+   */
+  public default boolean minimizeOverlap() {
+    return false;
+  }
+
+  /**
+   * The fraction of the entries of an overflowing node that are removed
+   * and inserted again, instead of splitting the node. This is done at
+   * most once per level for each entry added, and never for the root;
+   * otherwise the node is split. Zero disables forced reinsertion.
+   */
+  public default float reinsertFraction() {
+    return 0;
+  }
+}
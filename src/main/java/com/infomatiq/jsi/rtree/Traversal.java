@@ -42,4 +42,23 @@ public interface Traversal {
    */
   public void node(Rectangle rectangle);
 
+  /**
+   * Called by TreeTraverser for each element, with the coordinates of its
+   * bounding box. By default creates a Rectangle and calls
+   * element(Rectangle, int); override to traverse without allocating.
+   */
+  public default void element(float minX, float minY, float maxX,
+      float maxY, int nodeId) {
+    element(new Rectangle(minX, minY, maxX, maxY), nodeId);
+  }
+
+  /**
+   * Called by TreeTraverser for each inner node, with the coordinates of
+   * its bounding box. By default creates a Rectangle and calls
+   * node(Rectangle); override to traverse without allocating.
+   */
+  public default void node(float minX, float minY, float maxX, float maxY) {
+    node(new Rectangle(minX, minY, maxX, maxY));
+  }
+
 }
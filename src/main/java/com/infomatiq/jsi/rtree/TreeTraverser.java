@@ -16,8 +16,6 @@
 
 package com.infomatiq.jsi.rtree;
 
-import com.infomatiq.jsi.Rectangle;
-
 /**
  * @author Sebastian Kuerten (sebastian@topobyte.de)
  * 
@@ -55,15 +53,14 @@ public class TreeTraverser {
     if (node == null) {
       return;
     }
-    Rectangle mbb = node.getMbb();
-    traversal.node(mbb);
+    traversal.node(node.mbrMinX, node.mbrMinY, node.mbrMaxX, node.mbrMaxY);
 
     if (node.isLeaf()) {
       int nc = node.getEntryCount();
       for (int i = 0; i < nc; i++) {
         int element = node.getId(i);
-        Rectangle box = node.getEntryMbb(i);
-        traversal.element(box, element);
+        traversal.element(node.entriesMinX[i], node.entriesMinY[i],
+            node.entriesMaxX[i], node.entriesMaxY[i], element);
       }
       return;
     }
@@ -0,0 +1,56 @@
+//  This file is part of JSI.
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package de.topobyte.jsi;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Converts the elements stored in a GenericRTree to and from bytes, so that
+ * a GenericRTree can be written without using Java object serialization.
+ *
+ * @param <T>
+ *            the type of elements handled by this codec.
+ */
+public interface ElementCodec<T>
+{
+
+  /**
+   * Write an element.
+   *
+   * @param element
+   *            the element to write.
+   * @param out
+   *            the output to write to.
+   * @throws IOException
+   *             on failure.
+   */
+  void write(T element, DataOutput out) throws IOException;
+
+  /**
+   * Read an element that was written by write().
+   *
+   * @param in
+   *            the input to read from.
+   * @return the element read.
+   * @throws IOException
+   *             on failure.
+   */
+  T read(DataInput in) throws IOException;
+
+}
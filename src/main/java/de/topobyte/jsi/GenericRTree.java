@@ -16,20 +16,34 @@
 
 package de.topobyte.jsi;
 
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.Externalizable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Stream;
 
+import com.infomatiq.jsi.Flow;
 import com.infomatiq.jsi.Point;
 import com.infomatiq.jsi.Rectangle;
+import com.infomatiq.jsi.rtree.Node;
 import com.infomatiq.jsi.rtree.RTree;
+import com.slimjars.dist.gnu.trove.iterator.TIntObjectIterator;
+import com.slimjars.dist.gnu.trove.list.array.TIntArrayList;
 import com.slimjars.dist.gnu.trove.map.TIntObjectMap;
 import com.slimjars.dist.gnu.trove.map.TObjectIntMap;
 import com.slimjars.dist.gnu.trove.map.hash.TIntObjectHashMap;
@@ -49,12 +63,37 @@ import com.slimjars.dist.gnu.trove.procedure.TObjectProcedure;
 public class GenericRTree<T> implements GenericSpatialIndex<T>, Externalizable
 {
 
+  // Written first by writeExternal(). The original format, which
+  // is still read, started with the value of indexer, which is never
+  // negative.
+  private static final int FORMAT_STRUCTURAL = -1;
+
   RTree rtree;
   int indexer = 0;
   TIntObjectMap<T> idToThing;
   TObjectIntMap<T> thingToId;
   Map<T, Rectangle> thingToRect;
 
+  // passes the ids found by the queries on to the caller's procedure,
+  // reused so that the queries do not allocate
+  private final ThingProcedure thingProcedure = new ThingProcedure();
+
+  // the ids found by the queries that add to a collection
+  private final TIntArrayList ids = new TIntArrayList();
+
+  private class ThingProcedure implements TIntProcedure
+  {
+
+    TObjectProcedure<T> procedure;
+
+    @Override
+    public boolean execute(int id)
+    {
+      return procedure.execute(idToThing.get(id));
+    }
+
+  }
+
   /**
    * This constructor creates a GenericRTree. The specified minimal and
    * maximal number of childs per node is internally used for the implementing
@@ -82,6 +121,14 @@ public class GenericRTree<T> implements GenericSpatialIndex<T>, Externalizable
     this(1, 10);
   }
 
+  private GenericRTree(RTree rtree)
+  {
+    this.rtree = rtree;
+    idToThing = new TIntObjectHashMap<>();
+    thingToId = new TObjectIntHashMap<>();
+    thingToRect = new HashMap<>();
+  }
+
   @Override
   public void add(Rectangle r, T thing)
   {
@@ -111,97 +158,162 @@ public class GenericRTree<T> implements GenericSpatialIndex<T>, Externalizable
   }
 
   @Override
-  public void contains(Rectangle r, final TObjectProcedure<T> procedure)
+  public void contains(Rectangle r, TObjectProcedure<T> procedure)
   {
-    rtree.contains(r, new TIntProcedure() {
-
-      @Override
-      public boolean execute(int id)
-      {
-        T thing = idToThing.get(id);
-        boolean ret = procedure.execute(thing);
-        return ret;
-      }
-    });
+    // restored afterwards, in case the procedure makes a query itself
+    TObjectProcedure<T> previous = thingProcedure.procedure;
+    thingProcedure.procedure = procedure;
+    try {
+      rtree.contains(r, thingProcedure);
+    } finally {
+      thingProcedure.procedure = previous;
+    }
   }
 
   @Override
   public Set<T> contains(Rectangle r)
   {
-    final Set<T> results = new HashSet<>();
-    contains(r, new TObjectProcedure<T>() {
-
-      @Override
-      public boolean execute(T thing)
-      {
-        results.add(thing);
-        return true;
-      }
-    });
+    Set<T> results = new HashSet<>();
+    contains(r, results);
     return results;
   }
 
   @Override
-  public void intersects(Rectangle r, final TObjectProcedure<T> procedure)
+  public int contains(Rectangle r, Collection<? super T> results)
   {
-    rtree.intersects(r, new TIntProcedure() {
+    ids.reset();
+    int count = rtree.contains(r, ids);
+    addThings(results);
+    return count;
+  }
 
-      @Override
-      public boolean execute(int id)
-      {
-        T thing = idToThing.get(id);
-        boolean ret = procedure.execute(thing);
-        return ret;
-      }
-    });
+  @Override
+  public void intersects(Rectangle r, TObjectProcedure<T> procedure)
+  {
+    // restored afterwards, in case the procedure makes a query itself
+    TObjectProcedure<T> previous = thingProcedure.procedure;
+    thingProcedure.procedure = procedure;
+    try {
+      rtree.intersects(r, thingProcedure);
+    } finally {
+      thingProcedure.procedure = previous;
+    }
   }
 
   @Override
   public Set<T> intersects(Rectangle r)
   {
-    final Set<T> results = new HashSet<>();
-    intersects(r, new TObjectProcedure<T>() {
-
-      @Override
-      public boolean execute(T thing)
-      {
-        results.add(thing);
-        return true;
-      }
-    });
+    Set<T> results = new HashSet<>();
+    intersects(r, results);
     return results;
   }
 
   @Override
-  public List<T> intersectionsAsList(Rectangle r)
+  public int intersects(Rectangle r, Collection<? super T> results)
   {
-    final List<T> results = new ArrayList<>();
-    intersects(r, new TObjectProcedure<T>() {
+    ids.reset();
+    int count = rtree.intersects(r, ids);
+    addThings(results);
+    return count;
+  }
 
-      @Override
-      public boolean execute(T thing)
-      {
-        results.add(thing);
-        return true;
-      }
-    });
+  @Override
+  public int count(Rectangle r)
+  {
+    return rtree.count(r);
+  }
+
+  @Override
+  public List<T> intersectionsAsList(Rectangle r)
+  {
+    List<T> results = new ArrayList<>();
+    intersects(r, results);
     return results;
   }
 
+  /**
+   * Returns the elements that intersect the given rectangle as a stream,
+   * which searches the tree as it is consumed. The tree must not be
+   * modified while the stream is consumed.
+   * 
+   * @param r
+   *            the rectangle to query for intersecting elements.
+   * @return a stream of the intersecting elements.
+   * @see RTree#intersectsStream(Rectangle)
+   */
+  public Stream<T> intersectsStream(Rectangle r)
+  {
+    return rtree.intersectsStream(r).mapToObj(idToThing::get);
+  }
+
+  /**
+   * Returns the elements contained in the given rectangle as a stream,
+   * which searches the tree as it is consumed. The tree must not be
+   * modified while the stream is consumed.
+   * 
+   * @param r
+   *            the rectangle to query for contained elements.
+   * @return a stream of the contained elements.
+   * @see RTree#containsStream(Rectangle)
+   */
+  public Stream<T> containsStream(Rectangle r)
+  {
+    return rtree.containsStream(r).mapToObj(idToThing::get);
+  }
+
+  /**
+   * Returns a publisher of the elements that intersect the given
+   * rectangle, which searches the tree only as far as its subscribers
+   * have requested. The tree must not be modified while a subscription is
+   * active.
+   * 
+   * @param r
+   *            the rectangle to query for intersecting elements.
+   * @return a publisher of the intersecting elements.
+   * @see RTree#intersectsPublisher(Rectangle)
+   */
+  public Flow.Publisher<T> intersectsPublisher(Rectangle r)
+  {
+    return rtree.intersectsPublisher(r, idToThing::get);
+  }
+
+  /**
+   * Returns a publisher of the elements contained in the given rectangle,
+   * which searches the tree only as far as its subscribers have requested.
+   * The tree must not be modified while a subscription is active.
+   * 
+   * @param r
+   *            the rectangle to query for contained elements.
+   * @return a publisher of the contained elements.
+   * @see RTree#containsPublisher(Rectangle)
+   */
+  public Flow.Publisher<T> containsPublisher(Rectangle r)
+  {
+    return rtree.containsPublisher(r, idToThing::get);
+  }
+
+  /**
+   * Add the things with the ids found by a query to results.
+   */
+  private void addThings(Collection<? super T> results)
+  {
+    for (int i = 0; i < ids.size(); i++) {
+      results.add(idToThing.get(ids.get(i)));
+    }
+    ids.reset();
+  }
+
   @Override
-  public void nearest(Point p, final TObjectProcedure<T> procedure,
+  public void nearest(Point p, TObjectProcedure<T> procedure,
       float distance)
   {
-    rtree.nearest(p, new TIntProcedure() {
-
-      @Override
-      public boolean execute(int id)
-      {
-        T thing = idToThing.get(id);
-        boolean ret = procedure.execute(thing);
-        return ret;
-      }
-    }, distance);
+    TObjectProcedure<T> previous = thingProcedure.procedure;
+    thingProcedure.procedure = procedure;
+    try {
+      rtree.nearest(p, thingProcedure, distance);
+    } finally {
+      thingProcedure.procedure = previous;
+    }
   }
 
   @Override
@@ -234,30 +346,170 @@ public class GenericRTree<T> implements GenericSpatialIndex<T>, Externalizable
     return rtree.getBounds();
   }
 
+  /**
+   * Write this tree to a channel. The structure of the underlying RTree is
+   * written as it is, and the elements are written using the passed codec,
+   * so that read() restores the tree without inserting any elements, and
+   * without using Java object serialization. The elements are written
+   * straight to the channel as they are encoded.
+   * 
+   * @param channel
+   *            the channel to write to.
+   * @param codec
+   *            the codec used to write the elements.
+   * @throws IOException
+   *             on failure.
+   */
+  public void write(WritableByteChannel channel,
+      ElementCodec<? super T> codec) throws IOException
+  {
+    rtree.write(channel);
+
+    // the stream is flushed but not closed, so that the channel stays open
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        Channels.newOutputStream(channel)));
+    out.writeInt(indexer);
+    out.writeInt(idToThing.size());
+    TIntObjectIterator<T> iterator = idToThing.iterator();
+    while (iterator.hasNext()) {
+      iterator.advance();
+      out.writeInt(iterator.key());
+      codec.write(iterator.value(), out);
+    }
+    out.flush();
+  }
+
+  /**
+   * Read a tree that was written by write(). Exactly the bytes written are
+   * consumed, so the elements are read from the channel without
+   * buffering; a channel over a file should be buffered by the caller.
+   * 
+   * @param channel
+   *            the channel to read from.
+   * @param codec
+   *            the codec used to read the elements.
+   * @return the tree read.
+   * @throws IOException
+   *             on failure.
+   */
+  public static <T> GenericRTree<T> read(ReadableByteChannel channel,
+      ElementCodec<? extends T> codec) throws IOException
+  {
+    GenericRTree<T> tree = new GenericRTree<>(RTree.read(channel));
+
+    DataInputStream in = new DataInputStream(
+        Channels.newInputStream(channel));
+    tree.indexer = in.readInt();
+    int size = in.readInt();
+    for (int i = 0; i < size; i++) {
+      int id = in.readInt();
+      T thing = codec.read(in);
+      tree.idToThing.put(id, thing);
+      tree.thingToId.put(thing, id);
+    }
+    tree.restoreRectangles();
+    return tree;
+  }
+
+  /**
+   * Fill thingToRect from the entries in the leaves of the RTree, after the
+   * RTree has been restored from its serialized structure.
+   */
+  private void restoreRectangles()
+  {
+    thingToRect.clear();
+    restoreRectangles(rtree.getNode(rtree.getRootNodeId()));
+  }
+
+  private void restoreRectangles(Node n)
+  {
+    for (int i = 0; i < n.getEntryCount(); i++) {
+      if (n.isLeaf()) {
+        thingToRect.put(idToThing.get(n.getId(i)), n.getEntryMbb(i));
+      } else {
+        restoreRectangles(rtree.getNode(n.getId(i)));
+      }
+    }
+  }
+
   @Override
-  public void writeExternal(ObjectOutput oo) throws IOException
+  public void writeExternal(final ObjectOutput oo) throws IOException
   {
+    oo.writeInt(FORMAT_STRUCTURAL);
+    rtree.write(Channels.newChannel(new OutputStream() {
+
+      @Override
+      public void write(int b) throws IOException
+      {
+        oo.write(b);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException
+      {
+        oo.write(b, off, len);
+      }
+    }));
+
     oo.writeInt(indexer);
     oo.writeInt(idToThing.size());
-    int[] keys = idToThing.keys();
-    for (int i : keys) {
-      T thing = idToThing.get(i);
-      Rectangle rect = thingToRect.get(thing);
-      oo.writeInt(i);
-      oo.writeObject(thing);
-      oo.writeFloat(rect.minX);
-      oo.writeFloat(rect.maxX);
-      oo.writeFloat(rect.minY);
-      oo.writeFloat(rect.maxY);
+    TIntObjectIterator<T> iterator = idToThing.iterator();
+    while (iterator.hasNext()) {
+      iterator.advance();
+      oo.writeInt(iterator.key());
+      oo.writeObject(iterator.value());
     }
   }
 
   @Override
-  public void readExternal(ObjectInput oi) throws IOException,
+  public void readExternal(final ObjectInput oi) throws IOException,
       ClassNotFoundException
   {
+    int format = oi.readInt();
+    if (format != FORMAT_STRUCTURAL) {
+      // the original format, which starts with the value of indexer
+      readExternalElements(oi, format);
+      return;
+    }
+
+    // RTree.read() consumes exactly the bytes of the tree
+    rtree = RTree.read(Channels.newChannel(new InputStream() {
+
+      @Override
+      public int read() throws IOException
+      {
+        return oi.read();
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException
+      {
+        return oi.read(b, off, len);
+      }
+    }));
+
     indexer = oi.readInt();
     int size = oi.readInt();
+    for (int i = 0; i < size; i++) {
+      int id = oi.readInt();
+      // unchecked cast not avoidable
+      T thing = (T) oi.readObject();
+      idToThing.put(id, thing);
+      thingToId.put(thing, id);
+    }
+    restoreRectangles();
+  }
+
+  /**
+   * Read elements in the original serialization format, which contains
+   * the rectangle of each element but not the structure of the tree, and
+   * add them to the tree.
+   */
+  private void readExternalElements(ObjectInput oi, int indexer)
+      throws IOException, ClassNotFoundException
+  {
+    this.indexer = indexer;
+    int size = oi.readInt();
     for (int i = 0; i < size; i++) {
       int id = oi.readInt();
       // unchecked cast not avoidable
@@ -16,6 +16,7 @@
 
 package de.topobyte.jsi;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
@@ -100,6 +101,39 @@ public interface GenericSpatialIndex<T>
    */
   Set<T> intersects(Rectangle r);
 
+  /**
+   * Add all elements intersecting the given rectangle <code>r</code> to
+   * <code>results</code>.
+   * 
+   * @param r
+   *            the rectangle to query for intersecting elements.
+   * @param results
+   *            the collection to add the elements to.
+   * @return the number of intersecting elements.
+   */
+  int intersects(Rectangle r, Collection<? super T> results);
+
+  /**
+   * Add all elements contained in the given rectangle <code>r</code> to
+   * <code>results</code>.
+   * 
+   * @param r
+   *            the rectangle to query for contained elements.
+   * @param results
+   *            the collection to add the elements to.
+   * @return the number of contained elements.
+   */
+  int contains(Rectangle r, Collection<? super T> results);
+
+  /**
+   * Count the elements intersecting the given rectangle <code>r</code>.
+   * 
+   * @param r
+   *            the rectangle to query for intersecting elements.
+   * @return the number of intersecting elements.
+   */
+  int count(Rectangle r);
+
   /**
    * Acquire a list of all elements intersecting the given rectangle
    * <code>r</code>.
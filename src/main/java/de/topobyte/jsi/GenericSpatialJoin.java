@@ -0,0 +1,92 @@
+//  This file is part of JSI.
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package de.topobyte.jsi;
+
+import java.util.concurrent.ForkJoinPool;
+
+import com.infomatiq.jsi.IntPairProcedure;
+import com.infomatiq.jsi.rtree.SpatialJoin;
+
+/**
+ * Finds all pairs of intersecting elements of two GenericRTrees, using
+ * SpatialJoin on the underlying RTrees.
+ */
+public class GenericSpatialJoin
+{
+
+  private GenericSpatialJoin()
+  {
+  }
+
+  /**
+   * Calls <code>procedure</code> for each pair of an element of
+   * <code>a</code> and an element of <code>b</code> whose rectangles
+   * intersect.
+   *
+   * @param a
+   *            the first index.
+   * @param b
+   *            the second index.
+   * @param procedure
+   *            the procedure to call with each pair. If it returns false,
+   *            the join stops.
+   */
+  public static <A, B> void intersects(GenericRTree<A> a, GenericRTree<B> b,
+      PairProcedure<? super A, ? super B> procedure)
+  {
+    SpatialJoin.intersects(a.rtree, b.rtree, adapter(a, b, procedure));
+  }
+
+  /**
+   * Like intersects(), but uses the threads of <code>pool</code>. The
+   * procedure is called concurrently and must be thread safe. The indexes
+   * must not be modified during the join.
+   *
+   * @param a
+   *            the first index.
+   * @param b
+   *            the second index.
+   * @param procedure
+   *            the procedure to call with each pair. If it returns false,
+   *            the join stops.
+   * @param pool
+   *            the pool to run the join in.
+   */
+  public static <A, B> void parallelIntersects(GenericRTree<A> a,
+      GenericRTree<B> b, PairProcedure<? super A, ? super B> procedure,
+      ForkJoinPool pool)
+  {
+    SpatialJoin.parallelIntersects(a.rtree, b.rtree,
+        adapter(a, b, procedure), pool);
+  }
+
+  private static <A, B> IntPairProcedure adapter(final GenericRTree<A> a,
+      final GenericRTree<B> b,
+      final PairProcedure<? super A, ? super B> procedure)
+  {
+    return new IntPairProcedure() {
+
+      @Override
+      public boolean execute(int idA, int idB)
+      {
+        return procedure.execute(a.idToThing.get(idA),
+            b.idToThing.get(idB));
+      }
+    };
+  }
+
+}
@@ -0,0 +1,41 @@
+//  This file is part of JSI.
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package de.topobyte.jsi;
+
+/**
+ * Receives pairs of elements, such as the results of a spatial join.
+ *
+ * @param <A>
+ *            the type of the first element of each pair.
+ * @param <B>
+ *            the type of the second element of each pair.
+ */
+public interface PairProcedure<A, B>
+{
+
+  /**
+   * Called for each pair of elements.
+   *
+   * @param a
+   *            the element from the first index.
+   * @param b
+   *            the element from the second index.
+   * @return false to stop, true to continue.
+   */
+  boolean execute(A a, B b);
+
+}
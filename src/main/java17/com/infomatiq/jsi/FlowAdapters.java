@@ -0,0 +1,195 @@
+//   FlowAdapters.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi;
+
+/**
+ * <p>Converts the publishers, subscribers and subscriptions of
+ * com.infomatiq.jsi.Flow to those of java.util.concurrent.Flow, and back,
+ * so that the queries that publish their results, such as
+ * RTree.intersectsPublisher(), can be used with libraries built on the
+ * JDK interfaces. The org.reactivestreams.FlowAdapters class of Reactive
+ * Streams converts those further.</p>
+ *
+ * <p>Only compiled with JDK 17 or later, into META-INF/versions/17 of the
+ * jar, so it can only be used on Java 17 or later.</p>
+ */
+public final class FlowAdapters {
+
+  private FlowAdapters() {
+  }
+
+  /**
+   * A java.util.concurrent.Flow.Publisher that subscribes to the given
+   * publisher.
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> java.util.concurrent.Flow.Publisher<T> toFlowPublisher(
+      Flow.Publisher<? extends T> publisher) {
+    if (publisher instanceof JsiPublisher) {
+      return ((JsiPublisher<T>) publisher).publisher;
+    }
+    return new FlowPublisher<T>(publisher);
+  }
+
+  /**
+   * A com.infomatiq.jsi.Flow.Publisher that subscribes to the given
+   * publisher.
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> Flow.Publisher<T> toJsiPublisher(
+      java.util.concurrent.Flow.Publisher<? extends T> publisher) {
+    if (publisher instanceof FlowPublisher) {
+      return ((FlowPublisher<T>) publisher).publisher;
+    }
+    return new JsiPublisher<T>(publisher);
+  }
+
+  /**
+   * A java.util.concurrent.Flow.Subscriber that passes on each call to the
+   * given subscriber.
+   */
+  public static <T> java.util.concurrent.Flow.Subscriber<T> toFlowSubscriber(
+      Flow.Subscriber<T> subscriber) {
+    if (subscriber instanceof JsiSubscriber) {
+      return ((JsiSubscriber<T>) subscriber).subscriber;
+    }
+    return new FlowSubscriber<T>(subscriber);
+  }
+
+  /**
+   * A com.infomatiq.jsi.Flow.Subscriber that passes on each call to the
+   * given subscriber.
+   */
+  public static <T> Flow.Subscriber<T> toJsiSubscriber(
+      java.util.concurrent.Flow.Subscriber<T> subscriber) {
+    if (subscriber instanceof FlowSubscriber) {
+      return ((FlowSubscriber<T>) subscriber).subscriber;
+    }
+    return new JsiSubscriber<T>(subscriber);
+  }
+
+  private static final class FlowPublisher<T>
+      implements java.util.concurrent.Flow.Publisher<T> {
+    final Flow.Publisher<T> publisher;
+
+    @SuppressWarnings("unchecked")
+    FlowPublisher(Flow.Publisher<? extends T> publisher) {
+      this.publisher = (Flow.Publisher<T>) publisher;
+    }
+
+    @Override
+    public void subscribe(
+        java.util.concurrent.Flow.Subscriber<? super T> subscriber) {
+      publisher.subscribe(toJsiSubscriber(subscriber));
+    }
+  }
+
+  private static final class JsiPublisher<T> implements Flow.Publisher<T> {
+    final java.util.concurrent.Flow.Publisher<T> publisher;
+
+    @SuppressWarnings("unchecked")
+    JsiPublisher(java.util.concurrent.Flow.Publisher<? extends T> publisher) {
+      this.publisher = (java.util.concurrent.Flow.Publisher<T>) publisher;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+      publisher.subscribe(toFlowSubscriber(subscriber));
+    }
+  }
+
+  private static final class FlowSubscriber<T>
+      implements java.util.concurrent.Flow.Subscriber<T> {
+    final Flow.Subscriber<T> subscriber;
+
+    FlowSubscriber(Flow.Subscriber<T> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void onSubscribe(
+        java.util.concurrent.Flow.Subscription subscription) {
+      subscriber.onSubscribe(new Flow.Subscription() {
+
+        @Override
+        public void request(long n) {
+          subscription.request(n);
+        }
+
+        @Override
+        public void cancel() {
+          subscription.cancel();
+        }
+      });
+    }
+
+    @Override
+    public void onNext(T item) {
+      subscriber.onNext(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      subscriber.onError(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      subscriber.onComplete();
+    }
+  }
+
+  private static final class JsiSubscriber<T> implements Flow.Subscriber<T> {
+    final java.util.concurrent.Flow.Subscriber<T> subscriber;
+
+    JsiSubscriber(java.util.concurrent.Flow.Subscriber<T> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      subscriber.onSubscribe(new java.util.concurrent.Flow.Subscription() {
+
+        @Override
+        public void request(long n) {
+          subscription.request(n);
+        }
+
+        @Override
+        public void cancel() {
+          subscription.cancel();
+        }
+      });
+    }
+
+    @Override
+    public void onNext(T item) {
+      subscriber.onNext(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      subscriber.onError(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      subscriber.onComplete();
+    }
+  }
+}
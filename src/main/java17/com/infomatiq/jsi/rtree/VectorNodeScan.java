@@ -0,0 +1,98 @@
+//   VectorNodeScan.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.rtree;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * <p>A NodeScan using the incubating Vector API, which tests as many
+ * entries at a time as fit in the widest vector registers of the CPU:
+ * 8 with AVX2, or 16 with AVX-512.</p>
+ *
+ * <p>Only compiled with JDK 17 or later, into META-INF/versions/17 of the
+ * jar, and only loaded if the jdk.incubator.vector module is added, for
+ * example with --add-modules jdk.incubator.vector.</p>
+ */
+class VectorNodeScan extends NodeScan {
+  private static final VectorSpecies<Float> SPECIES =
+      FloatVector.SPECIES_PREFERRED;
+
+  @Override
+  boolean isVectorized() {
+    return true;
+  }
+
+  @Override
+  long intersects(Node n, int from, float minX, float minY, float maxX,
+      float maxY) {
+    int end = Math.min(n.entryCount, from + 64);
+    int length = SPECIES.length();
+    int capacity = n.entriesMinX.length;
+    long hits = 0;
+    int i = from;
+    // the arrays have room for maxNodeEntries entries, so whole vectors
+    // can be loaded past the last entry; the extra bits are cleared below
+    for (; i < end && i + length <= capacity; i += length) {
+      VectorMask<Float> hit = FloatVector.fromArray(SPECIES,
+          n.entriesMaxX, i).compare(VectorOperators.GE, minX)
+          .and(FloatVector.fromArray(SPECIES, n.entriesMinX, i)
+              .compare(VectorOperators.LE, maxX))
+          .and(FloatVector.fromArray(SPECIES, n.entriesMaxY, i)
+              .compare(VectorOperators.GE, minY))
+          .and(FloatVector.fromArray(SPECIES, n.entriesMinY, i)
+              .compare(VectorOperators.LE, maxY));
+      hits |= hit.toLong() << (i - from);
+    }
+    for (; i < end; i++) {
+      boolean hit = n.entriesMaxX[i] >= minX & n.entriesMinX[i] <= maxX
+          & n.entriesMaxY[i] >= minY & n.entriesMinY[i] <= maxY;
+      hits |= (hit ? 1L : 0L) << (i - from);
+    }
+    return hits & firstBits(end - from);
+  }
+
+  @Override
+  long contained(Node n, int from, float minX, float minY, float maxX,
+      float maxY) {
+    int end = Math.min(n.entryCount, from + 64);
+    int length = SPECIES.length();
+    int capacity = n.entriesMinX.length;
+    long hits = 0;
+    int i = from;
+    for (; i < end && i + length <= capacity; i += length) {
+      VectorMask<Float> hit = FloatVector.fromArray(SPECIES,
+          n.entriesMinX, i).compare(VectorOperators.GE, minX)
+          .and(FloatVector.fromArray(SPECIES, n.entriesMaxX, i)
+              .compare(VectorOperators.LE, maxX))
+          .and(FloatVector.fromArray(SPECIES, n.entriesMinY, i)
+              .compare(VectorOperators.GE, minY))
+          .and(FloatVector.fromArray(SPECIES, n.entriesMaxY, i)
+              .compare(VectorOperators.LE, maxY));
+      hits |= hit.toLong() << (i - from);
+    }
+    for (; i < end; i++) {
+      boolean hit = n.entriesMinX[i] >= minX & n.entriesMaxX[i] <= maxX
+          & n.entriesMinY[i] >= minY & n.entriesMaxY[i] <= maxY;
+      hits |= (hit ? 1L : 0L) << (i - from);
+    }
+    return hits & firstBits(end - from);
+  }
+}
@@ -0,0 +1,75 @@
+//   $Type$Point.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi;
+
+/**
+ * A point with $type$ coordinates, for use with the $Type$RTree.
+ *
+ * Generated from src/template/java/com/infomatiq/jsi/TypePoint.java.
+ */
+public class $Type$Point {
+  /**
+   * The (x, y) coordinates of the point.
+   */
+  public $type$ x, y;
+
+  /**
+   * Constructor.
+   *
+   * @param x The x coordinate of the point
+   * @param y The y coordinate of the point
+   */
+  public $Type$Point($type$ x, $type$ y) {
+    this.x = x;
+    this.y = y;
+  }
+
+  /**
+   * Copy from another point into this one
+   */
+  public void set($Type$Point other) {
+    x = other.x;
+    y = other.y;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * hashCode(x) + hashCode(y);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o instanceof $Type$Point) {
+      $Type$Point p = ($Type$Point) o;
+      return x == p.x && y == p.y;
+    }
+    return false;
+  }
+
+  /**
+   * Print as a string in format "(x, y)"
+   */
+  @Override
+  public String toString() {
+    return "(" + x + ", " + y + ")";
+  }
+
+  static int hashCode($type$ value) {
+    return $Boxed$.hashCode(value);
+  }
+}
@@ -0,0 +1,230 @@
+//   $Type$Rectangle.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi;
+
+/**
+ * A rectangle with $type$ coordinates, for use with the $Type$RTree. Areas
+ * and distances are calculated as doubles.
+ *
+ * Generated from src/template/java/com/infomatiq/jsi/TypeRectangle.java.
+ */
+public class $Type$Rectangle {
+
+  public $type$ minX, minY, maxX, maxY;
+
+  public $Type$Rectangle() {
+    minX = $MAX$;
+    minY = $MAX$;
+    maxX = $MIN$;
+    maxY = $MIN$;
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param x1 coordinate of any corner of the rectangle
+   * @param y1 (see x1)
+   * @param x2 coordinate of the opposite corner
+   * @param y2 (see x2)
+   */
+  public $Type$Rectangle($type$ x1, $type$ y1, $type$ x2, $type$ y2) {
+    set(x1, y1, x2, y2);
+  }
+
+  /**
+   * Sets the size of the rectangle.
+   *
+   * @param x1 coordinate of any corner of the rectangle
+   * @param y1 (see x1)
+   * @param x2 coordinate of the opposite corner
+   * @param y2 (see x2)
+   */
+  public void set($type$ x1, $type$ y1, $type$ x2, $type$ y2) {
+    minX = Math.min(x1, x2);
+    maxX = Math.max(x1, x2);
+    minY = Math.min(y1, y2);
+    maxY = Math.max(y1, y2);
+  }
+
+  /**
+   * Sets the size of this rectangle to equal the passed rectangle.
+   */
+  public void set($Type$Rectangle r) {
+    minX = r.minX;
+    minY = r.minY;
+    maxX = r.maxX;
+    maxY = r.maxY;
+  }
+
+  /**
+   * Make a copy of this rectangle
+   */
+  public $Type$Rectangle copy() {
+    return new $Type$Rectangle(minX, minY, maxX, maxY);
+  }
+
+  /**
+   * Determine whether this rectangle intersects the passed rectangle
+   */
+  public boolean intersects($Type$Rectangle r) {
+    return intersects(minX, minY, maxX, maxY, r.minX, r.minY, r.maxX,
+        r.maxY);
+  }
+
+  /**
+   * Determine whether or not two rectangles intersect
+   */
+  static public boolean intersects($type$ r1MinX, $type$ r1MinY,
+      $type$ r1MaxX, $type$ r1MaxY, $type$ r2MinX, $type$ r2MinY,
+      $type$ r2MaxX, $type$ r2MaxY) {
+    return r1MaxX >= r2MinX && r1MinX <= r2MaxX && r1MaxY >= r2MinY
+        && r1MinY <= r2MaxY;
+  }
+
+  /**
+   * Determine whether this rectangle contains the passed rectangle
+   */
+  public boolean contains($Type$Rectangle r) {
+    return contains(minX, minY, maxX, maxY, r.minX, r.minY, r.maxX, r.maxY);
+  }
+
+  /**
+   * Determine whether or not rectangle 1 contains rectangle 2
+   */
+  static public boolean contains($type$ r1MinX, $type$ r1MinY,
+      $type$ r1MaxX, $type$ r1MaxY, $type$ r2MinX, $type$ r2MinY,
+      $type$ r2MaxX, $type$ r2MaxY) {
+    return r1MaxX >= r2MaxX && r1MinX <= r2MinX && r1MaxY >= r2MaxY
+        && r1MinY <= r2MinY;
+  }
+
+  /**
+   * Return the distance between this rectangle and the passed point.
+   * If the rectangle contains the point, the distance is zero.
+   */
+  public double distance($Type$Point p) {
+    return Math.sqrt(distanceSq(minX, minY, maxX, maxY, p.x, p.y));
+  }
+
+  /**
+   * Return the squared distance between a rectangle and a point, or zero
+   * if the rectangle contains the point.
+   */
+  static public double distanceSq($type$ minX, $type$ minY, $type$ maxX,
+      $type$ maxY, $type$ pX, $type$ pY) {
+    double distanceSqX = 0;
+    double distanceSqY = 0;
+
+    if (minX > pX) {
+      distanceSqX = $widen$minX - pX;
+      distanceSqX *= distanceSqX;
+    } else if (pX > maxX) {
+      distanceSqX = $widen$pX - maxX;
+      distanceSqX *= distanceSqX;
+    }
+
+    if (minY > pY) {
+      distanceSqY = $widen$minY - pY;
+      distanceSqY *= distanceSqY;
+    } else if (pY > maxY) {
+      distanceSqY = $widen$pY - maxY;
+      distanceSqY *= distanceSqY;
+    }
+
+    return distanceSqX + distanceSqY;
+  }
+
+  /**
+   * Calculate the area by which rectangle 1 would be enlarged if added to
+   * rectangle 2.
+   */
+  static public double enlargement($type$ r1MinX, $type$ r1MinY,
+      $type$ r1MaxX, $type$ r1MaxY, $type$ r2MinX, $type$ r2MinY,
+      $type$ r2MaxX, $type$ r2MaxY) {
+    double r1Area = area(r1MinX, r1MinY, r1MaxX, r1MaxY);
+    if (r1Area == Double.POSITIVE_INFINITY) {
+      return 0; // cannot enlarge an infinite rectangle...
+    }
+
+    double r1r2UnionArea = area(Math.min(r1MinX, r2MinX),
+        Math.min(r1MinY, r2MinY), Math.max(r1MaxX, r2MaxX),
+        Math.max(r1MaxY, r2MaxY));
+    if (r1r2UnionArea == Double.POSITIVE_INFINITY) {
+      // if a finite rectangle is enlarged and becomes infinite,
+      // then the enlargement must be infinite.
+      return Double.POSITIVE_INFINITY;
+    }
+    return r1r2UnionArea - r1Area;
+  }
+
+  /**
+   * Compute the area of this rectangle.
+   */
+  public double area() {
+    return area(minX, minY, maxX, maxY);
+  }
+
+  /**
+   * Compute the area of a rectangle.
+   */
+  static public double area($type$ minX, $type$ minY, $type$ maxX,
+      $type$ maxY) {
+    return ($widen$maxX - minX) * ($widen$maxY - minY);
+  }
+
+  /**
+   * Computes the union of this rectangle and the passed rectangle, storing
+   * the result in this rectangle.
+   */
+  public void add($Type$Rectangle r) {
+    if (r.minX < minX) minX = r.minX;
+    if (r.maxX > maxX) maxX = r.maxX;
+    if (r.minY < minY) minY = r.minY;
+    if (r.maxY > maxY) maxY = r.maxY;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + $Type$Point.hashCode(minX);
+    result = prime * result + $Type$Point.hashCode(minY);
+    result = prime * result + $Type$Point.hashCode(maxX);
+    result = prime * result + $Type$Point.hashCode(maxY);
+    return result;
+  }
+
+  /**
+   * Determine whether this rectangle is equal to a given object.
+   * Equality is determined by the bounds of the rectangle.
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (o instanceof $Type$Rectangle) {
+      $Type$Rectangle r = ($Type$Rectangle) o;
+      return minX == r.minX && minY == r.minY && maxX == r.maxX
+          && maxY == r.maxY;
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return "(" + minX + ", " + minY + "), (" + maxX + ", " + maxY + ")";
+  }
+}
@@ -0,0 +1,93 @@
+//   $Type$SpatialIndex.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi;
+
+import com.slimjars.dist.gnu.trove.procedure.TIntProcedure;
+
+/**
+ * The SpatialIndex methods, for rectangles with $type$ coordinates.
+ * Distances are passed as doubles.
+ *
+ * Generated from src/template/java/com/infomatiq/jsi/TypeSpatialIndex.java.
+ *
+ * @see SpatialIndex
+ */
+public interface $Type$SpatialIndex {
+
+  /**
+   * Adds a new rectangle to the spatial index
+   *
+   * @see SpatialIndex#add(Rectangle, int)
+   */
+  public void add($Type$Rectangle r, int id);
+
+  /**
+   * Deletes a rectangle from the spatial index
+   *
+   * @return true if the rectangle was deleted, false if the rectangle was
+   *         not found, or the rectangle was found but with a different ID
+   */
+  public boolean delete($Type$Rectangle r, int id);
+
+  /**
+   * Finds the nearest rectangles to the passed point and calls
+   * v.execute(id) for each one. If multiple rectangles are equally near,
+   * they will all be returned.
+   *
+   * @see SpatialIndex#nearest(Point, TIntProcedure, float)
+   */
+  public void nearest($Type$Point p, TIntProcedure v,
+      double furthestDistance);
+
+  /**
+   * Finds the N nearest rectangles to the passed point, and calls
+   * v.execute(id) on each one, in order of increasing distance.
+   *
+   * @see SpatialIndex#nearestN(Point, TIntProcedure, int, float)
+   */
+  public void nearestN($Type$Point p, TIntProcedure v, int n,
+      double furthestDistance);
+
+  /**
+   * Same as nearestN, except the found rectangles are not returned
+   * in sorted order.
+   */
+  public void nearestNUnsorted($Type$Point p, TIntProcedure v, int n,
+      double furthestDistance);
+
+  /**
+   * Finds all rectangles that intersect the passed rectangle.
+   */
+  public void intersects($Type$Rectangle r, TIntProcedure ip);
+
+  /**
+   * Finds all rectangles contained by the passed rectangle.
+   */
+  public void contains($Type$Rectangle r, TIntProcedure ip);
+
+  /**
+   * Returns the number of entries in the spatial index
+   */
+  public int size();
+
+  /**
+   * Returns the bounds of all the entries in the spatial index,
+   * or null if there are no entries.
+   */
+  public $Type$Rectangle getBounds();
+}
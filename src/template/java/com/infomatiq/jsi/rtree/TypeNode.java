@@ -0,0 +1,128 @@
+//   $Type$Node.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.rtree;
+
+/**
+ * <p>Used by $Type$RTree, with the same layout as Node: the bounds of the
+ * entries are kept in one $type$ array per coordinate.</p>
+ *
+ * Generated from src/template/java/com/infomatiq/jsi/rtree/TypeNode.java.
+ */
+class $Type$Node {
+  int nodeId = 0;
+  $type$ mbrMinX = $MAX$;
+  $type$ mbrMinY = $MAX$;
+  $type$ mbrMaxX = $MIN$;
+  $type$ mbrMaxY = $MIN$;
+
+  $type$[] entriesMinX = null;
+  $type$[] entriesMinY = null;
+  $type$[] entriesMaxX = null;
+  $type$[] entriesMaxY = null;
+
+  int[] ids = null;
+  int level;
+  int entryCount;
+
+  $Type$Node(int nodeId, int level, int maxNodeEntries) {
+    this.nodeId = nodeId;
+    this.level = level;
+    entriesMinX = new $type$[maxNodeEntries];
+    entriesMinY = new $type$[maxNodeEntries];
+    entriesMaxX = new $type$[maxNodeEntries];
+    entriesMaxY = new $type$[maxNodeEntries];
+    ids = new int[maxNodeEntries];
+  }
+
+  void addEntry($type$ minX, $type$ minY, $type$ maxX, $type$ maxY, int id) {
+    ids[entryCount] = id;
+    entriesMinX[entryCount] = minX;
+    entriesMinY[entryCount] = minY;
+    entriesMaxX[entryCount] = maxX;
+    entriesMaxY[entryCount] = maxY;
+
+    if (minX < mbrMinX) mbrMinX = minX;
+    if (minY < mbrMinY) mbrMinY = minY;
+    if (maxX > mbrMaxX) mbrMaxX = maxX;
+    if (maxY > mbrMaxY) mbrMaxY = maxY;
+
+    entryCount++;
+  }
+
+  // Return the index of the found entry, or -1 if not found
+  int findEntry($type$ minX, $type$ minY, $type$ maxX, $type$ maxY, int id) {
+    for (int i = 0; i < entryCount; i++) {
+      if (id == ids[i] &&
+          entriesMinX[i] == minX && entriesMinY[i] == minY &&
+          entriesMaxX[i] == maxX && entriesMaxY[i] == maxY) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  // delete entry. This is done by copying the last entry into its space.
+  void deleteEntry(int i) {
+    int lastIndex = entryCount - 1;
+    $type$ deletedMinX = entriesMinX[i];
+    $type$ deletedMinY = entriesMinY[i];
+    $type$ deletedMaxX = entriesMaxX[i];
+    $type$ deletedMaxY = entriesMaxY[i];
+
+    if (i != lastIndex) {
+      entriesMinX[i] = entriesMinX[lastIndex];
+      entriesMinY[i] = entriesMinY[lastIndex];
+      entriesMaxX[i] = entriesMaxX[lastIndex];
+      entriesMaxY[i] = entriesMaxY[lastIndex];
+      ids[i] = ids[lastIndex];
+    }
+    entryCount--;
+
+    // adjust the MBR
+    recalculateMBRIfInfluencedBy(deletedMinX, deletedMinY, deletedMaxX,
+        deletedMaxY);
+  }
+
+  // deletedMin/MaxX/Y is a rectangle that has just been deleted or made
+  // smaller. Thus, the MBR is only recalculated if the deleted rectangle
+  // influenced the old MBR
+  void recalculateMBRIfInfluencedBy($type$ deletedMinX, $type$ deletedMinY,
+      $type$ deletedMaxX, $type$ deletedMaxY) {
+    if (mbrMinX == deletedMinX || mbrMinY == deletedMinY
+        || mbrMaxX == deletedMaxX || mbrMaxY == deletedMaxY) {
+      recalculateMBR();
+    }
+  }
+
+  void recalculateMBR() {
+    mbrMinX = $MAX$;
+    mbrMinY = $MAX$;
+    mbrMaxX = $MIN$;
+    mbrMaxY = $MIN$;
+    for (int i = 0; i < entryCount; i++) {
+      if (entriesMinX[i] < mbrMinX) mbrMinX = entriesMinX[i];
+      if (entriesMinY[i] < mbrMinY) mbrMinY = entriesMinY[i];
+      if (entriesMaxX[i] > mbrMaxX) mbrMaxX = entriesMaxX[i];
+      if (entriesMaxY[i] > mbrMaxY) mbrMaxY = entriesMaxY[i];
+    }
+  }
+
+  boolean isLeaf() {
+    return level == 1;
+  }
+}
@@ -0,0 +1,928 @@
+//   $Type$RTree.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi.rtree;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.infomatiq.jsi.$Type$Point;
+import com.infomatiq.jsi.$Type$Rectangle;
+import com.infomatiq.jsi.$Type$SpatialIndex;
+import com.slimjars.dist.gnu.trove.list.array.TIntArrayList;
+import com.slimjars.dist.gnu.trove.procedure.TIntProcedure;
+import com.slimjars.dist.gnu.trove.stack.TIntStack;
+import com.slimjars.dist.gnu.trove.stack.array.TIntArrayStack;
+
+/**
+ * <p>An RTree of rectangles with $type$ coordinates. The entries are
+ * stored exactly as they are passed, so delete() finds an entry given the
+ * same rectangle it was added with.</p>
+ *
+ * <p>The insertion, deletion and query algorithms are a copy of those of
+ * RTree, with the linear split, and the nodes have the same layout of one
+ * primitive array per coordinate. Areas and distances are calculated as
+ * doubles. No code is shared with RTree, and the features of RTree beyond
+ * the SpatialIndex methods, such as split strategies, bulk loading and
+ * serialization, are not provided.</p>
+ *
+ * <p>This class is generated from
+ * src/template/java/com/infomatiq/jsi/rtree/TypeRTree.java, together with
+ * the variants for the other coordinate types.</p>
+ */
+public class $Type$RTree implements $Type$SpatialIndex {
+  private static final Logger log = LoggerFactory
+      .getLogger($Type$RTree.class);
+
+  private final static int DEFAULT_MAX_NODE_ENTRIES = 50;
+  private final static int DEFAULT_MIN_NODE_ENTRIES = 20;
+
+  private final int maxNodeEntries;
+  private final int minNodeEntries;
+
+  // the nodes, indexed by node id
+  private $Type$Node[] nodes = new $Type$Node[16];
+
+  // stacks used to store nodeId and entry index of each node
+  // from the root down to the leaf. Enables fast lookup
+  // of nodes when a split is propagated up the tree.
+  private TIntStack parents = new TIntArrayStack();
+  private TIntStack parentsEntry = new TIntArrayStack();
+
+  // initialisation
+  private int treeHeight = 1; // leaves are always level 1
+  private int rootNodeId = 0;
+  private int size = 0;
+
+  // Enables creation of new nodes
+  private int highestUsedNodeId = rootNodeId;
+
+  // Deleted node objects are retained in the nodes array,
+  // so that they can be reused. Store the IDs of nodes
+  // which can be reused.
+  private TIntStack deletedNodeIds = new TIntArrayStack();
+
+  // the entries of a node being split and the new entry
+  private final $type$[] splitMinX;
+  private final $type$[] splitMinY;
+  private final $type$[] splitMaxX;
+  private final $type$[] splitMaxY;
+  private final int[] splitIds;
+  private final boolean[] splitAssigned;
+
+  // used by the nearest neighbour queries
+  private TIntArrayList nearestIds = new TIntArrayList();
+  private DistanceHeap distanceQueue = new DistanceHeap();
+  private TIntArrayList savedValues = new TIntArrayList();
+  private double savedPriority = 0;
+
+  /**
+   * Constructor with default min and max nodes per entry.
+   */
+  public $Type$RTree() {
+    this(DEFAULT_MIN_NODE_ENTRIES, DEFAULT_MAX_NODE_ENTRIES);
+  }
+
+  /**
+   * Constructor with min and max nodes per entry.
+   */
+  public $Type$RTree(int minNodeEntries, int maxNodeEntries) {
+    // Obviously a node with less than 2 entries cannot be split.
+    if (maxNodeEntries < 2) {
+      log.warn("Invalid MaxNodeEntries = " + maxNodeEntries
+          + " Resetting to default value of " + DEFAULT_MAX_NODE_ENTRIES);
+      maxNodeEntries = DEFAULT_MAX_NODE_ENTRIES;
+    }
+    // The MinNodeEntries must be less than or equal to (int) (MaxNodeEntries / 2)
+    if (minNodeEntries < 1 || minNodeEntries > maxNodeEntries / 2) {
+      log.warn("MinNodeEntries must be between 1 and MaxNodeEntries / 2");
+      minNodeEntries = maxNodeEntries / 2;
+    }
+    this.minNodeEntries = minNodeEntries;
+    this.maxNodeEntries = maxNodeEntries;
+
+    int count = maxNodeEntries + 1;
+    splitMinX = new $type$[count];
+    splitMinY = new $type$[count];
+    splitMaxX = new $type$[count];
+    splitMaxY = new $type$[count];
+    splitIds = new int[count];
+    splitAssigned = new boolean[count];
+
+    nodes[rootNodeId] = new $Type$Node(rootNodeId, 1, maxNodeEntries);
+  }
+
+  //-------------------------------------------------------------------------
+  // public implementation of $Type$SpatialIndex interface:
+  //  add(Rectangle, int)
+  //  delete(Rectangle, int)
+  //  nearest(Point, TIntProcedure, double)
+  //  nearestN(Point, TIntProcedure, int, double)
+  //  nearestNUnsorted(Point, TIntProcedure, int, double)
+  //  intersects(Rectangle, TIntProcedure)
+  //  contains(Rectangle, TIntProcedure)
+  //  size()
+  //  getBounds()
+  //-------------------------------------------------------------------------
+
+  @Override
+  public void add($Type$Rectangle r, int id) {
+    add(r.minX, r.minY, r.maxX, r.maxY, id);
+  }
+
+  /**
+   * Adds the rectangle (minX, minY, maxX, maxY) without creating a
+   * rectangle object.
+   */
+  public void add($type$ minX, $type$ minY, $type$ maxX, $type$ maxY,
+      int id) {
+    add(minX, minY, maxX, maxY, id, 1);
+    size++;
+  }
+
+  /**
+   * Adds a new entry at a specified level in the tree
+   */
+  private void add($type$ minX, $type$ minY, $type$ maxX, $type$ maxY,
+      int id, int level) {
+    // I1 [Find position for new record] Invoke ChooseLeaf to select a
+    // leaf node L in which to place r
+    $Type$Node n = chooseNode(minX, minY, maxX, maxY, level);
+    $Type$Node newLeaf = null;
+
+    // I2 [Add record to leaf node] If L has room for another entry,
+    // install E. Otherwise invoke SplitNode to obtain L and LL containing
+    // E and all the old entries of L
+    if (n.entryCount < maxNodeEntries) {
+      n.addEntry(minX, minY, maxX, maxY, id);
+    } else {
+      newLeaf = splitNode(n, minX, minY, maxX, maxY, id);
+    }
+
+    // I3 [Propagate changes upwards] Invoke AdjustTree on L, also passing LL
+    // if a split was performed
+    $Type$Node newNode = adjustTree(n, newLeaf);
+
+    // I4 [Grow tree taller] If node split propagation caused the root to
+    // split, create a new root whose children are the two resulting nodes.
+    if (newNode != null) {
+      $Type$Node oldRoot = nodes[rootNodeId];
+      rootNodeId = getNextNodeId();
+      treeHeight++;
+      $Type$Node root = new $Type$Node(rootNodeId, treeHeight,
+          maxNodeEntries);
+      root.addEntry(newNode.mbrMinX, newNode.mbrMinY, newNode.mbrMaxX,
+          newNode.mbrMaxY, newNode.nodeId);
+      root.addEntry(oldRoot.mbrMinX, oldRoot.mbrMinY, oldRoot.mbrMaxX,
+          oldRoot.mbrMaxY, oldRoot.nodeId);
+      nodes[rootNodeId] = root;
+    }
+  }
+
+  @Override
+  public boolean delete($Type$Rectangle r, int id) {
+    return delete(r.minX, r.minY, r.maxX, r.maxY, id);
+  }
+
+  /**
+   * Deletes the rectangle (minX, minY, maxX, maxY) without creating a
+   * rectangle object.
+   */
+  public boolean delete($type$ minX, $type$ minY, $type$ maxX, $type$ maxY,
+      int id) {
+    // FindLeaf, searching only the entries that contain the rectangle
+    parents.clear();
+    parents.push(rootNodeId);
+
+    parentsEntry.clear();
+    parentsEntry.push(-1);
+    $Type$Node n = null;
+    int foundIndex = -1; // index of entry to be deleted in leaf
+
+    while (foundIndex == -1 && parents.size() > 0) {
+      n = nodes[parents.peek()];
+      int startIndex = parentsEntry.peek() + 1;
+
+      if (!n.isLeaf()) {
+        boolean contains = false;
+        for (int i = startIndex; i < n.entryCount; i++) {
+          if ($Type$Rectangle.contains(n.entriesMinX[i], n.entriesMinY[i],
+              n.entriesMaxX[i], n.entriesMaxY[i], minX, minY, maxX, maxY)) {
+            parents.push(n.ids[i]);
+            parentsEntry.pop();
+            parentsEntry.push(i); // this becomes the start index when the child has been searched
+            parentsEntry.push(-1);
+            contains = true;
+            break; // ie go to next iteration of while()
+          }
+        }
+        if (contains) {
+          continue;
+        }
+      } else {
+        foundIndex = n.findEntry(minX, minY, maxX, maxY, id);
+      }
+
+      parents.pop();
+      parentsEntry.pop();
+    } // while not found
+
+    if (foundIndex != -1 && n != null) {
+      n.deleteEntry(foundIndex);
+      condenseTree(n);
+      size--;
+    }
+
+    // shrink the tree if possible (i.e. if root node has exactly one entry,
+    // and that entry is not a leaf node, delete the root (it's entry
+    // becomes the new root)
+    $Type$Node root = nodes[rootNodeId];
+    while (root.entryCount == 1 && treeHeight > 1) {
+      deletedNodeIds.push(rootNodeId);
+      root.entryCount = 0;
+      rootNodeId = root.ids[0];
+      treeHeight--;
+      root = nodes[rootNodeId];
+    }
+
+    // if the tree is now empty, then set the MBR of the root node back to
+    // it's original state
+    if (size == 0) {
+      root.mbrMinX = $MAX$;
+      root.mbrMinY = $MAX$;
+      root.mbrMaxX = $MIN$;
+      root.mbrMaxY = $MIN$;
+    }
+
+    return foundIndex != -1;
+  }
+
+  @Override
+  public void nearest($Type$Point p, TIntProcedure v,
+      double furthestDistance) {
+    nearestIds.reset();
+    nearest(p, nodes[rootNodeId], furthestDistance * furthestDistance);
+    nearestIds.forEach(v);
+    nearestIds.reset();
+  }
+
+  @Override
+  public void nearestNUnsorted($Type$Point p, TIntProcedure v, int count,
+      double furthestDistance) {
+    createNearestNDistanceQueue(p, count, furthestDistance);
+    while (distanceQueue.size() > 0) {
+      v.execute(distanceQueue.pop());
+    }
+  }
+
+  @Override
+  public void nearestN($Type$Point p, TIntProcedure v, int count,
+      double furthestDistance) {
+    createNearestNDistanceQueue(p, count, furthestDistance);
+    // the queue returns the furthest entry first
+    int[] ids = new int[distanceQueue.size()];
+    for (int i = ids.length - 1; i >= 0; i--) {
+      ids[i] = distanceQueue.pop();
+    }
+    for (int id : ids) {
+      if (!v.execute(id)) {
+        break;
+      }
+    }
+  }
+
+  @Override
+  public void intersects($Type$Rectangle r, TIntProcedure v) {
+    intersects(r, v, nodes[rootNodeId]);
+  }
+
+  @Override
+  public void contains($Type$Rectangle r, TIntProcedure v) {
+    // find all rectangles in the tree that are contained by the passed
+    // rectangle
+    parents.clear();
+    parents.push(rootNodeId);
+
+    parentsEntry.clear();
+    parentsEntry.push(-1);
+
+    while (parents.size() > 0) {
+      $Type$Node n = nodes[parents.peek()];
+      int startIndex = parentsEntry.peek() + 1;
+
+      if (!n.isLeaf()) {
+        // go through every entry in the index node to check
+        // if it intersects the passed rectangle. If so, it
+        // could contain entries that are contained.
+        boolean intersects = false;
+        for (int i = startIndex; i < n.entryCount; i++) {
+          if ($Type$Rectangle.intersects(r.minX, r.minY, r.maxX, r.maxY,
+              n.entriesMinX[i], n.entriesMinY[i], n.entriesMaxX[i],
+              n.entriesMaxY[i])) {
+            parents.push(n.ids[i]);
+            parentsEntry.pop();
+            parentsEntry.push(i); // this becomes the start index when the child has been searched
+            parentsEntry.push(-1);
+            intersects = true;
+            break; // ie go to next iteration of while()
+          }
+        }
+        if (intersects) {
+          continue;
+        }
+      } else {
+        // go through every entry in the leaf to check if
+        // it is contained by the passed rectangle
+        for (int i = 0; i < n.entryCount; i++) {
+          if ($Type$Rectangle.contains(r.minX, r.minY, r.maxX, r.maxY,
+              n.entriesMinX[i], n.entriesMinY[i], n.entriesMaxX[i],
+              n.entriesMaxY[i])) {
+            if (!v.execute(n.ids[i])) {
+              return;
+            }
+          }
+        }
+      }
+      parents.pop();
+      parentsEntry.pop();
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public $Type$Rectangle getBounds() {
+    $Type$Node n = nodes[rootNodeId];
+    if (n.entryCount == 0) {
+      return null;
+    }
+    $Type$Rectangle bounds = new $Type$Rectangle();
+    bounds.minX = n.mbrMinX;
+    bounds.minY = n.mbrMinY;
+    bounds.maxX = n.mbrMaxX;
+    bounds.maxY = n.mbrMaxY;
+    return bounds;
+  }
+
+  //-------------------------------------------------------------------------
+  // end of $Type$SpatialIndex methods
+  //-------------------------------------------------------------------------
+
+  /**
+   * Check the consistency of the tree.
+   *
+   * @return false if an inconsistency is detected, true otherwise.
+   */
+  public boolean checkConsistency() {
+    if (size == 0 && treeHeight != 1) {
+      log.error("Error: tree is empty but root node is not at level 1");
+      return false;
+    }
+    return checkConsistency(rootNodeId, treeHeight, null);
+  }
+
+  private boolean checkConsistency(int nodeId, int expectedLevel,
+      $Type$Rectangle expectedMBR) {
+    $Type$Node n = nodes[nodeId];
+    if (n.level != expectedLevel) {
+      log.error("Error: Node " + nodeId + ", expected level " + expectedLevel
+          + ", actual level " + n.level);
+      return false;
+    }
+
+    $Type$Rectangle calculatedMBR = new $Type$Rectangle();
+    for (int i = 0; i < n.entryCount; i++) {
+      calculatedMBR.add(new $Type$Rectangle(n.entriesMinX[i],
+          n.entriesMinY[i], n.entriesMaxX[i], n.entriesMaxY[i]));
+    }
+    $Type$Rectangle actualMBR = new $Type$Rectangle();
+    actualMBR.minX = n.mbrMinX;
+    actualMBR.minY = n.mbrMinY;
+    actualMBR.maxX = n.mbrMaxX;
+    actualMBR.maxY = n.mbrMaxY;
+    if (!actualMBR.equals(calculatedMBR)) {
+      log.error("Error: Node " + nodeId
+          + ", calculated MBR does not equal stored MBR");
+      return false;
+    }
+    if (expectedMBR != null && !actualMBR.equals(expectedMBR)) {
+      log.error("Error: Node " + nodeId
+          + ", expected MBR (from parent) does not equal stored MBR");
+      return false;
+    }
+
+    if (!n.isLeaf()) {
+      for (int i = 0; i < n.entryCount; i++) {
+        if (!checkConsistency(n.ids[i], n.level - 1, new $Type$Rectangle(
+            n.entriesMinX[i], n.entriesMinY[i], n.entriesMaxX[i],
+            n.entriesMaxY[i]))) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Get the next available node ID. Reuse deleted node IDs if
+   * possible
+   */
+  private int getNextNodeId() {
+    if (deletedNodeIds.size() > 0) {
+      return deletedNodeIds.pop();
+    }
+    int nextNodeId = ++highestUsedNodeId;
+    if (nextNodeId == nodes.length) {
+      nodes = Arrays.copyOf(nodes, nodes.length * 2);
+    }
+    return nextNodeId;
+  }
+
+  /**
+   *  Used by add(). Chooses a leaf to add the rectangle to.
+   */
+  private $Type$Node chooseNode($type$ minX, $type$ minY, $type$ maxX,
+      $type$ maxY, int level) {
+    // CL1 [Initialize] Set N to be the root node
+    $Type$Node n = nodes[rootNodeId];
+    parents.clear();
+    parentsEntry.clear();
+
+    // CL2 [Leaf check] If N is a leaf, return N
+    while (n.level != level) {
+      // CL3 [Choose subtree] Let F be the entry in N whose rectangle FI
+      // needs least enlargement to include EI. Resolve ties by choosing
+      // the entry with the rectangle of smaller area.
+      double leastEnlargement = Double.POSITIVE_INFINITY;
+      double leastArea = Double.POSITIVE_INFINITY;
+      int index = 0;
+      for (int i = 0; i < n.entryCount; i++) {
+        double enlargement = $Type$Rectangle.enlargement(n.entriesMinX[i],
+            n.entriesMinY[i], n.entriesMaxX[i], n.entriesMaxY[i],
+            minX, minY, maxX, maxY);
+        if (enlargement < leastEnlargement
+            || (enlargement == leastEnlargement && $Type$Rectangle.area(
+                n.entriesMinX[i], n.entriesMinY[i], n.entriesMaxX[i],
+                n.entriesMaxY[i]) < leastArea)) {
+          index = i;
+          leastEnlargement = enlargement;
+          leastArea = $Type$Rectangle.area(n.entriesMinX[i],
+              n.entriesMinY[i], n.entriesMaxX[i], n.entriesMaxY[i]);
+        }
+      }
+
+      parents.push(n.nodeId);
+      parentsEntry.push(index);
+
+      // CL4 [Descend until a leaf is reached] Set N to be the child node
+      // pointed to by Fp and repeat from CL2
+      n = nodes[n.ids[index]];
+    }
+    return n;
+  }
+
+  /**
+   * Ascend from a leaf node L to the root, adjusting covering rectangles and
+   * propagating node splits as necessary.
+   */
+  private $Type$Node adjustTree($Type$Node n, $Type$Node nn) {
+    // AT2 [Check if done] If N is the root, stop
+    while (n.level != treeHeight) {
+      // AT3 [Adjust covering rectangle in parent entry] Let P be the parent
+      // node of N, and let En be N's entry in P. Adjust EnI so that it
+      // tightly encloses all entry rectangles in N.
+      $Type$Node parent = nodes[parents.pop()];
+      int entry = parentsEntry.pop();
+
+      if (parent.entriesMinX[entry] != n.mbrMinX ||
+          parent.entriesMinY[entry] != n.mbrMinY ||
+          parent.entriesMaxX[entry] != n.mbrMaxX ||
+          parent.entriesMaxY[entry] != n.mbrMaxY) {
+        parent.entriesMinX[entry] = n.mbrMinX;
+        parent.entriesMinY[entry] = n.mbrMinY;
+        parent.entriesMaxX[entry] = n.mbrMaxX;
+        parent.entriesMaxY[entry] = n.mbrMaxY;
+        parent.recalculateMBR();
+      }
+
+      // AT4 [Propagate node split upward] If N has a partner NN resulting
+      // from an earlier split, add an entry for NN to P if there is room.
+      // Otherwise, invoke splitNode to produce P and PP containing the new
+      // entry and all P's old entries.
+      $Type$Node newNode = null;
+      if (nn != null) {
+        if (parent.entryCount < maxNodeEntries) {
+          parent.addEntry(nn.mbrMinX, nn.mbrMinY, nn.mbrMaxX, nn.mbrMaxY,
+              nn.nodeId);
+        } else {
+          newNode = splitNode(parent, nn.mbrMinX, nn.mbrMinY, nn.mbrMaxX,
+              nn.mbrMaxY, nn.nodeId);
+        }
+      }
+
+      // AT5 [Move up to next level] Set N = P and set NN = PP if a split
+      // occurred. Repeat from AT2
+      n = parent;
+      nn = newNode;
+    }
+    return nn;
+  }
+
+  /**
+   * Used by delete(). Ensures that all nodes from the passed node
+   * up to the root have the minimum number of entries.
+   *
+   * Note that the parent and parentEntry stacks are expected to
+   * contain the nodeIds of all parents up to the root.
+   */
+  private void condenseTree($Type$Node l) {
+    // CT1 [Initialize] Set n=l. Set the list of eliminated
+    // nodes to be empty.
+    $Type$Node n = l;
+    TIntStack eliminatedNodeIds = new TIntArrayStack();
+
+    // CT2 [Find parent entry] If N is the root, go to CT6. Otherwise
+    // let P be the parent of N, and let En be N's entry in P
+    while (n.level != treeHeight) {
+      $Type$Node parent = nodes[parents.pop()];
+      int parentEntry = parentsEntry.pop();
+
+      // CT3 [Eliminiate under-full node] If N has too few entries,
+      // delete En from P and add N to the list of eliminated nodes
+      if (n.entryCount < minNodeEntries) {
+        parent.deleteEntry(parentEntry);
+        eliminatedNodeIds.push(n.nodeId);
+      } else if (n.mbrMinX != parent.entriesMinX[parentEntry] ||
+          n.mbrMinY != parent.entriesMinY[parentEntry] ||
+          n.mbrMaxX != parent.entriesMaxX[parentEntry] ||
+          n.mbrMaxY != parent.entriesMaxY[parentEntry]) {
+        // CT4 [Adjust covering rectangle] If N has not been eliminated,
+        // adjust EnI to tightly contain all entries in N
+        $type$ deletedMinX = parent.entriesMinX[parentEntry];
+        $type$ deletedMinY = parent.entriesMinY[parentEntry];
+        $type$ deletedMaxX = parent.entriesMaxX[parentEntry];
+        $type$ deletedMaxY = parent.entriesMaxY[parentEntry];
+        parent.entriesMinX[parentEntry] = n.mbrMinX;
+        parent.entriesMinY[parentEntry] = n.mbrMinY;
+        parent.entriesMaxX[parentEntry] = n.mbrMaxX;
+        parent.entriesMaxY[parentEntry] = n.mbrMaxY;
+        parent.recalculateMBRIfInfluencedBy(deletedMinX, deletedMinY,
+            deletedMaxX, deletedMaxY);
+      }
+      // CT5 [Move up one level in tree] Set N=P and repeat from CT2
+      n = parent;
+    }
+
+    // CT6 [Reinsert orphaned entries] Reinsert all entries of nodes in set
+    // Q. Entries from eliminated leaf nodes are reinserted in tree leaves
+    // as in Insert(), but entries from higher level nodes must be placed
+    // higher in the tree, so that leaves of their dependent subtrees will
+    // be on the same level as leaves of the main tree
+    while (eliminatedNodeIds.size() > 0) {
+      $Type$Node e = nodes[eliminatedNodeIds.pop()];
+      for (int j = 0; j < e.entryCount; j++) {
+        add(e.entriesMinX[j], e.entriesMinY[j], e.entriesMaxX[j],
+            e.entriesMaxY[j], e.ids[j], e.level);
+      }
+      e.entryCount = 0;
+      deletedNodeIds.push(e.nodeId);
+    }
+  }
+
+  /**
+   * Split a node with the linear split of LinearSplit. The entries of the
+   * node and the new entry are copied out, divided, and copied back into
+   * the node and a new node.
+   *
+   * @return new node object.
+   */
+  private $Type$Node splitNode($Type$Node n, $type$ newRectMinX,
+      $type$ newRectMinY, $type$ newRectMaxX, $type$ newRectMaxY,
+      int newId) {
+    int count = n.entryCount + 1;
+    int last = count - 1;
+    System.arraycopy(n.entriesMinX, 0, splitMinX, 0, last);
+    System.arraycopy(n.entriesMinY, 0, splitMinY, 0, last);
+    System.arraycopy(n.entriesMaxX, 0, splitMaxX, 0, last);
+    System.arraycopy(n.entriesMaxY, 0, splitMaxY, 0, last);
+    System.arraycopy(n.ids, 0, splitIds, 0, last);
+    splitMinX[last] = newRectMinX;
+    splitMinY[last] = newRectMinY;
+    splitMaxX[last] = newRectMaxX;
+    splitMaxY[last] = newRectMaxY;
+    splitIds[last] = newId;
+    Arrays.fill(splitAssigned, false);
+
+    $Type$Node newNode = new $Type$Node(getNextNodeId(), n.level,
+        maxNodeEntries);
+    nodes[newNode.nodeId] = newNode;
+    n.entryCount = 0;
+    n.mbrMinX = $MAX$;
+    n.mbrMinY = $MAX$;
+    n.mbrMaxX = $MIN$;
+    n.mbrMaxY = $MIN$;
+
+    // [Pick first entry for each group]
+    long seeds = pickSeeds(count);
+    assign((int) (seeds >>> 32), n);
+    assign((int) seeds, newNode);
+
+    int assigned = 2;
+    while (assigned < count) {
+      // [Check if done] If one group has so few entries that all the rest
+      // must be assigned to it in order for it to have the minimum number
+      // m, assign them and stop.
+      $Type$Node rest = null;
+      if (count - newNode.entryCount == minNodeEntries) {
+        rest = n;
+      } else if (count - n.entryCount == minNodeEntries) {
+        rest = newNode;
+      }
+      if (rest != null) {
+        for (int i = 0; i < count; i++) {
+          if (!splitAssigned[i]) {
+            assign(i, rest);
+          }
+        }
+        break;
+      }
+
+      // [Select entry to assign] Choose the entry whose enlargement of the
+      // two groups differs most. Add it to the group whose covering
+      // rectangle will have to be enlarged least to accommodate it.
+      // Resolve ties by adding the entry to the group with smaller area,
+      // then to the one with fewer entries.
+      double maxDifference = Double.NEGATIVE_INFINITY;
+      int next = -1;
+      $Type$Node nextGroup = n;
+      for (int i = 0; i < count; i++) {
+        if (splitAssigned[i]) {
+          continue;
+        }
+        double nIncrease = $Type$Rectangle.enlargement(n.mbrMinX, n.mbrMinY,
+            n.mbrMaxX, n.mbrMaxY, splitMinX[i], splitMinY[i], splitMaxX[i],
+            splitMaxY[i]);
+        double newNodeIncrease = $Type$Rectangle.enlargement(
+            newNode.mbrMinX, newNode.mbrMinY, newNode.mbrMaxX,
+            newNode.mbrMaxY, splitMinX[i], splitMinY[i], splitMaxX[i],
+            splitMaxY[i]);
+        double difference = Math.abs(nIncrease - newNodeIncrease);
+        if (next == -1 || difference > maxDifference) {
+          maxDifference = difference;
+          next = i;
+          double nArea = $Type$Rectangle.area(n.mbrMinX, n.mbrMinY,
+              n.mbrMaxX, n.mbrMaxY);
+          double newNodeArea = $Type$Rectangle.area(newNode.mbrMinX,
+              newNode.mbrMinY, newNode.mbrMaxX, newNode.mbrMaxY);
+          if (nIncrease != newNodeIncrease) {
+            nextGroup = nIncrease < newNodeIncrease ? n : newNode;
+          } else if (nArea != newNodeArea) {
+            nextGroup = nArea < newNodeArea ? n : newNode;
+          } else {
+            nextGroup = n.entryCount <= newNode.entryCount ? n : newNode;
+          }
+        }
+      }
+      assign(next, nextGroup);
+      assigned++;
+    }
+    return newNode;
+  }
+
+  private void assign(int i, $Type$Node group) {
+    splitAssigned[i] = true;
+    group.addEntry(splitMinX[i], splitMinY[i], splitMaxX[i], splitMaxY[i],
+        splitIds[i]);
+  }
+
+  /**
+   * Pick the seeds of the linear split from the split arrays, the new
+   * entry being the last one. Returns the index of the seed of the
+   * existing node in the upper 32 bits, and of the new node in the lower.
+   */
+  private long pickSeeds(int count) {
+    int last = count - 1;
+    $Type$Rectangle mbr = new $Type$Rectangle();
+    for (int i = 0; i < count; i++) {
+      mbr.add(new $Type$Rectangle(splitMinX[i], splitMinY[i], splitMaxX[i],
+          splitMaxY[i]));
+    }
+
+    // initialize to -1 so that even overlapping rectangles will be
+    // considered for the seeds
+    double maxNormalizedSeparation = -1;
+    int highestLowIndex = -1;
+    int lowestHighIndex = -1;
+    for (int dimension = 0; dimension < 2; dimension++) {
+      $type$[] lower = dimension == 0 ? splitMinX : splitMinY;
+      $type$[] upper = dimension == 0 ? splitMaxX : splitMaxY;
+      double length = dimension == 0 ? $widen$mbr.maxX - mbr.minX
+          : $widen$mbr.maxY - mbr.minY;
+
+      $type$ tempHighestLow = lower[last];
+      int tempHighestLowIndex = last;
+      $type$ tempLowestHigh = upper[last];
+      int tempLowestHighIndex = last;
+      for (int i = 0; i < last; i++) {
+        if (lower[i] >= tempHighestLow) {
+          tempHighestLow = lower[i];
+          tempHighestLowIndex = i;
+        } else if (upper[i] <= tempLowestHigh) { // ensure that the same index cannot be both lowestHigh and highestLow
+          tempLowestHigh = upper[i];
+          tempLowestHighIndex = i;
+        }
+
+        double normalizedSeparation = length == 0 ? 1
+            : ($widen$tempHighestLow - tempLowestHigh) / length;
+        if (normalizedSeparation >= maxNormalizedSeparation) {
+          highestLowIndex = tempHighestLowIndex;
+          lowestHighIndex = tempLowestHighIndex;
+          maxNormalizedSeparation = normalizedSeparation;
+        }
+      }
+    }
+
+    // If the new rectangle is both highestLow and lowestHigh, declare that
+    // the highestLowIndex is the lowest Y and, the lowestHighIndex is the
+    // largest X (but always a different rectangle)
+    if (highestLowIndex == lowestHighIndex) {
+      highestLowIndex = last;
+      $type$ tempMinY = splitMinY[last];
+      lowestHighIndex = 0;
+      $type$ tempMaxX = splitMaxX[0];
+      for (int i = 1; i < last; i++) {
+        if (splitMinY[i] < tempMinY) {
+          tempMinY = splitMinY[i];
+          highestLowIndex = i;
+        } else if (splitMaxX[i] > tempMaxX) {
+          tempMaxX = splitMaxX[i];
+          lowestHighIndex = i;
+        }
+      }
+    }
+    return ((long) lowestHighIndex << 32) | (highestLowIndex & 0xffffffffL);
+  }
+
+  /**
+   * Recursively searches the tree for the nearest entry, storing the ids
+   * of the nearest entries found so far in nearestIds.
+   */
+  private double nearest($Type$Point p, $Type$Node n,
+      double furthestDistanceSq) {
+    for (int i = 0; i < n.entryCount; i++) {
+      double tempDistanceSq = $Type$Rectangle.distanceSq(n.entriesMinX[i],
+          n.entriesMinY[i], n.entriesMaxX[i], n.entriesMaxY[i], p.x, p.y);
+      if (n.isLeaf()) { // for leaves, the distance is an actual nearest distance
+        if (tempDistanceSq < furthestDistanceSq) {
+          furthestDistanceSq = tempDistanceSq;
+          nearestIds.reset();
+        }
+        if (tempDistanceSq <= furthestDistanceSq) {
+          nearestIds.add(n.ids[i]);
+        }
+      } else if (tempDistanceSq <= furthestDistanceSq) {
+        // only search the child node if it could contain a rectangle
+        // nearer than the nearest found so far
+        furthestDistanceSq = nearest(p, nodes[n.ids[i]], furthestDistanceSq);
+      }
+    }
+    return furthestDistanceSq;
+  }
+
+  /**
+   * Fills distanceQueue with the count nearest entries, furthest at the
+   * top, plus any entries as near as the furthest of them.
+   */
+  private void createNearestNDistanceQueue($Type$Point p, int count,
+      double furthestDistance) {
+    distanceQueue.reset();
+    savedValues.reset();
+
+    //  return immediately if given an invalid "count" parameter
+    if (count <= 0) {
+      return;
+    }
+
+    parents.clear();
+    parents.push(rootNodeId);
+
+    parentsEntry.clear();
+    parentsEntry.push(-1);
+
+    double furthestDistanceSq = furthestDistance * furthestDistance;
+
+    while (parents.size() > 0) {
+      $Type$Node n = nodes[parents.peek()];
+      int startIndex = parentsEntry.peek() + 1;
+
+      if (!n.isLeaf()) {
+        // go through every entry in the index node to check
+        // if it could contain an entry closer than the farthest entry
+        // currently stored.
+        boolean near = false;
+        for (int i = startIndex; i < n.entryCount; i++) {
+          if ($Type$Rectangle.distanceSq(n.entriesMinX[i], n.entriesMinY[i],
+              n.entriesMaxX[i], n.entriesMaxY[i],
+              p.x, p.y) <= furthestDistanceSq) {
+            parents.push(n.ids[i]);
+            parentsEntry.pop();
+            parentsEntry.push(i); // this becomes the start index when the child has been searched
+            parentsEntry.push(-1);
+            near = true;
+            break; // ie go to next iteration of while()
+          }
+        }
+        if (near) {
+          continue;
+        }
+      } else {
+        // go through every entry in the leaf to check if
+        // it is currently one of the nearest N entries.
+        for (int i = 0; i < n.entryCount; i++) {
+          double entryDistanceSq = $Type$Rectangle.distanceSq(
+              n.entriesMinX[i], n.entriesMinY[i], n.entriesMaxX[i],
+              n.entriesMaxY[i], p.x, p.y);
+          if (entryDistanceSq > furthestDistanceSq) {
+            continue;
+          }
+          distanceQueue.insert(n.ids[i], entryDistanceSq);
+
+          while (distanceQueue.size() > count) {
+            // normal case - we can simply remove the lowest priority
+            // (highest distance) entry
+            double distanceSq = distanceQueue.getPriority();
+            int value = distanceQueue.pop();
+
+            // rare case - multiple items of the same priority (distance)
+            if (distanceSq == distanceQueue.getPriority()) {
+              savedValues.add(value);
+              savedPriority = distanceSq;
+            } else {
+              savedValues.reset();
+            }
+          }
+
+          // if the saved values have the same distance as the
+          // next one in the tree, add them back in.
+          if (savedValues.size() > 0
+              && savedPriority == distanceQueue.getPriority()) {
+            for (int svi = 0; svi < savedValues.size(); svi++) {
+              distanceQueue.insert(savedValues.get(svi), savedPriority);
+            }
+            savedValues.reset();
+          }
+
+          // narrow the search, if we have already found N items
+          if (distanceQueue.getPriority() < furthestDistanceSq
+              && distanceQueue.size() >= count) {
+            furthestDistanceSq = distanceQueue.getPriority();
+          }
+        }
+      }
+      parents.pop();
+      parentsEntry.pop();
+    }
+  }
+
+  /**
+   * Recursively searches the tree for all intersecting entries.
+   * Immediately calls execute() on the passed IntProcedure when
+   * a matching entry is found.
+   */
+  private boolean intersects($Type$Rectangle r, TIntProcedure v,
+      $Type$Node n) {
+    for (int i = 0; i < n.entryCount; i++) {
+      if ($Type$Rectangle.intersects(r.minX, r.minY, r.maxX, r.maxY,
+          n.entriesMinX[i], n.entriesMinY[i], n.entriesMaxX[i],
+          n.entriesMaxY[i])) {
+        if (n.isLeaf()) {
+          if (!v.execute(n.ids[i])) {
+            return false;
+          }
+        } else if (!intersects(r, v, nodes[n.ids[i]])) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+}
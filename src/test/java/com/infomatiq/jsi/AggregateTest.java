@@ -0,0 +1,123 @@
+//   AggregateTest.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.infomatiq.jsi.rtree.RStarSplit;
+import com.infomatiq.jsi.rtree.RTree;
+import com.infomatiq.jsi.rtree.SplitStrategy;
+
+public class AggregateTest extends RandomTestCase {
+
+  List<Rectangle> rects = new ArrayList<>();
+  List<Float> weights = new ArrayList<>();
+  List<Boolean> deleted = new ArrayList<>();
+
+  public AggregateTest(String name) {
+    super(name);
+  }
+
+  public void testLinear() throws IOException {
+    checkAggregates(null);
+  }
+
+  public void testRStar() throws IOException {
+    checkAggregates(new RStarSplit());
+  }
+
+  public void testNotAggregate() {
+    RTree rtree = new RTree(2, 5);
+    assertFalse(rtree.isAggregate());
+    for (int i = 0; i < 500; i++) {
+      rtree.add(nextRect(), i);
+    }
+    for (int i = 0; i < 100; i++) {
+      Rectangle q = nextRect();
+      assertEquals((double) rtree.count(q), rtree.sum(q));
+    }
+    try {
+      rtree.add(nextRect(), 500, 2);
+      fail("A weight was accepted by a tree that cannot store it");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  private void checkAggregates(SplitStrategy split) throws IOException {
+    RTree rtree = new RTree(2, 5, split, true);
+    assertTrue(rtree.isAggregate());
+
+    // whole number weights, so that every order of summing is exact
+    for (int i = 0; i < 3000; i++) {
+      rects.add(nextRect());
+      weights.add((float) r.nextInt(10));
+      deleted.add(false);
+      if (i % 10 == 0) {
+        rtree.add(rects.get(i), i);
+        weights.set(i, 1f);
+      } else {
+        rtree.add(rects.get(i), i, weights.get(i));
+      }
+    }
+    assertTrue(rtree.checkConsistency());
+    checkQueries(rtree);
+
+    for (int i = 0; i < 3000; i += 2) {
+      assertTrue(rtree.delete(rects.get(i), i));
+      deleted.set(i, true);
+    }
+    assertTrue(rtree.checkConsistency());
+    checkQueries(rtree);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    rtree.write(Channels.newChannel(bytes));
+    RTree read = RTree.read(Channels.newChannel(new ByteArrayInputStream(
+        bytes.toByteArray())));
+    assertTrue(read.isAggregate());
+    assertTrue(read.checkConsistency());
+    checkQueries(read);
+
+    rtree.compact();
+    assertTrue(rtree.checkConsistency());
+    checkQueries(rtree);
+  }
+
+  private void checkQueries(RTree rtree) {
+    for (int i = 0; i < 200; i++) {
+      Rectangle q = nextRect();
+      q.maxX += r.nextInt(50);
+      q.maxY += r.nextInt(50);
+      int count = 0;
+      double sum = 0;
+      for (int j = 0; j < rects.size(); j++) {
+        if (!deleted.get(j) && q.intersects(rects.get(j))) {
+          count++;
+          sum += weights.get(j);
+        }
+      }
+      assertEquals(count, rtree.count(q));
+      assertEquals(sum, rtree.sum(q));
+    }
+  }
+}
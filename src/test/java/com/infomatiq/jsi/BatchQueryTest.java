@@ -0,0 +1,126 @@
+//   BatchQueryTest.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307 USA
+
+package com.infomatiq.jsi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.infomatiq.jsi.rtree.RTree;
+
+public class BatchQueryTest extends RandomTestCase {
+
+  public BatchQueryTest(String name) {
+    super(name);
+  }
+
+  public void testIntersectsBatch() {
+    RTree rtree = new RTree(5, 10);
+    SimpleIndex simple = new SimpleIndex();
+    for (int i = 0; i < 3000; i++) {
+      Rectangle rect = nextRect();
+      rtree.add(rect, i);
+      simple.add(rect, i);
+    }
+
+    int count = 200;
+    float[] minX = new float[count];
+    float[] minY = new float[count];
+    float[] maxX = new float[count];
+    float[] maxY = new float[count];
+    for (int i = 0; i < count; i++) {
+      Rectangle query = nextRect(100, 30);
+      minX[i] = query.minX;
+      minY[i] = query.minY;
+      maxX[i] = query.maxX;
+      maxY[i] = query.maxY;
+    }
+
+    List<List<Integer>> expected = batch(simple, minX, minY, maxX, maxY);
+    assertEquals(expected, batch(rtree, minX, minY, maxX, maxY));
+    for (int i = 0; i < count; i++) {
+      List<Integer> single = new SortedListDecorator(rtree).intersects(
+          new Rectangle(minX[i], minY[i], maxX[i], maxY[i]));
+      assertEquals(single, expected.get(i));
+    }
+  }
+
+  public void testEarlyStop() {
+    RTree rtree = new RTree(2, 4);
+    for (int i = 0; i < 100; i++) {
+      rtree.add(nextRect(), i);
+    }
+    float[] all = new float[] { 0, 0, 0 };
+    float[] max = new float[] { 200, 200, 200 };
+    final int[] calls = new int[1];
+    rtree.intersectsBatch(all, all, max, max, new BatchIntProcedure() {
+      @Override
+      public boolean execute(int queryIndex, int id) {
+        calls[0]++;
+        return calls[0] < 5;
+      }
+    });
+    assertEquals(5, calls[0]);
+  }
+
+  public void testEmpty() {
+    RTree rtree = new RTree();
+    float[] none = new float[0];
+    rtree.intersectsBatch(none, none, none, none, new BatchIntProcedure() {
+      @Override
+      public boolean execute(int queryIndex, int id) {
+        fail();
+        return true;
+      }
+    });
+    float[] one = new float[] { 0 };
+    rtree.intersectsBatch(one, one, one, one, new BatchIntProcedure() {
+      @Override
+      public boolean execute(int queryIndex, int id) {
+        fail();
+        return true;
+      }
+    });
+
+    try {
+      rtree.intersectsBatch(one, one, one, none, null);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  private static List<List<Integer>> batch(SpatialIndex si, float[] minX,
+      float[] minY, float[] maxX, float[] maxY) {
+    final List<List<Integer>> results = new ArrayList<>();
+    for (int i = 0; i < minX.length; i++) {
+      results.add(new ArrayList<Integer>());
+    }
+    si.intersectsBatch(minX, minY, maxX, maxY, new BatchIntProcedure() {
+      @Override
+      public boolean execute(int queryIndex, int id) {
+        results.get(queryIndex).add(id);
+        return true;
+      }
+    });
+    for (List<Integer> ids : results) {
+      Collections.sort(ids);
+    }
+    return results;
+  }
+}
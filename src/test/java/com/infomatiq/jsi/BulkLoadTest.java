@@ -0,0 +1,114 @@
+//   BulkLoadTest.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307 USA
+
+package com.infomatiq.jsi;
+
+import com.infomatiq.jsi.rtree.Node;
+import com.infomatiq.jsi.rtree.RTree;
+
+public class BulkLoadTest extends RandomTestCase {
+
+  public BulkLoadTest(String name) {
+    super(name);
+  }
+
+  public void testBulkLoad() {
+    int[] sizes = { 0, 1, 2, 9, 10, 11, 99, 100, 101, 1000, 5000 };
+    for (int size : sizes) {
+      run(1, 10, size);
+      run(5, 10, size);
+      run(2, 5, size);
+      run(20, 50, size);
+    }
+  }
+
+  private void run(int minNodeEntries, int maxNodeEntries, int numRects) {
+    float[] minX = new float[numRects];
+    float[] minY = new float[numRects];
+    float[] maxX = new float[numRects];
+    float[] maxY = new float[numRects];
+    int[] ids = new int[numRects];
+
+    SimpleIndex reference = new SimpleIndex();
+    for (int i = 0; i < numRects; i++) {
+      Rectangle rect = nextRect();
+      minX[i] = rect.minX;
+      minY[i] = rect.minY;
+      maxX[i] = rect.maxX;
+      maxY[i] = rect.maxY;
+      ids[i] = i;
+      reference.add(rect, i);
+    }
+
+    RTree rtree = RTree.bulkLoad(minX, minY, maxX, maxY, ids, minNodeEntries,
+        maxNodeEntries);
+    assertEquals(numRects, rtree.size());
+    assertTrue(rtree.checkConsistency());
+    assertTrue(checkMinNodeEntries(rtree, rtree.getRootNodeId(),
+        minNodeEntries));
+    assertEquals(reference.getBounds(), rtree.getBounds());
+
+    compareQueries(reference, rtree);
+
+    // the packed tree must accept further adds and deletes
+    for (int i = 0; i < numRects / 2; i++) {
+      Rectangle rect = new Rectangle(minX[i], minY[i], maxX[i], maxY[i]);
+      assertTrue(rtree.delete(rect, i));
+      reference.delete(rect, i);
+    }
+    for (int i = numRects; i < numRects + 100; i++) {
+      Rectangle rect = nextRect();
+      rtree.add(rect, i);
+      reference.add(rect, i);
+    }
+    assertEquals(reference.size(), rtree.size());
+    assertTrue(rtree.checkConsistency());
+
+    compareQueries(reference, rtree);
+  }
+
+  private void compareQueries(SpatialIndex reference, SpatialIndex si) {
+    SortedListDecorator expected = new SortedListDecorator(reference);
+    SortedListDecorator actual = new SortedListDecorator(si);
+    for (int i = 0; i < 20; i++) {
+      Rectangle query = nextRect();
+      assertEquals(expected.intersects(query), actual.intersects(query));
+      assertEquals(expected.contains(query), actual.contains(query));
+
+      Point p = new Point(r.nextInt(100), r.nextInt(100));
+      assertEquals(expected.nearest(p, Float.POSITIVE_INFINITY),
+          actual.nearest(p, Float.POSITIVE_INFINITY));
+    }
+  }
+
+  private boolean checkMinNodeEntries(RTree rtree, int nodeId,
+      int minNodeEntries) {
+    Node n = rtree.getNode(nodeId);
+    if (nodeId != rtree.getRootNodeId()
+        && n.getEntryCount() < minNodeEntries) {
+      return false;
+    }
+    if (!n.isLeaf()) {
+      for (int i = 0; i < n.getEntryCount(); i++) {
+        if (!checkMinNodeEntries(rtree, n.getId(i), minNodeEntries)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,201 @@
+//   BulkUpdateTest.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.infomatiq.jsi.rtree.RStarSplit;
+import com.infomatiq.jsi.rtree.RTree;
+import com.infomatiq.jsi.rtree.SplitStrategy;
+import com.slimjars.dist.gnu.trove.list.array.TIntArrayList;
+
+/**
+ * deleteAll() and updateAll(), compared with a list of the entries that
+ * should be in the tree.
+ */
+public class BulkUpdateTest extends RandomTestCase {
+
+  Rectangle[] rects;
+  float[] weights;
+  boolean[] present;
+
+  public BulkUpdateTest(String name) {
+    super(name);
+  }
+
+  public void testLinear() {
+    checkBulkUpdates(null, false);
+  }
+
+  public void testRStar() {
+    checkBulkUpdates(new RStarSplit(), false);
+  }
+
+  public void testAggregate() {
+    checkBulkUpdates(null, true);
+  }
+
+  private void checkBulkUpdates(SplitStrategy split, boolean aggregate) {
+    RTree rtree = new RTree(2, 5, split, aggregate);
+    int count = 5000;
+    rects = new Rectangle[count];
+    weights = new float[count];
+    present = new boolean[count];
+    for (int i = 0; i < count; i++) {
+      rects[i] = nextRect(1000);
+      weights[i] = aggregate ? r.nextInt(10) : 1;
+      present[i] = true;
+      if (aggregate) {
+        rtree.add(rects[i], i, weights[i]);
+      } else {
+        rtree.add(rects[i], i);
+      }
+    }
+
+    // a third of the entries, and some that are not in the tree
+    List<Integer> selected = select(count / 3);
+    selected.add(count);
+    selected.add(count + 1);
+    assertEquals(count / 3, deleteAll(rtree, selected));
+    checkTree(rtree);
+
+    // some small moves, which stay in their leaves, and some large ones
+    selected = select(count / 3);
+    assertEquals(count / 3, updateAll(rtree, selected, 2));
+    checkTree(rtree);
+    selected = select(count / 3);
+    assertEquals(count / 3, updateAll(rtree, selected, 1000));
+    checkTree(rtree);
+
+    // nearly all of the remaining entries, which leaves the root with too
+    // few entries, and then the rest
+    selected = select(rtree.size() - 3);
+    assertEquals(selected.size(), deleteAll(rtree, selected));
+    checkTree(rtree);
+    selected = select(3);
+    assertEquals(3, deleteAll(rtree, selected));
+    assertEquals(0, rtree.size());
+    checkTree(rtree);
+
+    for (int i = 0; i < count; i++) {
+      rtree.add(rects[i], i);
+      weights[i] = 1;
+      present[i] = true;
+    }
+    checkTree(rtree);
+  }
+
+  /**
+   * Select n of the entries in the tree at random.
+   */
+  private List<Integer> select(int n) {
+    List<Integer> ids = new ArrayList<>();
+    for (int i = 0; i < present.length; i++) {
+      if (present[i]) {
+        ids.add(i);
+      }
+    }
+    Collections.shuffle(ids, r);
+    return new ArrayList<>(ids.subList(0, n));
+  }
+
+  private int deleteAll(RTree rtree, List<Integer> selected) {
+    int n = selected.size();
+    float[] minX = new float[n];
+    float[] minY = new float[n];
+    float[] maxX = new float[n];
+    float[] maxY = new float[n];
+    int[] ids = new int[n];
+    for (int i = 0; i < n; i++) {
+      int id = selected.get(i);
+      Rectangle rect = id < rects.length ? rects[id] : nextRect(1000);
+      minX[i] = rect.minX;
+      minY[i] = rect.minY;
+      maxX[i] = rect.maxX;
+      maxY[i] = rect.maxY;
+      ids[i] = id;
+      if (id < rects.length) {
+        present[id] = false;
+      }
+    }
+    return rtree.deleteAll(minX, minY, maxX, maxY, ids);
+  }
+
+  private int updateAll(RTree rtree, List<Integer> selected, int distance) {
+    int n = selected.size();
+    float[] minX = new float[n];
+    float[] minY = new float[n];
+    float[] maxX = new float[n];
+    float[] maxY = new float[n];
+    float[] newMinX = new float[n];
+    float[] newMinY = new float[n];
+    float[] newMaxX = new float[n];
+    float[] newMaxY = new float[n];
+    int[] ids = new int[n];
+    for (int i = 0; i < n; i++) {
+      int id = selected.get(i);
+      Rectangle rect = rects[id];
+      minX[i] = rect.minX;
+      minY[i] = rect.minY;
+      maxX[i] = rect.maxX;
+      maxY[i] = rect.maxY;
+      ids[i] = id;
+      int dx = r.nextInt(2 * distance + 1) - distance;
+      int dy = r.nextInt(2 * distance + 1) - distance;
+      rects[id] = new Rectangle(rect.minX + dx, rect.minY + dy,
+          rect.maxX + dx, rect.maxY + dy);
+      newMinX[i] = rects[id].minX;
+      newMinY[i] = rects[id].minY;
+      newMaxX[i] = rects[id].maxX;
+      newMaxY[i] = rects[id].maxY;
+    }
+    return rtree.updateAll(minX, minY, maxX, maxY, ids, newMinX, newMinY,
+        newMaxX, newMaxY);
+  }
+
+  private void checkTree(RTree rtree) {
+    assertTrue(rtree.checkConsistency());
+    int size = 0;
+    for (boolean p : present) {
+      size += p ? 1 : 0;
+    }
+    assertEquals(size, rtree.size());
+
+    TIntArrayList found = new TIntArrayList();
+    for (int i = 0; i < 100; i++) {
+      Rectangle q = nextRect(1000);
+      q.maxX += r.nextInt(200);
+      q.maxY += r.nextInt(200);
+      TIntArrayList expected = new TIntArrayList();
+      double sum = 0;
+      for (int j = 0; j < rects.length; j++) {
+        if (present[j] && q.intersects(rects[j])) {
+          expected.add(j);
+          sum += weights[j];
+        }
+      }
+      found.reset();
+      rtree.intersects(q, found);
+      found.sort();
+      assertEquals(expected, found);
+      assertEquals(sum, rtree.sum(q));
+    }
+  }
+}
@@ -0,0 +1,144 @@
+//   CollectTest.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import com.infomatiq.jsi.rtree.RTree;
+import com.slimjars.dist.gnu.trove.list.array.TIntArrayList;
+
+import de.topobyte.jsi.GenericRTree;
+
+public class CollectTest extends RandomTestCase {
+
+  public CollectTest(String name) {
+    super(name);
+  }
+
+  public void testCollect() {
+    RTree rtree = new RTree(2, 5);
+    for (int i = 0; i < 3000; i++) {
+      rtree.add(nextRect(), i);
+    }
+    SortedListDecorator expected = new SortedListDecorator(rtree);
+    TIntArrayList list = new TIntArrayList();
+    int[] out = new int[3010];
+    for (int i = 0; i < 100; i++) {
+      Rectangle q = nextRect();
+      List<Integer> intersects = expected.intersects(q);
+      List<Integer> contains = expected.contains(q);
+
+      assertEquals(intersects.size(), rtree.count(q));
+
+      list.reset();
+      list.add(-1);
+      assertEquals(intersects.size(), rtree.intersects(q, list));
+      assertEquals(-1, list.get(0));
+      assertEquals(intersects, sorted(list.toArray(1, list.size() - 1)));
+      list.reset();
+      assertEquals(contains.size(), rtree.contains(q, list));
+      assertEquals(contains, sorted(list.toArray()));
+
+      assertEquals(intersects.size(), rtree.intersects(q, out, 10));
+      assertEquals(intersects, sorted(Arrays.copyOfRange(out, 10,
+          10 + intersects.size())));
+      assertEquals(contains.size(), rtree.contains(q, out, 10));
+      assertEquals(contains, sorted(Arrays.copyOfRange(out, 10,
+          10 + contains.size())));
+
+      // too small an array is filled, and the full count returned
+      if (intersects.size() > 1) {
+        int[] small = new int[intersects.size() - 1];
+        assertEquals(intersects.size(), rtree.intersects(q, small, 0));
+        for (int id : small) {
+          assertTrue(intersects.contains(id));
+        }
+      }
+    }
+  }
+
+  /**
+   * Nodes with more than 64 entries, which are scanned in several parts.
+   */
+  public void testWideNodes() {
+    RTree rtree = new RTree(30, 150);
+    List<Rectangle> rects = new ArrayList<>();
+    for (int i = 0; i < 3000; i++) {
+      rects.add(nextRect());
+      rtree.add(rects.get(i), i);
+    }
+    TIntArrayList list = new TIntArrayList();
+    for (int i = 0; i < 100; i++) {
+      Rectangle q = nextRect();
+      q.maxX += r.nextInt(30);
+      List<Integer> intersects = new ArrayList<>();
+      List<Integer> contains = new ArrayList<>();
+      for (int j = 0; j < rects.size(); j++) {
+        if (q.intersects(rects.get(j))) {
+          intersects.add(j);
+        }
+        if (q.contains(rects.get(j))) {
+          contains.add(j);
+        }
+      }
+      list.reset();
+      rtree.intersects(q, list::add);
+      assertEquals(intersects, sorted(list.toArray()));
+      list.reset();
+      rtree.contains(q, list::add);
+      assertEquals(contains, sorted(list.toArray()));
+      list.reset();
+      rtree.contains(q, list);
+      assertEquals(contains, sorted(list.toArray()));
+    }
+  }
+
+  public void testGenericRTree() {
+    GenericRTree<String> tree = new GenericRTree<>(2, 5);
+    List<Rectangle> rects = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      rects.add(nextRect());
+      tree.add(rects.get(i), "thing" + i);
+    }
+    for (int i = 0; i < 100; i++) {
+      Rectangle q = nextRect();
+      List<String> intersects = new ArrayList<>();
+      List<String> contains = new ArrayList<>();
+      for (int j = 0; j < rects.size(); j++) {
+        if (q.intersects(rects.get(j))) {
+          intersects.add("thing" + j);
+        }
+        if (q.contains(rects.get(j))) {
+          contains.add("thing" + j);
+        }
+      }
+      assertEquals(intersects.size(), tree.count(q));
+      List<String> results = new ArrayList<>();
+      assertEquals(intersects.size(), tree.intersects(q, results));
+      assertEquals(new HashSet<>(intersects), new HashSet<>(results));
+      assertEquals(new HashSet<>(intersects), tree.intersects(q));
+      results.clear();
+      assertEquals(contains.size(), tree.contains(q, results));
+      assertEquals(new HashSet<>(contains), new HashSet<>(results));
+      assertEquals(new HashSet<>(contains), tree.contains(q));
+    }
+  }
+}
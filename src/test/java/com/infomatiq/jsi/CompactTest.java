@@ -0,0 +1,98 @@
+//   CompactTest.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.infomatiq.jsi.rtree.RTree;
+
+public class CompactTest extends RandomTestCase {
+
+  public CompactTest(String name) {
+    super(name);
+  }
+
+  public void testCompact() {
+    run(1, 2);
+    run(2, 5);
+    run(20, 50);
+  }
+
+  private void run(int minNodeEntries, int maxNodeEntries) {
+    RTree rtree = new RTree(minNodeEntries, maxNodeEntries);
+    RTree compacted = new RTree(minNodeEntries, maxNodeEntries);
+    List<Rectangle> rects = new ArrayList<>();
+    for (int i = 0; i < 3000; i++) {
+      rects.add(nextRect());
+      rtree.add(rects.get(i), i);
+      compacted.add(rects.get(i), i);
+    }
+    // deletions leave the slots of deleted nodes empty
+    for (int i = 0; i < rects.size(); i += 2) {
+      rtree.delete(rects.get(i), i);
+      compacted.delete(rects.get(i), i);
+    }
+    int highestUsedNodeId = compacted.getHighestUsedNodeId();
+    compacted.compact();
+    assertTrue(compacted.checkConsistency());
+    assertEquals(0, compacted.getRootNodeId());
+    assertTrue(compacted.getHighestUsedNodeId() < highestUsedNodeId);
+    for (int id = 0; id <= compacted.getHighestUsedNodeId(); id++) {
+      assertNotNull(compacted.getNode(id));
+    }
+    assertNull(compacted.getNode(compacted.getHighestUsedNodeId() + 1));
+    compare(rtree, compacted);
+
+    // the compacted tree can be written to as before
+    for (int i = 0; i < rects.size(); i += 2) {
+      rtree.add(rects.get(i), i);
+      compacted.add(rects.get(i), i);
+    }
+    for (int i = 1; i < rects.size(); i += 4) {
+      assertTrue(compacted.delete(rects.get(i), i));
+      rtree.delete(rects.get(i), i);
+    }
+    assertTrue(compacted.checkConsistency());
+    compare(rtree, compacted);
+
+    for (int i = 0; i < rects.size(); i++) {
+      rtree.delete(rects.get(i), i);
+      compacted.delete(rects.get(i), i);
+    }
+    compacted.compact();
+    assertTrue(compacted.checkConsistency());
+    assertEquals(0, compacted.getHighestUsedNodeId());
+    compare(rtree, compacted);
+  }
+
+  private void compare(RTree rtree, RTree compacted) {
+    assertEquals(rtree.size(), compacted.size());
+    assertEquals(rtree.getBounds(), compacted.getBounds());
+    SortedListDecorator expected = new SortedListDecorator(rtree);
+    SortedListDecorator actual = new SortedListDecorator(compacted);
+    for (int i = 0; i < 100; i++) {
+      Rectangle query = nextRect();
+      assertEquals(expected.intersects(query), actual.intersects(query));
+      assertEquals(expected.contains(query), actual.contains(query));
+      Point p = new Point(query.minX, query.minY);
+      assertEquals(expected.nearestN(p, 5, Float.POSITIVE_INFINITY),
+          actual.nearestN(p, 5, Float.POSITIVE_INFINITY));
+    }
+  }
+}
@@ -0,0 +1,144 @@
+//   ConcurrentRTreeTest.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307 USA
+
+package com.infomatiq.jsi;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.infomatiq.jsi.rtree.ConcurrentRTree;
+import com.infomatiq.jsi.rtree.RTree;
+
+public class ConcurrentRTreeTest extends RandomTestCase {
+
+  private static final int STABLE_COUNT = 500;
+  private static final int CHURN_START_ID = 1000;
+
+  public ConcurrentRTreeTest(String name) {
+    super(name);
+  }
+
+  public void testQueries() {
+    RTree rtree = new RTree(2, 6);
+    ConcurrentRTree concurrent = new ConcurrentRTree(2, 6);
+    for (int i = 0; i < 1000; i++) {
+      Rectangle rect = randomRect(r, 0, 1000);
+      rtree.add(rect, i);
+      concurrent.add(rect, i);
+    }
+    assertEquals(rtree.size(), concurrent.size());
+    assertEquals(rtree.getBounds(), concurrent.getBounds());
+
+    SortedListDecorator expected = new SortedListDecorator(rtree);
+    SortedListDecorator actual = new SortedListDecorator(concurrent);
+    for (int i = 0; i < 100; i++) {
+      Rectangle query = randomRect(r, 0, 1000);
+      assertEquals(expected.intersects(query), actual.intersects(query));
+      assertEquals(expected.contains(query), actual.contains(query));
+
+      Point p = new Point(r.nextInt(1000), r.nextInt(1000));
+      assertEquals(expected.nearest(p, Float.POSITIVE_INFINITY),
+          actual.nearest(p, Float.POSITIVE_INFINITY));
+      assertEquals(expected.nearestN(p, 10, Float.POSITIVE_INFINITY),
+          actual.nearestN(p, 10, Float.POSITIVE_INFINITY));
+    }
+  }
+
+  /**
+   * Readers query a region of the tree that is never modified, while a
+   * writer continually adds and deletes entries elsewhere. The readers
+   * must always see exactly the unmodified entries.
+   */
+  public void testConcurrentReadersAndWriter() throws InterruptedException {
+    final ConcurrentRTree tree = new ConcurrentRTree(2, 6);
+    for (int i = 0; i < STABLE_COUNT; i++) {
+      tree.add(randomRect(r, 0, 1000), i);
+    }
+
+    final AtomicBoolean stop = new AtomicBoolean(false);
+    final AtomicReference<String> failure = new AtomicReference<>();
+
+    Thread writer = new Thread() {
+      @Override
+      public void run() {
+        Random r = new Random(1);
+        Rectangle[] rects = new Rectangle[200];
+        for (int i = 0; i < rects.length; i++) {
+          rects[i] = randomRect(r, 5000, 1000);
+          tree.add(rects[i], CHURN_START_ID + i);
+        }
+        while (!stop.get()) {
+          int i = r.nextInt(rects.length);
+          if (!tree.delete(rects[i], CHURN_START_ID + i)) {
+            failure.compareAndSet(null, "delete failed");
+          }
+          rects[i] = randomRect(r, 5000, 1000);
+          tree.add(rects[i], CHURN_START_ID + i);
+        }
+      }
+    };
+
+    Thread[] readers = new Thread[4];
+    for (int t = 0; t < readers.length; t++) {
+      readers[t] = new Thread() {
+        @Override
+        public void run() {
+          ListDecorator ld = new ListDecorator(tree);
+          Rectangle stableRegion = new Rectangle(-100, -100, 1100, 1100);
+          Point p = new Point(500, 500);
+          while (!stop.get()) {
+            if (ld.intersects(stableRegion).size() != STABLE_COUNT) {
+              failure.compareAndSet(null, "intersects returned wrong count");
+            }
+            if (ld.contains(stableRegion).size() != STABLE_COUNT) {
+              failure.compareAndSet(null, "contains returned wrong count");
+            }
+            List<Integer> nearest = ld.nearestN(p, 10,
+                Float.POSITIVE_INFINITY);
+            for (int id : nearest) {
+              if (id >= CHURN_START_ID) {
+                failure.compareAndSet(null, "nearestN returned " + id);
+              }
+            }
+          }
+        }
+      };
+    }
+
+    writer.start();
+    for (Thread reader : readers) {
+      reader.start();
+    }
+    Thread.sleep(1000);
+    stop.set(true);
+    writer.join();
+    for (Thread reader : readers) {
+      reader.join();
+    }
+
+    assertNull(failure.get(), failure.get());
+    assertEquals(STABLE_COUNT + 200, tree.size());
+  }
+
+  private static Rectangle randomRect(Random r, int origin, int extent) {
+    float x = origin + r.nextInt(extent - 10);
+    float y = origin + r.nextInt(extent - 10);
+    return new Rectangle(x, y, x + r.nextInt(10), y + r.nextInt(10));
+  }
+}
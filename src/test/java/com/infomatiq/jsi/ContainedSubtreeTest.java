@@ -0,0 +1,119 @@
+//   ContainedSubtreeTest.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.infomatiq.jsi.rtree.RTree;
+import com.slimjars.dist.gnu.trove.list.array.TIntArrayList;
+import com.slimjars.dist.gnu.trove.procedure.TIntProcedure;
+
+/**
+ * Queries with windows large enough to contain whole subtrees, which are
+ * returned without testing each of their entries.
+ */
+public class ContainedSubtreeTest extends RandomTestCase {
+
+  List<Rectangle> rects = new ArrayList<>();
+
+  public ContainedSubtreeTest(String name) {
+    super(name);
+  }
+
+  public void testLargeWindows() {
+    RTree rtree = new RTree(2, 5);
+    for (int i = 0; i < 5000; i++) {
+      rects.add(nextRect(1000));
+      rtree.add(rects.get(i), i);
+    }
+
+    TIntArrayList list = new TIntArrayList();
+    int[] out = new int[5000];
+    for (int i = 0; i < 50; i++) {
+      Rectangle q = nextWindow();
+      List<Integer> intersects = new ArrayList<>();
+      List<Integer> contains = new ArrayList<>();
+      for (int j = 0; j < rects.size(); j++) {
+        if (q.intersects(rects.get(j))) {
+          intersects.add(j);
+        }
+        if (q.contains(rects.get(j))) {
+          contains.add(j);
+        }
+      }
+
+      list.reset();
+      rtree.intersects(q, list::add);
+      assertEquals(intersects, sorted(list.toArray()));
+      list.reset();
+      rtree.contains(q, list::add);
+      assertEquals(contains, sorted(list.toArray()));
+
+      list.reset();
+      assertEquals(intersects.size(), rtree.intersects(q, list));
+      assertEquals(intersects, sorted(list.toArray()));
+      assertEquals(contains.size(), rtree.contains(q, out, 0));
+      assertEquals(contains, sorted(Arrays.copyOf(out, contains.size())));
+      assertEquals(intersects.size(), rtree.count(q));
+
+      // a short array is filled, without writing past its end
+      int[] small = new int[intersects.size() / 2 + 1];
+      assertEquals(intersects.size(), rtree.intersects(q, small, 1));
+      for (int k = 1; k < small.length; k++) {
+        assertTrue(intersects.contains(small[k]));
+      }
+
+      // the query stops as soon as the procedure returns false
+      for (int limit : new int[] { 1, 7, intersects.size() / 2 }) {
+        if (limit > 0 && limit <= contains.size()) {
+          Limit procedure = new Limit(limit);
+          rtree.intersects(q, procedure);
+          assertEquals(limit, procedure.count);
+          procedure = new Limit(limit);
+          rtree.contains(q, procedure);
+          assertEquals(limit, procedure.count);
+        }
+      }
+    }
+  }
+
+  private static class Limit implements TIntProcedure {
+
+    final int limit;
+    int count = 0;
+
+    Limit(int limit) {
+      this.limit = limit;
+    }
+
+    @Override
+    public boolean execute(int id) {
+      count++;
+      return count < limit;
+    }
+  }
+
+  private Rectangle nextWindow() {
+    int x = r.nextInt(800);
+    int y = r.nextInt(800);
+    return new Rectangle(x, y, x + 50 + r.nextInt(400),
+        y + 50 + r.nextInt(400));
+  }
+}
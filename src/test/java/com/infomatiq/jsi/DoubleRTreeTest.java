@@ -0,0 +1,139 @@
+//   DoubleRTreeTest.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.infomatiq.jsi.rtree.DoubleRTree;
+
+public class DoubleRTreeTest extends RandomTestCase {
+
+  // coordinates this far from the origin, at this spacing, are not
+  // distinct as floats
+  private static final double ORIGIN = 1e7;
+  private static final double UNIT = 1e-3;
+
+  public DoubleRTreeTest(String name) {
+    super(name);
+  }
+
+  public void testDoubleRTree() {
+    run(1, 2);
+    run(2, 5);
+    run(20, 50);
+  }
+
+  private void run(int minNodeEntries, int maxNodeEntries) {
+    DoubleRTree rtree = new DoubleRTree(minNodeEntries, maxNodeEntries);
+    assertNull(rtree.getBounds());
+    List<DoubleRectangle> rects = new ArrayList<>();
+    for (int i = 0; i < 3000; i++) {
+      rects.add(nextDoubleRect());
+      rtree.add(rects.get(i), i);
+    }
+    assertEquals(rects.size(), rtree.size());
+    assertTrue(rtree.checkConsistency());
+    compare(rtree, rects);
+
+    // the rectangles are found again exactly
+    for (int i = 0; i < rects.size(); i += 3) {
+      DoubleRectangle rect = rects.get(i);
+      assertFalse(rtree.delete(rect.minX, rect.minY, rect.maxX,
+          rect.maxY + UNIT, i));
+      assertTrue(rtree.delete(rect, i));
+      rects.set(i, null);
+    }
+    assertTrue(rtree.checkConsistency());
+    compare(rtree, rects);
+
+    for (int i = 0; i < rects.size(); i++) {
+      if (rects.get(i) != null) {
+        assertTrue(rtree.delete(rects.get(i), i));
+      }
+    }
+    assertEquals(0, rtree.size());
+    assertNull(rtree.getBounds());
+    assertTrue(rtree.checkConsistency());
+  }
+
+  private void compare(DoubleRTree rtree, List<DoubleRectangle> rects) {
+    for (int q = 0; q < 100; q++) {
+      DoubleRectangle query = nextDoubleRect();
+      List<Integer> intersects = new ArrayList<>();
+      List<Integer> contains = new ArrayList<>();
+      for (int i = 0; i < rects.size(); i++) {
+        DoubleRectangle rect = rects.get(i);
+        if (rect != null && query.intersects(rect)) {
+          intersects.add(i);
+        }
+        if (rect != null && query.contains(rect)) {
+          contains.add(i);
+        }
+      }
+      assertEquals(intersects, sorted(v -> rtree.intersects(query, v)));
+      assertEquals(contains, sorted(v -> rtree.contains(query, v)));
+
+      DoublePoint p = new DoublePoint(query.minX, query.minY);
+      double furthest = 20 * UNIT;
+      List<Integer> nearest = new ArrayList<>();
+      double nearestDistance = furthest;
+      for (int i = 0; i < rects.size(); i++) {
+        DoubleRectangle rect = rects.get(i);
+        if (rect == null) {
+          continue;
+        }
+        double distance = rect.distance(p);
+        if (distance < nearestDistance) {
+          nearestDistance = distance;
+          nearest.clear();
+        }
+        if (distance <= nearestDistance) {
+          nearest.add(i);
+        }
+      }
+      assertEquals(nearest, sorted(v -> rtree.nearest(p, v, furthest)));
+
+      // the nearest 5, as far as the distances differ
+      List<Integer> nearestN = new ArrayList<>();
+      rtree.nearestN(p, id -> {
+        nearestN.add(id);
+        return true;
+      }, 5, Double.POSITIVE_INFINITY);
+      assertTrue(nearestN.size() >= Math.min(5, rtree.size()));
+      double previous = 0;
+      for (int id : nearestN) {
+        double distance = rects.get(id).distance(p);
+        assertTrue(distance >= previous);
+        previous = distance;
+      }
+      for (int i = 0; i < rects.size(); i++) {
+        if (rects.get(i) != null && !nearestN.contains(i)) {
+          assertTrue(rects.get(i).distance(p) > previous);
+        }
+      }
+    }
+  }
+
+  private DoubleRectangle nextDoubleRect() {
+    double x = ORIGIN + r.nextInt(100) * UNIT;
+    double y = ORIGIN + r.nextInt(100) * UNIT;
+    return new DoubleRectangle(x, y, x + r.nextInt(10) * UNIT,
+        y + r.nextInt(10) * UNIT);
+  }
+}
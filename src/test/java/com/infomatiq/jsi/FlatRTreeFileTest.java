@@ -0,0 +1,112 @@
+//   FlatRTreeFileTest.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307 USA
+
+package com.infomatiq.jsi;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import com.infomatiq.jsi.rtree.FlatRTree;
+import com.infomatiq.jsi.rtree.FlatRTreeFile;
+import com.infomatiq.jsi.rtree.RTree;
+
+public class FlatRTreeFileTest extends RandomTestCase {
+
+  Path file;
+
+  public FlatRTreeFileTest(String name) {
+    super(name);
+  }
+
+  @Override
+  protected void setUp() throws IOException {
+    file = Files.createTempFile("jsi", ".rtree");
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  public void testWriteAndOpen() throws IOException {
+    RTree rtree = new RTree(5, 10);
+    for (int i = 0; i < 3000; i++) {
+      rtree.add(nextRect(), i);
+    }
+    FlatRTreeFile.write(rtree, file);
+    FlatRTree mapped = FlatRTreeFile.open(file);
+
+    assertEquals(rtree.size(), mapped.size());
+    assertEquals(rtree.getBounds(), mapped.getBounds());
+
+    SortedListDecorator expected = new SortedListDecorator(rtree);
+    SortedListDecorator actual = new SortedListDecorator(mapped);
+    for (int i = 0; i < 100; i++) {
+      Rectangle query = nextRect();
+      assertEquals(expected.intersects(query), actual.intersects(query));
+      assertEquals(expected.contains(query), actual.contains(query));
+
+      Point p = new Point(r.nextInt(100), r.nextInt(100));
+      assertEquals(expected.nearest(p, Float.POSITIVE_INFINITY),
+          actual.nearest(p, Float.POSITIVE_INFINITY));
+      assertEquals(expected.nearestN(p, 10, Float.POSITIVE_INFINITY),
+          actual.nearestN(p, 10, Float.POSITIVE_INFINITY));
+    }
+  }
+
+  public void testEmptyTree() throws IOException {
+    FlatRTreeFile.write(new RTree(), file);
+    FlatRTree mapped = FlatRTreeFile.open(file);
+    assertEquals(0, mapped.size());
+    assertNull(mapped.getBounds());
+    assertTrue(new ListDecorator(mapped).intersects(
+        new Rectangle(0, 0, 100, 100)).isEmpty());
+  }
+
+  public void testInvalidFiles() throws IOException {
+    Files.write(file, "not an rtree file at all, just some text".getBytes());
+    assertOpenFails();
+
+    RTree rtree = new RTree();
+    for (int i = 0; i < 100; i++) {
+      rtree.add(nextRect(), i);
+    }
+    FlatRTreeFile.write(rtree, file);
+    byte[] bytes = Files.readAllBytes(file);
+
+    // truncated
+    Files.write(file, Arrays.copyOf(bytes, bytes.length - 4));
+    assertOpenFails();
+
+    // unsupported version
+    byte[] newer = bytes.clone();
+    newer[4] = (byte) (FlatRTreeFile.VERSION + 1);
+    Files.write(file, newer);
+    assertOpenFails();
+  }
+
+  private void assertOpenFails() {
+    try {
+      FlatRTreeFile.open(file);
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,96 @@
+//   FlatRTreeTest.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307 USA
+
+package com.infomatiq.jsi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.infomatiq.jsi.rtree.FlatRTree;
+import com.infomatiq.jsi.rtree.RTree;
+
+public class FlatRTreeTest extends RandomTestCase {
+
+  public FlatRTreeTest(String name) {
+    super(name);
+  }
+
+  public void testQueries() {
+    int[] sizes = { 0, 1, 10, 100, 5000 };
+    for (int size : sizes) {
+      run(2, 5, size, true);
+      run(5, 10, size, false);
+      run(20, 50, size, true);
+    }
+  }
+
+  private void run(int minNodeEntries, int maxNodeEntries, int numRects,
+      boolean direct) {
+    RTree rtree = new RTree(minNodeEntries, maxNodeEntries);
+    List<Rectangle> rects = new ArrayList<>();
+    for (int i = 0; i < numRects; i++) {
+      rects.add(nextRect());
+      rtree.add(rects.get(i), i);
+    }
+    // leave the RTree in a state that has had some deletions
+    for (int i = 0; i < numRects; i += 3) {
+      rtree.delete(rects.get(i), i);
+    }
+
+    FlatRTree flat = new FlatRTree(rtree, direct);
+    assertEquals(rtree.size(), flat.size());
+    assertEquals(rtree.getBounds(), flat.getBounds());
+
+    SortedListDecorator expected = new SortedListDecorator(rtree);
+    SortedListDecorator actual = new SortedListDecorator(flat);
+    for (int i = 0; i < 50; i++) {
+      Rectangle query = nextRect();
+      assertEquals(expected.intersects(query), actual.intersects(query));
+      assertEquals(expected.contains(query), actual.contains(query));
+
+      Point p = new Point(r.nextInt(100), r.nextInt(100));
+      assertEquals(expected.nearest(p, Float.POSITIVE_INFINITY),
+          actual.nearest(p, Float.POSITIVE_INFINITY));
+      assertEquals(expected.nearest(p, 2), actual.nearest(p, 2));
+      assertEquals(expected.nearestN(p, 10, Float.POSITIVE_INFINITY),
+          actual.nearestN(p, 10, Float.POSITIVE_INFINITY));
+      assertEquals(expected.nearestN(p, 10, 5), actual.nearestN(p, 10, 5));
+    }
+  }
+
+  public void testIndependentOfRTree() {
+    RTree rtree = new RTree();
+    rtree.add(new Rectangle(0, 0, 1, 1), 1);
+    FlatRTree flat = new FlatRTree(rtree);
+    rtree.add(new Rectangle(0, 0, 2, 2), 2);
+    assertEquals(1, flat.size());
+    assertEquals(new Rectangle(0, 0, 1, 1), flat.getBounds());
+
+    try {
+      flat.add(new Rectangle(0, 0, 1, 1), 3);
+      fail();
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      flat.delete(new Rectangle(0, 0, 1, 1), 1);
+      fail();
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+}
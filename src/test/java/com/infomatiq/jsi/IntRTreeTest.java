@@ -0,0 +1,156 @@
+//   IntRTreeTest.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.infomatiq.jsi.rtree.IntRTree;
+
+public class IntRTreeTest extends RandomTestCase {
+
+  // longitudes in units of 1e-7 degrees, as used by OpenStreetMap, which
+  // are not distinct as floats
+  private static final int ORIGIN = 1790000000;
+
+  public IntRTreeTest(String name) {
+    super(name);
+  }
+
+  public void testIntRTree() {
+    run(1, 2);
+    run(2, 5);
+    run(20, 50);
+  }
+
+  private void run(int minNodeEntries, int maxNodeEntries) {
+    IntRTree rtree = new IntRTree(minNodeEntries, maxNodeEntries);
+    assertNull(rtree.getBounds());
+    List<IntRectangle> rects = new ArrayList<>();
+    for (int i = 0; i < 3000; i++) {
+      rects.add(nextIntRect());
+      rtree.add(rects.get(i), i);
+    }
+    assertEquals(rects.size(), rtree.size());
+    assertTrue(rtree.checkConsistency());
+    compare(rtree, rects);
+
+    // the rectangles are found again exactly
+    for (int i = 0; i < rects.size(); i += 3) {
+      IntRectangle rect = rects.get(i);
+      assertFalse(rtree.delete(rect.minX, rect.minY, rect.maxX,
+          rect.maxY + 1, i));
+      assertTrue(rtree.delete(rect, i));
+      rects.set(i, null);
+    }
+    assertTrue(rtree.checkConsistency());
+    compare(rtree, rects);
+
+    for (int i = 0; i < rects.size(); i++) {
+      if (rects.get(i) != null) {
+        assertTrue(rtree.delete(rects.get(i), i));
+      }
+    }
+    assertEquals(0, rtree.size());
+    assertNull(rtree.getBounds());
+    assertTrue(rtree.checkConsistency());
+  }
+
+  private void compare(IntRTree rtree, List<IntRectangle> rects) {
+    for (int q = 0; q < 100; q++) {
+      IntRectangle query = nextIntRect();
+      List<Integer> intersects = new ArrayList<>();
+      List<Integer> contains = new ArrayList<>();
+      for (int i = 0; i < rects.size(); i++) {
+        IntRectangle rect = rects.get(i);
+        if (rect != null && query.intersects(rect)) {
+          intersects.add(i);
+        }
+        if (rect != null && query.contains(rect)) {
+          contains.add(i);
+        }
+      }
+      assertEquals(intersects, sorted(v -> rtree.intersects(query, v)));
+      assertEquals(contains, sorted(v -> rtree.contains(query, v)));
+
+      IntPoint p = new IntPoint(query.minX, query.minY);
+      List<Integer> nearest = new ArrayList<>();
+      double nearestDistance = Double.POSITIVE_INFINITY;
+      for (int i = 0; i < rects.size(); i++) {
+        IntRectangle rect = rects.get(i);
+        if (rect == null) {
+          continue;
+        }
+        double distance = rect.distance(p);
+        if (distance < nearestDistance) {
+          nearestDistance = distance;
+          nearest.clear();
+        }
+        if (distance <= nearestDistance) {
+          nearest.add(i);
+        }
+      }
+      assertEquals(nearest, sorted(v -> rtree.nearest(p, v,
+          Double.POSITIVE_INFINITY)));
+    }
+  }
+
+  /**
+   * Rectangles spanning the whole range of int coordinates, whose widths,
+   * areas and distances overflow an int.
+   */
+  public void testExtremeCoordinates() {
+    IntRTree rtree = new IntRTree(2, 5);
+    IntRectangle all = new IntRectangle(Integer.MIN_VALUE, Integer.MIN_VALUE,
+        Integer.MAX_VALUE, Integer.MAX_VALUE);
+    rtree.add(all, 0);
+    rtree.add(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE,
+        Integer.MIN_VALUE, 1);
+    rtree.add(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE,
+        Integer.MAX_VALUE, 2);
+    for (int i = 3; i < 100; i++) {
+      rtree.add(nextIntRect(), i);
+    }
+    assertTrue(rtree.checkConsistency());
+    assertEquals(all, rtree.getBounds());
+
+    IntPoint corner = new IntPoint(Integer.MIN_VALUE, Integer.MIN_VALUE);
+    assertEquals(Collections.singletonList(1), sorted(v -> rtree.contains(
+        new IntRectangle(Integer.MIN_VALUE, Integer.MIN_VALUE, 0, 0), v)));
+    assertEquals(Arrays.asList(0, 2), sorted(v -> rtree.intersects(
+        new IntRectangle(Integer.MAX_VALUE, Integer.MAX_VALUE,
+            Integer.MAX_VALUE, Integer.MAX_VALUE), v)));
+    assertEquals(Arrays.asList(0, 1), sorted(v -> rtree.nearestN(
+        corner, v, 2, Double.POSITIVE_INFINITY)));
+    assertEquals(Math.sqrt(2) * ((double) ORIGIN - Integer.MIN_VALUE),
+        new IntRectangle(ORIGIN, ORIGIN, ORIGIN, ORIGIN).distance(corner),
+        1);
+
+    assertTrue(rtree.delete(all, 0));
+    assertTrue(rtree.checkConsistency());
+    assertEquals(99, rtree.size());
+  }
+
+  private IntRectangle nextIntRect() {
+    int x = ORIGIN + r.nextInt(100);
+    int y = ORIGIN + r.nextInt(100);
+    return new IntRectangle(x, y, x + r.nextInt(10), y + r.nextInt(10));
+  }
+}
@@ -0,0 +1,102 @@
+//   NearestIteratorTest.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307 USA
+
+package com.infomatiq.jsi;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.infomatiq.jsi.rtree.NearestIterator;
+import com.infomatiq.jsi.rtree.RTree;
+import com.slimjars.dist.gnu.trove.procedure.TIntProcedure;
+
+public class NearestIteratorTest extends RandomTestCase {
+
+  public NearestIteratorTest(String name) {
+    super(name);
+  }
+
+  public void testAscendingDistance() {
+    RTree rtree = new RTree(2, 5);
+    List<Rectangle> rects = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      rects.add(nextRect());
+      rtree.add(rects.get(i), i);
+    }
+
+    for (int i = 0; i < 50; i++) {
+      Point p = new Point(r.nextInt(120) - 10, r.nextInt(120) - 10);
+      NearestIterator it = rtree.nearestIterator(p);
+      Set<Integer> seen = new HashSet<>();
+      float previous = 0;
+      while (it.hasNext()) {
+        int id = it.nextInt();
+        assertTrue(seen.add(id));
+        assertEquals(rects.get(id).distance(p), it.distance(), 0.0001f);
+        assertTrue(it.distance() >= previous);
+        previous = it.distance();
+      }
+      assertEquals(rects.size(), seen.size());
+    }
+  }
+
+  public void testMatchesNearestN() {
+    RTree rtree = new RTree(5, 10);
+    List<Rectangle> rects = new ArrayList<>();
+    for (int i = 0; i < 3000; i++) {
+      rects.add(nextRect());
+      rtree.add(rects.get(i), i);
+    }
+    for (int i = 0; i < 50; i++) {
+      Point p = new Point(r.nextInt(100), r.nextInt(100));
+
+      // nearestN may return more than 20 ids if there are ties, but the
+      // distances must be the same as the first distances of the iterator
+      final List<Float> expected = new ArrayList<>();
+      rtree.nearestN(p, new TIntProcedure() {
+        @Override
+        public boolean execute(int id) {
+          expected.add(rects.get(id).distance(p));
+          return true;
+        }
+      }, 20, Float.POSITIVE_INFINITY);
+
+      List<Float> actual = new ArrayList<>();
+      NearestIterator it = rtree.nearestIterator(p);
+      for (int j = 0; j < expected.size(); j++) {
+        it.nextInt();
+        actual.add(it.distance());
+      }
+      assertEquals(expected, actual);
+    }
+  }
+
+  public void testEmptyTree() {
+    NearestIterator it = new RTree().nearestIterator(new Point(0, 0));
+    assertFalse(it.hasNext());
+    assertTrue(Float.isNaN(it.distance()));
+    try {
+      it.nextInt();
+      fail();
+    } catch (NoSuchElementException e) {
+      // expected
+    }
+  }
+}
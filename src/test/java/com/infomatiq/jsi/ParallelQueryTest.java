@@ -0,0 +1,95 @@
+//   ParallelQueryTest.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307 USA
+
+package com.infomatiq.jsi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+
+import com.infomatiq.jsi.rtree.RTree;
+
+public class ParallelQueryTest extends RandomTestCase {
+
+  ForkJoinPool pool = new ForkJoinPool(4);
+
+  public ParallelQueryTest(String name) {
+    super(name);
+  }
+
+  @Override
+  protected void tearDown() {
+    pool.shutdown();
+  }
+
+  public void testParallelIntersects() {
+    RTree rtree = new RTree(2, 5);
+    for (int i = 0; i < 5000; i++) {
+      rtree.add(nextRect(), i);
+    }
+    ListDecorator sequential = new ListDecorator(rtree);
+
+    for (int i = 0; i < 100; i++) {
+      Rectangle query = nextRect(100, i % 2 == 0 ? 10 : 100);
+      List<Integer> expected = sequential.intersects(query);
+
+      // the merged buffers are in the same order as a sequential search
+      for (int forkLevel = 1; forkLevel <= 4; forkLevel++) {
+        assertEquals(expected,
+            toList(rtree.parallelIntersects(query, pool, forkLevel)));
+      }
+      assertEquals(expected, toList(rtree.parallelIntersects(query, pool)));
+
+      Collections.sort(expected);
+      for (int forkLevel = 1; forkLevel <= 4; forkLevel++) {
+        assertEquals(expected, consume(rtree, query, forkLevel));
+      }
+    }
+  }
+
+  public void testEmptyTree() {
+    RTree rtree = new RTree();
+    Rectangle query = new Rectangle(0, 0, 100, 100);
+    assertEquals(0, rtree.parallelIntersects(query, pool).length);
+    assertTrue(consume(rtree, query, 1).isEmpty());
+  }
+
+  private List<Integer> consume(RTree rtree, Rectangle query,
+      int forkLevel) {
+    final List<Integer> results = Collections.synchronizedList(
+        new ArrayList<Integer>());
+    rtree.parallelIntersects(query, new IntConsumer() {
+      @Override
+      public void accept(int id) {
+        results.add(id);
+      }
+    }, pool, forkLevel);
+    List<Integer> sorted = new ArrayList<>(results);
+    Collections.sort(sorted);
+    return sorted;
+  }
+
+  private static List<Integer> toList(int[] ids) {
+    List<Integer> list = new ArrayList<>();
+    for (int id : ids) {
+      list.add(id);
+    }
+    return list;
+  }
+}
@@ -18,11 +18,33 @@
 
 package com.infomatiq.jsi;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
 import junit.framework.TestCase;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.infomatiq.jsi.rtree.AngTanSplit;
+import com.infomatiq.jsi.rtree.ConcurrentRTree;
+import com.infomatiq.jsi.rtree.DoubleRTree;
+import com.infomatiq.jsi.rtree.FlatRTree;
+import com.infomatiq.jsi.rtree.GreeneSplit;
+import com.infomatiq.jsi.rtree.IntRTree;
+import com.infomatiq.jsi.rtree.LinearSplit;
+import com.infomatiq.jsi.rtree.Node;
+import com.infomatiq.jsi.rtree.QuadraticSplit;
+import com.infomatiq.jsi.rtree.RStarSplit;
+import com.infomatiq.jsi.rtree.RTree;
+import com.infomatiq.jsi.rtree.SpatialJoin;
+import com.infomatiq.jsi.rtree.SplitStrategy;
+import com.slimjars.dist.gnu.trove.list.array.TIntArrayList;
+import com.slimjars.dist.gnu.trove.procedure.TIntProcedure;
+
 /**
  * PerformanceTest
  * 
@@ -117,4 +139,660 @@ public class PerformanceTest extends TestCase
     // script.run(IndexType.RTREE, 5, 20, "allfunctions-100000",
     // Script.PERFORMANCE);
   }
+
+  /**
+   * Compares loading an RTree by calling add() for each entry with
+   * RTree.bulkLoad(), both for the time taken and for the number of nodes
+   * visited by subsequent intersection queries.
+   */
+  public void testBulkLoad()
+  {
+    bulkLoad("allfunctions-1000");
+    bulkLoad("allfunctions-10000");
+    bulkLoad("allfunctions-100000");
+  }
+
+  private void bulkLoad(String testId)
+  {
+    List<Rectangle> rects = new ArrayList<>();
+    TIntArrayList ids = new TIntArrayList();
+    script.generateRectangles(testId, rects, ids);
+
+    int count = rects.size();
+    float[] minX = new float[count];
+    float[] minY = new float[count];
+    float[] maxX = new float[count];
+    float[] maxY = new float[count];
+    for (int i = 0; i < count; i++) {
+      Rectangle r = rects.get(i);
+      minX[i] = r.minX;
+      minY[i] = r.minY;
+      maxX[i] = r.maxX;
+      maxY[i] = r.maxY;
+    }
+
+    long startTime = System.currentTimeMillis();
+    RTree incremental = new RTree();
+    for (int i = 0; i < count; i++) {
+      incremental.add(rects.get(i), ids.get(i));
+    }
+    long incrementalTime = System.currentTimeMillis() - startTime;
+
+    startTime = System.currentTimeMillis();
+    RTree packed = RTree.bulkLoad(minX, minY, maxX, maxY, ids.toArray());
+    long packedTime = System.currentTimeMillis() - startTime;
+
+    Random random = new Random(0);
+    long incrementalVisits = 0;
+    long packedVisits = 0;
+    for (int i = 0; i < 1000; i++) {
+      float x = (float) random.nextGaussian() * 100000;
+      float y = (float) random.nextGaussian() * 100000;
+      float size = (float) Math.abs(random.nextGaussian()) * 1600;
+      Rectangle query = new Rectangle(x, y, x + size, y + size);
+      incrementalVisits += countIntersectsNodeVisits(incremental, query);
+      packedVisits += countIntersectsNodeVisits(packed, query);
+    }
+
+    log.info(testId + ": " + count + " entries; add() took "
+        + incrementalTime + "ms, bulkLoad() took " + packedTime
+        + "ms; node visits per intersects() query " + incrementalVisits
+        / 1000.0 + " vs " + packedVisits / 1000.0);
+  }
+
+  /**
+   * Compares the split strategies, for the time taken to add the entries,
+   * the number of nodes visited by subsequent intersection queries, and
+   * the overlap between the entries of the internal nodes.
+   */
+  public void testSplitStrategy()
+  {
+    splitStrategy("allfunctions-10000", 5, 10);
+    splitStrategy("allfunctions-10000", 20, 50);
+    splitStrategy("allfunctions-100000", 20, 50);
+  }
+
+  private void splitStrategy(String testId, int minNodeEntries,
+      int maxNodeEntries)
+  {
+    List<Rectangle> rects = new ArrayList<>();
+    TIntArrayList ids = new TIntArrayList();
+    script.generateRectangles(testId, rects, ids);
+
+    SplitStrategy[] splits = new SplitStrategy[] { new LinearSplit(),
+        new QuadraticSplit(), new AngTanSplit(), new GreeneSplit(),
+        new RStarSplit() };
+    for (SplitStrategy split : splits) {
+      RTree rtree = new RTree(minNodeEntries, maxNodeEntries, split);
+      long startTime = System.currentTimeMillis();
+      for (int i = 0; i < rects.size(); i++) {
+        rtree.add(rects.get(i), ids.get(i));
+      }
+      long addTime = System.currentTimeMillis() - startTime;
+
+      Random random = new Random(0);
+      long visits = 0;
+      for (int i = 0; i < 1000; i++) {
+        float x = (float) random.nextGaussian() * 100000;
+        float y = (float) random.nextGaussian() * 100000;
+        float size = (float) Math.abs(random.nextGaussian()) * 1600;
+        visits += countIntersectsNodeVisits(rtree,
+            new Rectangle(x, y, x + size, y + size));
+      }
+
+      log.info(testId + ", " + minNodeEntries + ":" + maxNodeEntries
+          + " entries per node, " + split.getClass().getSimpleName()
+          + ": add() took " + addTime + "ms; node visits per intersects() "
+          + "query " + visits / 1000.0
+          + "; overlap of internal node entries "
+          + (float) internalOverlap(rtree));
+    }
+  }
+
+  /**
+   * The sum, over the internal nodes of an RTree, of the areas of the
+   * intersections of each pair of entries of the node.
+   */
+  private static double internalOverlap(RTree rtree)
+  {
+    double overlap = 0;
+    for (int id = 0; id <= rtree.getHighestUsedNodeId(); id++) {
+      Node n = rtree.getNode(id);
+      if (n == null || n.isLeaf()) {
+        continue;
+      }
+      for (int i = 0; i < n.getEntryCount(); i++) {
+        for (int j = i + 1; j < n.getEntryCount(); j++) {
+          double width = Math.min(n.getEntryMbrMaxX(i), n.getEntryMbrMaxX(j))
+              - Math.max(n.getEntryMbrMinX(i), n.getEntryMbrMinX(j));
+          double height = Math.min(n.getEntryMbrMaxY(i),
+              n.getEntryMbrMaxY(j))
+              - Math.max(n.getEntryMbrMinY(i), n.getEntryMbrMinY(j));
+          if (width > 0 && height > 0) {
+            overlap += width * height;
+          }
+        }
+      }
+    }
+    return overlap;
+  }
+
+  /**
+   * Measures the throughput of a ConcurrentRTree shared by several threads,
+   * for different proportions of writes. Each operation is either an
+   * intersects() or nearestN() query, or a write, which moves one entry by
+   * deleting and re-adding it.
+   */
+  public void testConcurrentThroughput() throws InterruptedException
+  {
+    int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    concurrentThroughput("allfunctions-10000", threads, 0);
+    concurrentThroughput("allfunctions-10000", threads, 1);
+    concurrentThroughput("allfunctions-10000", threads, 10);
+  }
+
+  private void concurrentThroughput(String testId, int threadCount,
+      final int writePercent) throws InterruptedException
+  {
+    List<Rectangle> rects = new ArrayList<>();
+    TIntArrayList ids = new TIntArrayList();
+    script.generateRectangles(testId, rects, ids);
+
+    final ConcurrentRTree tree = new ConcurrentRTree();
+    for (int i = 0; i < rects.size(); i++) {
+      tree.add(rects.get(i), ids.get(i));
+    }
+
+    final long durationMillis = 2000;
+    final long[] ops = new long[threadCount];
+    Thread[] threads = new Thread[threadCount];
+    for (int t = 0; t < threadCount; t++) {
+      final int threadIndex = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run()
+        {
+          Random random = new Random(threadIndex);
+          // each thread moves its own entries, so that deletes never fail
+          int firstId = -1 - threadIndex * 100;
+          Rectangle[] own = new Rectangle[100];
+          for (int i = 0; i < own.length; i++) {
+            own[i] = randomRect(random);
+            tree.add(own[i], firstId - i);
+          }
+          TIntProcedure ignore = new TIntProcedure() {
+            @Override
+            public boolean execute(int id)
+            {
+              return true;
+            }
+          };
+          long count = 0;
+          long end = System.currentTimeMillis() + durationMillis;
+          while (System.currentTimeMillis() < end) {
+            for (int i = 0; i < 100; i++, count++) {
+              if (random.nextInt(100) < writePercent) {
+                int j = random.nextInt(own.length);
+                tree.delete(own[j], firstId - j);
+                own[j] = randomRect(random);
+                tree.add(own[j], firstId - j);
+              } else if (random.nextBoolean()) {
+                tree.intersects(randomRect(random), ignore);
+              } else {
+                Rectangle r = randomRect(random);
+                tree.nearestN(new Point(r.minX, r.minY), ignore, 10,
+                    Float.POSITIVE_INFINITY);
+              }
+            }
+          }
+          ops[threadIndex] = count;
+        }
+      };
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    long total = 0;
+    for (int t = 0; t < threadCount; t++) {
+      threads[t].join();
+      total += ops[t];
+    }
+
+    log.info(testId + ": " + threadCount + " threads, " + writePercent
+        + "% writes: " + (total * 1000 / durationMillis) + " ops/sec");
+  }
+
+  private static Rectangle randomRect(Random random)
+  {
+    float x = (float) random.nextGaussian() * 100000;
+    float y = (float) random.nextGaussian() * 100000;
+    float size = (float) Math.abs(random.nextGaussian()) * 1600;
+    return new Rectangle(x, y, x + size, y + size);
+  }
+
+  /**
+   * Compares an RTree with a FlatRTree copy of it, for memory used and
+   * the time taken by intersects() and nearestN() queries.
+   */
+  public void testFlatRTree()
+  {
+    flatRTree("allfunctions-10000");
+    flatRTree("allfunctions-100000");
+  }
+
+  private void flatRTree(String testId)
+  {
+    List<Rectangle> rects = new ArrayList<>();
+    TIntArrayList ids = new TIntArrayList();
+    script.generateRectangles(testId, rects, ids);
+
+    long heapBefore = usedHeap();
+    RTree rtree = new RTree();
+    for (int i = 0; i < rects.size(); i++) {
+      rtree.add(rects.get(i), ids.get(i));
+    }
+    long rtreeHeap = usedHeap() - heapBefore;
+    FlatRTree flat = new FlatRTree(rtree);
+
+    Rectangle[] queries = new Rectangle[10000];
+    Random random = new Random(0);
+    for (int i = 0; i < queries.length; i++) {
+      queries[i] = randomRect(random);
+    }
+    TIntProcedure ignore = new TIntProcedure() {
+      @Override
+      public boolean execute(int id)
+      {
+        return true;
+      }
+    };
+
+    // repeat to allow the JIT compiler to warm up
+    long rtreeTime = 0;
+    long flatTime = 0;
+    for (int run = 0; run < 3; run++) {
+      rtreeTime = queryTime(rtree, queries, ignore);
+      flatTime = queryTime(flat, queries, ignore);
+    }
+
+    log.info(testId + ": " + rtree.size() + " entries; RTree uses "
+        + rtreeHeap / 1024 + "KB of heap, FlatRTree " + flat.getByteLength()
+        / 1024 + "KB; " + queries.length + " queries took " + rtreeTime
+        + "ms vs " + flatTime + "ms");
+  }
+
+  /**
+   * Compares an RTree with a DoubleRTree and an IntRTree of the same
+   * rectangles, the latter rounded to integers, for memory used and the
+   * time taken by add() and the intersects() and nearestN() queries.
+   */
+  public void testCoordinateTypes()
+  {
+    coordinateTypes("allfunctions-10000");
+    coordinateTypes("allfunctions-100000");
+  }
+
+  private void coordinateTypes(String testId)
+  {
+    List<Rectangle> rects = new ArrayList<>();
+    TIntArrayList ids = new TIntArrayList();
+    script.generateRectangles(testId, rects, ids);
+
+    Rectangle[] queries = new Rectangle[10000];
+    Random random = new Random(0);
+    for (int i = 0; i < queries.length; i++) {
+      queries[i] = randomRect(random);
+    }
+    TIntProcedure ignore = new TIntProcedure() {
+      @Override
+      public boolean execute(int id)
+      {
+        return true;
+      }
+    };
+
+    // repeat to allow the JIT compiler to warm up, measuring the heap
+    // only on the first run, while no trees of a previous run are reachable
+    long rtreeHeap = 0, doubleHeap = 0, intHeap = 0;
+    long rtreeAddTime = 0, doubleAddTime = 0, intAddTime = 0;
+    long rtreeTime = 0, doubleTime = 0, intTime = 0;
+    for (int run = 0; run < 3; run++) {
+      long heapBefore = usedHeap();
+      long startTime = System.currentTimeMillis();
+      RTree rtree = new RTree();
+      for (int i = 0; i < rects.size(); i++) {
+        rtree.add(rects.get(i), ids.get(i));
+      }
+      rtreeAddTime = System.currentTimeMillis() - startTime;
+      if (run == 0) {
+        rtreeHeap = usedHeap() - heapBefore;
+      }
+      rtreeTime = queryTime(rtree, queries, ignore);
+
+      heapBefore = usedHeap();
+      startTime = System.currentTimeMillis();
+      DoubleRTree doubleRTree = new DoubleRTree();
+      for (int i = 0; i < rects.size(); i++) {
+        Rectangle r = rects.get(i);
+        doubleRTree.add(r.minX, r.minY, r.maxX, r.maxY, ids.get(i));
+      }
+      doubleAddTime = System.currentTimeMillis() - startTime;
+      if (run == 0) {
+        doubleHeap = usedHeap() - heapBefore;
+      }
+
+      startTime = System.currentTimeMillis();
+      for (Rectangle query : queries) {
+        doubleRTree.intersects(new DoubleRectangle(query.minX, query.minY,
+            query.maxX, query.maxY), ignore);
+        doubleRTree.nearestN(new DoublePoint(query.minX, query.minY),
+            ignore, 10, Double.POSITIVE_INFINITY);
+      }
+      doubleTime = System.currentTimeMillis() - startTime;
+
+      heapBefore = usedHeap();
+      startTime = System.currentTimeMillis();
+      IntRTree intRTree = new IntRTree();
+      for (int i = 0; i < rects.size(); i++) {
+        Rectangle r = rects.get(i);
+        intRTree.add((int) r.minX, (int) r.minY, (int) r.maxX, (int) r.maxY,
+            ids.get(i));
+      }
+      intAddTime = System.currentTimeMillis() - startTime;
+      if (run == 0) {
+        intHeap = usedHeap() - heapBefore;
+      }
+
+      startTime = System.currentTimeMillis();
+      for (Rectangle query : queries) {
+        intRTree.intersects(new IntRectangle((int) query.minX,
+            (int) query.minY, (int) query.maxX, (int) query.maxY), ignore);
+        intRTree.nearestN(new IntPoint((int) query.minX, (int) query.minY),
+            ignore, 10, Double.POSITIVE_INFINITY);
+      }
+      intTime = System.currentTimeMillis() - startTime;
+      assertEquals(rtree.size(), doubleRTree.size());
+      assertEquals(rtree.size(), intRTree.size());
+    }
+
+    log.info(testId + ": RTree, DoubleRTree, IntRTree use " + rtreeHeap
+        / 1024 + "KB, " + doubleHeap / 1024 + "KB, " + intHeap / 1024
+        + "KB of heap; adding took " + rtreeAddTime + "ms, " + doubleAddTime
+        + "ms, " + intAddTime + "ms; " + queries.length + " queries took "
+        + rtreeTime + "ms, " + doubleTime + "ms, " + intTime + "ms");
+  }
+
+  /**
+   * Compares intersectsBatch() with a loop over intersects(), for a grid
+   * of adjacent tiles covering the bounds of the tree, as used when
+   * rendering map tiles.
+   */
+  public void testIntersectsBatch()
+  {
+    intersectsBatch("allfunctions-100000", 16);
+    intersectsBatch("allfunctions-100000", 64);
+  }
+
+  private void intersectsBatch(String testId, int tilesPerSide)
+  {
+    List<Rectangle> rects = new ArrayList<>();
+    TIntArrayList ids = new TIntArrayList();
+    script.generateRectangles(testId, rects, ids);
+    RTree rtree = new RTree();
+    for (int i = 0; i < rects.size(); i++) {
+      rtree.add(rects.get(i), ids.get(i));
+    }
+
+    Rectangle bounds = rtree.getBounds();
+    int count = tilesPerSide * tilesPerSide;
+    float[] minX = new float[count];
+    float[] minY = new float[count];
+    float[] maxX = new float[count];
+    float[] maxY = new float[count];
+    float width = (bounds.maxX - bounds.minX) / tilesPerSide;
+    float height = (bounds.maxY - bounds.minY) / tilesPerSide;
+    int loopVisits = 0;
+    for (int i = 0; i < count; i++) {
+      minX[i] = bounds.minX + (i % tilesPerSide) * width;
+      minY[i] = bounds.minY + (i / tilesPerSide) * height;
+      maxX[i] = minX[i] + width;
+      maxY[i] = minY[i] + height;
+      loopVisits += countIntersectsNodeVisits(rtree,
+          new Rectangle(minX[i], minY[i], maxX[i], maxY[i]));
+    }
+
+    final int[] results = new int[1];
+    BatchIntProcedure counter = new BatchIntProcedure() {
+      @Override
+      public boolean execute(int queryIndex, int id)
+      {
+        results[0]++;
+        return true;
+      }
+    };
+
+    // repeat to allow the JIT compiler to warm up
+    long loopTime = 0;
+    long batchTime = 0;
+    int loopResults = 0;
+    for (int run = 0; run < 5; run++) {
+      results[0] = 0;
+      long startTime = System.nanoTime();
+      for (int i = 0; i < count; i++) {
+        final int queryIndex = i;
+        rtree.intersects(new Rectangle(minX[i], minY[i], maxX[i], maxY[i]),
+            new TIntProcedure() {
+              @Override
+              public boolean execute(int id)
+              {
+                return counter.execute(queryIndex, id);
+              }
+            });
+      }
+      loopTime = System.nanoTime() - startTime;
+      loopResults = results[0];
+
+      results[0] = 0;
+      startTime = System.nanoTime();
+      rtree.intersectsBatch(minX, minY, maxX, maxY, counter);
+      batchTime = System.nanoTime() - startTime;
+    }
+    assertEquals(loopResults, results[0]);
+
+    log.info(testId + ": " + count + " tiles, " + results[0]
+        + " results; loop over intersects() took " + loopTime / 1000
+        + "us visiting " + loopVisits + " nodes, intersectsBatch() took "
+        + batchTime / 1000 + "us");
+  }
+
+  /**
+   * Compares SpatialJoin, sequential and parallel, with calling
+   * intersects() on one tree for each entry of the other.
+   */
+  public void testSpatialJoin()
+  {
+    List<Rectangle> rectsA = new ArrayList<>();
+    TIntArrayList idsA = new TIntArrayList();
+    script.generateRectangles("allfunctions-100000", rectsA, idsA);
+    RTree a = new RTree();
+    for (int i = 0; i < rectsA.size(); i++) {
+      a.add(rectsA.get(i), idsA.get(i));
+    }
+    Random random = new Random(0);
+    List<Rectangle> rectsB = new ArrayList<>();
+    RTree b = new RTree();
+    for (int i = 0; i < 50000; i++) {
+      rectsB.add(randomRect(random));
+      b.add(rectsB.get(i), i);
+    }
+
+    final AtomicLong pairs = new AtomicLong();
+    IntPairProcedure counter = new IntPairProcedure() {
+      @Override
+      public boolean execute(int idA, int idB)
+      {
+        pairs.incrementAndGet();
+        return true;
+      }
+    };
+    TIntProcedure ignore = new TIntProcedure() {
+      @Override
+      public boolean execute(int id)
+      {
+        pairs.incrementAndGet();
+        return true;
+      }
+    };
+
+    // repeat to allow the JIT compiler to warm up
+    long loopTime = 0;
+    long joinTime = 0;
+    long parallelTime = 0;
+    long loopPairs = 0;
+    long joinPairs = 0;
+    for (int run = 0; run < 3; run++) {
+      pairs.set(0);
+      long startTime = System.currentTimeMillis();
+      for (Rectangle rect : rectsB) {
+        a.intersects(rect, ignore);
+      }
+      loopTime = System.currentTimeMillis() - startTime;
+      loopPairs = pairs.get();
+
+      pairs.set(0);
+      startTime = System.currentTimeMillis();
+      SpatialJoin.intersects(a, b, counter);
+      joinTime = System.currentTimeMillis() - startTime;
+      joinPairs = pairs.get();
+
+      pairs.set(0);
+      startTime = System.currentTimeMillis();
+      SpatialJoin.parallelIntersects(a, b, counter);
+      parallelTime = System.currentTimeMillis() - startTime;
+    }
+    assertEquals(loopPairs, joinPairs);
+    assertEquals(loopPairs, pairs.get());
+
+    log.info("Join of " + a.size() + " x " + b.size() + " entries, "
+        + joinPairs + " pairs: intersects() loop took " + loopTime
+        + "ms, SpatialJoin " + joinTime + "ms, parallel on "
+        + ForkJoinPool.commonPool().getParallelism() + " threads "
+        + parallelTime + "ms");
+  }
+
+  /**
+   * Measures how RTree.parallelIntersects() scales with the number of
+   * threads, for small, medium and huge query windows, compared with
+   * intersects().
+   */
+  public void testParallelIntersects()
+  {
+    Random random = new Random(0);
+    RTree rtree = new RTree();
+    for (int i = 0; i < 1000000; i++) {
+      rtree.add(randomRect(random), i);
+    }
+    Rectangle bounds = rtree.getBounds();
+    float width = bounds.maxX - bounds.minX;
+    float height = bounds.maxY - bounds.minY;
+    Rectangle[] windows = new Rectangle[] {
+        new Rectangle(0, 0, width / 1000, height / 1000),
+        new Rectangle(0, 0, width / 20, height / 20),
+        bounds };
+    String[] names = new String[] { "small", "medium", "huge" };
+
+    final int[] count = new int[1];
+    TIntProcedure counter = new TIntProcedure() {
+      @Override
+      public boolean execute(int id)
+      {
+        count[0]++;
+        return true;
+      }
+    };
+
+    int processors = Runtime.getRuntime().availableProcessors();
+    for (int w = 0; w < windows.length; w++) {
+      Rectangle window = windows[w];
+      int runs = w == 2 ? 5 : 200;
+
+      // repeat to allow the JIT compiler to warm up
+      long sequentialTime = 0;
+      for (int warmup = 0; warmup < 3; warmup++) {
+        long startTime = System.nanoTime();
+        for (int run = 0; run < runs; run++) {
+          count[0] = 0;
+          rtree.intersects(window, counter);
+        }
+        sequentialTime = (System.nanoTime() - startTime) / runs;
+      }
+      StringBuilder timings = new StringBuilder();
+      for (int threads = 1; threads <= processors; threads *= 2) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long parallelTime = 0;
+        int results = 0;
+        for (int warmup = 0; warmup < 3; warmup++) {
+          long startTime = System.nanoTime();
+          for (int run = 0; run < runs; run++) {
+            results = rtree.parallelIntersects(window, pool).length;
+          }
+          parallelTime = (System.nanoTime() - startTime) / runs;
+        }
+        pool.shutdown();
+        assertEquals(count[0], results);
+        timings.append(", " + threads + " threads " + parallelTime / 1000
+            + "us");
+      }
+      log.info("parallelIntersects, " + names[w] + " window, " + count[0]
+          + " results: intersects() " + sequentialTime / 1000 + "us"
+          + timings);
+    }
+  }
+
+  private static long queryTime(SpatialIndex si, Rectangle[] queries,
+      TIntProcedure v)
+  {
+    long startTime = System.currentTimeMillis();
+    for (Rectangle query : queries) {
+      si.intersects(query, v);
+      si.nearestN(new Point(query.minX, query.minY), v, 10,
+          Float.POSITIVE_INFINITY);
+    }
+    return System.currentTimeMillis() - startTime;
+  }
+
+  private static long usedHeap()
+  {
+    Runtime runtime = Runtime.getRuntime();
+    runtime.gc();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /**
+   * Count the nodes that RTree.intersects() visits for the passed
+   * rectangle, by repeating the search using the public Node accessors.
+   */
+  static int countIntersectsNodeVisits(RTree rtree, Rectangle r)
+  {
+    return countIntersectsNodeVisits(rtree,
+        rtree.getNode(rtree.getRootNodeId()), r);
+  }
+
+  private static int countIntersectsNodeVisits(RTree rtree, Node n,
+      Rectangle r)
+  {
+    int visits = 1;
+    if (n.isLeaf()) {
+      return visits;
+    }
+    for (int i = 0; i < n.getEntryCount(); i++) {
+      if (Rectangle.intersects(r.minX, r.minY, r.maxX, r.maxY,
+          n.getEntryMbrMinX(i), n.getEntryMbrMinY(i), n.getEntryMbrMaxX(i),
+          n.getEntryMbrMaxY(i))) {
+        visits += countIntersectsNodeVisits(rtree, rtree.getNode(n.getId(i)),
+            r);
+      }
+    }
+    return visits;
+  }
 }
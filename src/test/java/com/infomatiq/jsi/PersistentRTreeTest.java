@@ -0,0 +1,181 @@
+//   PersistentRTreeTest.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307 USA
+
+package com.infomatiq.jsi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.infomatiq.jsi.rtree.PersistentRTree;
+import com.infomatiq.jsi.rtree.RTreeSnapshot;
+
+public class PersistentRTreeTest extends RandomTestCase {
+
+  public PersistentRTreeTest(String name) {
+    super(name);
+  }
+
+  public void testAddDelete() {
+    run(1, 4);
+    run(2, 5);
+    run(5, 10);
+    run(20, 50);
+  }
+
+  private void run(int minNodeEntries, int maxNodeEntries) {
+    PersistentRTree tree = new PersistentRTree(minNodeEntries,
+        maxNodeEntries);
+    SimpleIndex reference = new SimpleIndex();
+    List<Rectangle> rects = new ArrayList<>();
+
+    for (int i = 0; i < 2000; i++) {
+      Rectangle rect = nextRect();
+      rects.add(rect);
+      tree.add(rect, i);
+      reference.add(rect, i);
+    }
+    assertTrue(tree.snapshot().checkConsistency());
+    compareQueries(reference, tree.snapshot());
+
+    // delete in random order, including entries that do not exist
+    for (int i = 0; i < 1500; i++) {
+      int id = r.nextInt(2000);
+      Rectangle rect = rects.get(id);
+      assertEquals(reference.delete(rect, id), tree.delete(rect, id));
+    }
+    assertEquals(reference.size(), tree.size());
+    assertTrue(tree.snapshot().checkConsistency());
+    compareQueries(reference, tree.snapshot());
+
+    for (int i = 0; i < 2000; i++) {
+      tree.delete(rects.get(i), i);
+    }
+    assertEquals(0, tree.size());
+    assertNull(tree.snapshot().getBounds());
+    assertTrue(tree.snapshot().checkConsistency());
+  }
+
+  public void testSnapshotsAreUnchanged() {
+    PersistentRTree tree = new PersistentRTree(2, 6);
+    List<Rectangle> rects = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      rects.add(nextRect());
+      tree.add(rects.get(i), i);
+    }
+
+    RTreeSnapshot before = tree.snapshot();
+    SortedListDecorator beforeDecorator = new SortedListDecorator(before);
+    Rectangle all = new Rectangle(-10, -10, 200, 200);
+    List<Integer> expected = beforeDecorator.intersects(all);
+
+    for (int i = 0; i < 250; i++) {
+      assertTrue(tree.delete(rects.get(i), i));
+    }
+    for (int i = 500; i < 1000; i++) {
+      tree.add(nextRect(), i);
+    }
+
+    assertEquals(500, before.size());
+    assertEquals(expected, beforeDecorator.intersects(all));
+    assertTrue(before.checkConsistency());
+
+    assertEquals(750, tree.size());
+    assertEquals(750, new ListDecorator(tree.snapshot()).intersects(all)
+        .size());
+    assertTrue(tree.snapshot().checkConsistency());
+  }
+
+  public void testSnapshotIsReadOnly() {
+    PersistentRTree tree = new PersistentRTree();
+    try {
+      tree.snapshot().add(new Rectangle(0, 0, 1, 1), 0);
+      fail();
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      tree.snapshot().delete(new Rectangle(0, 0, 1, 1), 0);
+      fail();
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Each snapshot taken by a reader thread must always contain a
+   * consistent tree, while the writer adds and deletes entries.
+   */
+  public void testConcurrentSnapshots() throws InterruptedException {
+    final PersistentRTree tree = new PersistentRTree(2, 6);
+    final AtomicBoolean stop = new AtomicBoolean(false);
+    final AtomicReference<String> failure = new AtomicReference<>();
+
+    Thread[] readers = new Thread[4];
+    for (int t = 0; t < readers.length; t++) {
+      readers[t] = new Thread() {
+        @Override
+        public void run() {
+          Rectangle all = new Rectangle(-10, -10, 200, 200);
+          while (!stop.get()) {
+            RTreeSnapshot s = tree.snapshot();
+            int count = new ListDecorator(s).intersects(all).size();
+            if (count != s.size()) {
+              failure.compareAndSet(null, "snapshot of size " + s.size()
+                  + " returned " + count + " entries");
+            }
+          }
+        }
+      };
+      readers[t].start();
+    }
+
+    Rectangle[] rects = new Rectangle[300];
+    for (int i = 0; i < 20000; i++) {
+      int id = r.nextInt(rects.length);
+      if (rects[id] != null) {
+        assertTrue(tree.delete(rects[id], id));
+      }
+      rects[id] = nextRect();
+      tree.add(rects[id], id);
+    }
+    stop.set(true);
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    assertNull(failure.get(), failure.get());
+    assertTrue(tree.snapshot().checkConsistency());
+  }
+
+  private void compareQueries(SpatialIndex reference, SpatialIndex si) {
+    SortedListDecorator expected = new SortedListDecorator(reference);
+    SortedListDecorator actual = new SortedListDecorator(si);
+    assertEquals(reference.getBounds(), si.getBounds());
+    for (int i = 0; i < 50; i++) {
+      Rectangle query = nextRect();
+      assertEquals(expected.intersects(query), actual.intersects(query));
+      assertEquals(expected.contains(query), actual.contains(query));
+
+      Point p = new Point(r.nextInt(100), r.nextInt(100));
+      assertEquals(expected.nearest(p, Float.POSITIVE_INFINITY),
+          actual.nearest(p, Float.POSITIVE_INFINITY));
+      assertEquals(expected.nearestN(p, 10, Float.POSITIVE_INFINITY),
+          actual.nearestN(p, 10, Float.POSITIVE_INFINITY));
+    }
+  }
+}
@@ -0,0 +1,210 @@
+//   PublisherTest.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import com.infomatiq.jsi.rtree.RTree;
+import com.slimjars.dist.gnu.trove.list.array.TIntArrayList;
+
+import de.topobyte.jsi.GenericRTree;
+
+/**
+ * The publishers of query results, which search the tree only as far as
+ * their subscribers request.
+ */
+public class PublisherTest extends RandomTestCase {
+
+  RTree rtree = new RTree(2, 5);
+
+  public PublisherTest(String name) {
+    super(name);
+    for (int i = 0; i < 5000; i++) {
+      rtree.add(nextRect(1000), i);
+    }
+  }
+
+  public void testRequests() {
+    for (int i = 0; i < 20; i++) {
+      Rectangle q = nextWindow();
+      TIntArrayList intersects = new TIntArrayList();
+      rtree.intersects(q, intersects::add);
+      TIntArrayList contains = new TIntArrayList();
+      rtree.contains(q, contains::add);
+
+      // everything at once, in batches, and one at a time from onNext()
+      for (long batch : new long[] { Long.MAX_VALUE, 7, 1 }) {
+        Recorder<Integer> recorder = new Recorder<>(batch);
+        rtree.intersectsPublisher(q).subscribe(recorder);
+        while (!recorder.completed) {
+          recorder.subscription.request(batch);
+        }
+        assertEquals(toList(intersects), recorder.items);
+        assertNull(recorder.error);
+
+        recorder = new Recorder<>(batch);
+        rtree.containsPublisher(q).subscribe(recorder);
+        while (!recorder.completed) {
+          recorder.subscription.request(batch);
+        }
+        assertEquals(toList(contains), recorder.items);
+      }
+
+      // exactly as many items as there are results also completes
+      Recorder<Integer> recorder = new Recorder<>(0);
+      rtree.intersectsPublisher(q).subscribe(recorder);
+      recorder.subscription.request(intersects.size() + 1);
+      assertTrue(recorder.completed);
+      assertEquals(intersects.size(), recorder.items.size());
+    }
+  }
+
+  public void testCancel() {
+    Rectangle q = new Rectangle(0, 0, 1000, 1000);
+    for (int cancelAt : new int[] { 1, 10, 2500, 4999 }) {
+      Recorder<Integer> recorder = new Recorder<>(0);
+      recorder.cancelAt = cancelAt;
+      rtree.intersectsPublisher(q).subscribe(recorder);
+      recorder.subscription.request(Long.MAX_VALUE);
+      assertEquals(cancelAt, recorder.items.size());
+      assertFalse(recorder.completed);
+
+      // no more items after a cancel, whatever is requested
+      recorder.subscription.request(10);
+      recorder.subscription.cancel();
+      assertEquals(cancelAt, recorder.items.size());
+      assertFalse(recorder.completed);
+      assertNull(recorder.error);
+    }
+
+    // a cancel between requests
+    Recorder<Integer> recorder = new Recorder<>(0);
+    rtree.intersectsPublisher(q).subscribe(recorder);
+    recorder.subscription.request(100);
+    recorder.subscription.cancel();
+    recorder.subscription.request(100);
+    assertEquals(100, recorder.items.size());
+    assertFalse(recorder.completed);
+  }
+
+  public void testInvalidRequest() {
+    Recorder<Integer> recorder = new Recorder<>(0);
+    rtree.intersectsPublisher(new Rectangle(0, 0, 1000, 1000))
+        .subscribe(recorder);
+    recorder.subscription.request(3);
+    recorder.subscription.request(0);
+    assertTrue(recorder.error instanceof IllegalArgumentException);
+    recorder.subscription.request(3);
+    assertEquals(3, recorder.items.size());
+    assertFalse(recorder.completed);
+  }
+
+  public void testGeneric() {
+    GenericRTree<String> tree = new GenericRTree<>(2, 5);
+    for (int i = 0; i < 500; i++) {
+      tree.add(nextRect(), "e" + i);
+    }
+    Rectangle q = new Rectangle(20, 20, 60, 70);
+    Recorder<String> recorder = new Recorder<>(0);
+    tree.intersectsPublisher(q).subscribe(recorder);
+    recorder.subscription.request(Long.MAX_VALUE);
+    assertTrue(recorder.completed);
+    assertEquals(tree.intersects(q), new HashSet<>(recorder.items));
+
+    recorder = new Recorder<>(0);
+    tree.containsPublisher(q).subscribe(recorder);
+    recorder.subscription.request(Long.MAX_VALUE);
+    assertTrue(recorder.completed);
+    assertEquals(tree.contains(q), new HashSet<>(recorder.items));
+  }
+
+  /**
+   * Records the signals it receives, and checks that they follow the
+   * rules of a subscription.
+   */
+  private static class Recorder<T> implements Flow.Subscriber<T> {
+
+    // if positive, request this many more items each time this many have
+    // been received, from onNext()
+    final long batch;
+    int cancelAt = -1;
+
+    Flow.Subscription subscription;
+    final List<T> items = new ArrayList<>();
+    boolean completed = false;
+    Throwable error = null;
+    long requested = 0;
+    boolean inOnNext = false;
+
+    Recorder(long batch) {
+      this.batch = batch;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      assertNull(this.subscription);
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(T item) {
+      assertFalse("onNext() called recursively", inOnNext);
+      assertFalse(completed);
+      assertNull(error);
+      inOnNext = true;
+      items.add(item);
+      if (items.size() == cancelAt) {
+        subscription.cancel();
+      } else if (batch > 0 && batch < Long.MAX_VALUE
+          && items.size() % batch == 0) {
+        subscription.request(batch);
+      }
+      inOnNext = false;
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      assertFalse(completed);
+      assertNull(error);
+      error = throwable;
+    }
+
+    @Override
+    public void onComplete() {
+      assertFalse(completed);
+      assertNull(error);
+      completed = true;
+    }
+  }
+
+  private static List<Integer> toList(TIntArrayList ids) {
+    List<Integer> list = new ArrayList<>();
+    for (int i = 0; i < ids.size(); i++) {
+      list.add(ids.get(i));
+    }
+    return list;
+  }
+
+  private Rectangle nextWindow() {
+    int x = r.nextInt(1000);
+    int y = r.nextInt(1000);
+    return new Rectangle(x, y, x + r.nextInt(300), y + r.nextInt(300));
+  }
+}
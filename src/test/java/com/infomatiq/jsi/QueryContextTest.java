@@ -0,0 +1,201 @@
+//   QueryContextTest.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.infomatiq.jsi.rtree.ConcurrentRTree;
+import com.infomatiq.jsi.rtree.QueryContext;
+import com.infomatiq.jsi.rtree.RTree;
+import com.slimjars.dist.gnu.trove.procedure.TIntProcedure;
+
+public class QueryContextTest extends RandomTestCase {
+
+  public QueryContextTest(String name) {
+    super(name);
+  }
+
+  private RTree createTree() {
+    RTree rtree = new RTree(2, 5);
+    for (int i = 0; i < 3000; i++) {
+      rtree.add(nextRect(), i);
+    }
+    return rtree;
+  }
+
+  public void testPrimitiveQueries() {
+    RTree rtree = createTree();
+    QueryContext context = new QueryContext();
+    SortedListDecorator expected = new SortedListDecorator(rtree);
+    for (int i = 0; i < 100; i++) {
+      Rectangle q = nextRect();
+      assertEquals(expected.intersects(q), sorted(v -> rtree.intersects(
+          q.minX, q.minY, q.maxX, q.maxY, v)));
+      assertEquals(expected.intersects(q), sorted(v -> rtree.intersects(
+          q.minX, q.minY, q.maxX, q.maxY, v, context)));
+      assertEquals(expected.contains(q), sorted(v -> rtree.contains(
+          q.minX, q.minY, q.maxX, q.maxY, v)));
+      assertEquals(expected.contains(q), sorted(v -> rtree.contains(
+          q.minX, q.minY, q.maxX, q.maxY, v, context)));
+
+      Point p = new Point(q.minX, q.minY);
+      assertEquals(expected.nearest(p, 5), sorted(v -> rtree.nearest(
+          p.x, p.y, v, 5)));
+      assertEquals(expected.nearest(p, 5), sorted(v -> rtree.nearest(
+          p.x, p.y, v, 5, context)));
+      assertEquals(expected.nearestN(p, 10, 20), sorted(v -> rtree.nearestN(
+          p.x, p.y, v, 10, 20)));
+      assertEquals(expected.nearestN(p, 10, 20), sorted(v -> rtree.nearestN(
+          p.x, p.y, v, 10, 20, context)));
+      assertEquals(expected.nearestN(p, 10, 20), sorted(
+          v -> rtree.nearestNUnsorted(p.x, p.y, v, 10, 20)));
+      assertEquals(expected.nearestN(p, 10, 20), sorted(
+          v -> rtree.nearestNUnsorted(p.x, p.y, v, 10, 20, context)));
+    }
+  }
+
+  /**
+   * The queries without a context use one for each thread, so several
+   * threads may make them on the same tree at once.
+   */
+  public void testConcurrentQueries() throws Exception {
+    RTree rtree = createTree();
+    SortedListDecorator expected = new SortedListDecorator(rtree);
+    Rectangle[] queries = new Rectangle[200];
+    List<List<Integer>> contains = new ArrayList<>();
+    List<List<Integer>> nearest = new ArrayList<>();
+    for (int i = 0; i < queries.length; i++) {
+      queries[i] = nextRect();
+      contains.add(expected.contains(queries[i]));
+      nearest.add(expected.nearestN(
+          new Point(queries[i].minX, queries[i].minY), 10, 20));
+    }
+
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(() -> {
+        try {
+          for (int run = 0; run < 10; run++) {
+            for (int i = 0; i < queries.length; i++) {
+              Rectangle q = queries[i];
+              assertEquals(contains.get(i), sorted(v -> rtree.contains(
+                  q.minX, q.minY, q.maxX, q.maxY, v)));
+              assertEquals(nearest.get(i), sorted(v -> rtree.nearestN(
+                  q.minX, q.minY, v, 10, 20)));
+            }
+          }
+        } catch (Throwable e) {
+          failure.compareAndSet(null, e);
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(failure.get());
+  }
+
+  /**
+   * A query made by the procedure of another query, without a context, does
+   * not disturb the outer query, which would otherwise lose its path.
+   */
+  public void testNestedQueries() {
+    RTree rtree = createTree();
+    ConcurrentRTree concurrent = new ConcurrentRTree(rtree);
+    SortedListDecorator expected = new SortedListDecorator(rtree);
+    Rectangle q = new Rectangle(20, 20, 80, 80);
+    Rectangle inner = new Rectangle(0, 0, 30, 30);
+    Point p = new Point(50, 50);
+    int innerCount = expected.intersects(inner).size();
+    for (SpatialIndex index : new SpatialIndex[] { rtree, concurrent }) {
+      assertEquals(expected.intersects(q), sorted(v -> index.intersects(q,
+          id -> {
+            assertEquals(innerCount, sorted(w -> index.intersects(inner, w))
+                .size());
+            return v.execute(id);
+          })));
+      assertEquals(expected.contains(q), sorted(v -> index.contains(q,
+          id -> {
+            index.nearestN(p, w -> true, 10, 20);
+            return v.execute(id);
+          })));
+      assertEquals(expected.nearestN(p, 10, 20), sorted(v -> index.nearestN(
+          p, id -> {
+            index.intersects(inner, w -> true);
+            return v.execute(id);
+          }, 10, 20)));
+    }
+    assertEquals(expected.contains(q), sorted(v -> rtree.contains(q, id -> {
+      assertEquals(innerCount, rtree.count(inner));
+      return v.execute(id);
+    })));
+  }
+
+  /**
+   * Once a context has grown to the size needed by the queries, queries
+   * using it allocate nothing.
+   */
+  public void testNoAllocation() {
+    if (!(ManagementFactory.getThreadMXBean()
+        instanceof com.sun.management.ThreadMXBean)) {
+      return;
+    }
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    if (!threads.isThreadAllocatedMemorySupported()
+        || !threads.isThreadAllocatedMemoryEnabled()) {
+      return;
+    }
+
+    RTree rtree = createTree();
+    QueryContext context = new QueryContext();
+    float[] coordinates = new float[1000];
+    for (int i = 0; i < coordinates.length; i++) {
+      coordinates[i] = r.nextInt(100);
+    }
+    int[] count = new int[1];
+    TIntProcedure counter = id -> {
+      count[0]++;
+      return true;
+    };
+
+    long threadId = Thread.currentThread().getId();
+    long allocated = Long.MAX_VALUE;
+    for (int run = 0; run < 3; run++) {
+      long before = threads.getThreadAllocatedBytes(threadId);
+      for (int i = 0; i + 1 < coordinates.length; i++) {
+        float x = coordinates[i];
+        float y = coordinates[i + 1];
+        rtree.intersects(x, y, x + 10, y + 10, counter, context);
+        rtree.contains(x, y, x + 10, y + 10, counter, context);
+        rtree.nearest(x, y, counter, 10, context);
+        rtree.nearestN(x, y, counter, 10, 20, context);
+        rtree.nearestNUnsorted(x, y, counter, 10, 20, context);
+      }
+      allocated = Math.min(allocated,
+          threads.getThreadAllocatedBytes(threadId) - before);
+    }
+    assertTrue(count[0] > 0);
+    assertEquals(0, allocated);
+  }
+}
@@ -0,0 +1,97 @@
+//   RandomTestCase.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.slimjars.dist.gnu.trove.procedure.TIntProcedure;
+
+/**
+ * Base class of the tests that check queries on random rectangles. Each
+ * test gets a random number generator with the same seed, so that its
+ * rectangles are the same on every run.
+ */
+public abstract class RandomTestCase extends TestCase {
+
+  protected final Random r = new Random(0);
+
+  public RandomTestCase(String name) {
+    super(name);
+  }
+
+  /**
+   * A rectangle with its corner on a 100 x 100 grid, and sides shorter
+   * than 10.
+   */
+  protected Rectangle nextRect() {
+    return nextRect(100, 10);
+  }
+
+  /**
+   * A rectangle with its corner on an extent x extent grid, and sides
+   * shorter than 10.
+   */
+  protected Rectangle nextRect(int extent) {
+    return nextRect(extent, 10);
+  }
+
+  /**
+   * A rectangle with its corner on an extent x extent grid, and sides
+   * shorter than maxSize.
+   */
+  protected Rectangle nextRect(int extent, int maxSize) {
+    int x = r.nextInt(extent);
+    int y = r.nextInt(extent);
+    return new Rectangle(x, y, x + r.nextInt(maxSize), y + r.nextInt(maxSize));
+  }
+
+  protected interface Query {
+    void run(TIntProcedure v);
+  }
+
+  /**
+   * The ids passed to the procedure of a query, in ascending order.
+   */
+  protected static List<Integer> sorted(Query query) {
+    List<Integer> ids = new ArrayList<>();
+    query.run(id -> {
+      ids.add(id);
+      return true;
+    });
+    ids.sort(null);
+    return ids;
+  }
+
+  /**
+   * The ids of an array, in ascending order.
+   */
+  protected static List<Integer> sorted(int[] ids) {
+    int[] copy = ids.clone();
+    Arrays.sort(copy);
+    List<Integer> list = new ArrayList<>();
+    for (int id : copy) {
+      list.add(id);
+    }
+    return list;
+  }
+}
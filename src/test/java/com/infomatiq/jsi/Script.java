@@ -40,6 +40,8 @@ import junit.framework.TestCase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.slimjars.dist.gnu.trove.list.array.TIntArrayList;
+
 /**
  * Script
  */
@@ -127,6 +129,56 @@ public class Script {
     return new Rectangle(x1, y1, x2, y2);
   }
 
+  /**
+   * Generate the rectangles that the addRandom operations of a test script
+   * would add to an index, without running any of the other operations.
+   * Used to compare different ways of loading the same entries.
+   */
+  public void generateRectangles(String testId, List<Rectangle> rects,
+      TIntArrayList ids) {
+    String inputFilename = "/test-inputs" + File.separator + "test-"
+        + testId + "-in";
+    LineNumberReader inputFile = new LineNumberReader(new InputStreamReader(
+        getClass().getResourceAsStream(inputFilename)));
+
+    Random random = new Random();
+    int quantizer = -1;
+
+    try {
+      while (inputFile.ready()) {
+        String inputLine = inputFile.readLine();
+
+        if (inputLine.startsWith("#")) {
+          continue;
+        }
+
+        StringTokenizer st = new StringTokenizer(inputLine);
+        while (st.hasMoreTokens()) {
+          String operation = st.nextToken().toUpperCase();
+          if (operation.equals("DISTANCEQUANTIZER")) {
+            quantizer = Integer.parseInt(st.nextToken());
+          } else if (operation.equals("RANDOMIZE")) {
+            random.setSeed(Integer.parseInt(st.nextToken()));
+          } else if (operation.equals("ADDRANDOM")) {
+            int count = Integer.parseInt(st.nextToken());
+            int startId = Integer.parseInt(st.nextToken());
+            float rectangleSize = Float.parseFloat(st.nextToken());
+
+            for (int id = startId; id < startId + count; id++) {
+              rects.add(getRandomRectangle(random, rectangleSize, canvasSize,
+                  quantizer));
+              ids.add(id);
+            }
+          }
+          break; // ignore the parameters of any other operation
+        }
+      }
+      inputFile.close();
+    } catch (IOException e) {
+      log.error("IOException while reading test script " + inputFilename, e);
+    }
+  }
+
   /**
    * @return Time taken to execute method, in milliseconds.
    */
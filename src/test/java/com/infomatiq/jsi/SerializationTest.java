@@ -0,0 +1,121 @@
+//   SerializationTest.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307 USA
+
+package com.infomatiq.jsi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.infomatiq.jsi.rtree.RTree;
+
+public class SerializationTest extends RandomTestCase {
+
+  public SerializationTest(String name) {
+    super(name);
+  }
+
+  public void testRoundTrip() throws IOException {
+    run(2, 5, 0);
+    run(2, 5, 1);
+    run(5, 10, 3000);
+    run(20, 50, 3000);
+  }
+
+  private void run(int minNodeEntries, int maxNodeEntries, int numRects)
+      throws IOException {
+    RTree rtree = new RTree(minNodeEntries, maxNodeEntries);
+    List<Rectangle> rects = new ArrayList<>();
+    for (int i = 0; i < numRects; i++) {
+      rects.add(nextRect());
+      rtree.add(rects.get(i), i);
+    }
+    // deletions leave deleted node ids to be reused
+    for (int i = 0; i < numRects; i += 2) {
+      rtree.delete(rects.get(i), i);
+    }
+
+    byte[] bytes = write(rtree);
+    RTree copy = read(bytes);
+    assertEquals(rtree.size(), copy.size());
+    assertEquals(rtree.getRootNodeId(), copy.getRootNodeId());
+    assertEquals(rtree.getHighestUsedNodeId(), copy.getHighestUsedNodeId());
+    assertEquals(rtree.getBounds(), copy.getBounds());
+    assertTrue(copy.checkConsistency());
+    assertTrue(Arrays.equals(bytes, write(copy)));
+
+    // the copy must evolve exactly as the original does
+    for (int i = 0; i < numRects; i += 2) {
+      rtree.add(rects.get(i), i);
+      copy.add(rects.get(i), i);
+    }
+    for (int i = 1; i < numRects; i += 4) {
+      assertTrue(rtree.delete(rects.get(i), i));
+      assertTrue(copy.delete(rects.get(i), i));
+    }
+    assertTrue(copy.checkConsistency());
+    assertTrue(Arrays.equals(write(rtree), write(copy)));
+  }
+
+  public void testStreamPosition() throws IOException {
+    RTree rtree = new RTree();
+    rtree.add(new Rectangle(1, 2, 3, 4), 5);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    rtree.write(Channels.newChannel(out));
+    out.write(42);
+
+    ReadableByteChannel channel = Channels.newChannel(
+        new ByteArrayInputStream(out.toByteArray()));
+    RTree copy = RTree.read(channel);
+    assertEquals(1, copy.size());
+
+    // read() must not consume more than was written
+    ByteArrayOutputStream rest = new ByteArrayOutputStream();
+    ByteBuffer buffer = ByteBuffer.allocate(16);
+    while (channel.read(buffer) > 0) {
+      buffer.flip();
+      rest.write(buffer.array(), 0, buffer.limit());
+      buffer.clear();
+    }
+    assertTrue(Arrays.equals(new byte[] { 42 }, rest.toByteArray()));
+  }
+
+  public void testInvalidInput() {
+    try {
+      read(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  private static byte[] write(RTree rtree) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    rtree.write(Channels.newChannel(out));
+    return out.toByteArray();
+  }
+
+  private static RTree read(byte[] bytes) throws IOException {
+    return RTree.read(Channels.newChannel(new ByteArrayInputStream(bytes)));
+  }
+}
@@ -0,0 +1,194 @@
+//   SpatialJoinTest.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307 USA
+
+package com.infomatiq.jsi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.infomatiq.jsi.rtree.RTree;
+import com.infomatiq.jsi.rtree.SpatialJoin;
+
+import de.topobyte.jsi.GenericRTree;
+import de.topobyte.jsi.GenericSpatialJoin;
+import de.topobyte.jsi.PairProcedure;
+
+public class SpatialJoinTest extends RandomTestCase {
+
+  public SpatialJoinTest(String name) {
+    super(name);
+  }
+
+  public void testJoin() {
+    // trees of different heights and node sizes
+    run(2, 5, 500, 5, 10, 2000);
+    run(20, 50, 3000, 2, 4, 300);
+    run(5, 10, 1, 5, 10, 1000);
+    run(5, 10, 0, 5, 10, 1000);
+  }
+
+  private void run(int minA, int maxA, int countA, int minB, int maxB,
+      int countB) {
+    List<Rectangle> rectsA = new ArrayList<>();
+    List<Rectangle> rectsB = new ArrayList<>();
+    RTree a = new RTree(minA, maxA);
+    RTree b = new RTree(minB, maxB);
+    for (int i = 0; i < countA; i++) {
+      rectsA.add(nextRect());
+      a.add(rectsA.get(i), i);
+    }
+    for (int i = 0; i < countB; i++) {
+      rectsB.add(nextRect());
+      b.add(rectsB.get(i), i);
+    }
+
+    List<Long> expected = new ArrayList<>();
+    for (int i = 0; i < countA; i++) {
+      for (int j = 0; j < countB; j++) {
+        if (rectsA.get(i).intersects(rectsB.get(j))) {
+          expected.add(pair(i, j));
+        }
+      }
+    }
+
+    assertEquals(expected, sequentialJoin(a, b));
+    assertEquals(expected, parallelJoin(a, b));
+  }
+
+  public void testSelfJoin() {
+    RTree rtree = new RTree(2, 4);
+    List<Rectangle> rects = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      rects.add(nextRect());
+      rtree.add(rects.get(i), i);
+    }
+    List<Long> pairs = sequentialJoin(rtree, rtree);
+    for (int i = 0; i < rects.size(); i++) {
+      assertTrue(pairs.contains(pair(i, i)));
+    }
+    assertEquals(pairs, parallelJoin(rtree, rtree));
+  }
+
+  public void testEarlyStop() {
+    RTree a = new RTree(2, 4);
+    RTree b = new RTree(2, 4);
+    for (int i = 0; i < 500; i++) {
+      a.add(nextRect(), i);
+      b.add(nextRect(), i);
+    }
+    final int[] calls = new int[1];
+    SpatialJoin.intersects(a, b, new IntPairProcedure() {
+      @Override
+      public boolean execute(int idA, int idB) {
+        calls[0]++;
+        return calls[0] < 10;
+      }
+    });
+    assertEquals(10, calls[0]);
+
+    final AtomicInteger parallelCalls = new AtomicInteger();
+    final AtomicInteger afterStop = new AtomicInteger();
+    SpatialJoin.parallelIntersects(a, b, new IntPairProcedure() {
+      @Override
+      public boolean execute(int idA, int idB) {
+        if (parallelCalls.incrementAndGet() > 10) {
+          afterStop.incrementAndGet();
+        }
+        return parallelCalls.get() < 10;
+      }
+    }, new ForkJoinPool(4));
+    // running tasks may report a few more pairs before they stop
+    assertTrue(afterStop.get() < sequentialJoin(a, b).size() - 10);
+  }
+
+  public void testGenericJoin() {
+    GenericRTree<String> a = new GenericRTree<>(2, 8);
+    GenericRTree<Integer> b = new GenericRTree<>(2, 8);
+    List<Rectangle> rectsA = new ArrayList<>();
+    List<Rectangle> rectsB = new ArrayList<>();
+    for (int i = 0; i < 300; i++) {
+      rectsA.add(nextRect());
+      a.add(rectsA.get(i), "a" + i);
+      rectsB.add(nextRect());
+      b.add(rectsB.get(i), i);
+    }
+
+    Set<String> expected = new HashSet<>();
+    for (int i = 0; i < rectsA.size(); i++) {
+      for (int j = 0; j < rectsB.size(); j++) {
+        if (rectsA.get(i).intersects(rectsB.get(j))) {
+          expected.add("a" + i + "-" + j);
+        }
+      }
+    }
+
+    final Set<String> actual = Collections.synchronizedSet(
+        new HashSet<String>());
+    PairProcedure<String, Integer> collector =
+        new PairProcedure<String, Integer>() {
+          @Override
+          public boolean execute(String s, Integer i) {
+            assertTrue(actual.add(s + "-" + i));
+            return true;
+          }
+        };
+    GenericSpatialJoin.intersects(a, b, collector);
+    assertEquals(expected, actual);
+
+    actual.clear();
+    GenericSpatialJoin.parallelIntersects(a, b, collector,
+        ForkJoinPool.commonPool());
+    assertEquals(expected, actual);
+  }
+
+  private static List<Long> sequentialJoin(RTree a, RTree b) {
+    final List<Long> pairs = new ArrayList<>();
+    SpatialJoin.intersects(a, b, new IntPairProcedure() {
+      @Override
+      public boolean execute(int idA, int idB) {
+        pairs.add(pair(idA, idB));
+        return true;
+      }
+    });
+    Collections.sort(pairs);
+    return pairs;
+  }
+
+  private static List<Long> parallelJoin(RTree a, RTree b) {
+    final List<Long> pairs = Collections.synchronizedList(
+        new ArrayList<Long>());
+    SpatialJoin.parallelIntersects(a, b, new IntPairProcedure() {
+      @Override
+      public boolean execute(int idA, int idB) {
+        pairs.add(pair(idA, idB));
+        return true;
+      }
+    }, new ForkJoinPool(4));
+    List<Long> sorted = new ArrayList<>(pairs);
+    Collections.sort(sorted);
+    return sorted;
+  }
+
+  private static Long pair(int idA, int idB) {
+    return Long.valueOf(((long) idA << 32) | idB);
+  }
+}
@@ -0,0 +1,188 @@
+//   SplitStrategyTest.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307 USA
+
+package com.infomatiq.jsi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.infomatiq.jsi.rtree.AngTanSplit;
+import com.infomatiq.jsi.rtree.GreeneSplit;
+import com.infomatiq.jsi.rtree.LinearSplit;
+import com.infomatiq.jsi.rtree.PersistentRTree;
+import com.infomatiq.jsi.rtree.QuadraticSplit;
+import com.infomatiq.jsi.rtree.RStarSplit;
+import com.infomatiq.jsi.rtree.RTree;
+import com.infomatiq.jsi.rtree.SplitStrategy;
+
+public class SplitStrategyTest extends RandomTestCase {
+
+  public SplitStrategyTest(String name) {
+    super(name);
+  }
+
+  public void testSplits() {
+    SplitStrategy[] splits = new SplitStrategy[] { new LinearSplit(),
+        new QuadraticSplit(), new AngTanSplit(), new GreeneSplit() };
+    for (SplitStrategy split : splits) {
+      run(1, 2, split);
+      run(2, 5, split);
+      run(20, 50, split);
+    }
+  }
+
+  public void testRStarTree() {
+    run(1, 3, new RStarSplit());
+    run(2, 5, new RStarSplit());
+    run(4, 10, new RStarSplit());
+    run(20, 50, new RStarSplit());
+    run(4, 10, new RStarSplit(0));
+  }
+
+  private void run(int minNodeEntries, int maxNodeEntries,
+      SplitStrategy splitStrategy) {
+    RTree rtree = new RTree(minNodeEntries, maxNodeEntries, splitStrategy);
+    assertNotSame(splitStrategy, rtree.getSplitStrategy());
+    assertSame(splitStrategy.getClass(), rtree.getSplitStrategy().getClass());
+    assertEquals(splitStrategy.reinsertFraction(),
+        rtree.getSplitStrategy().reinsertFraction());
+    SimpleIndex simple = new SimpleIndex();
+    List<Rectangle> rects = new ArrayList<>();
+    for (int i = 0; i < 3000; i++) {
+      rects.add(nextRect());
+      rtree.add(rects.get(i), i);
+      simple.add(rects.get(i), i);
+    }
+    assertEquals(rects.size(), rtree.size());
+    assertTrue(rtree.checkConsistency());
+    compare(rtree, simple);
+
+    // deletions reinsert the entries of underfull nodes
+    for (int i = 0; i < rects.size(); i += 3) {
+      assertTrue(rtree.delete(rects.get(i), i));
+      simple.delete(rects.get(i), i);
+    }
+    assertTrue(rtree.checkConsistency());
+    compare(rtree, simple);
+  }
+
+  public void testPersistentRTree() {
+    SplitStrategy[] splits = new SplitStrategy[] { new LinearSplit(),
+        new QuadraticSplit(), new AngTanSplit(), new GreeneSplit(),
+        new RStarSplit() };
+    for (SplitStrategy split : splits) {
+      PersistentRTree tree = new PersistentRTree(2, 5, split);
+      SimpleIndex simple = new SimpleIndex();
+      List<Rectangle> rects = new ArrayList<>();
+      for (int i = 0; i < 3000; i++) {
+        rects.add(nextRect());
+        tree.add(rects.get(i), i);
+        simple.add(rects.get(i), i);
+      }
+      for (int i = 0; i < rects.size(); i += 3) {
+        assertTrue(tree.delete(rects.get(i), i));
+        simple.delete(rects.get(i), i);
+      }
+      assertTrue(tree.snapshot().checkConsistency());
+      compare(tree.snapshot(), simple);
+    }
+  }
+
+  private void compare(SpatialIndex rtree, SimpleIndex simple) {
+    SortedListDecorator expected = new SortedListDecorator(simple);
+    SortedListDecorator actual = new SortedListDecorator(rtree);
+    assertEquals(expected.intersects(new Rectangle(-1, -1, 200, 200)),
+        actual.intersects(new Rectangle(-1, -1, 200, 200)));
+    for (int i = 0; i < 100; i++) {
+      Rectangle query = nextRect();
+      assertEquals(expected.intersects(query), actual.intersects(query));
+      assertEquals(expected.contains(query), actual.contains(query));
+    }
+  }
+
+  /**
+   * Trees given the same strategy split with their own copies of it, so
+   * they can be built on separate threads.
+   */
+  public void testSharedStrategy() throws Exception {
+    SplitStrategy[] splits = new SplitStrategy[] { new LinearSplit(),
+        new QuadraticSplit(), new AngTanSplit(), new GreeneSplit(),
+        new RStarSplit() };
+    List<Rectangle> rects = new ArrayList<>();
+    for (int i = 0; i < 3000; i++) {
+      rects.add(nextRect());
+    }
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    for (SplitStrategy split : splits) {
+      RTree[] trees = new RTree[4];
+      Thread[] threads = new Thread[trees.length];
+      for (int t = 0; t < trees.length; t++) {
+        RTree rtree = new RTree(2, 5, split);
+        trees[t] = rtree;
+        threads[t] = new Thread(() -> {
+          try {
+            for (int i = 0; i < rects.size(); i++) {
+              rtree.add(rects.get(i), i);
+            }
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        });
+        threads[t].start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      assertNull(failure.get());
+      SortedListDecorator expected = new SortedListDecorator(trees[0]);
+      for (RTree rtree : trees) {
+        assertTrue(rtree.checkConsistency());
+        assertEquals(rects.size(), rtree.size());
+        assertEquals(expected.intersects(new Rectangle(-1, -1, 200, 200)),
+            new SortedListDecorator(rtree).intersects(
+                new Rectangle(-1, -1, 200, 200)));
+      }
+    }
+  }
+
+  public void testInvalidSplit() {
+    // a strategy that moves every entry to the new node
+    RTree rtree = new RTree(2, 4, new SplitStrategy() {
+      @Override
+      public void split(float[] minX, float[] minY, float[] maxX,
+          float[] maxY, int count, int minEntries, boolean[] second) {
+        for (int i = 0; i < count; i++) {
+          second[i] = true;
+        }
+      }
+
+      @Override
+      public SplitStrategy copy() {
+        return this;
+      }
+    });
+    try {
+      for (int i = 0; i < 5; i++) {
+        rtree.add(nextRect(), i);
+      }
+      fail();
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,152 @@
+//   StreamQueryTest.java
+//   Java Spatial Index Library
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package com.infomatiq.jsi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
+import com.infomatiq.jsi.rtree.RTree;
+import com.slimjars.dist.gnu.trove.list.array.TIntArrayList;
+
+import de.topobyte.jsi.GenericRTree;
+
+/**
+ * The stream, iterator and spliterator versions of the queries, compared
+ * with the queries that call a procedure.
+ */
+public class StreamQueryTest extends RandomTestCase {
+
+  public StreamQueryTest(String name) {
+    super(name);
+  }
+
+  public void testStreams() {
+    for (RTree rtree : new RTree[] { new RTree(2, 5), new RTree(30, 150) }) {
+      // an empty tree, then one with a single leaf, then several levels
+      checkQueries(rtree);
+      for (int i = 0; i < 3; i++) {
+        rtree.add(nextRect(1000), i);
+      }
+      checkQueries(rtree);
+      for (int i = 3; i < 5000; i++) {
+        rtree.add(nextRect(1000), i);
+      }
+      checkQueries(rtree);
+      Rectangle all = new Rectangle(0, 0, 1010, 1010);
+      assertNotNull(rtree.intersectsStream(all).spliterator().trySplit());
+      assertEquals(5000, rtree.intersectsStream(all).parallel().count());
+    }
+  }
+
+  public void testGeneric() {
+    GenericRTree<String> tree = new GenericRTree<>(2, 5);
+    List<Rectangle> rects = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      rects.add(nextRect(100));
+      tree.add(rects.get(i), "e" + i);
+    }
+    for (int i = 0; i < 50; i++) {
+      Rectangle q = nextWindow(100);
+      assertEquals(tree.intersects(q), tree.intersectsStream(q)
+          .collect(Collectors.toSet()));
+      assertEquals(tree.contains(q), tree.containsStream(q)
+          .collect(Collectors.toSet()));
+    }
+  }
+
+  private void checkQueries(RTree rtree) {
+    TIntArrayList list = new TIntArrayList();
+    for (int i = 0; i < 50; i++) {
+      Rectangle q = nextWindow(1000);
+
+      list.reset();
+      rtree.intersects(q, list::add);
+      int[] intersects = list.toArray();
+      assertTrue(Arrays.equals(intersects,
+          rtree.intersectsStream(q).toArray()));
+      assertTrue(Arrays.equals(intersects,
+          toArray(rtree.intersectsIterator(q))));
+      assertEquals(sorted(intersects),
+          sorted(rtree.intersectsStream(q).parallel().toArray()));
+      assertEquals(sorted(intersects),
+          sorted(splitAll(rtree.intersectsStream(q).spliterator())));
+
+      list.reset();
+      rtree.contains(q, list::add);
+      int[] contains = list.toArray();
+      assertTrue(Arrays.equals(contains, rtree.containsStream(q).toArray()));
+      assertTrue(Arrays.equals(contains,
+          toArray(rtree.containsIterator(q))));
+      assertEquals(sorted(contains),
+          sorted(rtree.containsStream(q).parallel().toArray()));
+
+      // a limited stream returns the first results of the search
+      int limit = intersects.length / 3;
+      assertTrue(Arrays.equals(Arrays.copyOf(intersects, limit),
+          rtree.intersectsStream(q).limit(limit).toArray()));
+    }
+  }
+
+  /**
+   * Split the passed spliterator as far as it goes, and return the results
+   * of all of the parts.
+   */
+  private static int[] splitAll(Spliterator.OfInt spliterator) {
+    TIntArrayList results = new TIntArrayList();
+    List<Spliterator.OfInt> parts = new ArrayList<>();
+    parts.add(spliterator);
+    boolean bulk = false;
+    while (!parts.isEmpty()) {
+      Spliterator.OfInt part = parts.remove(parts.size() - 1);
+      Spliterator.OfInt split = part.trySplit();
+      if (split != null) {
+        parts.add(part);
+        parts.add(split);
+      } else {
+        // alternate between the two ways of consuming the results
+        bulk = !bulk;
+        if (bulk) {
+          part.forEachRemaining((int id) -> results.add(id));
+        } else {
+          while (part.tryAdvance((int id) -> results.add(id))) {
+          }
+        }
+      }
+    }
+    return results.toArray();
+  }
+
+  private static int[] toArray(PrimitiveIterator.OfInt iterator) {
+    TIntArrayList list = new TIntArrayList();
+    while (iterator.hasNext()) {
+      list.add(iterator.nextInt());
+    }
+    return list.toArray();
+  }
+
+  private Rectangle nextWindow(int extent) {
+    int x = r.nextInt(extent);
+    int y = r.nextInt(extent);
+    return new Rectangle(x, y, x + r.nextInt(extent / 2),
+        y + r.nextInt(extent / 2));
+  }
+}
@@ -0,0 +1,132 @@
+//  This file is part of JSI.
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 2.1 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//  Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this library; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package de.topobyte.jsi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.infomatiq.jsi.Rectangle;
+
+public class GenericRTreeSerializationTest extends TestCase
+{
+
+  private static final ElementCodec<String> STRING_CODEC = new ElementCodec<String>() {
+
+    @Override
+    public void write(String element, DataOutput out) throws IOException
+    {
+      out.writeUTF(element);
+    }
+
+    @Override
+    public String read(DataInput in) throws IOException
+    {
+      return in.readUTF();
+    }
+  };
+
+  public GenericRTreeSerializationTest(String name)
+  {
+    super(name);
+  }
+
+  public void testCodec() throws IOException
+  {
+    GenericRTree<String> tree = createTree();
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    tree.write(Channels.newChannel(out), STRING_CODEC);
+    out.write(42);
+    ReadableByteChannel channel = Channels.newChannel(
+        new ByteArrayInputStream(out.toByteArray()));
+    GenericRTree<String> copy = GenericRTree.read(channel, STRING_CODEC);
+
+    compare(tree, copy);
+
+    // read() must not consume more than was written
+    ByteBuffer rest = ByteBuffer.allocate(2);
+    assertEquals(1, channel.read(rest));
+    assertEquals(42, rest.get(0));
+  }
+
+  public void testExternalizable() throws IOException, ClassNotFoundException
+  {
+    GenericRTree<String> tree = createTree();
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(out);
+    oos.writeObject(tree);
+    oos.close();
+
+    ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(
+        out.toByteArray()));
+    @SuppressWarnings("unchecked")
+    GenericRTree<String> copy = (GenericRTree<String>) ois.readObject();
+    ois.close();
+
+    compare(tree, copy);
+  }
+
+  private GenericRTree<String> createTree()
+  {
+    Random r = new Random(0);
+    GenericRTree<String> tree = new GenericRTree<>(2, 8);
+    for (int i = 0; i < 1000; i++) {
+      int x = r.nextInt(100);
+      int y = r.nextInt(100);
+      tree.add(new Rectangle(x, y, x + r.nextInt(10), y + r.nextInt(10)),
+          "element " + i);
+    }
+    return tree;
+  }
+
+  private void compare(GenericRTree<String> tree, GenericRTree<String> copy)
+  {
+    assertEquals(tree.size(), copy.size());
+    assertEquals(tree.getBounds(), copy.getBounds());
+    Random r = new Random(1);
+    for (int i = 0; i < 100; i++) {
+      int x = r.nextInt(100);
+      int y = r.nextInt(100);
+      Rectangle query = new Rectangle(x, y, x + 10, y + 10);
+      assertEquals(tree.intersects(query), copy.intersects(query));
+    }
+
+    // the rectangles of the elements must have been restored, so that
+    // they can be deleted and added again
+    for (String thing : tree.intersects(tree.getBounds())) {
+      Rectangle rect = tree.thingToRect.get(thing);
+      assertEquals(rect, copy.thingToRect.get(thing));
+      assertTrue(copy.delete(rect, thing));
+    }
+    assertEquals(0, copy.size());
+    copy.add(new Rectangle(1, 1, 2, 2), "new");
+    assertEquals(1, copy.intersects(new Rectangle(0, 0, 3, 3)).size());
+  }
+
+}